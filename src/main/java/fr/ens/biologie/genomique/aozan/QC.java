@@ -47,7 +47,6 @@ import fr.ens.biologie.genomique.aozan.collectors.CollectorRegistry;
 import fr.ens.biologie.genomique.aozan.collectors.FastqScreenCollector;
 import fr.ens.biologie.genomique.aozan.collectors.RunInfoCollector;
 import fr.ens.biologie.genomique.aozan.collectors.SamplesheetCollector;
-import fr.ens.biologie.genomique.aozan.fastqc.RuntimePatchFastQC;
 import fr.ens.biologie.genomique.aozan.fastqscreen.GenomeAliases;
 import fr.ens.biologie.genomique.aozan.fastqscreen.GenomeDescriptionCreator;
 import fr.ens.biologie.genomique.aozan.tests.AozanTest;
@@ -58,9 +57,6 @@ import fr.ens.biologie.genomique.aozan.tests.lane.LaneTest;
 import fr.ens.biologie.genomique.aozan.tests.pooledsample.PooledSampleTest;
 import fr.ens.biologie.genomique.aozan.tests.project.ProjectTest;
 import fr.ens.biologie.genomique.aozan.tests.sample.SampleTest;
-import fr.ens.biologie.genomique.eoulsan.EoulsanRuntime;
-import fr.ens.biologie.genomique.eoulsan.data.protocols.DataProtocolService;
-import uk.ac.babraham.FastQC.FastQCConfig;
 
 /**
  * This class is the main QC class.
@@ -400,7 +396,8 @@ public class QC {
    */
   private void init(final Settings settings) throws AozanException {
 
-    // Initialize Genome aliases
+    // Define the settings for genome aliases, the alias file will be loaded on
+    // first use
     GenomeAliases.initialize(settings);
 
     final AozanTestRegistry registry = new AozanTestRegistry();
@@ -424,12 +421,13 @@ public class QC {
 
         if (test != null) {
 
-          // Initialize FastqScreen requirements
+          // Check FastqScreen requirements, the initialization will be done on
+          // first use
           if (!fastqScreenCollectorRequirementInitialized
               && test.getCollectorsNamesRequiered()
                   .contains(FastqScreenCollector.COLLECTOR_NAME)) {
 
-            initFastqScreenCollectorRequirements(settings);
+            GenomeDescriptionCreator.initialize(settings);
             fastqScreenCollectorRequirementInitialized = true;
           }
 
@@ -638,152 +636,6 @@ public class QC {
     }
   }
 
-  /**
-   * Initialize FastQC v0.11.X from configuration Aozan.
-   * @param settings Aozan settings
-   * @throws AozanException if an error occurs when patching FastQC classes.
-   */
-  private void initFastQCCollectorRequirements(final Settings settings)
-      throws AozanException {
-
-    // Define parameters of FastQC
-    System.setProperty("java.awt.headless", "true");
-
-    // Set the number of threads of FastQC at one
-    System.setProperty("fastqc.threads", "1");
-
-    // Contaminant file
-    addSystemProperty(settings, Settings.QC_CONF_FASTQC_CONTAMINANT_FILE_KEY,
-        "fastqc.contaminant_file");
-
-    // Adapter file
-    addSystemProperty(settings, Settings.QC_CONF_FASTQC_ADAPTER_FILE_KEY,
-        "fastqc.adapter_file");
-
-    // Limits file
-    addSystemProperty(settings, Settings.QC_CONF_FASTQC_LIMITS_FILE_KEY,
-        "fastqc.limits_file");
-
-    // Kmer Size
-    addSystemProperty(settings, Settings.QC_CONF_FASTQC_KMER_SIZE_KEY,
-        "fastqc.kmer_size");
-
-    // Set fastQC nogroup
-    addSystemProperty(settings, Settings.QC_CONF_FASTQC_NOGROUP_KEY,
-        "fastqc.nogroup");
-
-    // Set fastQC expgroup
-    addSystemProperty(settings, Settings.QC_CONF_FASTQC_EXPGROUP_KEY,
-        "fastqc.expgroup");
-
-    // Set fastQC format fastq
-    addSystemProperty(settings, Settings.QC_CONF_FASTQC_CASAVA_KEY,
-        "fastqc.casava");
-
-    // Set fastQC nofilter system property
-    addSystemProperty(settings, Settings.QC_CONF_FASTQC_NOFILTER_KEY,
-        "fastqc.nofilter");
-
-    addSystemProperty(settings, Settings.QC_CONF_FASTQC_NANO_KEY,
-        "fastqc.nano");
-
-    // Unzip FastQC report
-    System.setProperty("fastqc.unzip", "false");
-    addSystemProperty(settings, Settings.QC_CONF_FASTQC_UNZIP_REPORT_FILE_KEY,
-        "fastqc.unzip");
-
-    // Patch FastQC classes
-    RuntimePatchFastQC.runPatchFastQC(Boolean
-        .valueOf(settings.get(Settings.QC_CONF_FASTQC_BLAST_ENABLE_KEY)));
-
-    // Initialize FastQCConfig
-    FastQCConfig.getInstance();
-
-    // Fix FastQCConfig
-    if (FastQCConfig.getInstance().do_unzip == null) {
-      FastQCConfig.getInstance().do_unzip = Boolean.FALSE;
-    }
-
-  }
-
-  /**
-   * Initialize initGenomeDescriptionCreator.
-   * @param settings Aozan settings
-   * @throws AozanException if an error occurs while initializing the genome
-   *           aliases
-   */
-  private void initFastqScreenCollectorRequirements(final Settings settings)
-      throws AozanException {
-
-    final fr.ens.biologie.genomique.eoulsan.Settings eoulsanSettings =
-        EoulsanRuntime.getSettings();
-
-    final String genomeDescStoragePath =
-        settings.get(Settings.QC_CONF_FASTQSCREEN_GENOMES_DESC_PATH_KEY);
-
-    final String genomeMapperIndexStoragePath =
-        settings.get(Settings.QC_CONF_FASTQSCREEN_MAPPERS_INDEXES_PATH_KEY);
-
-    final String genomeStoragePath =
-        settings.get(Settings.QC_CONF_FASTQSCREEN_GENOMES_PATH_KEY);
-
-    if (genomeDescStoragePath == null
-        || genomeDescStoragePath.trim().isEmpty()) {
-      throw new AozanException("No "
-          + Settings.QC_CONF_FASTQSCREEN_GENOMES_DESC_PATH_KEY
-          + " property set in Aozan settings to define the path to "
-          + "the genome description files");
-    }
-
-    if (genomeMapperIndexStoragePath == null
-        || genomeMapperIndexStoragePath.trim().isEmpty()) {
-      throw new AozanException("No "
-          + Settings.QC_CONF_FASTQSCREEN_MAPPERS_INDEXES_PATH_KEY
-          + " property set in Aozan settings to define the path to "
-          + "the genome mapper index files");
-    }
-
-    if (genomeStoragePath == null || genomeStoragePath.trim().isEmpty()) {
-      throw new AozanException("No "
-          + Settings.QC_CONF_FASTQSCREEN_GENOMES_PATH_KEY
-          + " property set in Aozan settings to define the path to "
-          + "the genomes files");
-    }
-
-    // Set the values
-    eoulsanSettings.setGenomeDescStoragePath(genomeDescStoragePath);
-    eoulsanSettings
-        .setGenomeMapperIndexStoragePath(genomeMapperIndexStoragePath);
-    eoulsanSettings.setGenomeStoragePath(genomeStoragePath);
-
-    // Set data protocol from Eoulsan not load for Aozan because it needs to add
-    // dependencies
-    DataProtocolService.getInstance().addClassesToNotLoad(Lists.newArrayList(
-        "fr.ens.biologie.genomique.eoulsan.data.protocols.S3DataProtocol",
-        "fr.ens.biologie.genomique.eoulsan.data.protocols.S3NDataProtocol"));
-
-    // Initialize GenomeDescriptionCreator
-    GenomeDescriptionCreator.initialize(
-        settings.get(Settings.QC_CONF_FASTQSCREEN_GENOMES_DESC_PATH_KEY));
-  }
-
-  /**
-   * Add a system properties from Aozan properties.
-   * @param settings Aozan settings
-   * @param keyAozan key in Aozan properties
-   * @param keySystem key in System properties
-   */
-  private static void addSystemProperty(final Settings settings,
-      final String keyAozan, final String keySystem) {
-
-    final String value = settings.get(keyAozan);
-
-    if (value != null && !value.isEmpty()) {
-      System.setProperty(keySystem, value);
-    }
-
-  }
-
   /**
    * Transform a list of collector names in a set collectors objects.
    * @param collectorNames list of collectors names
@@ -930,9 +782,6 @@ public class QC {
     // Create the global settings for collectors and tests
     initGlobalConf(settings);
 
-    // Initialize FastQC requirements
-    initFastQCCollectorRequirements(settings);
-
     // Create tests and collectors
     init(settings);
   }
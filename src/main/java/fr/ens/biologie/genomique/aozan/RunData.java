@@ -901,6 +901,62 @@ public class RunData {
         "undeterminedindices.lane" + lane + ".recoverable.pf.cluster.count");
   }
 
+  /**
+   * Get the raw cluster recovery counts for a sample for each number of
+   * mismatches allowed in the demultiplexing.
+   * @param sampleId the sample id
+   * @return an array with the raw cluster recovery count of the sample for
+   *         0, 1 and 2 mismatches
+   */
+  public long[] getSampleRawClusterRecoveryCountByMismatches(
+      final int sampleId) {
+
+    return getLongArray("undeterminedindices.sample"
+        + sampleId + ".recoverable.raw.cluster.count.by.mismatches");
+  }
+
+  /**
+   * Get the passing filter cluster recovery counts for a sample for each
+   * number of mismatches allowed in the demultiplexing.
+   * @param sampleId the sample id
+   * @return an array with the passing filter cluster recovery count of the
+   *         sample for 0, 1 and 2 mismatches
+   */
+  public long[] getSamplePFClusterRecoveryCountByMismatches(
+      final int sampleId) {
+
+    return getLongArray("undeterminedindices.sample"
+        + sampleId + ".recoverable.pf.cluster.count.by.mismatches");
+  }
+
+  /**
+   * Get the raw cluster counts in conflict for a sample for each number of
+   * mismatches allowed in the demultiplexing.
+   * @param sampleId the sample id
+   * @return an array with the raw cluster count in conflict with other
+   *         samples for 0, 1 and 2 mismatches
+   */
+  public long[] getSampleRawClusterConflictCountByMismatches(
+      final int sampleId) {
+
+    return getLongArray("undeterminedindices.sample"
+        + sampleId + ".conflict.raw.cluster.count.by.mismatches");
+  }
+
+  /**
+   * Get the passing filter cluster counts in conflict for a sample for each
+   * number of mismatches allowed in the demultiplexing.
+   * @param sampleId the sample id
+   * @return an array with the passing filter cluster count in conflict with
+   *         other samples for 0, 1 and 2 mismatches
+   */
+  public long[] getSamplePFClusterConflictCountByMismatches(
+      final int sampleId) {
+
+    return getLongArray("undeterminedindices.sample"
+        + sampleId + ".conflict.pf.cluster.count.by.mismatches");
+  }
+
   //
   // FastqScreen getters
   //
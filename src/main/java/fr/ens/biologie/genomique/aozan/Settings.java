@@ -105,6 +105,12 @@ public final class Settings {
 
   /** Archive samplesheets key. */
   public static final String DEMUX_ARCHIVE_SAMPLESHEETS_KEY = "demux.archive.samplesheets";
+  /** Enable the census of the indexes from the BCL files before demux. */
+  public static final String DEMUX_INDEX_CENSUS_ENABLE_KEY =
+      "demux.index.census.enable";
+  /** Maximal number of tiles by lane for the census of the indexes. */
+  public static final String DEMUX_INDEX_CENSUS_MAX_TILES_KEY =
+      "demux.index.census.max.tiles";
   /** Demultiplex space factor. */
   public static final String DEMUX_SPACE_FACTOR_KEY = "demux.space.factor";
   /** Demultiplex step. */
@@ -283,6 +289,51 @@ public final class Settings {
   /** Collector fastqscreen settings mappers indexes path. */
   public static final String QC_CONF_FASTQSCREEN_MAPPERS_INDEXES_PATH_KEY =
       "qc.conf.fastqscreen.mapper.indexes.path";
+  /** Collector fastqscreen, number of samples to process concurrently. */
+  public static final String QC_CONF_FASTQSCREEN_CONCURRENT_SAMPLES_KEY =
+      "qc.conf.fastqscreen.concurrent.samples";
+  /** Collector fastqscreen, enable the adaptive subset size. */
+  public static final String QC_CONF_FASTQSCREEN_ADAPTIVE_ENABLE_KEY =
+      "qc.conf.fastqscreen.adaptive.enable";
+  /** Collector fastqscreen, reads between two checks in adaptive mode. */
+  public static final String QC_CONF_FASTQSCREEN_ADAPTIVE_INCREMENT_KEY =
+      "qc.conf.fastqscreen.adaptive.increment";
+  /** Collector fastqscreen, maximal confidence interval width. */
+  public static final String QC_CONF_FASTQSCREEN_ADAPTIVE_MAX_CI_WIDTH_KEY =
+      "qc.conf.fastqscreen.adaptive.max.ci.width";
+  /** Collector fastqscreen, map all the samples together. */
+  public static final String QC_CONF_FASTQSCREEN_BATCH_MAPPING_KEY =
+      "qc.conf.fastqscreen.batch.mapping";
+  /** Collector fastqscreen, directory of the unpacked mapper indexes. */
+  public static final String QC_CONF_FASTQSCREEN_MAPPER_INDEX_CACHE_PATH_KEY =
+      "qc.conf.fastqscreen.mapper.index.cache.path";
+  /** Collector fastqscreen, quota of the mapper index cache in GB. */
+  public static final String QC_CONF_FASTQSCREEN_MAPPER_INDEX_CACHE_QUOTA_KEY =
+      "qc.conf.fastqscreen.mapper.index.cache.quota";
+  /** Collector fastqscreen, contaminants of the undetermined prefilter. */
+  public static final String QC_CONF_FASTQSCREEN_PREFILTER_GENOMES_KEY =
+      "qc.conf.fastqscreen.prefilter.genomes";
+  /** Collector fastqscreen, size of the k-mers of the prefilter. */
+  public static final String QC_CONF_FASTQSCREEN_PREFILTER_KMER_SIZE_KEY =
+      "qc.conf.fastqscreen.prefilter.kmer.size";
+  /** Collector fastqscreen, minimal fraction of k-mers of the prefilter. */
+  public static final String QC_CONF_FASTQSCREEN_PREFILTER_MIN_FRACTION_KEY =
+      "qc.conf.fastqscreen.prefilter.min.fraction";
+  /** Collector fastqscreen engine, "mapper" or "kmer". */
+  public static final String QC_CONF_FASTQSCREEN_ENGINE_KEY =
+      "qc.conf.fastqscreen.engine";
+  /** Collector fastqscreen k-mer engine, indexes path. */
+  public static final String QC_CONF_FASTQSCREEN_KMER_INDEXES_PATH_KEY =
+      "qc.conf.fastqscreen.kmer.indexes.path";
+  /** Collector fastqscreen k-mer engine, size of the k-mers. */
+  public static final String QC_CONF_FASTQSCREEN_KMER_SIZE_KEY =
+      "qc.conf.fastqscreen.kmer.size";
+  /** Collector fastqscreen k-mer engine, number of k-mers in a window. */
+  public static final String QC_CONF_FASTQSCREEN_KMER_WINDOW_SIZE_KEY =
+      "qc.conf.fastqscreen.kmer.window.size";
+  /** Collector fastqscreen k-mer engine, minimal number of minimizers hits. */
+  public static final String QC_CONF_FASTQSCREEN_KMER_MIN_HITS_KEY =
+      "qc.conf.fastqscreen.kmer.min.hits";
   /** Collector fastqscreen xsl file. */
   public static final String QC_CONF_FASTQSCREEN_XSL_FILE_KEY =
       "qc.conf.fastqscreen.xsl.file";
@@ -306,6 +357,24 @@ public final class Settings {
   /** Collector undetermined indexed xsl file. */
   public static final String QC_CONF_UNDETERMINED_INDEXED_XSL_FILE_KEY =
       "qc.conf.undetermined.indexed.xsl.file";
+  /** Collector undetermined indexed, number of indexes in bounded mode. */
+  public static final String QC_CONF_UNDETERMINED_HEAVY_HITTERS_TOP_K_KEY =
+      "qc.conf.undetermined.heavy.hitters.top.k";
+  /** Collector undetermined indexed, maximal error in bounded mode. */
+  public static final String QC_CONF_UNDETERMINED_HEAVY_HITTERS_ERROR_KEY =
+      "qc.conf.undetermined.heavy.hitters.error";
+  /** Collector undetermined indexed, threads used to count the indexes. */
+  public static final String QC_CONF_UNDETERMINED_SHARD_THREADS_KEY =
+      "qc.conf.undetermined.shard.threads";
+  /** Collector undetermined indexed, enable the recovery of the clusters. */
+  public static final String QC_CONF_UNDETERMINED_RECOVERY_ENABLE_KEY =
+      "qc.conf.undetermined.recovery.enable";
+  /** Collector undetermined indexed, minimal clusters to recover. */
+  public static final String QC_CONF_UNDETERMINED_RECOVERY_MIN_PF_CLUSTERS_KEY =
+      "qc.conf.undetermined.recovery.min.pf.clusters";
+  /** Collector undetermined indexed, directory of the recovered clusters. */
+  public static final String QC_CONF_UNDETERMINED_RECOVERY_OUTPUT_DIR_KEY =
+      "qc.conf.undetermined.recovery.output.dir";
 
   /**
    * Collector FastQC, process on undetermined indices samples, default at
@@ -322,6 +391,25 @@ public final class Settings {
   public static final String QC_CONF_FASTQC_KEEP_ZIP_REPORT_FILE_KEY =
       "qc.conf.fastqc.keep.zip.report.file";
 
+  /** Collector FastQC, stop reading FASTQ files when verdicts are stable. */
+  public static final String QC_CONF_FASTQC_ADAPTIVE_ENABLE_KEY =
+      "qc.conf.fastqc.adaptive.enable";
+
+  /** Collector FastQC, minimal number of reads to process in adaptive mode. */
+  public static final String QC_CONF_FASTQC_ADAPTIVE_MIN_READS_KEY =
+      "qc.conf.fastqc.adaptive.min.reads";
+
+  /** Collector FastQC, number of reads between two checks of the verdicts. */
+  public static final String QC_CONF_FASTQC_ADAPTIVE_CHECK_INTERVAL_KEY =
+      "qc.conf.fastqc.adaptive.check.interval";
+
+  /**
+   * Collector FastQC, number of consecutive checks with the same verdicts
+   * required to stop reading.
+   */
+  public static final String QC_CONF_FASTQC_ADAPTIVE_STABLE_CHECKS_KEY =
+      "qc.conf.fastqc.adaptive.stable.checks";
+
   /**
    * Collector FastqScreen, process on undetermined indices samples, default at
    * false.
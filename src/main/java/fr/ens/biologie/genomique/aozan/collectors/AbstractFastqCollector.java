@@ -220,6 +220,16 @@ public abstract class AbstractFastqCollector implements Collector {
 
     final boolean isRunPE = data.getRunMode().toUpperCase().equals("PE");
 
+    // Prepare the processing of the samples without saved result
+    final List<FastqSample> samplesToProcess = new ArrayList<>();
+    for (final FastqSample fs : this.fastqSamples) {
+      if (fs.getFastqFiles() != null
+          && !fs.getFastqFiles().isEmpty() && loadResultPart(fs) == null) {
+        samplesToProcess.add(fs);
+      }
+    }
+    prepareSamples(data, samplesToProcess, isRunPE);
+
     RunData resultPart;
     if (this.getThreadsNumber() > 1) {
 
@@ -233,22 +243,7 @@ public abstract class AbstractFastqCollector implements Collector {
           } else {
 
             // Create directory for the sample
-            final File reportDir;
-
-            if (fs.isUndeterminedIndex()) {
-              reportDir =
-                  new File(this.qcReportOutputPath, "Undetermined_indices");
-            } else {
-              reportDir = new File(this.qcReportOutputPath,
-                  "Project_" + fs.getProjectName());
-            }
-
-            if (!reportDir.exists()) {
-              if (!reportDir.mkdirs()) {
-                throw new AozanException("Cannot create report directory: "
-                    + reportDir.getAbsolutePath());
-              }
-            }
+            final File reportDir = createReportDir(fs);
 
             final AbstractFastqProcessThread thread =
                 this.collectSample(data, fs, reportDir, isRunPE);
@@ -293,22 +288,7 @@ public abstract class AbstractFastqCollector implements Collector {
           if (resultPart == null) {
 
             // Create directory for the sample
-            final File reportDir;
-
-            if (fs.isUndeterminedIndex()) {
-              reportDir =
-                  new File(this.qcReportOutputPath, "Undetermined_indices");
-            } else {
-              reportDir = new File(this.qcReportOutputPath,
-                  "Project_" + fs.getProjectName());
-            }
-
-            if (!reportDir.exists()) {
-              if (!reportDir.mkdirs()) {
-                throw new AozanException("Cannot create report directory: "
-                    + reportDir.getAbsolutePath());
-              }
-            }
+            final File reportDir = createReportDir(fs);
 
             final AbstractFastqProcessThread pseudoThread =
                 this.collectSample(data, fs, reportDir, isRunPE);
@@ -336,6 +316,47 @@ public abstract class AbstractFastqCollector implements Collector {
 
   }
 
+  /**
+   * Prepare the processing of the samples before the creation of the process
+   * threads. By default, nothing is done.
+   * @param data result data object
+   * @param samples the samples to process
+   * @param isRunPE true if it is a run PE else false
+   * @throws AozanException if an error occurs while preparing the samples
+   */
+  protected void prepareSamples(final RunData data,
+      final List<FastqSample> samples, final boolean isRunPE)
+      throws AozanException {
+  }
+
+  /**
+   * Create the report directory of a sample if not exists.
+   * @param fastqSample sample object
+   * @return the report directory of the sample
+   * @throws AozanException if the directory cannot be created
+   */
+  protected File createReportDir(final FastqSample fastqSample)
+      throws AozanException {
+
+    final File reportDir;
+
+    if (fastqSample.isUndeterminedIndex()) {
+      reportDir = new File(this.qcReportOutputPath, "Undetermined_indices");
+    } else {
+      reportDir = new File(this.qcReportOutputPath,
+          "Project_" + fastqSample.getProjectName());
+    }
+
+    if (!reportDir.exists()) {
+      if (!reportDir.mkdirs()) {
+        throw new AozanException("Cannot create report directory: "
+            + reportDir.getAbsolutePath());
+      }
+    }
+
+    return reportDir;
+  }
+
   /**
    * Delete all temporaries files (fastq tmp files and map files).
    */
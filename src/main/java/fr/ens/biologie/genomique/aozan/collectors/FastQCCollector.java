@@ -30,6 +30,7 @@ import fr.ens.biologie.genomique.aozan.Common;
 import fr.ens.biologie.genomique.aozan.QC;
 import fr.ens.biologie.genomique.aozan.RunData;
 import fr.ens.biologie.genomique.aozan.Settings;
+import fr.ens.biologie.genomique.aozan.fastqc.FastQCRuntime;
 import fr.ens.biologie.genomique.aozan.fastqc.OverrepresentedSequencesBlast;
 import fr.ens.biologie.genomique.aozan.io.FastqSample;
 
@@ -49,6 +50,11 @@ public class FastQCCollector extends AbstractFastqCollector {
   private int numberThreads = Runtime.getRuntime().availableProcessors();
   private boolean isProcessUndeterminedIndicesSamples = false;
   private boolean keepZipReportFile;
+  private boolean adaptive;
+  private int adaptiveMinReads;
+  private int adaptiveCheckInterval;
+  private int adaptiveStableChecks;
+  private Settings settings;
 
   @Override
   public String getName() {
@@ -61,6 +67,8 @@ public class FastQCCollector extends AbstractFastqCollector {
 
     super.configure(qc, conf);
 
+    this.settings = qc.getSettings();
+
     // Set the number of threads
     if (conf.containsKey(Settings.QC_CONF_THREADS_KEY)) {
 
@@ -82,12 +90,31 @@ public class FastQCCollector extends AbstractFastqCollector {
     this.keepZipReportFile =
         conf.getBoolean(Settings.QC_CONF_FASTQC_KEEP_ZIP_REPORT_FILE_KEY, true);
 
+    // Adaptive mode: stop reading FASTQ files when the verdicts are stable
+    this.adaptive =
+        conf.getBoolean(Settings.QC_CONF_FASTQC_ADAPTIVE_ENABLE_KEY, false);
+    this.adaptiveMinReads = Math.max(0,
+        conf.getInt(Settings.QC_CONF_FASTQC_ADAPTIVE_MIN_READS_KEY, 500000));
+    this.adaptiveCheckInterval = Math.max(1, conf.getInt(
+        Settings.QC_CONF_FASTQC_ADAPTIVE_CHECK_INTERVAL_KEY, 100000));
+    this.adaptiveStableChecks = Math.max(1,
+        conf.getInt(Settings.QC_CONF_FASTQC_ADAPTIVE_STABLE_CHECKS_KEY, 3));
+
     // Check if step blast needed and configure
     OverrepresentedSequencesBlast.getInstance().configure(conf,
         qc.getSettings().get(Settings.DOCKER_URI_KEY));
 
   }
 
+  @Override
+  public void collect(final RunData data) throws AozanException {
+
+    // Patch FastQC classes only when the collector is really executed
+    FastQCRuntime.initialize(this.settings);
+
+    super.collect(data);
+  }
+
   @Override
   public AbstractFastqProcessThread collectSample(final RunData data,
       final FastqSample fastqSample, final File reportDir, final boolean runPE)
@@ -102,7 +129,8 @@ public class FastQCCollector extends AbstractFastqCollector {
 
     // Create the thread object
     return new FastQCProcessThread(fastqSample, INGORE_FILTERED_SEQUENCES,
-        reportDir, this.keepZipReportFile);
+        reportDir, this.keepZipReportFile, this.adaptive, this.adaptiveMinReads,
+        this.adaptiveCheckInterval, this.adaptiveStableChecks);
   }
 
   //
@@ -23,10 +23,15 @@
 
 package fr.ens.biologie.genomique.aozan.collectors;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -36,8 +41,15 @@ import com.google.common.collect.Lists;
 
 import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.aozan.fastqc.AdapterContentModule;
+import fr.ens.biologie.genomique.aozan.fastqc.PerTileQualityModule;
 import fr.ens.biologie.genomique.aozan.io.FastqSample;
+import uk.ac.babraham.FastQC.Modules.AdapterContent;
+import uk.ac.babraham.FastQC.Modules.BasicStats;
+import uk.ac.babraham.FastQC.Modules.DuplicationLevel;
 import uk.ac.babraham.FastQC.Modules.ModuleFactory;
+import uk.ac.babraham.FastQC.Modules.OverRepresentedSeqs;
+import uk.ac.babraham.FastQC.Modules.PerTileQualityScores;
 import uk.ac.babraham.FastQC.Modules.QCModule;
 import uk.ac.babraham.FastQC.Report.HTMLReportArchive;
 import uk.ac.babraham.FastQC.Sequence.Sequence;
@@ -62,7 +74,14 @@ class FastQCProcessThread extends AbstractFastqProcessThread {
   private final File reportDir;
   private final boolean keepZipReportFile;
 
+  // Adaptive mode: stop reading when the verdicts of the modules are stable
+  private final boolean adaptive;
+  private final int adaptiveMinReads;
+  private final int adaptiveCheckInterval;
+  private final int adaptiveStableChecks;
+
   private int processedReads;
+  private boolean stoppedEarly;
 
   @Override
   protected void logThreadStart() {
@@ -90,46 +109,217 @@ class FastQCProcessThread extends AbstractFastqProcessThread {
   protected void processSequences(final SequenceFile seqFile)
       throws AozanException {
 
-    final boolean ignoreFiltered = this.ignoreFilteredSequences;
-    final List<QCModule> modules = this.moduleList;
-    this.processedReads = 0;
+    try {
+
+      this.processedReads = readSequences(seqFile, this.moduleList,
+          this.ignoreFilteredSequences, this.adaptive, this.adaptiveMinReads,
+          this.adaptiveCheckInterval, this.adaptiveStableChecks);
+      this.stoppedEarly = this.adaptive && seqFile.hasNext();
+
+      if (this.stoppedEarly) {
+        LOGGER.fine("FASTQC: verdicts are stable after "
+            + this.processedReads + " reads, stop reading "
+            + getFastqSample().getFilenamePrefix());
+
+        // The basic statistics are computed on all the reads
+        processRemainingSequences(seqFile, this.moduleList,
+            this.ignoreFilteredSequences);
+      }
+
+      // Process results
+      processResults();
+
+      // Keep module data is now unnecessary
+      this.moduleList.clear();
+
+    } catch (final SequenceFormatException e) {
+      throw new AozanException(e);
+    }
+
+  }
+
+  /**
+   * Read the sequences of a file and process them by FastQC modules. In
+   * adaptive mode, the verdicts of the modules are computed every check
+   * interval reads once the minimal number of reads has been processed, and
+   * the reading stops when they have not changed for a number of consecutive
+   * checks. The reading never stops if the verdict of a module of the report
+   * cannot be probed, as the module would otherwise get truncated input
+   * without being checked.
+   * @param seqFile input file
+   * @param modules the modules
+   * @param ignoreFiltered ignore filtered sequences
+   * @param adaptive enable the adaptive mode
+   * @param minReads minimal number of reads to process in adaptive mode
+   * @param checkInterval number of reads between two checks of the verdicts
+   * @param stableChecks number of consecutive checks with the same verdicts
+   *          required to stop reading
+   * @return the number of processed reads
+   * @throws SequenceFormatException if an error occurs while reading the file
+   */
+  static int readSequences(final SequenceFile seqFile,
+      final List<QCModule> modules, final boolean ignoreFiltered,
+      final boolean adaptive, final int minReads, final int checkInterval,
+      final int stableChecks) throws SequenceFormatException {
+
+    int processedReads = 0;
+    int[] lastVerdicts = null;
+    int stable = 0;
 
     // Reset modules
     for (final QCModule module : modules) {
       module.reset();
     }
 
-    try {
+    // All the modules of the report must be probed to stop reading
+    final List<QCModule> probedModules = new ArrayList<>();
+    boolean allProbeable = true;
+    if (adaptive) {
+      for (final QCModule module : modules) {
 
-      while (seqFile.hasNext()) {
+        if (module.ignoreInReport()) {
+          continue;
+        }
+
+        if (isProbeable(module)) {
+          probedModules.add(module);
+        } else {
+          allProbeable = false;
+        }
+      }
+    }
+    final boolean check = allProbeable && !probedModules.isEmpty();
 
-        final Sequence seq = seqFile.next();
+    while (seqFile.hasNext()) {
 
-        boolean processed = false;
+      final Sequence seq = seqFile.next();
 
-        for (final QCModule module : modules) {
+      boolean processed = false;
 
-          if (ignoreFiltered && module.ignoreFilteredSequences()) {
-            continue;
-          }
-          processed = true;
-          module.processSequence(seq);
+      for (final QCModule module : modules) {
+
+        if (ignoreFiltered && module.ignoreFilteredSequences()) {
+          continue;
         }
-        if (processed) {
-          this.processedReads++;
+        processed = true;
+        module.processSequence(seq);
+      }
+      if (processed) {
+        processedReads++;
+      }
+
+      // In adaptive mode, check periodically if the verdicts have changed
+      if (processed
+          && check && processedReads >= minReads
+          && processedReads % checkInterval == 0) {
+
+        final int[] verdicts = computeVerdicts(probedModules);
+
+        if (Arrays.equals(verdicts, lastVerdicts)) {
+          stable++;
+        } else {
+          stable = 0;
+        }
+        lastVerdicts = verdicts;
+
+        if (stable >= stableChecks) {
+          break;
         }
       }
+    }
 
-      // Process results
-      processResults();
+    return processedReads;
+  }
 
-      // Keep module data is now unnecessary
-      this.moduleList.clear();
+  /**
+   * Process the remaining sequences of a file by the basic statistics modules
+   * only, after an early stop of the reading. The total number of sequences
+   * of the report remains the number of sequences of the file.
+   * @param seqFile input file
+   * @param modules the modules
+   * @param ignoreFiltered ignore filtered sequences
+   * @throws SequenceFormatException if an error occurs while reading the file
+   */
+  static void processRemainingSequences(final SequenceFile seqFile,
+      final List<QCModule> modules, final boolean ignoreFiltered)
+      throws SequenceFormatException {
 
-    } catch (final SequenceFormatException e) {
-      throw new AozanException(e);
+    final List<QCModule> basicStatsModules = new ArrayList<>();
+    for (final QCModule module : modules) {
+      if (module instanceof BasicStats
+          && !(ignoreFiltered && module.ignoreFilteredSequences())) {
+        basicStatsModules.add(module);
+      }
     }
 
+    while (seqFile.hasNext()) {
+
+      final Sequence seq = seqFile.next();
+
+      for (final QCModule module : basicStatsModules) {
+        module.processSequence(seq);
+      }
+    }
+  }
+
+  /**
+   * Test if the verdict of a module can be computed while the reads are
+   * processed. The FastQC modules with a "calculated" or a "frozen" flag
+   * compute their results only once (e.g. the overrepresented sequences
+   * module clears its sequences and the duplication level module freezes its
+   * levels), so computing their verdicts would alter the final results. The
+   * Aozan modules reset their flag on each read.
+   * @param module the module
+   * @return true if the verdict of the module can be computed at any time
+   */
+  static boolean isProbeable(final QCModule module) {
+
+    if (module instanceof AdapterContentModule
+        || module instanceof PerTileQualityModule) {
+      return true;
+    }
+
+    if (module instanceof OverRepresentedSeqs
+        || module instanceof DuplicationLevel) {
+      return false;
+    }
+
+    for (Class<?> c = module.getClass(); c != null
+        && c != Object.class; c = c.getSuperclass()) {
+
+      for (final Field field : c.getDeclaredFields()) {
+        if ("calculated".equals(field.getName())
+            || "frozen".equals(field.getName())) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Compute the current verdicts of the modules.
+   * @param modules the modules
+   * @return an array with the verdict of each module: 0 for pass, 1 for warning
+   *         and 2 for error
+   */
+  private static int[] computeVerdicts(final List<QCModule> modules) {
+
+    final int[] result = new int[modules.size()];
+
+    for (int i = 0; i < result.length; i++) {
+
+      final QCModule module = modules.get(i);
+
+      if (module.raisesError()) {
+        result[i] = 2;
+      } else if (module.raisesWarning()) {
+        result[i] = 1;
+      }
+    }
+
+    return result;
   }
 
   /**
@@ -141,6 +331,12 @@ class FastQCProcessThread extends AbstractFastqProcessThread {
     // Set the prefix for the run data entries
     final String prefix = "fastqc" + getFastqSample().getRundataPrefix();
 
+    if (this.adaptive) {
+      getResults().put(prefix + ".adaptive.processed.reads",
+          this.processedReads);
+      getResults().put(prefix + ".adaptive.stopped.early", this.stoppedEarly);
+    }
+
     if (this.processedReads > 0) {
 
       // Fill the run data object
@@ -231,11 +427,46 @@ class FastQCProcessThread extends AbstractFastqProcessThread {
       final boolean ignoreFilteredSequences, final File reportDir,
       final boolean keepZipReportFile) throws AozanException {
 
+    this(fastqSample, ignoreFilteredSequences, reportDir, keepZipReportFile,
+        false, 0, 1, 1);
+  }
+
+  /**
+   * Thread constructor.
+   * @param fastqSample the sample to process
+   * @param ignoreFilteredSequences ignore filtered sequences
+   * @param reportDir the report directory
+   * @param keepZipReportFile keep the zip report file
+   * @param adaptive enable the adaptive mode
+   * @param adaptiveMinReads minimal number of reads to process in adaptive
+   *          mode
+   * @param adaptiveCheckInterval number of reads between two checks of the
+   *          verdicts
+   * @param adaptiveStableChecks number of consecutive checks with the same
+   *          verdicts required to stop reading
+   * @throws AozanException if an error occurs while creating sequence file for
+   *           FastQC
+   */
+  public FastQCProcessThread(final FastqSample fastqSample,
+      final boolean ignoreFilteredSequences, final File reportDir,
+      final boolean keepZipReportFile, final boolean adaptive,
+      final int adaptiveMinReads, final int adaptiveCheckInterval,
+      final int adaptiveStableChecks) throws AozanException {
+
     super(fastqSample);
 
+    checkArgument(adaptiveCheckInterval > 0,
+        "adaptiveCheckInterval must be greater than 0");
+    checkArgument(adaptiveStableChecks > 0,
+        "adaptiveStableChecks must be greater than 0");
+
     this.ignoreFilteredSequences = ignoreFilteredSequences;
     this.reportDir = reportDir;
     this.keepZipReportFile = keepZipReportFile;
+    this.adaptive = adaptive;
+    this.adaptiveMinReads = adaptiveMinReads;
+    this.adaptiveCheckInterval = adaptiveCheckInterval;
+    this.adaptiveStableChecks = adaptiveStableChecks;
 
     try {
       this.seqFile = SequenceFactory.getSequenceFile(fastqSample.getFastqFiles()
@@ -247,6 +478,16 @@ class FastQCProcessThread extends AbstractFastqProcessThread {
 
     // Define modules list
     this.moduleList = Lists.newArrayList(ModuleFactory.getStandardModuleList());
+
+    // Replace the FastQC adapter content and per tile quality modules by the
+    // Aozan implementations
+    for (int i = 0; i < this.moduleList.size(); i++) {
+      if (this.moduleList.get(i) instanceof AdapterContent) {
+        this.moduleList.set(i, new AdapterContentModule());
+      } else if (this.moduleList.get(i) instanceof PerTileQualityScores) {
+        this.moduleList.set(i, new PerTileQualityModule());
+      }
+    }
   }
 
 }
@@ -30,10 +30,12 @@ import java.util.List;
 import java.util.Set;
 
 import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.aozan.AozanRuntimeException;
 import fr.ens.biologie.genomique.aozan.QC;
 import fr.ens.biologie.genomique.aozan.RunData;
 import fr.ens.biologie.genomique.aozan.Settings;
 import fr.ens.biologie.genomique.aozan.fastqscreen.FastqScreen;
+import fr.ens.biologie.genomique.aozan.fastqscreen.KmerScreener;
 import fr.ens.biologie.genomique.aozan.io.FastqSample;
 
 /**
@@ -49,12 +51,17 @@ public class FastqScreenCollector extends AbstractFastqCollector {
   /** Collector name. */
   public static final String COLLECTOR_NAME = "fastqscreen";
 
+  /** Default number of samples to process concurrently. */
+  private static final int DEFAULT_CONCURRENT_SAMPLES = 1;
+
   private FastqScreen fastqscreen;
 
   private boolean skipControlLane;
   private boolean ignorePairedMode;
   private File fastqscreenXSLFile;
   private boolean isProcessUndeterminedIndicesSamples;
+  private int concurrentSamples = 1;
+  private boolean batchMapping;
 
   @Override
   public String getName() {
@@ -78,6 +85,11 @@ public class FastqScreenCollector extends AbstractFastqCollector {
   @Override
   public void configure(final QC qc, final CollectorConfiguration conf) {
 
+    // Must be set before the creation of the executor by the super class
+    this.concurrentSamples = Math.max(1,
+        conf.getInt(Settings.QC_CONF_FASTQSCREEN_CONCURRENT_SAMPLES_KEY,
+            DEFAULT_CONCURRENT_SAMPLES));
+
     super.configure(qc, conf);
 
     this.fastqscreen = new FastqScreen(conf);
@@ -109,12 +121,59 @@ public class FastqScreenCollector extends AbstractFastqCollector {
       this.fastqscreenXSLFile = null;
     }
 
+    this.batchMapping = conf.getBoolean(
+        Settings.QC_CONF_FASTQSCREEN_BATCH_MAPPING_KEY, false);
+
+    // The samples mapped together cannot stop the mapping independently
+    if (this.batchMapping && conf
+        .getBoolean(Settings.QC_CONF_FASTQSCREEN_ADAPTIVE_ENABLE_KEY, false)) {
+      throw new AozanRuntimeException("FastqScreen Collector: the adaptive "
+          + "mode (" + Settings.QC_CONF_FASTQSCREEN_ADAPTIVE_ENABLE_KEY
+          + ") cannot be enabled with the batch mapping ("
+          + Settings.QC_CONF_FASTQSCREEN_BATCH_MAPPING_KEY + ")");
+    }
+
     // Check if process undetermined indices samples specify in Aozan
     // configuration
     this.isProcessUndeterminedIndicesSamples = conf.getBoolean(
         Settings.QC_CONF_FASTQSCREEN_PROCESS_UNDETERMINED_SAMPLES_KEY);
   }
 
+  @Override
+  public void collect(final RunData data) throws AozanException {
+
+    try {
+      super.collect(data);
+    } finally {
+
+      // Release the memory mapped k-mer indexes at the end of the run
+      KmerScreener.closeIndexes();
+    }
+  }
+
+  @Override
+  protected void prepareSamples(final RunData data,
+      final List<FastqSample> samples, final boolean isRunPE)
+      throws AozanException {
+
+    if (!this.batchMapping) {
+      return;
+    }
+
+    // Map all the samples together, the threads will only create the reports
+    for (final FastqSample fs : samples) {
+
+      final AbstractFastqProcessThread thread =
+          collectSample(data, fs, createReportDir(fs), isRunPE);
+
+      if (thread != null) {
+        ((FastqScreenProcessThread) thread).addToBatch();
+      }
+    }
+
+    this.fastqscreen.executeBatch();
+  }
+
   @Override
   public AbstractFastqProcessThread collectSample(final RunData data,
       final FastqSample fastqSample, final File reportDir,
@@ -247,7 +306,7 @@ public class FastqScreenCollector extends AbstractFastqCollector {
    */
   @Override
   protected int getThreadsNumber() {
-    return 1;
+    return this.concurrentSamples;
   }
 
   @Override
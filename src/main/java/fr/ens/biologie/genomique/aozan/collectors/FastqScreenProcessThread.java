@@ -95,6 +95,37 @@ class FastqScreenProcessThread extends AbstractFastqProcessThread {
 
   }
 
+  /**
+   * Add the sample to the batch mapping of FastqScreen.
+   * @throws AozanException if an error occurs while adding the sample
+   */
+  void addToBatch() throws AozanException {
+
+    // The undetermined reads are screened with the contaminant prefilter
+    if (getFastqSample().isUndeterminedIndex()
+        && this.fastqscreen.isPrefilterEnabled()) {
+      return;
+    }
+
+    final File read1 = getFastqSample().getSubsetFastqFile();
+
+    if (!read1.exists()) {
+      return;
+    }
+
+    File read2 = null;
+    if (this.isPairedEndMode) {
+      read2 = this.fastqSampleR2.getSubsetFastqFile();
+
+      if (!read2.exists()) {
+        return;
+      }
+    }
+
+    this.fastqscreen.addToBatch(read1, read2, this.genomes, this.sampleGenome,
+        this.isPairedEndMode);
+  }
+
   /**
    * Create the report file.
    * @throws AozanException if an error occurs while processing data
@@ -158,10 +189,18 @@ class FastqScreenProcessThread extends AbstractFastqProcessThread {
       }
     }
 
-    // Add read2 in command line
-    this.resultsFastqscreen =
-        this.fastqscreen.execute(read1, read2, sampleDescription, this.genomes,
-            this.sampleGenome, this.isPairedEndMode);
+    if (getFastqSample().isUndeterminedIndex() && !this.isPairedEndMode) {
+
+      // Use the contaminant prefilter for the undetermined reads
+      this.resultsFastqscreen = this.fastqscreen.executeUndetermined(read1,
+          sampleDescription, this.genomes);
+    } else {
+
+      // Add read2 in command line
+      this.resultsFastqscreen =
+          this.fastqscreen.execute(read1, read2, sampleDescription,
+              this.genomes, this.sampleGenome, this.isPairedEndMode);
+    }
 
     if (this.resultsFastqscreen == null) {
       throw new AozanException("Fastqscreen returns no result for sample "
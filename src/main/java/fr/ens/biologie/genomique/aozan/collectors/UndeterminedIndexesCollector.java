@@ -33,7 +33,9 @@ import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.QC;
 import fr.ens.biologie.genomique.aozan.RunData;
 import fr.ens.biologie.genomique.aozan.Settings;
+import fr.ens.biologie.genomique.aozan.fastqc.FastQCRuntime;
 import fr.ens.biologie.genomique.aozan.io.FastqSample;
+import fr.ens.biologie.genomique.aozan.util.GZIPCompressionPool;
 
 /**
  * This class allow to collect information about the undetermined indices that
@@ -49,8 +51,21 @@ public class UndeterminedIndexesCollector extends AbstractFastqCollector {
   /** Prefix for run data */
   public static final String RUN_DATA_PREFIX = "undeterminedindices";
 
+  /** Default maximal error of the index counts in bounded memory mode. */
+  public static final double DEFAULT_HEAVY_HITTERS_ERROR = 0.0001;
+
+  /** Default directory of the recovered clusters in the bcl2fastq output. */
+  public static final String DEFAULT_RECOVERY_DIR_NAME =
+      "Undetermined_recovered";
+
   private int numberThreads = Runtime.getRuntime().availableProcessors();
   private File undeterminedIndexedXSLFile;
+  private int heavyHittersTopK;
+  private double heavyHittersError = DEFAULT_HEAVY_HITTERS_ERROR;
+  private int shardThreads = -1;
+  private int recoveryMinPFClusters = -1;
+  private File recoveryOutputDir;
+  private GZIPCompressionPool compressionPool;
 
   @Override
   public String getName() {
@@ -91,6 +106,9 @@ public class UndeterminedIndexesCollector extends AbstractFastqCollector {
 
     super.configure(qc, conf);
 
+    // FASTQ files are read using FastQC classes
+    FastQCRuntime.initializeConfiguration(qc.getSettings());
+
     // Set the number of threads
     if (conf.containsKey(Settings.QC_CONF_THREADS_KEY)) {
 
@@ -113,6 +131,56 @@ public class UndeterminedIndexesCollector extends AbstractFastqCollector {
       // Call default xsl file
       this.undeterminedIndexedXSLFile = null;
     }
+
+    // Set the bounded memory mode
+    this.heavyHittersTopK =
+        conf.getInt(Settings.QC_CONF_UNDETERMINED_HEAVY_HITTERS_TOP_K_KEY, 0);
+    this.heavyHittersError =
+        conf.getDouble(Settings.QC_CONF_UNDETERMINED_HEAVY_HITTERS_ERROR_KEY,
+            DEFAULT_HEAVY_HITTERS_ERROR);
+
+    if (this.heavyHittersError <= 0.0 || this.heavyHittersError >= 1.0) {
+      this.heavyHittersError = DEFAULT_HEAVY_HITTERS_ERROR;
+    }
+
+    // Set the number of threads used to count the indexes of a sample
+    this.shardThreads =
+        conf.getInt(Settings.QC_CONF_UNDETERMINED_SHARD_THREADS_KEY, -1);
+
+    // Set the recovery of the undetermined clusters
+    if (conf.getBoolean(Settings.QC_CONF_UNDETERMINED_RECOVERY_ENABLE_KEY)) {
+      this.recoveryMinPFClusters = Math.max(0, conf.getInt(
+          Settings.QC_CONF_UNDETERMINED_RECOVERY_MIN_PF_CLUSTERS_KEY, 0));
+
+      // The recovered FASTQ files are written with the bcl2fastq output
+      this.recoveryOutputDir =
+          conf.getFile(Settings.QC_CONF_UNDETERMINED_RECOVERY_OUTPUT_DIR_KEY);
+      if (this.recoveryOutputDir == null) {
+        this.recoveryOutputDir =
+            new File(qc.getFastqDir(), DEFAULT_RECOVERY_DIR_NAME);
+      }
+    }
+  }
+
+  @Override
+  public void collect(final RunData data) throws AozanException {
+
+    if (this.recoveryMinPFClusters < 0) {
+      super.collect(data);
+      return;
+    }
+
+    // The recovered FASTQ files of all the lanes are compressed by the same
+    // threads, the lanes share the memory of the compression buffers
+    this.compressionPool = new GZIPCompressionPool(this.numberThreads,
+        GZIPCompressionPool.DEFAULT_BUFFER_MEMORY / this.numberThreads);
+
+    try {
+      super.collect(data);
+    } finally {
+      this.compressionPool.shutdown();
+      this.compressionPool = null;
+    }
   }
 
   @Override
@@ -131,7 +199,11 @@ public class UndeterminedIndexesCollector extends AbstractFastqCollector {
     }
 
     return new UndeterminedIndexesProcessThread(data, fastqSample, reportDir,
-        this.undeterminedIndexedXSLFile);
+        this.undeterminedIndexedXSLFile, this.heavyHittersTopK,
+        this.heavyHittersError,
+        this.shardThreads > 0 ? this.shardThreads : this.numberThreads,
+        this.recoveryMinPFClusters, this.recoveryOutputDir,
+        this.compressionPool);
   }
 
 }
@@ -26,20 +26,34 @@ package fr.ens.biologie.genomique.aozan.collectors;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static fr.ens.biologie.genomique.aozan.collectors.UndeterminedIndexesCollector.COLLECTOR_NAME;
 import static fr.ens.biologie.genomique.aozan.collectors.UndeterminedIndexesCollector.RUN_DATA_PREFIX;
+import static fr.ens.biologie.genomique.aozan.util.PackedIndexCounter.NO_KEY;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -53,22 +67,26 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multiset;
 import com.google.common.io.Files;
 
 import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.Common;
 import fr.ens.biologie.genomique.aozan.Globals;
 import fr.ens.biologie.genomique.aozan.RunData;
+import fr.ens.biologie.genomique.aozan.demux.ReDemux;
 import fr.ens.biologie.genomique.aozan.io.FastqSample;
+import fr.ens.biologie.genomique.aozan.util.GZIPCompressionPool;
+import fr.ens.biologie.genomique.aozan.util.HeavyHitterIndexCounter;
+import fr.ens.biologie.genomique.aozan.util.IndexCounter;
+import fr.ens.biologie.genomique.aozan.util.IndexNeighborhood;
+import fr.ens.biologie.genomique.aozan.util.PackedIndexCounter;
 import fr.ens.biologie.genomique.aozan.util.XMLUtilsWriter;
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.IlluminaReadId;
 import fr.ens.biologie.genomique.eoulsan.util.XMLUtils;
-import uk.ac.babraham.FastQC.Sequence.Sequence;
 import uk.ac.babraham.FastQC.Sequence.SequenceFactory;
 import uk.ac.babraham.FastQC.Sequence.SequenceFile;
 import uk.ac.babraham.FastQC.Sequence.SequenceFormatException;
@@ -92,18 +110,30 @@ public class UndeterminedIndexesProcessThread
   private static final Joiner JOINER = Joiner.on(", ");
 
   private static final String REPORT_FILENAME_SUFFIX = "-potentialindices";
+  private static final String MATRIX_FILENAME_SUFFIX = "-matrix.csv";
+  private static final String DUAL_INDEX_SEPARATOR = "+";
+
+  private static final int MAX_MISMATCHES_ALLOWED = 2;
+  private static final int READ_ID_BATCH_SIZE = 10000;
 
   private final RunData data;
   private final int lane;
   private final int read;
-  private final SequenceFile seqFile;
   private final File reportDir;
   private final File xslFile;
+  private final int heavyHittersTopK;
+  private final double heavyHittersError;
+  private final int shardThreads;
+  private final int recoveryMinPFClusters;
+  private final File recoveryOutputDir;
+  private final GZIPCompressionPool compressionPool;
 
   private final Map<Integer, String> sampleIndexes;
   private final Map<String, Integer> reverseSampleIndexes;
-  private final Multiset<String> rawUndeterminedIndices = HashMultiset.create();
-  private final Multiset<String> pfUndeterminedIndices = HashMultiset.create();
+  private IndexCounter undeterminedIndexes;
+  private int index1Length;
+  private int index2Length;
+  private IndexNeighborhood sampleNeighborhood;
   private final Multimap<Integer, String> newSamplesIndexes =
       ArrayListMultimap.create();
   private final Multimap<String, String> newIndexes =
@@ -489,6 +519,224 @@ public class UndeterminedIndexesProcessThread
 
   }
 
+  /**
+   * This class store the recoverable and conflicting cluster counts of a
+   * sample or a lane for each number of mismatches (0 to
+   * MAX_MISMATCHES_ALLOWED) used for the demultiplexing.
+   */
+  private final class MismatchHistogram {
+
+    private final long[] recoverableRaw = new long[MAX_MISMATCHES_ALLOWED + 1];
+    private final long[] recoverablePF = new long[MAX_MISMATCHES_ALLOWED + 1];
+    private final long[] conflictRaw = new long[MAX_MISMATCHES_ALLOWED + 1];
+    private final long[] conflictPF = new long[MAX_MISMATCHES_ALLOWED + 1];
+
+    /**
+     * Add clusters.
+     * @param mismatches the number of mismatches
+     * @param conflict true if the clusters are in conflict
+     * @param rawClusterCount the raw cluster count
+     * @param pfClusterCount the passing filter cluster count
+     */
+    private void add(final int mismatches, final boolean conflict,
+        final int rawClusterCount, final int pfClusterCount) {
+
+      if (conflict) {
+        this.conflictRaw[mismatches] += rawClusterCount;
+        this.conflictPF[mismatches] += pfClusterCount;
+      } else {
+        this.recoverableRaw[mismatches] += rawClusterCount;
+        this.recoverablePF[mismatches] += pfClusterCount;
+      }
+    }
+
+    /**
+     * Put the counts in the results. Each count is an array with a value for
+     * each number of mismatches.
+     * @param keyPrefix prefix of the keys after the run data prefix
+     */
+    private void putResults(final String keyPrefix) {
+
+      final String prefix = RUN_DATA_PREFIX + keyPrefix;
+
+      getResults().put(prefix + ".recoverable.raw.cluster.count.by.mismatches",
+          this.recoverableRaw);
+      getResults().put(prefix + ".recoverable.pf.cluster.count.by.mismatches",
+          this.recoverablePF);
+      getResults().put(prefix + ".conflict.raw.cluster.count.by.mismatches",
+          this.conflictRaw);
+      getResults().put(prefix + ".conflict.pf.cluster.count.by.mismatches",
+          this.conflictPF);
+    }
+  }
+
+  /**
+   * This class count the indexes of FASTQ files. The censuses of several
+   * files can be computed in parallel and then merged. A census can also count
+   * the read ids of batches read from a queue, when a single file is read by
+   * another thread.
+   */
+  private final class IndexCensus implements Callable<IndexCensus> {
+
+    private final List<File> files;
+    private final BlockingQueue<List<String>> batches;
+    private IlluminaReadId irid;
+    private IndexCounter counter;
+    private int index1Length;
+    private int index2Length;
+    private volatile boolean illuminaIds = true;
+
+    @Override
+    public IndexCensus call() throws AozanException {
+
+      if (this.batches != null) {
+        countBatches();
+        return this;
+      }
+
+      try {
+
+        final SequenceFile seqFile = SequenceFactory
+            .getSequenceFile(this.files.toArray(new File[this.files.size()]));
+
+        while (seqFile.hasNext()) {
+          if (!addReadId(seqFile.next().getID())) {
+            return this;
+          }
+        }
+
+      } catch (final IOException | SequenceFormatException e) {
+        throw new AozanException(e);
+      }
+
+      return this;
+    }
+
+    /**
+     * Count the read ids of the batches of the queue until an empty batch is
+     * found. The batches are still taken once the ids are known to not be
+     * Illumina ids, so the reading thread is never blocked.
+     * @throws AozanException if the thread is interrupted
+     */
+    private void countBatches() throws AozanException {
+
+      try {
+
+        List<String> batch;
+        while (!(batch = this.batches.take()).isEmpty()) {
+
+          for (int i = 0; this.illuminaIds && i < batch.size(); i++) {
+            addReadId(batch.get(i));
+          }
+        }
+
+      } catch (final InterruptedException e) {
+        throw new AozanException(e);
+      }
+    }
+
+    /**
+     * Count the indexes of a read id.
+     * @param readId the read id, with the leading '@'
+     * @return false if the read id is not an Illumina id
+     */
+    private boolean addReadId(final String readId) {
+
+      // Parse sequence id
+      try {
+        if (this.irid == null) {
+          this.irid = new IlluminaReadId(readId.substring(1));
+        } else {
+          this.irid.parse(readId.substring(1));
+        }
+      } catch (final EoulsanException e) {
+
+        // This is not an Illumina id
+        this.illuminaIds = false;
+        return false;
+      }
+
+      // Get the sequence indexes
+      final List<String> indexes = this.irid.getSequenceIndexList();
+
+      // Process only nucleotides sequences
+      if (indexes.isEmpty()) {
+        return true;
+      }
+
+      final String index = indexes.get(0);
+      final String index2 = indexes.size() > 1 ? indexes.get(1) : null;
+
+      if (index == null
+          || index.isEmpty() || Character.isDigit(index.charAt(0))) {
+        return true;
+      }
+
+      // The counter is created when the length of the indexes is known
+      if (this.counter == null) {
+        createCounter(index, index2);
+      }
+
+      this.counter.add(
+          toKey(index, index2, this.index1Length, this.index2Length),
+          !this.irid.isFiltered());
+
+      return true;
+    }
+
+    /**
+     * Create the counter of the indexes from the first indexes read.
+     * @param index the first index
+     * @param index2 the second index, can be null
+     */
+    private void createCounter(final String index, final String index2) {
+
+      final int length2 = index2 == null ? 0 : index2.length();
+      final int[] lengths =
+          PackedIndexCounter.fitLengths(index.length(), length2);
+
+      this.index1Length = lengths[0];
+      this.index2Length = lengths[1];
+
+      if (this.index1Length < index.length()
+          || this.index2Length < length2) {
+        LOGGER.warning(COLLECTOR_NAME.toUpperCase()
+            + ": indexes too long, only the first " + this.index1Length
+            + (length2 > 0 ? " and " + this.index2Length : "")
+            + " bases are processed in "
+            + getFastqSample().getFilenamePrefix());
+      }
+
+      this.counter = newIndexCounter(this.index1Length + this.index2Length);
+    }
+
+    //
+    // Constructor
+    //
+
+    /**
+     * Constructor.
+     * @param files the FASTQ files to read
+     */
+    private IndexCensus(final List<File> files) {
+
+      this.files = files;
+      this.batches = null;
+    }
+
+    /**
+     * Constructor.
+     * @param batches the queue of the batches of read ids to count, an empty
+     *          batch ends the census
+     */
+    private IndexCensus(final BlockingQueue<List<String>> batches) {
+
+      this.files = null;
+      this.batches = batches;
+    }
+
+  }
+
   @Override
   protected void logThreadStart() {
     LOGGER.fine(COLLECTOR_NAME.toUpperCase()
@@ -498,7 +746,144 @@ public class UndeterminedIndexesProcessThread
   @Override
   protected void process() throws AozanException {
 
-    processSequences(this.seqFile);
+    final List<File> files = getFastqSample().getFastqFiles();
+    final List<IndexCensus> censuses = new ArrayList<>();
+
+    if (this.shardThreads <= 1) {
+
+      final IndexCensus census = new IndexCensus(files);
+      census.call();
+      censuses.add(census);
+
+    } else {
+
+      final ExecutorService executor = Executors.newFixedThreadPool(
+          files.size() > 1
+              ? Math.min(this.shardThreads, files.size()) : this.shardThreads);
+
+      try {
+
+        final List<Future<IndexCensus>> futures = new ArrayList<>();
+
+        if (files.size() > 1) {
+
+          // Count the indexes of each file in parallel
+          for (final File file : files) {
+            futures.add(executor
+                .submit(new IndexCensus(Collections.singletonList(file))));
+          }
+
+        } else {
+
+          // A single file cannot be split, only the parsing of the read ids
+          // and the counting are parallelized
+          final BlockingQueue<List<String>> batches =
+              new ArrayBlockingQueue<>(2 * this.shardThreads);
+          final List<IndexCensus> batchCensuses = new ArrayList<>();
+
+          for (int i = 0; i < this.shardThreads; i++) {
+            final IndexCensus census = new IndexCensus(batches);
+            batchCensuses.add(census);
+            futures.add(executor.submit(census));
+          }
+
+          readBatches(files, batches, batchCensuses, futures);
+        }
+
+        for (final Future<IndexCensus> future : futures) {
+          censuses.add(future.get());
+        }
+
+      } catch (final InterruptedException e) {
+        throw new AozanException(e);
+      } catch (final ExecutionException e) {
+        if (e.getCause() instanceof AozanException) {
+          throw (AozanException) e.getCause();
+        }
+        throw new AozanException(e.getCause());
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    processSequences(censuses);
+  }
+
+  /**
+   * Read FASTQ files and hand batches of read ids to the censuses. An empty
+   * batch is added for each census at the end of the files.
+   * @param files the FASTQ files to read
+   * @param batches the queue of the batches
+   * @param censuses the censuses that count the batches
+   * @param futures the futures of the censuses
+   * @throws AozanException if an error occurs while reading the files
+   * @throws InterruptedException if the thread is interrupted
+   * @throws ExecutionException if a census has failed
+   */
+  private static void readBatches(final List<File> files,
+      final BlockingQueue<List<String>> batches,
+      final List<IndexCensus> censuses,
+      final List<Future<IndexCensus>> futures)
+      throws AozanException, InterruptedException, ExecutionException {
+
+    try {
+
+      final SequenceFile seqFile = SequenceFactory
+          .getSequenceFile(files.toArray(new File[files.size()]));
+
+      List<String> batch = new ArrayList<>(READ_ID_BATCH_SIZE);
+
+      while (seqFile.hasNext()) {
+
+        batch.add(seqFile.next().getID());
+
+        if (batch.size() == READ_ID_BATCH_SIZE) {
+
+          putBatch(batches, batch, futures);
+          batch = new ArrayList<>(READ_ID_BATCH_SIZE);
+
+          // Stop reading if the read ids are not Illumina ids
+          if (!censuses.get(0).illuminaIds) {
+            break;
+          }
+        }
+      }
+
+      if (!batch.isEmpty()) {
+        putBatch(batches, batch, futures);
+      }
+
+    } catch (final IOException | SequenceFormatException e) {
+      throw new AozanException(e);
+    } finally {
+
+      // End the censuses
+      for (int i = 0; i < censuses.size(); i++) {
+        putBatch(batches, Collections.<String> emptyList(), futures);
+      }
+    }
+  }
+
+  /**
+   * Add a batch to the queue. The censuses are checked while the queue is
+   * full, so the reading thread is not blocked if a census has failed.
+   * @param batches the queue of the batches
+   * @param batch the batch to add
+   * @param futures the futures of the censuses
+   * @throws InterruptedException if the thread is interrupted
+   * @throws ExecutionException if a census has failed
+   */
+  private static void putBatch(final BlockingQueue<List<String>> batches,
+      final List<String> batch, final List<Future<IndexCensus>> futures)
+      throws InterruptedException, ExecutionException {
+
+    while (!batches.offer(batch, 1, TimeUnit.SECONDS)) {
+      for (final Future<IndexCensus> future : futures) {
+        if (future.isDone()) {
+          future.get();
+        }
+      }
+    }
   }
 
   @Override
@@ -510,94 +895,101 @@ public class UndeterminedIndexesProcessThread
   }
 
   /**
-   * Read FASTQ file and process the data by FastQC modules.
-   * @param seqFile input file
+   * Merge the census of the FASTQ files and process the data.
+   * @param censuses the censuses of the FASTQ files
    * @throws AozanException if an error occurs while processing file
    */
-  private void processSequences(final SequenceFile seqFile)
+  private void processSequences(final List<IndexCensus> censuses)
       throws AozanException {
 
-    IlluminaReadId irid = null;
-
-    try {
-
-      while (seqFile.hasNext()) {
+    for (final IndexCensus census : censuses) {
 
-        final Sequence seq = seqFile.next();
+      // Process only Illumina ids
+      if (!census.illuminaIds) {
+        return;
+      }
 
-        // Parse sequence id
-        try {
-          if (irid == null) {
-            irid = new IlluminaReadId(seq.getID().substring(1));
-          } else {
-            irid.parse(seq.getID().substring(1));
-          }
-        } catch (final EoulsanException e) {
+      if (census.counter == null) {
+        continue;
+      }
 
-          // This is not an Illumina id
-          return;
-        }
+      if (this.undeterminedIndexes == null) {
 
-        // Get the sequence indexes
-        final List<String> indexes = irid.getSequenceIndexList();
+        this.undeterminedIndexes = census.counter;
+        this.index1Length = census.index1Length;
+        this.index2Length = census.index2Length;
 
-        // Process only nucleotides sequences
-        if (indexes.isEmpty()) {
-          continue;
-        }
+      } else if (census.index1Length == this.index1Length
+          && census.index2Length == this.index2Length) {
 
-        // TODO Process the secondary indexes
-        final String index = indexes.get(0);
+        this.undeterminedIndexes.merge(census.counter);
 
-        if (index == null
-            || index.isEmpty() || Character.isDigit(index.charAt(0))) {
-          continue;
-        }
-
-        this.rawUndeterminedIndices.add(index);
-        if (!irid.isFiltered()) {
-          this.pfUndeterminedIndices.add(index);
-        }
+      } else {
+        LOGGER.warning(COLLECTOR_NAME.toUpperCase()
+            + ": " + census.counter.getTotalRawCount()
+            + " indexes with a different length ignored in "
+            + getFastqSample().getFilenamePrefix());
       }
+    }
 
-      // Set max mismatches allowed
-      computeMismatchesAllowed();
+    if (this.undeterminedIndexes == null) {
+      this.undeterminedIndexes = newIndexCounter(1);
+    } else if (this.undeterminedIndexes.getRejectedCount() > 0) {
+      LOGGER.warning(COLLECTOR_NAME.toUpperCase()
+          + ": " + this.undeterminedIndexes.getRejectedCount()
+          + " indexes ignored in " + getFastqSample().getFilenamePrefix());
+    }
 
-      // Process results
-      processResults();
+    // Set max mismatches allowed
+    computeMismatchesAllowed();
 
-    } catch (final SequenceFormatException e) {
-      throw new AozanException(e);
-    }
+    // Process results
+    processResults();
 
+    // Recover the clusters
+    if (this.recoveryMinPFClusters >= 0) {
+      recoverClusters();
+    }
   }
 
   private void computeMismatchesAllowed() {
 
-    final int maxMismatchAllowed = 2;
+    // Create the neighborhood of the sample indexes
+    this.sampleNeighborhood = new IndexNeighborhood(
+        this.undeterminedIndexes.getLength(), MAX_MISMATCHES_ALLOWED);
+
+    for (final Map.Entry<Integer, String> e : this.sampleIndexes.entrySet()) {
+
+      if (e.getValue() != null
+          && !this.sampleNeighborhood.addIndex(e.getKey(),
+              toKey(e.getValue()))
+          && this.undeterminedIndexes.size() > 0) {
+        LOGGER.warning(COLLECTOR_NAME.toUpperCase()
+            + ": index of sample " + e.getKey()
+            + " cannot be compared to the undetermined indexes: "
+            + e.getValue());
+      }
+    }
 
     int minMismatchFound = Integer.MAX_VALUE;
 
-    for (final Map.Entry<Integer, String> e : this.sampleIndexes.entrySet()) {
+    final IndexCounter counter = this.undeterminedIndexes;
+    for (int s = counter.nextSlot(-1); s != -1; s = counter.nextSlot(s)) {
 
-      for (final String i : this.rawUndeterminedIndices.elementSet()) {
-        final String index = e.getValue();
-        final int mismatches = mismatches(index, i);
+      final int mismatches =
+          this.sampleNeighborhood.getMinMismatches(counter.getKey(s));
 
+      if (mismatches != -1) {
         minMismatchFound = Math.min(minMismatchFound, mismatches);
-
-        // Check minimum found
-        if (minMismatchFound == 1) {
-          break;
-        }
       }
 
-      if (minMismatchFound == 1) {
+      // Check minimum found
+      if (minMismatchFound <= 1) {
         break;
       }
     }
 
-    if (minMismatchFound > maxMismatchAllowed) {
+    if (minMismatchFound > MAX_MISMATCHES_ALLOWED) {
       // Set mismatches used to recovery reads
       this.isSkipProcessResult = true;
       this.maxMismatches = -1;
@@ -627,33 +1019,67 @@ public class UndeterminedIndexesProcessThread
           + ".sample" + sampleId + ".recoverable.pf.cluster.count", 0);
     }
 
-    if (!this.isSkipProcessResult) {
-      // For each sample find the indexes sequences that can be recovered
-      for (final Map.Entry<Integer, String> e : this.sampleIndexes.entrySet()) {
+    // Recovery counts for each number of mismatches
+    final Map<Integer, MismatchHistogram> histograms = new HashMap<>();
+    final MismatchHistogram laneHistogram = new MismatchHistogram();
+    for (final int sampleId : this.data.getSamplesInLane(this.lane)) {
+      histograms.put(sampleId, new MismatchHistogram());
+    }
+
+    // For each undetermined index find the samples that can be recovered
+    final IndexCounter counter = this.undeterminedIndexes;
+    for (int s = counter.nextSlot(-1); s != -1; s = counter.nextSlot(s)) {
+
+      final int[] entries =
+          this.sampleNeighborhood.lookup(counter.getKey(s));
+
+      if (entries.length == 0) {
+        continue;
+      }
+
+      addToHistograms(entries, counter.getRawCountOfSlot(s),
+          counter.getPFCountOfSlot(s), histograms, laneHistogram);
+
+      if (this.isSkipProcessResult) {
+        continue;
+      }
 
-        final int sampleId = e.getKey();
-        final String index = e.getValue();
+      String i = null;
 
-        for (final String i : this.rawUndeterminedIndices.elementSet()) {
+      for (final int entry : entries) {
 
-          final int mismatches = mismatches(index, i);
+        final int mismatches = IndexNeighborhood.getMismatches(entry);
 
-          if (mismatches > 0 && mismatches <= this.maxMismatches) {
+        if (mismatches > 0 && mismatches <= this.maxMismatches) {
 
-            this.newSamplesIndexes.put(sampleId, i);
-            this.newIndexes.put(i, index);
+          if (i == null) {
+            i = toIndex(counter.getKey(s));
           }
+
+          final int sampleId = IndexNeighborhood.getId(entry);
+          this.newSamplesIndexes.put(sampleId, i);
+          this.newIndexes.put(i, this.sampleIndexes.get(sampleId));
         }
       }
+    }
+
+    // Set the recovery counts for each number of mismatches
+    for (final Map.Entry<Integer, MismatchHistogram> e : histograms
+        .entrySet()) {
+      e.getValue().putResults(".sample" + e.getKey());
+    }
+    laneHistogram.putResults(".lane" + this.lane);
+
+    if (!this.isSkipProcessResult) {
 
       // Compute results for each sample
       for (final int sampleId : this.data.getSamplesInLane(this.lane)) {
         recoverableRawClusterCount +=
-            computeRecoverableSampleClusterCount(sampleId,
-                this.rawUndeterminedIndices, ".recoverable.raw.cluster.count");
+            computeRecoverableSampleClusterCount(sampleId, false,
+                ".recoverable.raw.cluster.count");
         recoverablePFClusterCount +=
-            computeRecoverableSampleClusterCount(sampleId,
-                this.pfUndeterminedIndices, ".recoverable.pf.cluster.count");
+            computeRecoverableSampleClusterCount(sampleId, true,
+                ".recoverable.pf.cluster.count");
       }
     }
 
@@ -671,6 +1097,11 @@ public class UndeterminedIndexesProcessThread
       // Create the report for the lane
       createReportForLane();
 
+      // Create the i7 x i5 matrix for the lane
+      if (this.index2Length > 0) {
+        createIndexMatrixForLane();
+      }
+
       // Create the report for each samples
       for (final int sampleId : this.data.getSamplesInLane(this.lane)) {
         createReportForSample(sampleId);
@@ -681,15 +1112,207 @@ public class UndeterminedIndexesProcessThread
     }
   }
 
+  /**
+   * Add the counts of an undetermined index to the recovery counts for each
+   * number of mismatches. For a number of mismatches, the clusters are
+   * recoverable if a single sample is in the neighborhood of the index and
+   * are in conflict for all the samples in the neighborhood otherwise.
+   * @param entries the neighborhood entries of the index
+   * @param rawClusterCount the raw cluster count of the index
+   * @param pfClusterCount the passing filter cluster count of the index
+   * @param histograms the recovery counts of the samples
+   * @param laneHistogram the recovery counts of the lane
+   */
+  private static void addToHistograms(final int[] entries,
+      final int rawClusterCount, final int pfClusterCount,
+      final Map<Integer, MismatchHistogram> histograms,
+      final MismatchHistogram laneHistogram) {
+
+    for (int m = 0; m <= MAX_MISMATCHES_ALLOWED; m++) {
+
+      int sampleCount = 0;
+      int lastSampleId = -1;
+
+      for (final int entry : entries) {
+        if (IndexNeighborhood.getMismatches(entry) <= m) {
+          sampleCount++;
+          lastSampleId = IndexNeighborhood.getId(entry);
+        }
+      }
+
+      if (sampleCount == 0) {
+        continue;
+      }
+
+      final boolean conflict = sampleCount > 1;
+      laneHistogram.add(m, conflict, rawClusterCount, pfClusterCount);
+
+      if (!conflict) {
+
+        final MismatchHistogram histogram = histograms.get(lastSampleId);
+        if (histogram != null) {
+          histogram.add(m, false, rawClusterCount, pfClusterCount);
+        }
+        continue;
+      }
+
+      for (final int entry : entries) {
+
+        final MismatchHistogram histogram =
+            histograms.get(IndexNeighborhood.getId(entry));
+
+        if (IndexNeighborhood.getMismatches(entry) <= m && histogram != null) {
+          histogram.add(m, true, rawClusterCount, pfClusterCount);
+        }
+      }
+    }
+  }
+
+  /**
+   * Recover the clusters of the undetermined indexes that match with a single
+   * sample. The undetermined FASTQ files of each read are re-demultiplexed in
+   * a single pass with the packed indexes of the lane. This pass cannot be
+   * merged with the census: the dispatch table and the recovery threshold
+   * are only known once all the indexes of the lane have been counted, and
+   * the census reads only the first read.
+   * @throws AozanException if an error occurs while recovering the clusters
+   */
+  private void recoverClusters() throws AozanException {
+
+    final int recoverablePFClusterCount = getResults().getInt(RUN_DATA_PREFIX
+        + ".lane" + this.lane + ".recoverable.pf.cluster.count");
+
+    if (this.isSkipProcessResult
+        || recoverablePFClusterCount == 0
+        || recoverablePFClusterCount < this.recoveryMinPFClusters) {
+      return;
+    }
+
+    // Create the dispatch table, the indexes in conflict are not recovered
+    final List<Integer> sampleIds = new ArrayList<>();
+    final Map<Long, Integer> dispatch = new HashMap<>();
+
+    for (final String newIndex : this.newIndexes.keySet()) {
+
+      final Collection<String> indexes = this.newIndexes.get(newIndex);
+      if (indexes.size() != 1) {
+        continue;
+      }
+
+      final int sampleId =
+          this.reverseSampleIndexes.get(indexes.iterator().next());
+
+      if (!sampleIds.contains(sampleId)) {
+        sampleIds.add(sampleId);
+      }
+      dispatch.put(toKey(newIndex), sampleIds.indexOf(sampleId));
+    }
+
+    if (dispatch.isEmpty()) {
+      return;
+    }
+
+    // The directory is shared by the lanes, it can be created by another lane
+    final File outputDir = this.recoveryOutputDir;
+
+    if (!outputDir.mkdirs() && !outputDir.isDirectory()) {
+      throw new AozanException(
+          "Cannot create recovery directory: " + outputDir);
+    }
+
+    LOGGER.info(COLLECTOR_NAME.toUpperCase()
+        + ": recover " + recoverablePFClusterCount + " clusters of lane "
+        + this.lane + " in " + outputDir);
+
+    final String extension =
+        getFastqSample().getCompressionType().getExtension();
+    final int readCount =
+        this.data.getReadCount() - this.data.getIndexedReadCount();
+    try {
+
+      for (int read = 1; read <= readCount; read++) {
+
+        final List<File> inputFiles = findFastqFiles(read);
+        if (inputFiles.isEmpty()) {
+          continue;
+        }
+
+        final List<File> outputFiles = new ArrayList<>();
+        for (final int sampleId : sampleIds) {
+          outputFiles.add(new File(outputDir,
+              this.data.getSampleDemuxName(sampleId)
+                  + "_L00" + this.lane + "_R" + read + "_recovered"
+                  + FastqSample.FASTQ_EXTENSION + extension));
+        }
+
+        final long[] counts = ReDemux.reDemux(inputFiles, dispatch,
+            this.index1Length, this.index2Length, outputFiles,
+            this.compressionPool);
+
+        // The counts of the read of the thread are the recovered clusters
+        if (read != this.read) {
+          continue;
+        }
+
+        long laneCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+
+          getResults().put(RUN_DATA_PREFIX
+              + ".sample" + sampleIds.get(i) + ".recovered.cluster.count",
+              counts[i]);
+          laneCount += counts[i];
+        }
+
+        getResults().put(RUN_DATA_PREFIX
+            + ".lane" + this.lane + ".recovered.cluster.count", laneCount);
+      }
+
+    } catch (final IOException | BadBioEntryException e) {
+      throw new AozanException(e);
+    }
+  }
+
+  /**
+   * Find the undetermined FASTQ files of a read.
+   * @param read the read
+   * @return a sorted list with the FASTQ files of the read
+   */
+  private List<File> findFastqFiles(final int read) {
+
+    final String prefix = getFastqSample().getFilenamePrefix(read);
+
+    final File[] files = getFastqSample().getFastqSampleParentDir()
+        .listFiles(new FileFilter() {
+
+          @Override
+          public boolean accept(final File file) {
+
+            final String filename = file.getName();
+
+            return file.length() > 0
+                && filename.startsWith(prefix)
+                && filename.contains(FastqSample.FASTQ_EXTENSION);
+          }
+        });
+
+    if (files == null) {
+      return Collections.emptyList();
+    }
+
+    Arrays.sort(files);
+
+    return Arrays.asList(files);
+  }
+
   /**
    * Compute for a sample the number of clusters that can be recovered.
    * @param sampleId sample Id
-   * @param indicesCounts multiset that contain data to process
+   * @param pf true to count only the passing filter clusters
    * @param resultKeySuffix the suffix for the run data key entry
    * @return the number of cluster that can be recovered for the sample
    */
   private int computeRecoverableSampleClusterCount(final int sampleId,
-      final Multiset<String> indicesCounts, final String resultKeySuffix) {
+      final boolean pf, final String resultKeySuffix) {
 
     int recoverableClusterCount = 0;
 
@@ -698,10 +1321,10 @@ public class UndeterminedIndexesProcessThread
       if (this.newSamplesIndexes.containsKey(sampleId)) {
         for (final String newIndex : this.newSamplesIndexes.get(sampleId)) {
 
-          if (indicesCounts.contains(newIndex)) {
-            final int count = indicesCounts.count(newIndex);
-            recoverableClusterCount += count;
-          }
+          final long key = toKey(newIndex);
+          recoverableClusterCount += pf
+              ? this.undeterminedIndexes.getPFCount(key)
+              : this.undeterminedIndexes.getRawCount(key);
         }
       }
     }
@@ -729,8 +1352,9 @@ public class UndeterminedIndexesProcessThread
       }
     }
 
-    final int totalRawClusterCount = this.rawUndeterminedIndices.size();
-    final int totalPFClusterCount = this.pfUndeterminedIndices.size();
+    final IndexCounter counter = this.undeterminedIndexes;
+    final int totalRawClusterCount = (int) counter.getTotalRawCount();
+    final int totalPFClusterCount = (int) counter.getTotalPFCount();
 
     // Create sorted set
     final List<LaneResultEntry> entries = new ArrayList<>();
@@ -743,12 +1367,11 @@ public class UndeterminedIndexesProcessThread
             ? ""
             : "Demultiplexing with one mismatche is not possible due to indexes conflicts");
 
-    for (final Multiset.Entry<String> e : this.rawUndeterminedIndices
-        .entrySet()) {
+    for (int s = counter.nextSlot(-1); s != -1; s = counter.nextSlot(s)) {
 
-      final String index = e.getElement();
-      final int rawClusterCount = e.getCount();
-      final int pfClusterCount = this.pfUndeterminedIndices.count(index);
+      final String index = toIndex(counter.getKey(s));
+      final int rawClusterCount = counter.getRawCountOfSlot(s);
+      final int pfClusterCount = counter.getPFCountOfSlot(s);
 
       final List<Integer> sampleIds = getSampleForNewIndex(index);
       final List<String> sampleNames = new ArrayList<>(sampleIds.size());
@@ -765,10 +1388,128 @@ public class UndeterminedIndexesProcessThread
     // Sort list
     Collections.sort(entries);
 
+    // In bounded memory mode, only report the most frequent indexes
+    if (this.heavyHittersTopK > 0) {
+
+      final int maxError =
+          ((HeavyHitterIndexCounter) counter).getMaxError();
+      getResults().put(
+          RUN_DATA_PREFIX + ".lane" + this.lane + ".heavy.hitters.max.error",
+          maxError);
+
+      if (entries.size() > this.heavyHittersTopK) {
+        entries.subList(this.heavyHittersTopK, entries.size()).clear();
+      }
+    }
+
     writeLaneCSVResults(entries, totalEntry);
     writeLaneHTMLResults(entries, totalEntry, !oneMismatcheDemuxPossible);
   }
 
+  /**
+   * Create the combinatorial matrix of the dual indexes for the lane. The rows
+   * are the first indexes (i7) and the columns the second indexes (i5) of the
+   * samples, the last row and column count the other indexes. The clusters
+   * with a first and a second index of the samples that are not the index pair
+   * of a sample are counted as index hopping.
+   * @throws IOException if an error occurs while writing the matrix
+   */
+  private void createIndexMatrixForLane() throws IOException {
+
+    final int length = this.index1Length + this.index2Length;
+
+    // Get the indexes of the samples
+    final Map<Long, Integer> rows = new LinkedHashMap<>();
+    final Map<Long, Integer> columns = new LinkedHashMap<>();
+    final Set<Long> samplePairs = new HashSet<>();
+
+    for (final String sampleIndex : this.sampleIndexes.values()) {
+
+      final long key = sampleIndex == null ? NO_KEY : toKey(sampleIndex);
+      if (key == NO_KEY) {
+        continue;
+      }
+
+      samplePairs.add(key);
+
+      final long key1 = PackedIndexCounter.subKey(key, length, 0,
+          this.index1Length);
+      final long key2 = PackedIndexCounter.subKey(key, length,
+          this.index1Length, this.index2Length);
+
+      if (!rows.containsKey(key1)) {
+        rows.put(key1, rows.size());
+      }
+      if (!columns.containsKey(key2)) {
+        columns.put(key2, columns.size());
+      }
+    }
+
+    // Fill the matrix
+    final long[][] matrix = new long[rows.size() + 1][columns.size() + 1];
+    long hoppingRawClusterCount = 0;
+    long hoppingPFClusterCount = 0;
+
+    final IndexCounter counter = this.undeterminedIndexes;
+    for (int s = counter.nextSlot(-1); s != -1; s = counter.nextSlot(s)) {
+
+      final long key = counter.getKey(s);
+      final Integer row = rows.get(
+          PackedIndexCounter.subKey(key, length, 0, this.index1Length));
+      final Integer column = columns.get(PackedIndexCounter.subKey(key,
+          length, this.index1Length, this.index2Length));
+
+      matrix[row == null ? rows.size() : row][column == null
+          ? columns.size() : column] += counter.getRawCountOfSlot(s);
+
+      if (row != null && column != null && !samplePairs.contains(key)) {
+        hoppingRawClusterCount += counter.getRawCountOfSlot(s);
+        hoppingPFClusterCount += counter.getPFCountOfSlot(s);
+      }
+    }
+
+    getResults().put(RUN_DATA_PREFIX
+        + ".lane" + this.lane + ".index.hopping.raw.cluster.count",
+        hoppingRawClusterCount);
+    getResults().put(RUN_DATA_PREFIX
+        + ".lane" + this.lane + ".index.hopping.pf.cluster.count",
+        hoppingPFClusterCount);
+
+    // Write the matrix
+    final File matrixFile = createLaneResultFile(MATRIX_FILENAME_SUFFIX);
+
+    getResults().put(
+        RUN_DATA_PREFIX + ".lane" + this.lane + ".index.matrix.file.name",
+        matrixFile.getName());
+
+    try (BufferedWriter bw =
+        Files.newWriter(matrixFile, StandardCharsets.UTF_8)) {
+
+      // Header
+      bw.write("i7\\i5");
+      for (final long key2 : columns.keySet()) {
+        bw.write("\t" + PackedIndexCounter.decode(key2, this.index2Length));
+      }
+      bw.write("\tOther\n");
+
+      // Rows
+      final List<String> rowNames = new ArrayList<>();
+      for (final long key1 : rows.keySet()) {
+        rowNames.add(PackedIndexCounter.decode(key1, this.index1Length));
+      }
+      rowNames.add("Other");
+
+      for (int i = 0; i < matrix.length; i++) {
+
+        bw.write(rowNames.get(i));
+        for (final long count : matrix[i]) {
+          bw.write("\t" + count);
+        }
+        bw.write("\n");
+      }
+    }
+  }
+
   /**
    * Get the list of samples that can be recovered for an index.
    * @param newIndex the index
@@ -887,10 +1628,11 @@ public class UndeterminedIndexesProcessThread
     if (this.newSamplesIndexes.containsKey(sampleId)) {
       for (final String newIndex : this.newSamplesIndexes.get(sampleId)) {
 
+        final long key = toKey(newIndex);
         final int newIndexRawClusterCount =
-            this.rawUndeterminedIndices.count(newIndex);
+            this.undeterminedIndexes.getRawCount(key);
         final int newIndexPFClusterCount =
-            this.pfUndeterminedIndices.count(newIndex);
+            this.undeterminedIndexes.getPFCount(key);
         final String comment = this.newIndexes.get(newIndex).size() > 1
             ? "Conflict if run demultiplexing with "
                 + this.maxMismatches + " mismatch(es) : "
@@ -1055,7 +1797,16 @@ public class UndeterminedIndexesProcessThread
       XMLUtils.addTagValue(doc, root, "description", null);
       XMLUtils.addTagValue(doc, root, "condition",
           "Compile results on recovery clusters in undetermined fastq with "
-              + this.maxMismatches + " mismatch(es).");
+              + this.maxMismatches + " mismatch(es)."
+              + (this.heavyHittersTopK > 0
+                  ? " Only the "
+                      + this.heavyHittersTopK
+                      + " most frequent indexes are reported, their counts "
+                      + "are overestimated by at most "
+                      + ((HeavyHitterIndexCounter) this.undeterminedIndexes)
+                          .getMaxError()
+                      + " clusters."
+                  : ""));
 
       // Add sample name in this lane
       LaneResultEntry.samplesNameXML(doc, root, this.data, this.lane,
@@ -1136,6 +1887,103 @@ public class UndeterminedIndexesProcessThread
     return result;
   }
 
+  /**
+   * Create a new counter for the undetermined indexes.
+   * @param length the length of the indexes
+   * @return a new IndexCounter object
+   */
+  private IndexCounter newIndexCounter(final int length) {
+
+    if (this.heavyHittersTopK > 0) {
+
+      // Bounded memory mode, only the most frequent indexes are counted
+      final int capacity = (int) Math.min(1 << 24, Math.max(
+          this.heavyHittersTopK, Math.ceil(1.0 / this.heavyHittersError)));
+
+      return new HeavyHitterIndexCounter(length, capacity);
+    }
+
+    return new PackedIndexCounter(length);
+  }
+
+  /**
+   * Pack an index. When the indexes are longer than
+   * PackedIndexCounter.MAX_LENGTH, only their first bases are packed (see
+   * PackedIndexCounter.fitLengths()), the indexes of the reads and of the
+   * samples are truncated in the same way.
+   * @param index the first index
+   * @param index2 the second index, can be null
+   * @param index1Length the expected length of the first index
+   * @param index2Length the expected length of the second index, 0 to ignore
+   *          the second index
+   * @return the packed index or NO_KEY if the index cannot be packed or if
+   *         the length of the indexes is not the expected length
+   */
+  static long toKey(final String index, final String index2,
+      final int index1Length, final int index2Length) {
+
+    // The indexes can only be truncated if the packed index is full
+    final boolean truncated =
+        index1Length + index2Length == PackedIndexCounter.MAX_LENGTH;
+
+    if (index.length() != index1Length
+        && (!truncated || index.length() < index1Length)) {
+      return NO_KEY;
+    }
+
+    final long key = PackedIndexCounter.encode(index, index1Length);
+
+    if (index2Length == 0) {
+      return key;
+    }
+
+    if (index2 == null
+        || (index2.length() != index2Length
+            && (!truncated || index2.length() < index2Length))) {
+      return NO_KEY;
+    }
+
+    return PackedIndexCounter.concat(key, index1Length,
+        PackedIndexCounter.encode(index2, index2Length), index2Length);
+  }
+
+  /**
+   * Pack an index.
+   * @param index the index, the two indexes of a dual index are separated by
+   *          DUAL_INDEX_SEPARATOR
+   * @return the packed index or NO_KEY if the index cannot be packed
+   */
+  private long toKey(final String index) {
+
+    final int pos = index.indexOf(DUAL_INDEX_SEPARATOR);
+
+    if (pos == -1) {
+      return toKey(index, null, this.index1Length, this.index2Length);
+    }
+
+    return toKey(index.substring(0, pos), index.substring(pos + 1),
+        this.index1Length, this.index2Length);
+  }
+
+  /**
+   * Unpack an index.
+   * @param key the packed index
+   * @return the index, the two indexes of a dual index are separated by
+   *         DUAL_INDEX_SEPARATOR
+   */
+  private String toIndex(final long key) {
+
+    final String index =
+        PackedIndexCounter.decode(key, this.undeterminedIndexes.getLength());
+
+    if (this.index2Length == 0) {
+      return index;
+    }
+
+    return index.substring(0, this.index1Length)
+        + DUAL_INDEX_SEPARATOR + index.substring(this.index1Length);
+  }
+
   /**
    * Reverse a map.
    * @param map the original map
@@ -1166,10 +2014,15 @@ public class UndeterminedIndexesProcessThread
 
     for (final int sampleId : this.data.getSamplesInLane(this.lane)) {
 
-      // Get the sample index
+      // Get the sample indexes
       final String index = this.data.getIndexSample(sampleId);
+      final String index2 = this.data.getSampleIndex2(sampleId);
 
-      result.put(sampleId, index);
+      if (index != null && index2 != null && !index2.trim().isEmpty()) {
+        result.put(sampleId, index + DUAL_INDEX_SEPARATOR + index2.trim());
+      } else {
+        result.put(sampleId, index);
+      }
     }
 
     return result;
@@ -1185,35 +2038,56 @@ public class UndeterminedIndexesProcessThread
    * @param fastqSample sample to process
    * @param reportDir output report directory
    * @param undeterminedIndexedXSLFile xsl file use to create report html
+   * @param heavyHittersTopK number of indexes to report in bounded memory
+   *          mode, 0 to count all the indexes
+   * @param heavyHittersError maximal overestimation of the index counts in
+   *          bounded memory mode, as a fraction of the undetermined clusters
+   * @param shardThreads number of threads used to count the indexes of the
+   *          FASTQ files of the sample
+   * @param recoveryMinPFClusters minimal number of recoverable passing filter
+   *          clusters of the lane to recover the clusters, -1 to disable the
+   *          recovery
+   * @param recoveryOutputDir directory of the recovered FASTQ files, shared by
+   *          the lanes
+   * @param compressionPool pool that compresses the recovered FASTQ files,
+   *          shared by the lanes
    * @throws AozanException if sample cannot be processed
    */
   public UndeterminedIndexesProcessThread(final RunData data,
       final FastqSample fastqSample, final File reportDir,
-      final File undeterminedIndexedXSLFile) throws AozanException {
+      final File undeterminedIndexedXSLFile, final int heavyHittersTopK,
+      final double heavyHittersError, final int shardThreads,
+      final int recoveryMinPFClusters, final File recoveryOutputDir,
+      final GZIPCompressionPool compressionPool) throws AozanException {
 
     super(fastqSample);
 
     checkNotNull(data, "data argument cannot be null");
     checkNotNull(reportDir, "reportDir argument cannot be null");
+    Preconditions.checkArgument(
+        recoveryMinPFClusters < 0 || recoveryOutputDir != null,
+        "recoveryOutputDir argument cannot be null if recovery is enabled");
+    Preconditions.checkArgument(
+        recoveryMinPFClusters < 0 || compressionPool != null,
+        "compressionPool argument cannot be null if recovery is enabled");
+    Preconditions.checkArgument(
+        heavyHittersTopK <= 0
+            || (heavyHittersError > 0.0 && heavyHittersError < 1.0),
+        "heavyHittersError must be in ]0,1[: " + heavyHittersError);
 
     this.data = data;
     this.lane = fastqSample.getLane();
     this.read = fastqSample.getRead();
     this.reportDir = reportDir;
     this.xslFile = undeterminedIndexedXSLFile;
+    this.heavyHittersTopK = Math.max(0, heavyHittersTopK);
+    this.heavyHittersError = heavyHittersError;
+    this.shardThreads = shardThreads;
+    this.recoveryMinPFClusters = recoveryMinPFClusters;
+    this.recoveryOutputDir = recoveryOutputDir;
+    this.compressionPool = compressionPool;
 
     this.sampleIndexes = getSampleIndexes();
     this.reverseSampleIndexes = reverse(this.sampleIndexes);
-
-    try {
-
-      this.seqFile = SequenceFactory.getSequenceFile(fastqSample.getFastqFiles()
-          .toArray(new File[fastqSample.getFastqFiles().size()]));
-
-    } catch (final IOException | SequenceFormatException e) {
-      throw new AozanException(e);
-
-    }
-
   }
 }
@@ -38,8 +38,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import com.google.common.base.Preconditions;
@@ -48,6 +56,8 @@ import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.illumina.samplesheet.Sample;
 import fr.ens.biologie.genomique.aozan.illumina.samplesheet.SampleSheet;
 import fr.ens.biologie.genomique.aozan.illumina.samplesheet.io.SampleSheetCSVReader;
+import fr.ens.biologie.genomique.aozan.util.PackedIndexCounter;
+import fr.ens.biologie.genomique.aozan.util.GZIPCompressionPool;
 import fr.ens.biologie.genomique.eoulsan.EoulsanRuntimeException;
 import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
@@ -63,10 +73,20 @@ public class ReDemux {
 
   private static final int INDEX_LENGTH = 6;
 
+  /**
+   * Maximal number of wildcards of an index that is expanded in the dispatch
+   * table. Indexes with more wildcards are matched with a regular expression.
+   */
+  private static final int MAX_EXPANDED_WILDCARDS = 3;
+
+  /** Symbols that replace a wildcard of an index. */
+  private static final char[] WILDCARD_SYMBOLS = {'A', 'C', 'G', 'T', 'N'};
+
   private final File inputDir;
   private final File outputDir;
   private final SampleSheet sampleSheet;
   private final Map<Integer, ReDemuxLane> lanesToRedemux = new HashMap<>();
+  private final int threads;
 
   @SuppressWarnings("unused")
   private String bcl2fastqVersion;
@@ -81,7 +101,10 @@ public class ReDemux {
     private final List<Integer> reads;
     private final File inputDir;
     private final File outputDir;
-    private final Map<Pattern, Sample> newIndexes = new HashMap<>();
+    private final Map<Long, Sample> newIndexes = new HashMap<>();
+    private final Map<Pattern, Sample> newWildcardIndexes =
+        new LinkedHashMap<>();
+    private final Set<Sample> newIndexesSamples = new LinkedHashSet<>();
 
     /**
      * Add an index for the re-demultiplexing.
@@ -157,7 +180,72 @@ public class ReDemux {
         throw new AozanException(
             "No sample matches with index on lane " + this.lane + ": " + index);
       }
-      this.newIndexes.put(pattern, sample);
+
+      int wildcards = 0;
+      for (int i = 0; i < index.length(); i++) {
+        if (index.charAt(i) == '.') {
+          wildcards++;
+        }
+      }
+
+      if (wildcards > MAX_EXPANDED_WILDCARDS) {
+        this.newWildcardIndexes.put(pattern, sample);
+        this.newIndexesSamples.add(sample);
+      } else {
+        addExpandedIndex(index.toCharArray(), 0, sample, index);
+      }
+    }
+
+    /**
+     * Add recursively all the sequences matched by an index with wildcards to
+     * the dispatch table.
+     * @param sequence the current sequence
+     * @param start the first position of the sequence to expand
+     * @param sample the sample of the index
+     * @param index the index
+     * @throws AozanException if a sequence matches with another sample
+     */
+    private void addExpandedIndex(final char[] sequence, final int start,
+        final Sample sample, final String index) throws AozanException {
+
+      for (int i = start; i < sequence.length; i++) {
+
+        if (sequence[i] == '.') {
+
+          for (char c : WILDCARD_SYMBOLS) {
+            sequence[i] = c;
+            addExpandedIndex(sequence, i + 1, sample, index);
+          }
+          sequence[i] = '.';
+
+          return;
+        }
+      }
+
+      putIndex(new String(sequence), sample, index);
+    }
+
+    /**
+     * Add a sequence to the dispatch table.
+     * @param sequence the sequence without wildcard
+     * @param sample the sample of the sequence
+     * @param index the index that contains the sequence
+     * @throws AozanException if the sequence matches with another sample
+     */
+    private void putIndex(final String sequence, final Sample sample,
+        final String index) throws AozanException {
+
+      final Long key = PackedIndexCounter.encode(sequence);
+      final Sample previous = this.newIndexes.get(key);
+
+      if (previous != null && previous != sample) {
+        throw new AozanException(
+            "More than one sample matches with index on lane "
+                + this.lane + ": " + index);
+      }
+
+      this.newIndexes.put(key, sample);
+      this.newIndexesSamples.add(sample);
     }
 
     /**
@@ -209,15 +297,14 @@ public class ReDemux {
                 + this.lane + ": " + index);
       }
 
-      this.newIndexes.put(Pattern.compile(index), sample);
+      putIndex(index, sample, index);
     }
 
     /**
-     * Re-demultiplex all the reads.
-     * @throws IOException if an error occurs while re-demultiplexing
-     * @throws BadBioEntryException if FASTQ entry read is invalid
+     * Get the reads to re-demultiplex.
+     * @return a list with the read numbers
      */
-    private void reDemux() throws IOException, BadBioEntryException {
+    private List<Integer> getReadsToReDemux() {
 
       if (this.reads.isEmpty()) {
         throw new EoulsanRuntimeException("No undetermined file found");
@@ -237,18 +324,22 @@ public class ReDemux {
                   + this.lane + ": " + i);
         }
 
-        // Launch demultiplexing for the lane
-        reDemux(i);
       }
+
+      return this.reads;
     }
 
     /**
      * Re-demultiplex a read.
      * @param read read index
-     * @throws IOException
-     * @throws BadBioEntryException
+     * @param compressionPool pool that compresses the output files
+     * @param streamCount number of output files opened at the same time
+     * @throws IOException if an error occurs while re-demultiplexing
+     * @throws BadBioEntryException if FASTQ entry read is invalid
      */
-    private void reDemux(int read) throws IOException, BadBioEntryException {
+    private void reDemux(final int read,
+        final GZIPCompressionPool compressionPool, final int streamCount)
+        throws IOException, BadBioEntryException {
 
       // Check if directory exists
       if (!inputDir.isDirectory())
@@ -268,20 +359,31 @@ public class ReDemux {
           .getCompressionTypeByFilename(undeterminedFiles.get(0).getName());
 
       // Create the writers
-      // final Map<Pattern, FastqWriter> writers =
-      // createWriters(read, compression);
-
-      final Map<String, Entity> writers = createWriters2(read, compression);
+      final Map<Sample, FastqWriter> writers =
+          createWriters(read, compression, compressionPool, streamCount);
 
       System.out
-          .println("reDemux method, nupmber index retrieve from command line "
-              + this.newIndexes.size() + " with " + writers.size()
-              + " create on fastq.");
+          .println("reDemux method, number index retrieve from command line "
+              + (this.newIndexes.size() + this.newWildcardIndexes.size())
+              + " with " + writers.size() + " create on fastq.");
+
+      // Create the dispatch table from the packed indexes to the writers
+      final Map<Long, FastqWriter> dispatch = new HashMap<>();
+      for (Map.Entry<Long, Sample> e : this.newIndexes.entrySet()) {
+        dispatch.put(e.getKey(), writers.get(e.getValue()));
+      }
 
-      // Create an array with the pattern. An array is faster than a collection.
-      final List<Pattern> patterns = new ArrayList<>();
-      for (Map.Entry<String, Entity> e : writers.entrySet()) {
-        patterns.addAll(e.getValue().getPatterns());
+      // Create arrays with the wildcard patterns. An array is faster than a
+      // collection.
+      final int patternCount = this.newWildcardIndexes.size();
+      final Pattern[] patterns = new Pattern[patternCount];
+      final FastqWriter[] patternWriters = new FastqWriter[patternCount];
+      int patternIndex = 0;
+      for (Map.Entry<Pattern, Sample> e : this.newWildcardIndexes
+          .entrySet()) {
+        patterns[patternIndex] = e.getKey();
+        patternWriters[patternIndex] = writers.get(e.getValue());
+        patternIndex++;
       }
 
       for (File file : undeterminedFiles) {
@@ -294,29 +396,30 @@ public class ReDemux {
           final String seqName = rs.getName();
           final String index = seqName.substring(seqName.lastIndexOf(':') + 1);
 
-          for (Pattern p : patterns) {
-            if (p.matcher(index).matches()) {
-
-              for (Map.Entry<String, Entity> e : writers.entrySet()) {
+          FastqWriter writer = index.length() == INDEX_LENGTH
+              ? dispatch.get(PackedIndexCounter.encode(index)) : null;
 
-                if (e.getValue().getPatterns().contains(p)) {
-                  e.getValue().getFw().write(rs);
-                  // writers.get(p).write(rs);
-                  // status.add(p);
-                  break;
-                }
+          // Only the indexes with too many wildcards require a regex
+          if (writer == null) {
+            for (int i = 0; i < patternCount; i++) {
+              if (patterns[i].matcher(index).matches()) {
+                writer = patternWriters[i];
+                break;
               }
             }
           }
+
+          if (writer != null) {
+            writer.write(rs);
+          }
         }
         reader.throwException();
         reader.close();
+      }
 
-        // Close writers
-        for (Entity e : writers.values()) {
-          e.getFw().close();
-        }
-
+      // Close writers
+      for (FastqWriter writer : writers.values()) {
+        writer.close();
       }
 
     }
@@ -340,61 +443,25 @@ public class ReDemux {
      * Create writers that compress output if needed.
      * @param read read to re-demultiplex
      * @param compression compression of the writers
-     * @return a map with the writers
+     * @param compressionPool pool that compresses the output files
+     * @param streamCount number of output files opened at the same time
+     * @return a map with the writers of the samples
      * @throws FileNotFoundException if one of the output files cannot be
      *           created
      * @throws IOException if one of the output files cannot be created
      */
-    private Map<Pattern, FastqWriter> createWriters(final int read,
-        final CompressionType compression)
+    private Map<Sample, FastqWriter> createWriters(final int read,
+        final CompressionType compression,
+        final GZIPCompressionPool compressionPool, final int streamCount)
         throws FileNotFoundException, IOException {
 
-      final Map<Pattern, FastqWriter> result = new HashMap<>();
+      final Map<Sample, FastqWriter> result = new HashMap<>();
 
-      for (Map.Entry<Pattern, Sample> e : this.newIndexes.entrySet()) {
+      for (Sample sample : this.newIndexesSamples) {
 
-        final String sampleProject = e.getValue().getSampleProject();
-        final String sampleName = e.getValue().getDemultiplexingName();
-        final String sampleIndex = e.getValue().getIndex1();
-
-        // Define the output directory
-        final File subdir = new File(this.outputDir, "Project_"
-            + sampleProject + File.separator + "Sample_" + sampleName);
-
-        // Create output directory if not exists
-        if (!subdir.isDirectory()) {
-
-          if (!subdir.mkdirs()) {
-            throw new IOException("Cannot create output directory: " + subdir);
-          }
-        }
-
-        // Define the output file
-        final File file = new File(subdir,
-            sampleName
-                + "_" + sampleIndex + "_L00" + lane + "_R" + read + "_redemux_"
-                + e.getKey().pattern() + ".fastq" + compression.getExtension());
-
-        final OutputStream out =
-            compression.createOutputStream(new FileOutputStream(file));
-
-        result.put(e.getKey(), new FastqWriter(out));
-      }
-
-      return result;
-    }
-
-    private Map<String, Entity> createWriters2(final int read,
-        final CompressionType compression)
-        throws FileNotFoundException, IOException {
-
-      final Map<String, Entity> result = new HashMap<>();
-
-      for (Map.Entry<Pattern, Sample> e : this.newIndexes.entrySet()) {
-
-        final String sampleProject = e.getValue().getSampleProject();
-        final String sampleName = e.getValue().getDemultiplexingName();
-        final String sampleIndex = e.getValue().getIndex1();
+        final String sampleProject = sample.getSampleProject();
+        final String sampleName = sample.getDemultiplexingName();
+        final String sampleIndex = sample.getIndex1();
 
         // Define the output directory
         final File subdir = new File(this.outputDir, "Project_"
@@ -414,56 +481,13 @@ public class ReDemux {
                 + "_" + sampleIndex + "_L00" + lane + "_R" + read
                 + "_redemux_.fastq" + compression.getExtension());
 
-        final OutputStream out =
-            compression.createOutputStream(new FileOutputStream(file));
-
-        if (!result.containsKey(sampleName)) {
-          result.put(sampleName,
-              new Entity(new FastqWriter(out), e.getValue()));
-        }
-
-        result.get(sampleName).addPattern(e.getKey());
+        result.put(sample, new FastqWriter(createOutputStream(file,
+            compression, compressionPool, streamCount)));
       }
 
       return result;
     }
 
-    //
-    // Internal Class
-    //
-    static final class Entity {
-
-      private FastqWriter fw;
-      private List<Pattern> patterns;
-      private Sample cs;
-
-      void addPattern(final Pattern p) {
-
-        if (patterns.contains(p))
-          throw new RuntimeException();
-
-        this.patterns.add(p);
-      }
-
-      public FastqWriter getFw() {
-        return fw;
-      }
-
-      public List<Pattern> getPatterns() {
-        return patterns;
-      }
-
-      public Sample getCs() {
-        return cs;
-      }
-
-      Entity(final FastqWriter fw, final Sample cs) {
-        this.fw = fw;
-        this.patterns = new ArrayList<>();
-        this.cs = cs;
-      }
-    }
-
     /**
      * Find the undetermined files.
      * @param baseDir input directory
@@ -510,7 +534,13 @@ public class ReDemux {
       for (File f : undeterminedFiles) {
         final String filename = f.getName();
         final String prefix = filename.substring(0, filename.lastIndexOf('_'));
-        result.add(Integer.parseInt(prefix.substring(prefix.length() - 1)));
+        final int read =
+            Integer.parseInt(prefix.substring(prefix.length() - 1));
+
+        // A read can have several undetermined files
+        if (!result.contains(read)) {
+          result.add(read);
+        }
       }
 
       Collections.sort(result);
@@ -568,16 +598,75 @@ public class ReDemux {
   }
 
   /**
-   * Launch the re-demultiplexing.
+   * Launch the re-demultiplexing. The reads of all the lanes are processed
+   * concurrently.
    * @throws IOException if an IO error occurs while re-demultiplexing
    * @throws BadBioEntryException if an FASTQ entry read is invald
-   * @throws IOException
-   * @throws BadBioEntryException
    */
   public void redmux() throws IOException, BadBioEntryException {
 
-    for (ReDemuxLane rdl : this.lanesToRedemux.values())
-      rdl.reDemux();
+    // Create a task for each read of each lane
+    final List<Callable<Void>> tasks = new ArrayList<>();
+    final GZIPCompressionPool compressionPool =
+        new GZIPCompressionPool(this.threads);
+
+    // All the output files are opened at the same time
+    int streamCount = 0;
+    for (ReDemuxLane rdl : this.lanesToRedemux.values()) {
+      streamCount +=
+          rdl.newIndexesSamples.size() * rdl.getReadsToReDemux().size();
+    }
+    final int totalStreamCount = Math.max(1, streamCount);
+
+    for (final ReDemuxLane rdl : this.lanesToRedemux.values()) {
+      for (final int read : rdl.getReadsToReDemux()) {
+
+        tasks.add(new Callable<Void>() {
+
+          @Override
+          public Void call() throws IOException, BadBioEntryException {
+
+            rdl.reDemux(read, compressionPool, totalStreamCount);
+            return null;
+          }
+        });
+      }
+    }
+
+    final ExecutorService executor = Executors
+        .newFixedThreadPool(Math.max(1, Math.min(this.threads, tasks.size())));
+
+    try {
+
+      final List<Future<Void>> futures = new ArrayList<>();
+      for (Callable<Void> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+
+      final Throwable cause = e.getCause();
+
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof BadBioEntryException) {
+        throw (BadBioEntryException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      executor.shutdownNow();
+      compressionPool.shutdown();
+    }
   }
 
   /**
@@ -605,6 +694,69 @@ public class ReDemux {
     return result;
   }
 
+  /**
+   * Create an output stream that compresses the data if needed.
+   * @param file file to create
+   * @param compression compression of the file
+   * @param compressionPool pool that compresses the gzip files
+   * @param streamCount number of files opened at the same time
+   * @return an OutputStream object
+   * @throws IOException if the file cannot be created
+   */
+  private static OutputStream createOutputStream(final File file,
+      final CompressionType compression,
+      final GZIPCompressionPool compressionPool, final int streamCount)
+      throws IOException {
+
+    // Gzip files are compressed in parallel by blocks
+    if (compression == CompressionType.GZIP) {
+      return compressionPool.createOutputStream(new FileOutputStream(file),
+          streamCount);
+    }
+
+    return compression.createOutputStream(new FileOutputStream(file));
+  }
+
+  /**
+   * Pack the index of a read.
+   * @param index the index of the read, the two indexes of a dual index are
+   *          separated by '+'
+   * @param index1Length length of the first index
+   * @param index2Length length of the second index, 0 for single indexes
+   * @return the packed index or PackedIndexCounter.NO_KEY if the index cannot
+   *         be packed or has not the expected length
+   */
+  private static long toKey(final String index, final int index1Length,
+      final int index2Length) {
+
+    final int pos = index.indexOf('+');
+    final int length1 = pos == -1 ? index.length() : pos;
+
+    if (length1 != index1Length) {
+      return PackedIndexCounter.NO_KEY;
+    }
+
+    final long key = PackedIndexCounter
+        .encode(pos == -1 ? index : index.subSequence(0, pos));
+
+    if (index2Length == 0 || key == PackedIndexCounter.NO_KEY) {
+      return key;
+    }
+
+    if (pos == -1 || index.length() - pos - 1 != index2Length) {
+      return PackedIndexCounter.NO_KEY;
+    }
+
+    final long key2 = PackedIndexCounter
+        .encode(index.subSequence(pos + 1, index.length()));
+
+    if (key2 == PackedIndexCounter.NO_KEY) {
+      return key2;
+    }
+
+    return PackedIndexCounter.concat(key, index1Length, key2, index2Length);
+  }
+
   //
   // Constructor
   //
@@ -618,18 +770,112 @@ public class ReDemux {
   public ReDemux(final File baseDir, final SampleSheet samplesheet,
       final File outputDir) {
 
+    this(baseDir, samplesheet, outputDir,
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructor.
+   * @param baseDir run base directory
+   * @param samplesheet Bcl2fastq samplesheet object
+   * @param outputDir output directory
+   * @param threads number of threads to use
+   */
+  public ReDemux(final File baseDir, final SampleSheet samplesheet,
+      final File outputDir, final int threads) {
+
+    Preconditions.checkArgument(threads > 0,
+        "Invalid number of threads: " + threads);
     Preconditions.checkNotNull(samplesheet,
         "samplesheet argument cannot be null");
     Preconditions.checkNotNull(baseDir, "baseDir argument cannot be null");
     this.sampleSheet = samplesheet;
     this.inputDir = baseDir;
     this.outputDir = outputDir;
+    this.threads = threads;
   }
 
   //
   // Static methods
   //
 
+  /**
+   * Re-demultiplex FASTQ files with a dispatch table. The reads are streamed
+   * once and each read is written in the output file of its packed index. The
+   * compression of the output files is defined by their extension.
+   * @param inputFiles FASTQ files to re-demultiplex
+   * @param dispatch dispatch table from the packed indexes (see
+   *          PackedIndexCounter.encode() and PackedIndexCounter.concat()) to
+   *          the positions of the output files
+   * @param index1Length length of the first index
+   * @param index2Length length of the second index, 0 for single indexes
+   * @param outputFiles the output files
+   * @param compressionPool pool that compresses the gzip files
+   * @return an array with the number of reads written in each output file
+   * @throws IOException if an error occurs while re-demultiplexing
+   * @throws BadBioEntryException if a FASTQ entry is invalid
+   */
+  public static long[] reDemux(final List<File> inputFiles,
+      final Map<Long, Integer> dispatch, final int index1Length,
+      final int index2Length, final List<File> outputFiles,
+      final GZIPCompressionPool compressionPool)
+      throws IOException, BadBioEntryException {
+
+    Preconditions.checkNotNull(inputFiles, "inputFiles cannot be null");
+    Preconditions.checkNotNull(dispatch, "dispatch cannot be null");
+    Preconditions.checkNotNull(outputFiles, "outputFiles cannot be null");
+    Preconditions.checkNotNull(compressionPool,
+        "compressionPool cannot be null");
+
+    final long[] result = new long[outputFiles.size()];
+    final FastqWriter[] writers = new FastqWriter[outputFiles.size()];
+
+    try {
+
+      // Create the writers
+      for (int i = 0; i < writers.length; i++) {
+
+        final File file = outputFiles.get(i);
+        writers[i] = new FastqWriter(createOutputStream(file,
+            CompressionType.getCompressionTypeByFilename(file.getName()),
+            compressionPool, Math.max(1, writers.length)));
+      }
+
+      for (File file : inputFiles) {
+
+        final FastqReader reader =
+            new FastqReader(ReDemuxLane.createInputStream(file));
+
+        for (ReadSequence rs : reader) {
+
+          // Do not use IlluminaReadId class because manual parsing is faster
+          final String seqName = rs.getName();
+          final Integer output = dispatch.get(
+              toKey(seqName.substring(seqName.lastIndexOf(':') + 1),
+                  index1Length, index2Length));
+
+          if (output != null) {
+            writers[output].write(rs);
+            result[output]++;
+          }
+        }
+        reader.throwException();
+        reader.close();
+      }
+
+    } finally {
+
+      // Close writers
+      for (FastqWriter writer : writers) {
+        if (writer != null) {
+          writer.close();
+        }
+      }
+    }
+
+    return result;
+  }
+
   public static void redemultiplex(final File samplesheetFile,
       final String bcl2fastqVersion, final List<String> lanesAndIndex,
       final File outputDir) throws FileNotFoundException, IOException,
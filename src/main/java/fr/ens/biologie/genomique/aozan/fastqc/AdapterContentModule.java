@@ -0,0 +1,377 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqc;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.swing.JPanel;
+import javax.xml.stream.XMLStreamException;
+
+import fr.ens.biologie.genomique.aozan.AozanRuntimeException;
+import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.aozan.Globals;
+import fr.ens.biologie.genomique.aozan.util.MultiPatternMatcher;
+import uk.ac.babraham.FastQC.FastQCConfig;
+import uk.ac.babraham.FastQC.Graphs.BaseGroup;
+import uk.ac.babraham.FastQC.Graphs.LineGraph;
+import uk.ac.babraham.FastQC.Modules.ModuleConfig;
+import uk.ac.babraham.FastQC.Report.HTMLReportArchive;
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+
+/**
+ * This class define a replacement of the FastQC adapter content module. All
+ * the adapters are searched in one pass with an Aho-Corasick automaton and
+ * counts are stored in primitive arrays, so the cost of the scan does not
+ * depend of the number of adapters. The module name, the results and the
+ * report are the same as the FastQC 0.11.x module.
+ * @since 2.3
+ * @author agent
+ */
+public class AdapterContentModule extends AbstractQCModuleAozan {
+
+  /** LOGGER. */
+  private static final Logger LOGGER = Common.getLogger();
+
+  /** Name of the module, same as the original FastQC module. */
+  public static final String MODULE_NAME = "Adapter Content";
+
+  private static final String DEFAULT_ADAPTER_FILE =
+      "/Configuration/adapter_list.txt";
+
+  private final String[] labels;
+  private final int longestAdapter;
+  private final MultiPatternMatcher matcher;
+  private final int[] firstPositions;
+
+  // For each adapter, hits are stored as a difference array: +1 at the first
+  // position of the adapter and -1 after the last position to count
+  private long[][] hitDeltas;
+  private int longestSequence;
+  private long totalCount;
+
+  private boolean calculated;
+  private double[][] enrichments;
+  private String[] xLabels;
+  private BaseGroup[] groups;
+
+  //
+  // QCModule methods
+  //
+
+  @Override
+  public String name() {
+
+    return MODULE_NAME;
+  }
+
+  @Override
+  public String description() {
+
+    return "Searches for specific adapter sequences in a library";
+  }
+
+  @Override
+  public boolean ignoreFilteredSequences() {
+
+    return true;
+  }
+
+  @Override
+  public boolean ignoreInReport() {
+
+    return ModuleConfig.getParam("adapter", "ignore") > 0;
+  }
+
+  @Override
+  public void processSequence(final Sequence sequence) {
+
+    this.calculated = false;
+    this.totalCount++;
+
+    final String seq = sequence.getSequence();
+
+    // Same as FastQC, the last position where an adapter can start is the
+    // length of the sequence minus the length of the longest adapter
+    if (seq.length() - this.longestAdapter > this.longestSequence) {
+      this.longestSequence = seq.length() - this.longestAdapter;
+      expandLengthTo(this.longestSequence);
+    }
+
+    if (this.matcher.findFirstOccurrences(seq, this.firstPositions) == 0) {
+      return;
+    }
+
+    final int last = this.longestSequence;
+    for (int a = 0; a < this.firstPositions.length; a++) {
+
+      final int index = this.firstPositions[a];
+
+      final long[] deltas = this.hitDeltas[a];
+      if (index >= 0 && index <= last && deltas.length > 0) {
+        deltas[index]++;
+        deltas[last + 1]--;
+      }
+    }
+  }
+
+  @Override
+  public void reset() {
+
+    this.totalCount = 0;
+    this.longestSequence = 0;
+    this.calculated = false;
+    this.hitDeltas = new long[this.labels.length][0];
+  }
+
+  @Override
+  public JPanel getResultsPanel() {
+
+    if (!this.calculated) {
+      calculateEnrichment();
+    }
+
+    return new LineGraph(this.enrichments, 0d, 100d, "Position in read (bp)",
+        this.labels, this.xLabels, "% Adapter");
+  }
+
+  @Override
+  public boolean raisesError() {
+
+    return exceedThreshold("error");
+  }
+
+  @Override
+  public boolean raisesWarning() {
+
+    return exceedThreshold("warn");
+  }
+
+  @Override
+  public void makeReport(final HTMLReportArchive report)
+      throws XMLStreamException, IOException {
+
+    if (!this.calculated) {
+      calculateEnrichment();
+    }
+
+    writeDefaultImage(report, "adapter_content.png", "Adapter graph",
+        Math.max(800, this.groups.length * 15), 600);
+
+    final StringBuffer sb = report.dataDocument();
+    sb.append("#Position");
+    for (final String label : this.labels) {
+      sb.append('\t');
+      sb.append(label);
+    }
+    sb.append('\n');
+
+    for (int g = 0; g < this.groups.length; g++) {
+      sb.append(this.groups[g].toString());
+      for (int a = 0; a < this.labels.length; a++) {
+        sb.append('\t');
+        sb.append(this.enrichments[a][g]);
+      }
+      sb.append('\n');
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Expand the size of the count arrays.
+   * @param newLength the new last position to count
+   */
+  private void expandLengthTo(final int newLength) {
+
+    // An extra cell is required for the end of the difference array
+    final int size = newLength + 2;
+
+    for (int a = 0; a < this.hitDeltas.length; a++) {
+      this.hitDeltas[a] = Arrays.copyOf(this.hitDeltas[a], size);
+    }
+  }
+
+  /**
+   * Test if the enrichment of an adapter exceed a threshold.
+   * @param level the level of the threshold in the limits file
+   * @return true if the threshold is exceeded
+   */
+  private boolean exceedThreshold(final String level) {
+
+    if (!this.calculated) {
+      calculateEnrichment();
+    }
+
+    final double threshold = ModuleConfig.getParam("adapter", level);
+
+    for (final double[] adapterEnrichments : this.enrichments) {
+      for (final double e : adapterEnrichments) {
+        if (e > threshold) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Compute the percentage of sequences with each adapter per base group.
+   */
+  private synchronized void calculateEnrichment() {
+
+    // Same length as the positions array of the FastQC module
+    final int maxLength =
+        this.hitDeltas.length == 0 || this.hitDeltas[0].length == 0
+            ? 0 : this.longestSequence + 1;
+
+    this.groups = BaseGroup.makeBaseGroups(maxLength);
+    this.xLabels = new String[this.groups.length];
+    for (int i = 0; i < this.xLabels.length; i++) {
+      this.xLabels[i] = this.groups[i].toString();
+    }
+
+    this.enrichments = new double[this.labels.length][this.groups.length];
+
+    for (int a = 0; a < this.labels.length; a++) {
+
+      // Transform the difference array in cumulative counts
+      final long[] deltas = this.hitDeltas[a];
+      final long[] positions = new long[Math.min(maxLength, deltas.length)];
+      long count = 0;
+      for (int p = 0; p < positions.length; p++) {
+        count += deltas[p];
+        positions[p] = count;
+      }
+
+      for (int g = 0; g < this.groups.length; g++) {
+
+        final BaseGroup group = this.groups[g];
+        for (int p = group.lowerCount() - 1; p < group.upperCount()
+            && p < positions.length; p++) {
+          this.enrichments[a][g] += (positions[p] * 100d) / this.totalCount;
+        }
+
+        this.enrichments[a][g] /=
+            (group.upperCount() - group.lowerCount()) + 1;
+      }
+    }
+
+    this.calculated = true;
+  }
+
+  /**
+   * Read the adapter file.
+   * @param names list where adding the names of the adapters
+   * @param sequences list where adding the sequences of the adapters
+   */
+  private static void readAdapters(final List<String> names,
+      final List<String> sequences) {
+
+    try {
+
+      final InputStream is;
+
+      if (FastQCConfig.getInstance().adapter_file == null) {
+        is = AdapterContentModule.class
+            .getResourceAsStream(DEFAULT_ADAPTER_FILE);
+
+        if (is == null) {
+          throw new AozanRuntimeException(
+              "Cannot find FastQC adapter file: " + DEFAULT_ADAPTER_FILE);
+        }
+      } else {
+        is = new FileInputStream(FastQCConfig.getInstance().adapter_file);
+      }
+
+      try (final BufferedReader br = new BufferedReader(
+          new InputStreamReader(is, Globals.DEFAULT_FILE_ENCODING))) {
+
+        String line;
+        while ((line = br.readLine()) != null) {
+
+          if (line.startsWith("#")) {
+            continue; // Skip comments
+          }
+          if (line.trim().isEmpty()) {
+            continue; // Skip blank lines
+          }
+
+          final String[] sections = line.split("\\t+");
+
+          if (sections.length != 2) {
+            LOGGER.warning("Expected 2 sections for adapter line but got "
+                + sections.length + " from " + line);
+            continue;
+          }
+
+          names.add(sections[0]);
+          sequences.add(sections[1]);
+        }
+      }
+
+    } catch (final IOException e) {
+      throw new AozanRuntimeException(
+          "In adapter content module, fail to read adapter list: "
+              + e.getMessage());
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   */
+  public AdapterContentModule() {
+
+    final List<String> names = new ArrayList<>();
+    final List<String> sequences = new ArrayList<>();
+    readAdapters(names, sequences);
+
+    int longest = 0;
+    for (final String s : sequences) {
+      longest = Math.max(longest, s.length());
+    }
+
+    this.labels = names.toArray(new String[names.size()]);
+    this.longestAdapter = longest;
+    this.matcher = new MultiPatternMatcher(sequences);
+    this.firstPositions = new int[sequences.size()];
+
+    reset();
+  }
+
+}
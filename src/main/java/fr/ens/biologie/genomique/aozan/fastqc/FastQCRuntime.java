@@ -0,0 +1,171 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.logging.Logger;
+
+import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.aozan.Settings;
+import uk.ac.babraham.FastQC.FastQCConfig;
+
+/**
+ * This class initialize FastQC v0.11.X from the Aozan configuration. The
+ * initialization is done only once per JVM and only when a collector that use
+ * FastQC is executed, as patching FastQC classes is costly.
+ * @since 2.3
+ * @author agent
+ */
+public final class FastQCRuntime {
+
+  /** Logger. */
+  private static final Logger LOGGER = Common.getLogger();
+
+  private static boolean configurationInitialized;
+  private static boolean patched;
+
+  /**
+   * Initialize the FastQC configuration. This method must be called before
+   * using the FastQC sequence readers.
+   * @param settings Aozan settings
+   */
+  public static synchronized void initializeConfiguration(
+      final Settings settings) {
+
+    checkNotNull(settings, "settings argument cannot be null");
+
+    if (configurationInitialized) {
+      return;
+    }
+
+    // Define parameters of FastQC
+    System.setProperty("java.awt.headless", "true");
+
+    // Set the number of threads of FastQC at one
+    System.setProperty("fastqc.threads", "1");
+
+    // Contaminant file
+    addSystemProperty(settings, Settings.QC_CONF_FASTQC_CONTAMINANT_FILE_KEY,
+        "fastqc.contaminant_file");
+
+    // Adapter file
+    addSystemProperty(settings, Settings.QC_CONF_FASTQC_ADAPTER_FILE_KEY,
+        "fastqc.adapter_file");
+
+    // Limits file
+    addSystemProperty(settings, Settings.QC_CONF_FASTQC_LIMITS_FILE_KEY,
+        "fastqc.limits_file");
+
+    // Kmer Size
+    addSystemProperty(settings, Settings.QC_CONF_FASTQC_KMER_SIZE_KEY,
+        "fastqc.kmer_size");
+
+    // Set fastQC nogroup
+    addSystemProperty(settings, Settings.QC_CONF_FASTQC_NOGROUP_KEY,
+        "fastqc.nogroup");
+
+    // Set fastQC expgroup
+    addSystemProperty(settings, Settings.QC_CONF_FASTQC_EXPGROUP_KEY,
+        "fastqc.expgroup");
+
+    // Set fastQC format fastq
+    addSystemProperty(settings, Settings.QC_CONF_FASTQC_CASAVA_KEY,
+        "fastqc.casava");
+
+    // Set fastQC nofilter system property
+    addSystemProperty(settings, Settings.QC_CONF_FASTQC_NOFILTER_KEY,
+        "fastqc.nofilter");
+
+    addSystemProperty(settings, Settings.QC_CONF_FASTQC_NANO_KEY,
+        "fastqc.nano");
+
+    // Unzip FastQC report
+    System.setProperty("fastqc.unzip", "false");
+    addSystemProperty(settings, Settings.QC_CONF_FASTQC_UNZIP_REPORT_FILE_KEY,
+        "fastqc.unzip");
+
+    // Initialize FastQCConfig
+    FastQCConfig.getInstance();
+
+    // Fix FastQCConfig
+    if (FastQCConfig.getInstance().do_unzip == null) {
+      FastQCConfig.getInstance().do_unzip = Boolean.FALSE;
+    }
+
+    configurationInitialized = true;
+  }
+
+  /**
+   * Initialize the FastQC configuration and patch the FastQC classes. This
+   * method must be called before the creation of the FastQC modules.
+   * @param settings Aozan settings
+   * @throws AozanException if an error occurs when patching FastQC classes.
+   */
+  public static synchronized void initialize(final Settings settings)
+      throws AozanException {
+
+    initializeConfiguration(settings);
+
+    if (patched) {
+      return;
+    }
+
+    LOGGER.fine("FASTQC: patch FastQC classes");
+
+    // Patch FastQC classes
+    RuntimePatchFastQC.runPatchFastQC(Boolean
+        .valueOf(settings.get(Settings.QC_CONF_FASTQC_BLAST_ENABLE_KEY)));
+
+    patched = true;
+  }
+
+  /**
+   * Add a system properties from Aozan properties.
+   * @param settings Aozan settings
+   * @param keyAozan key in Aozan properties
+   * @param keySystem key in System properties
+   */
+  private static void addSystemProperty(final Settings settings,
+      final String keyAozan, final String keySystem) {
+
+    final String value = settings.get(keyAozan);
+
+    if (value != null && !value.isEmpty()) {
+      System.setProperty(keySystem, value);
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   */
+  private FastQCRuntime() {
+  }
+
+}
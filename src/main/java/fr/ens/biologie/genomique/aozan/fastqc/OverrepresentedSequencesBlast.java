@@ -43,6 +43,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -104,13 +106,19 @@ public class OverrepresentedSequencesBlast {
 
   private static volatile OverrepresentedSequencesBlast singleton;
 
+  // Result of the sequences without hit, as a ConcurrentMap cannot contain
+  // null values
+  private static final BlastResultHit NO_HIT = new BlastResultHit("");
+
   // Save sequence and result blast for the run
-  private final Map<String, BlastResultHit> sequencesAlreadyAnalysis =
-      new HashMap<>();
+  private final ConcurrentMap<String, BlastResultHit> sequencesAlreadyAnalysis =
+      new ConcurrentHashMap<>();
 
   private boolean useDocker;
   private boolean configured;
+  private boolean initialized;
   private boolean enabled;
+  private CollectorConfiguration conf;
   private File tmpDir;
 
   private CommandLine blastCommonCommandLine;
@@ -293,7 +301,8 @@ public class OverrepresentedSequencesBlast {
   //
 
   /**
-   * Configure and check that Blastn can be launched.
+   * Configure Blastn. The check of the Blast installation will be done on the
+   * first blast.
    * @param conf object with the collector configuration
    * @param dockerConnectionString Docker connection URI
    */
@@ -306,14 +315,24 @@ public class OverrepresentedSequencesBlast {
       return;
     }
 
-    boolean stepEnabled =
+    final boolean stepEnabled =
         conf.getBoolean(Settings.QC_CONF_FASTQC_BLAST_ENABLE_KEY);
 
-    if (!stepEnabled) {
-      this.configured = true;
-      return;
+    if (stepEnabled) {
+      this.conf = conf;
     }
 
+    this.configured = true;
+  }
+
+  /**
+   * Check that Blastn can be launched.
+   * @param conf object with the collector configuration
+   */
+  private void initialize(final CollectorConfiguration conf) {
+
+    boolean stepEnabled = true;
+
     this.tmpDir = conf.getFile(QC.TMP_DIR);
 
     // Test Docker must be used for launching Blast
@@ -377,8 +396,6 @@ public class OverrepresentedSequencesBlast {
         LOGGER.warning(e.getMessage() + '\n' + stackTraceToString(e));
       }
     }
-
-    this.configured = true;
   }
 
   /**
@@ -459,25 +476,44 @@ public class OverrepresentedSequencesBlast {
     }
 
     // Return nothing if blast if disabled
-    if (!this.enabled) {
+    if (this.conf == null) {
       return null;
     }
 
-    // Return the result if it already been computed
-    if (this.sequencesAlreadyAnalysis.containsKey(sequence)) {
-      return this.sequencesAlreadyAnalysis.get(sequence);
+    // Return the result if it already been computed, without waiting the end
+    // of the blast of the other sequences
+    final BlastResultHit cached = this.sequencesAlreadyAnalysis.get(sequence);
+    if (cached != null) {
+      return cached == NO_HIT ? null : cached;
     }
 
     synchronized (this.submittedSequences) {
 
+      // Check the Blast installation on the first call
+      if (!this.initialized) {
+        initialize(this.conf);
+        this.initialized = true;
+      }
+
+      // Return nothing if blast if disabled
+      if (!this.enabled) {
+        return null;
+      }
+
       // Return the result if it already been computed since the end of the lock
-      if (this.sequencesAlreadyAnalysis.containsKey(sequence)) {
-        return this.sequencesAlreadyAnalysis.get(sequence);
+      final BlastResultHit computed =
+          this.sequencesAlreadyAnalysis.get(sequence);
+      if (computed != null) {
+        return computed == NO_HIT ? null : computed;
       }
 
       // Add the sequence to the submitted list
       this.submittedSequences.add(sequence);
 
+      // Sequences submitted before the loading of the sequences to ignore
+      this.submittedSequences
+          .removeAll(this.sequencesAlreadyAnalysis.keySet());
+
       // Blast all the submitted sequences
       blast();
 
@@ -485,7 +521,8 @@ public class OverrepresentedSequencesBlast {
       this.submittedSequences.clear();
 
       // Return the result
-      return this.sequencesAlreadyAnalysis.get(sequence);
+      final BlastResultHit result = this.sequencesAlreadyAnalysis.get(sequence);
+      return result == NO_HIT ? null : result;
     }
   }
 
@@ -651,7 +688,11 @@ public class OverrepresentedSequencesBlast {
       saxParser.parse(resultXML, iterationHandler);
 
       // Search the best hit
-      this.sequencesAlreadyAnalysis.putAll(iterationHandler.getResult());
+      for (final Map.Entry<String, BlastResultHit> e : iterationHandler
+          .getResult().entrySet()) {
+        this.sequencesAlreadyAnalysis.put(e.getKey(),
+            e.getValue() == null ? NO_HIT : e.getValue());
+      }
 
     } catch (final IOException | SAXException
         | ParserConfigurationException e) {
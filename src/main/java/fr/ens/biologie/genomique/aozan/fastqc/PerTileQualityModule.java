@@ -0,0 +1,589 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqc;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import javax.swing.JPanel;
+import javax.xml.stream.XMLStreamException;
+
+import fr.ens.biologie.genomique.aozan.Common;
+import uk.ac.babraham.FastQC.Graphs.BaseGroup;
+import uk.ac.babraham.FastQC.Graphs.TileGraph;
+import uk.ac.babraham.FastQC.Modules.ModuleConfig;
+import uk.ac.babraham.FastQC.Report.HTMLReportArchive;
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.QualityEncoding.PhredEncoding;
+
+/**
+ * This class define a replacement of the FastQC per tile sequence quality
+ * module. Quality sums and counts are stored in flat primitive arrays indexed
+ * by tile slot and cycle and the tile number is parsed directly from the
+ * characters of the sequence identifier. The module name, the sampling of the
+ * sequences, the results and the report are the same as the FastQC 0.11.x
+ * module.
+ * @since 2.3
+ * @author agent
+ */
+public class PerTileQualityModule extends AbstractQCModuleAozan {
+
+  /** LOGGER. */
+  private static final Logger LOGGER = Common.getLogger();
+
+  /** Name of the module, same as the original FastQC module. */
+  public static final String MODULE_NAME = "Per tile sequence quality";
+
+  /** Maximal number of tiles, same limit as FastQC. */
+  private static final int MAX_TILES = 2500;
+
+  /** Only one sequence out of 10 is used after the first sequences. */
+  private static final int SAMPLING_START = 10000;
+  private static final int SAMPLING_RATE = 10;
+
+  // Size of the tile number to slot hash table, must be a power of 2
+  private static final int TILE_TABLE_SIZE = 8192;
+
+  // Tile number to slot hash table (open addressing)
+  private final int[] tableKeys = new int[TILE_TABLE_SIZE];
+  private final int[] tableSlots = new int[TILE_TABLE_SIZE];
+
+  // Tile numbers and quality data, indexed by slot * lengthCapacity + cycle
+  private int[] tileNumbers;
+  private long[] qualitySums;
+  private long[] qualityCounts;
+  private int tileCount;
+  private int slotCapacity;
+  private int lengthCapacity;
+
+  private int lastTile;
+  private int lastSlot;
+
+  private int currentLength;
+  private char minChar;
+  private char maxChar;
+  private long totalCount;
+  private int splitPosition;
+  private boolean ignore;
+
+  private boolean calculated;
+  private double[][] means;
+  private String[] xLabels;
+  private int[] tiles;
+  private double maxDeviation;
+
+  //
+  // QCModule methods
+  //
+
+  @Override
+  public String name() {
+
+    return MODULE_NAME;
+  }
+
+  @Override
+  public String description() {
+
+    return "Shows the perl tile Quality scores of all bases at a given "
+        + "position in a sequencing run";
+  }
+
+  @Override
+  public boolean ignoreFilteredSequences() {
+
+    return true;
+  }
+
+  @Override
+  public boolean ignoreInReport() {
+
+    return this.ignore
+        || ModuleConfig.getParam("tile", "ignore") > 0
+        || this.currentLength == 0;
+  }
+
+  @Override
+  public void processSequence(final Sequence sequence) {
+
+    // Don't waste time calculating this if we're not going to use it anyway
+    if (ModuleConfig.getParam("tile", "ignore") > 0) {
+      return;
+    }
+
+    final String qual = sequence.getQualityString();
+
+    // Don't bother with sequences with zero length
+    if (qual.length() == 0) {
+      return;
+    }
+
+    // Don't process any more sequences if we've been marked to skip
+    if (this.ignore) {
+      return;
+    }
+
+    this.calculated = false;
+    this.totalCount++;
+
+    // Sample 10% of the sequences after the first 10000
+    if (this.totalCount > SAMPLING_START
+        && this.totalCount % SAMPLING_RATE != 0) {
+      return;
+    }
+
+    final int tile;
+    try {
+      tile = parseTile(sequence.getID());
+    } catch (final NumberFormatException e) {
+      // This doesn't conform
+      this.ignore = true;
+      return;
+    }
+
+    final int length = qual.length();
+    if (length > this.currentLength) {
+      ensureCapacity(this.slotCapacity, length);
+      this.currentLength = length;
+    }
+
+    final int slot = getSlot(tile);
+    if (slot == -1) {
+      return;
+    }
+
+    final long[] sums = this.qualitySums;
+    final long[] counts = this.qualityCounts;
+    final int offset = slot * this.lengthCapacity;
+    char min = this.minChar;
+    char max = this.maxChar;
+
+    for (int i = 0; i < length; i++) {
+
+      final char c = qual.charAt(i);
+      sums[offset + i] += c;
+      counts[offset + i]++;
+
+      if (c < min) {
+        min = c;
+      }
+      if (c > max) {
+        max = c;
+      }
+    }
+
+    this.minChar = min;
+    this.maxChar = max;
+  }
+
+  @Override
+  public void reset() {
+
+    Arrays.fill(this.tableSlots, -1);
+    this.tileNumbers = new int[0];
+    this.qualitySums = new long[0];
+    this.qualityCounts = new long[0];
+    this.tileCount = 0;
+    this.slotCapacity = 0;
+    this.lengthCapacity = 0;
+    this.lastSlot = -1;
+    this.currentLength = 0;
+    this.minChar = Character.MAX_VALUE;
+    this.maxChar = 0;
+    this.totalCount = 0;
+    this.splitPosition = -1;
+    this.ignore = false;
+    this.calculated = false;
+  }
+
+  @Override
+  public JPanel getResultsPanel() {
+
+    if (!this.calculated) {
+      calculateMeans();
+    }
+
+    return new TileGraph(this.xLabels, this.tiles, this.means);
+  }
+
+  @Override
+  public boolean raisesError() {
+
+    if (!this.calculated) {
+      calculateMeans();
+    }
+
+    return this.maxDeviation > ModuleConfig.getParam("tile", "error");
+  }
+
+  @Override
+  public boolean raisesWarning() {
+
+    if (!this.calculated) {
+      calculateMeans();
+    }
+
+    return this.maxDeviation > ModuleConfig.getParam("tile", "warn");
+  }
+
+  @Override
+  public void makeReport(final HTMLReportArchive report)
+      throws XMLStreamException, IOException {
+
+    if (!this.calculated) {
+      calculateMeans();
+    }
+
+    writeDefaultImage(report, "per_tile_quality.png", "Per tile quality graph",
+        Math.max(800, this.means[0].length * 15), 600);
+
+    final StringBuffer sb = report.dataDocument();
+    sb.append("#Tile\tBase\tMean\n");
+
+    for (int t = 0; t < this.tiles.length; t++) {
+      for (int i = 0; i < this.means[t].length; i++) {
+        sb.append(this.tiles[t]);
+        sb.append('\t');
+        sb.append(this.xLabels[i]);
+        sb.append('\t');
+        sb.append(this.means[t][i]);
+        sb.append('\n');
+      }
+    }
+  }
+
+  //
+  // Tile parsing
+  //
+
+  /**
+   * Get the tile number from a sequence identifier. The field that contains
+   * the tile number is searched the same way as FastQC does.
+   * @param id sequence identifier
+   * @return the tile number
+   * @throws NumberFormatException if the tile number cannot be found
+   */
+  private int parseTile(final String id) {
+
+    if (this.splitPosition == -1) {
+
+      final int fieldCount = fieldCount(id);
+
+      // @D3NH4HQ1:95:C0MVNACXX:2:1101:1000:1936 1:N:0:
+      if (fieldCount >= 7) {
+        this.splitPosition = 4;
+      } else if (fieldCount >= 5) {
+        // @HWUSI-EAS493_0001:2:1:1000:16900#0/1
+        this.splitPosition = 2;
+      } else {
+        throw new NumberFormatException("No tile in identifier: " + id);
+      }
+    }
+
+    // Find the start of the field
+    int start = 0;
+    for (int field = 0; field < this.splitPosition; field++) {
+
+      start = id.indexOf(':', start) + 1;
+      if (start == 0) {
+        throw new NumberFormatException("Can't extract tile from '"
+            + id + "' to split position " + this.splitPosition);
+      }
+    }
+
+    int end = id.indexOf(':', start);
+    if (end == -1) {
+      end = id.length();
+    }
+
+    return parseInt(id, start, end);
+  }
+
+  /**
+   * Get the number of fields of a sequence identifier as String.split(":")
+   * does, trailing empty fields are not counted.
+   * @param id sequence identifier
+   * @return the number of fields
+   */
+  private static int fieldCount(final String id) {
+
+    int end = id.length();
+    while (end > 0 && id.charAt(end - 1) == ':') {
+      end--;
+    }
+
+    if (end == 0) {
+      return id.isEmpty() ? 1 : 0;
+    }
+
+    int count = 1;
+    for (int i = 0; i < end; i++) {
+      if (id.charAt(i) == ':') {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Parse an integer in a part of a string without creating a new string.
+   * @param s the string
+   * @param start start of the integer
+   * @param end end of the integer
+   * @return the integer
+   * @throws NumberFormatException if the string is not an integer
+   */
+  private static int parseInt(final String s, final int start,
+      final int end) {
+
+    // Overflow is not possible with less than 10 digits
+    if (end - start > 9) {
+      return Integer.parseInt(s.substring(start, end));
+    }
+
+    int i = start;
+    boolean negative = false;
+
+    if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+      negative = s.charAt(i) == '-';
+      i++;
+    }
+
+    if (i == end) {
+      throw new NumberFormatException(
+          "Invalid tile number: " + s.substring(start, end));
+    }
+
+    int result = 0;
+    for (; i < end; i++) {
+
+      final int digit = s.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException(
+            "Invalid tile number: " + s.substring(start, end));
+      }
+      result = result * 10 + digit;
+    }
+
+    return negative ? -result : result;
+  }
+
+  //
+  // Storage
+  //
+
+  /**
+   * Get the slot of a tile, a new slot is created if the tile has not been
+   * seen yet.
+   * @param tile the tile number
+   * @return the slot of the tile or -1 if there are too many tiles
+   */
+  private int getSlot(final int tile) {
+
+    // Sequences of the same tile are often consecutive
+    if (this.lastSlot != -1 && tile == this.lastTile) {
+      return this.lastSlot;
+    }
+
+    final int mask = TILE_TABLE_SIZE - 1;
+    int pos = (tile * 0x9E3779B9) >>> 19 & mask;
+
+    while (this.tableSlots[pos] != -1 && this.tableKeys[pos] != tile) {
+      pos = (pos + 1) & mask;
+    }
+
+    int slot = this.tableSlots[pos];
+
+    if (slot == -1) {
+
+      if (this.tileCount > MAX_TILES) {
+
+        // There are too many tiles, so we're probably parsing this wrong
+        LOGGER.warning("FASTQC: too many tiles (>"
+            + MAX_TILES + ") so giving up trying to do per-tile qualities "
+            + "since we're probably parsing the file wrongly");
+        this.ignore = true;
+        this.tileNumbers = new int[0];
+        this.qualitySums = new long[0];
+        this.qualityCounts = new long[0];
+        this.tileCount = 0;
+        this.lastSlot = -1;
+        return -1;
+      }
+
+      slot = this.tileCount++;
+      if (slot >= this.slotCapacity) {
+        ensureCapacity(Math.max(16, this.slotCapacity * 2),
+            this.lengthCapacity);
+      }
+
+      this.tileNumbers[slot] = tile;
+      this.tableKeys[pos] = tile;
+      this.tableSlots[pos] = slot;
+    }
+
+    this.lastTile = tile;
+    this.lastSlot = slot;
+
+    return slot;
+  }
+
+  /**
+   * Resize the storage arrays.
+   * @param slots the minimal number of tile slots
+   * @param length the minimal number of cycles
+   */
+  private void ensureCapacity(final int slots, final int length) {
+
+    if (slots <= this.slotCapacity && length <= this.lengthCapacity) {
+      return;
+    }
+
+    final int newSlots = Math.max(slots, this.slotCapacity);
+    final int newLength = Math.max(length, this.lengthCapacity);
+
+    final long[] newSums = new long[newSlots * newLength];
+    final long[] newCounts = new long[newSlots * newLength];
+
+    for (int s = 0; s < this.tileCount; s++) {
+      System.arraycopy(this.qualitySums, s * this.lengthCapacity, newSums,
+          s * newLength, this.lengthCapacity);
+      System.arraycopy(this.qualityCounts, s * this.lengthCapacity, newCounts,
+          s * newLength, this.lengthCapacity);
+    }
+
+    this.tileNumbers = Arrays.copyOf(this.tileNumbers, newSlots);
+    this.qualitySums = newSums;
+    this.qualityCounts = newCounts;
+    this.slotCapacity = newSlots;
+    this.lengthCapacity = newLength;
+  }
+
+  //
+  // Results
+  //
+
+  /**
+   * Compute the deviation of the mean quality of each tile from the mean
+   * quality of all the tiles for each base group.
+   */
+  private synchronized void calculateMeans() {
+
+    final int offset = this.tileCount == 0
+        ? 0 : PhredEncoding.getFastQEncodingOffset(this.minChar).offset();
+
+    final BaseGroup[] groups = BaseGroup.makeBaseGroups(this.currentLength);
+
+    // Sort the slots by tile number
+    final long[] sortedSlots = new long[this.tileCount];
+    for (int s = 0; s < this.tileCount; s++) {
+      sortedSlots[s] = ((long) this.tileNumbers[s] << 32) | s;
+    }
+    Arrays.sort(sortedSlots);
+
+    this.tiles = new int[this.tileCount];
+    this.means = new double[this.tileCount][groups.length];
+    this.xLabels = new String[groups.length];
+
+    for (int i = 0; i < groups.length; i++) {
+      this.xLabels[i] = groups[i].toString();
+    }
+
+    for (int t = 0; t < this.tileCount; t++) {
+
+      final int slot = (int) sortedSlots[t];
+      this.tiles[t] = this.tileNumbers[slot];
+
+      for (int i = 0; i < groups.length; i++) {
+        this.means[t][i] = getMean(slot, groups[i].lowerCount(),
+            groups[i].upperCount(), offset);
+      }
+    }
+
+    // Now normalise
+    final double[] averages = new double[groups.length];
+    for (int t = 0; t < this.tileCount; t++) {
+      for (int i = 0; i < groups.length; i++) {
+        averages[i] += this.means[t][i];
+      }
+    }
+    for (int i = 0; i < groups.length; i++) {
+      averages[i] /= this.tileCount;
+    }
+
+    double deviation = 0;
+    for (int t = 0; t < this.tileCount; t++) {
+      for (int i = 0; i < groups.length; i++) {
+
+        this.means[t][i] -= averages[i];
+        deviation = Math.max(deviation, Math.abs(this.means[t][i]));
+      }
+    }
+
+    this.maxDeviation = deviation;
+    this.calculated = true;
+  }
+
+  /**
+   * Get the mean quality of a tile for a range of cycles.
+   * @param slot slot of the tile
+   * @param minBase first cycle (starting at 1)
+   * @param maxBase last cycle
+   * @param offset Phred offset
+   * @return the mean of the mean quality of each cycle
+   */
+  private double getMean(final int slot, final int minBase, final int maxBase,
+      final int offset) {
+
+    final int start = slot * this.lengthCapacity;
+    int count = 0;
+    double total = 0;
+
+    for (int i = minBase - 1; i < maxBase; i++) {
+
+      final long n = this.qualityCounts[start + i];
+      if (n > 0) {
+        count++;
+        total += (double) this.qualitySums[start + i] / n - offset;
+      }
+    }
+
+    return count > 0 ? total / count : 0;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   */
+  public PerTileQualityModule() {
+
+    reset();
+  }
+
+}
@@ -0,0 +1,419 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.io.CompressionType;
+
+/**
+ * This class define a prefilter that classifies reads on small contaminant
+ * sequences like PhiX, spike-ins or adapters without any mapping. The
+ * canonical k-mers of each contaminant are stored in a Bloom filter and a read
+ * is assigned to a contaminant when enough of its k-mers are found in the
+ * filter of the contaminant. The filters are intended for small sequences,
+ * their size is limited to MAX_FILTER_BITS bits.
+ * @since 2.3
+ * @author agent
+ */
+public class ContaminantPrefilter {
+
+  /** Logger. */
+  private static final Logger LOGGER = Common.getLogger();
+
+  /** Value returned when a read is not classified. */
+  public static final int NOT_CLASSIFIED = -1;
+
+  /** Default size of the k-mers. */
+  public static final int DEFAULT_KMER_SIZE = 25;
+  /** Default minimal fraction of the k-mers of a read found in a filter. */
+  public static final double DEFAULT_MIN_FRACTION = 0.5;
+
+  private static final int MAX_KMER_SIZE = 31;
+  private static final int BITS_PER_KMER = 16;
+  private static final int HASH_FUNCTIONS = 8;
+  private static final long MIN_FILTER_BITS = 1L << 16;
+  private static final long MAX_FILTER_BITS = 1L << 31;
+
+  private static final byte[] CODES = new byte[128];
+
+  static {
+
+    Arrays.fill(CODES, (byte) -1);
+    CODES['A'] = CODES['a'] = 0;
+    CODES['C'] = CODES['c'] = 1;
+    CODES['G'] = CODES['g'] = 2;
+    CODES['T'] = CODES['t'] = 3;
+  }
+
+  private final int k;
+  private final long kmerMask;
+  private final double minFraction;
+  private final List<String> names = new ArrayList<>();
+  private final List<long[]> filters = new ArrayList<>();
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the names of the contaminants of the prefilter.
+   * @return an unmodifiable list with the names of the contaminants
+   */
+  public List<String> getContaminants() {
+
+    return Collections.unmodifiableList(this.names);
+  }
+
+  /**
+   * Test if the prefilter contains no contaminant.
+   * @return true if the prefilter contains no contaminant
+   */
+  public boolean isEmpty() {
+
+    return this.names.isEmpty();
+  }
+
+  //
+  // Classification
+  //
+
+  /**
+   * Classify a read. This method is thread safe.
+   * @param sequence the sequence of the read
+   * @return the index of the contaminant in getContaminants() or
+   *         NOT_CLASSIFIED
+   */
+  public int classify(final CharSequence sequence) {
+
+    final int[] hits = new int[this.filters.size()];
+    final int shift = 2 * (this.k - 1);
+
+    long forward = 0;
+    long reverse = 0;
+    int length = 0;
+    int kmers = 0;
+
+    for (int i = 0; i < sequence.length(); i++) {
+
+      final char c = sequence.charAt(i);
+      final int code = c < 128 ? CODES[c] : -1;
+
+      if (code == -1) {
+        length = 0;
+        continue;
+      }
+
+      forward = ((forward << 2) | code) & this.kmerMask;
+      reverse = (reverse >>> 2) | ((long) (3 - code) << shift);
+
+      if (++length < this.k) {
+        continue;
+      }
+
+      kmers++;
+      final long kmer = Math.min(forward, reverse);
+
+      for (int f = 0; f < hits.length; f++) {
+        if (contains(this.filters.get(f), kmer)) {
+          hits[f]++;
+        }
+      }
+    }
+
+    if (kmers == 0) {
+      return NOT_CLASSIFIED;
+    }
+
+    // Select the contaminant with the most hits
+    int best = NOT_CLASSIFIED;
+    for (int f = 0; f < hits.length; f++) {
+      if (hits[f] >= this.minFraction * kmers
+          && (best == NOT_CLASSIFIED || hits[f] > hits[best])) {
+        best = f;
+      }
+    }
+
+    return best;
+  }
+
+  //
+  // Bloom filter
+  //
+
+  /**
+   * Test if a k-mer is in a filter.
+   * @param filter the filter
+   * @param kmer the canonical k-mer
+   * @return true if the k-mer may be in the filter
+   */
+  private static boolean contains(final long[] filter, final long kmer) {
+
+    final long mask = ((long) filter.length << 6) - 1;
+    final long h1 = mix(kmer);
+    final long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+
+    for (int i = 0; i < HASH_FUNCTIONS; i++) {
+
+      final long bit = (h1 + i * h2) & mask;
+      if ((filter[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Add a k-mer to a filter.
+   * @param filter the filter
+   * @param kmer the canonical k-mer
+   */
+  private static void add(final long[] filter, final long kmer) {
+
+    final long mask = ((long) filter.length << 6) - 1;
+    final long h1 = mix(kmer);
+    final long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+
+    for (int i = 0; i < HASH_FUNCTIONS; i++) {
+
+      final long bit = (h1 + i * h2) & mask;
+      filter[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  /**
+   * Mix the bits of a value (finalizer of MurmurHash3).
+   * @param value the value
+   * @return the mixed value
+   */
+  private static long mix(final long value) {
+
+    long h = value;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+
+    return h;
+  }
+
+  //
+  // Filter creation
+  //
+
+  /**
+   * Add a contaminant to the prefilter. The FASTA file of the contaminant is
+   * read twice: once to size the filter and once to fill it.
+   * @param name name of the contaminant
+   * @param genomeFile FASTA file of the contaminant
+   * @throws AozanException if an error occurs while reading the contaminant
+   */
+  private void addContaminant(final String name, final DataFile genomeFile)
+      throws AozanException {
+
+    if (!genomeFile.exists()) {
+      LOGGER.warning("FASTQSCREEN: contaminant not found for prefilter: "
+          + name);
+      return;
+    }
+
+    try {
+
+      // Size the filter
+      final long bases = scanFasta(genomeFile, null);
+      long bits = MIN_FILTER_BITS;
+      while (bits < bases * BITS_PER_KMER && bits < MAX_FILTER_BITS) {
+        bits <<= 1;
+      }
+
+      if (bases * BITS_PER_KMER > MAX_FILTER_BITS) {
+        LOGGER.warning("FASTQSCREEN: "
+            + name + " is too large for the prefilter, "
+            + "the false positive rate will be high");
+      }
+
+      // Fill the filter
+      final long[] filter = new long[(int) (bits >>> 6)];
+      scanFasta(genomeFile, filter);
+
+      this.names.add(name);
+      this.filters.add(filter);
+
+      LOGGER.fine("FASTQSCREEN: add "
+          + name + " to the prefilter (" + bases + " bases, " + bits
+          + " bits)");
+
+    } catch (final IOException e) {
+      throw new AozanException(e);
+    }
+  }
+
+  /**
+   * Read a FASTA file and add its k-mers to a filter.
+   * @param genomeFile the FASTA file
+   * @param filter the filter, can be null to only count the bases
+   * @return the number of bases in the file
+   * @throws IOException if an error occurs while reading the file
+   */
+  private long scanFasta(final DataFile genomeFile, final long[] filter)
+      throws IOException {
+
+    final int shift = 2 * (this.k - 1);
+    long forward = 0;
+    long reverse = 0;
+    int length = 0;
+    long bases = 0;
+
+    try (InputStream is = new BufferedInputStream(CompressionType
+        .getCompressionTypeByFilename(genomeFile.getName())
+        .createInputStream(genomeFile.open()))) {
+
+      boolean header = false;
+      int c;
+
+      while ((c = is.read()) != -1) {
+
+        if (c == '>') {
+          header = true;
+          length = 0;
+          continue;
+        }
+
+        if (c == '\n' || c == '\r') {
+          header = false;
+          continue;
+        }
+
+        if (header) {
+          continue;
+        }
+
+        bases++;
+
+        final int code = c < 128 ? CODES[c] : -1;
+        if (code == -1) {
+          length = 0;
+          continue;
+        }
+
+        forward = ((forward << 2) | code) & this.kmerMask;
+        reverse = (reverse >>> 2) | ((long) (3 - code) << shift);
+
+        if (++length >= this.k && filter != null) {
+          add(filter, Math.min(forward, reverse));
+        }
+      }
+    }
+
+    return bases;
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Get the FASTA files of contaminants from the genome storage.
+   * @param contaminants names of the contaminants
+   * @return a map with the FASTA file of each contaminant
+   */
+  private static Map<String, DataFile> getGenomeFiles(
+      final List<String> contaminants) {
+
+    checkNotNull(contaminants, "contaminants argument cannot be null");
+
+    GenomeDescriptionCreator.initializeDataProtocols();
+
+    final Map<String, DataFile> result = new LinkedHashMap<>();
+    for (final String contaminant : contaminants) {
+      result.put(contaminant, new DataFile("genome://" + contaminant));
+    }
+
+    return result;
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Public constructor.
+   * @param contaminants names of the contaminants, the sequences are retrieved
+   *          from the genome storage
+   * @param k size of the k-mers
+   * @param minFraction minimal fraction of the k-mers of a read found in the
+   *          filter of a contaminant to assign the read to the contaminant
+   * @throws AozanException if an error occurs while reading the contaminants
+   */
+  public ContaminantPrefilter(final List<String> contaminants, final int k,
+      final double minFraction) throws AozanException {
+
+    this(getGenomeFiles(contaminants), k, minFraction);
+  }
+
+  /**
+   * Constructor.
+   * @param contaminantFiles FASTA files of the contaminants, the keys are the
+   *          names of the contaminants
+   * @param k size of the k-mers
+   * @param minFraction minimal fraction of the k-mers of a read found in the
+   *          filter of a contaminant to assign the read to the contaminant
+   * @throws AozanException if an error occurs while reading the contaminants
+   */
+  ContaminantPrefilter(final Map<String, DataFile> contaminantFiles,
+      final int k, final double minFraction) throws AozanException {
+
+    checkNotNull(contaminantFiles, "contaminantFiles argument cannot be null");
+    checkArgument(k > 0 && k <= MAX_KMER_SIZE,
+        "k must be in [1," + MAX_KMER_SIZE + "]: " + k);
+    checkArgument(minFraction > 0.0 && minFraction <= 1.0,
+        "minFraction must be in ]0,1]: " + minFraction);
+
+    this.k = k;
+    this.kmerMask = (1L << (2 * k)) - 1;
+    this.minFraction = minFraction;
+
+    for (final Map.Entry<String, DataFile> e : contaminantFiles.entrySet()) {
+      addContaminant(e.getKey(), e.getValue());
+    }
+  }
+
+}
@@ -28,14 +28,19 @@ import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.toTimeHumanRead
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import com.google.common.base.Splitter;
 import com.google.common.base.Stopwatch;
 
 import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.aozan.Globals;
 import fr.ens.biologie.genomique.aozan.QC;
 import fr.ens.biologie.genomique.aozan.Settings;
 import fr.ens.biologie.genomique.aozan.collectors.CollectorConfiguration;
@@ -50,11 +55,50 @@ public class FastqScreen {
   /** Logger. */
   private static final Logger LOGGER = Common.getLogger();
 
+  /** Default name of the mapper index cache directory. */
+  private static final String DEFAULT_INDEX_CACHE_DIRNAME =
+      "aozan-mapper-index-cache";
+  /** Default number of reads between two checks in adaptive mode. */
+  private static final int DEFAULT_ADAPTIVE_INCREMENT = 10000;
+  /** Default maximal width of the confidence intervals in adaptive mode. */
+  private static final double DEFAULT_ADAPTIVE_MAX_CI_WIDTH = 0.005;
+  /** Default quota of the mapper index cache in GB. */
+  private static final int DEFAULT_INDEX_CACHE_QUOTA = 50;
+  /** Default name of the k-mer indexes directory. */
+  private static final String DEFAULT_KMER_INDEX_DIRNAME = "aozan-kmer-indexes";
+
   private final File tmpDir;
   private final int confThreads;
   private final String mapperName;
   private final String mapperArgument;
 
+  // Fields for the k-mer engine
+  private final boolean kmerEngine;
+  private final File kmerIndexDir;
+
+  // Adaptive subset size
+  private final boolean adaptiveMode;
+  private final int adaptiveIncrement;
+  private final double adaptiveMaxCIWidth;
+
+  // Contaminant prefilter for the undetermined samples
+  private ContaminantPrefilter prefilter;
+  private final List<String> prefilterGenomes;
+  private final int prefilterKmerSize;
+  private final double prefilterMinFraction;
+
+  // Batches of samples mapped together and their results
+  private final Map<Boolean, FastqScreenBatch> batches = new HashMap<>();
+  private final Map<File, FastqScreenResult> batchResults = new HashMap<>();
+
+  // Fields for delayed initialization of the mapper index cache
+  private MapperIndexCache indexCache;
+  private final File indexCacheDir;
+  private final long indexCacheQuota;
+  private final int kmerSize;
+  private final int kmerWindowSize;
+  private final int kmerMinHits;
+
   // Fields for delayed initialization of fastqScreenGenomes
   private FastqScreenGenomes fastqScreenGenomes;
   private final File samplesheetFile;
@@ -70,6 +114,147 @@ public class FastqScreen {
     return this.fastqScreenGenomes;
   }
 
+  /**
+   * Get the cache of the unpacked mapper indexes.
+   * @return the MapperIndexCache object
+   * @throws AozanException if the cache directory cannot be created
+   */
+  private synchronized MapperIndexCache getMapperIndexCache()
+      throws AozanException {
+
+    if (this.indexCache == null) {
+      try {
+        this.indexCache =
+            new MapperIndexCache(this.indexCacheDir, this.indexCacheQuota);
+      } catch (final IOException e) {
+        throw new AozanException(e);
+      }
+    }
+
+    return this.indexCache;
+  }
+
+  /**
+   * Get the contaminant prefilter.
+   * @return the ContaminantPrefilter object
+   * @throws AozanException if an error occurs while creating the prefilter
+   */
+  private synchronized ContaminantPrefilter getContaminantPrefilter()
+      throws AozanException {
+
+    if (this.prefilter == null) {
+      this.prefilter = new ContaminantPrefilter(this.prefilterGenomes,
+          this.prefilterKmerSize, this.prefilterMinFraction);
+    }
+
+    return this.prefilter;
+  }
+
+  /**
+   * Test if the undetermined samples are screened with the contaminant
+   * prefilter. These samples must not be mapped in batch mode.
+   * @return true if the contaminant prefilter is enabled
+   */
+  public boolean isPrefilterEnabled() {
+
+    return !this.prefilterGenomes.isEmpty() && !this.kmerEngine;
+  }
+
+  /**
+   * Add a sample to the batch mapping. The sample will be mapped with the
+   * other samples of the batch by the executeBatch() method. Nothing is done
+   * with the k-mer engine.
+   * @param fastqRead1 fastq read1 file input for mapper
+   * @param fastqRead2 fastq read2 file input for mapper, can be null
+   * @param genomes list or reference genome, used by mapper
+   * @param sampleGenome genome reference corresponding to sample
+   * @param isPairedMode true if a pair-end run and option paired mode equals
+   *          true else false
+   * @throws AozanException if the mapper index cache cannot be created
+   */
+  public synchronized void addToBatch(final File fastqRead1,
+      final File fastqRead2, final List<String> genomes,
+      final String sampleGenome, final boolean isPairedMode)
+      throws AozanException {
+
+    if (this.kmerEngine) {
+      return;
+    }
+
+    FastqScreenBatch batch = this.batches.get(isPairedMode);
+    if (batch == null) {
+      batch = new FastqScreenBatch(this.tmpDir, getMapperIndexCache(),
+          isPairedMode, this.mapperName, this.mapperArgument,
+          this.confThreads);
+      this.batches.put(isPairedMode, batch);
+    }
+
+    batch.add(fastqRead1, fastqRead2, genomes, sampleGenome);
+  }
+
+  /**
+   * Map the samples added to the batch mapping. The results are returned
+   * later by the execute() methods.
+   * @throws AozanException if an error occurs while mapping the samples
+   */
+  public synchronized void executeBatch() throws AozanException {
+
+    for (final FastqScreenBatch batch : this.batches.values()) {
+      this.batchResults.putAll(batch.execute());
+    }
+
+    this.batches.clear();
+  }
+
+  /**
+   * Execute fastqscreen on an undetermined sample in single-end mode. If a
+   * contaminant prefilter is defined, the reads classified by the prefilter
+   * are not mapped.
+   * @param fastqRead fastq file input for mapper
+   * @param sampleDescription sample description
+   * @param genomes list or reference genome, used by mapper
+   * @return FastqScreenResult object contains results for each reference genome
+   * @throws AozanException if an error occurs while screening the sample
+   */
+  public FastqScreenResult executeUndetermined(final File fastqRead,
+      final String sampleDescription, final List<String> genomes)
+      throws AozanException {
+
+    checkNotNull(fastqRead, "fastqRead argument cannot be null");
+    checkNotNull(genomes, "genomes argument cannot be null");
+
+    final boolean batchResult;
+    synchronized (this) {
+      batchResult = this.batchResults.containsKey(fastqRead);
+    }
+
+    if (this.prefilterGenomes.isEmpty() || this.kmerEngine || batchResult) {
+      return execute(fastqRead, null, sampleDescription, genomes, null, false);
+    }
+
+    final ContaminantPrefilter prefilter = getContaminantPrefilter();
+    if (prefilter.isEmpty()) {
+      return execute(fastqRead, null, sampleDescription, genomes, null, false);
+    }
+
+    // Timer
+    final Stopwatch timer = Stopwatch.createStarted();
+
+    final FastqScreenGenomeMapper mapper =
+        new FastqScreenGenomeMapper(this.tmpDir, getMapperIndexCache(), false,
+            this.mapperName, this.mapperArgument);
+
+    mapper.doPrefilteredMap(fastqRead, genomes, prefilter, this.confThreads);
+
+    LOGGER.fine("FASTQSCREEN: step prefilter and map for "
+        + sampleDescription + " on genome(s) " + genomes + " in "
+        + toTimeHumanReadable(timer.elapsed(TimeUnit.MILLISECONDS)));
+
+    timer.stop();
+
+    return mapper.getFastqScreenResult();
+  }
+
   /**
    * Mode pair-end : execute fastqscreen.
    * @param fastqRead fastq file input for mapper
@@ -113,53 +298,54 @@ public class FastqScreen {
       checkNotNull(fastqRead2, "fastqRead2 argument cannot be null");
     }
 
-    // Timer
-    final Stopwatch timer = Stopwatch.createStarted();
-
-    final FastqScreenPseudoMapReduce pmr = new FastqScreenPseudoMapReduce(
-        this.tmpDir, isPairedMode, this.mapperName, this.mapperArgument);
-
-    try {
-
-      if (isPairedMode) {
-        pmr.doMap(fastqRead1, fastqRead2, genomes, sampleGenome,
-            this.confThreads);
-      } else {
-        pmr.doMap(fastqRead1, genomes, sampleGenome, this.confThreads);
+    // The sample has already been mapped in a batch
+    synchronized (this) {
+      final FastqScreenResult batchResult =
+          this.batchResults.remove(fastqRead1);
+      if (batchResult != null) {
+        return batchResult;
       }
+    }
 
-      LOGGER.fine("FASTQSCREEN: step map for "
-          + sampleDescription + " in mode "
-          + (isPairedMode ? "paired" : "single") + " on genome(s) " + genomes
-          + " in " + toTimeHumanReadable(timer.elapsed(TimeUnit.MILLISECONDS)));
-
-      timer.reset();
-      timer.start();
+    // Use the k-mer engine
+    if (this.kmerEngine) {
 
-      final File outputDoReduceFile =
-          new File(this.tmpDir, "outputDoReduce.txt");
+      if (!this.kmerIndexDir.exists()
+          && !this.kmerIndexDir.mkdirs() && !this.kmerIndexDir.isDirectory()) {
+        throw new AozanException("FASTQSCREEN: unable to create the k-mer "
+            + "index directory: " + this.kmerIndexDir);
+      }
 
-      pmr.doReduce(outputDoReduceFile);
+      return new KmerScreener(this.kmerIndexDir, this.kmerSize,
+          this.kmerWindowSize, this.kmerMinHits, isPairedMode)
+              .screen(fastqRead1, fastqRead2, genomes, sampleGenome);
+    }
 
-      LOGGER.fine("FASTQSCREEN: step reduce for "
-          + sampleDescription + " in mode "
-          + (isPairedMode ? "paired" : "single") + " in "
-          + toTimeHumanReadable(timer.elapsed(TimeUnit.MILLISECONDS)));
+    // Timer
+    final Stopwatch timer = Stopwatch.createStarted();
 
-      // Remove temporary output file use in map-reduce step
-      if (!outputDoReduceFile.delete()) {
-        LOGGER.warning("Fastqscreen : fail to delete file "
-            + outputDoReduceFile.getAbsolutePath());
-      }
+    final FastqScreenGenomeMapper mapper =
+        new FastqScreenGenomeMapper(this.tmpDir, getMapperIndexCache(),
+            isPairedMode, this.mapperName, this.mapperArgument);
+
+    if (this.adaptiveMode) {
+      mapper.doAdaptiveMap(fastqRead1, fastqRead2, genomes, sampleGenome,
+          this.confThreads, this.adaptiveIncrement, this.adaptiveMaxCIWidth);
+    } else if (isPairedMode) {
+      mapper.doMap(fastqRead1, fastqRead2, genomes, sampleGenome,
+          this.confThreads);
+    } else {
+      mapper.doMap(fastqRead1, genomes, sampleGenome, this.confThreads);
+    }
 
-    } catch (final IOException e) {
-      throw new AozanException(e);
+    LOGGER.fine("FASTQSCREEN: step map for "
+        + sampleDescription + " in mode "
+        + (isPairedMode ? "paired" : "single") + " on genome(s) " + genomes
+        + " in " + toTimeHumanReadable(timer.elapsed(TimeUnit.MILLISECONDS)));
 
-    } finally {
-      timer.stop();
-    }
+    timer.stop();
 
-    return pmr.getFastqScreenResult();
+    return mapper.getFastqScreenResult();
   }
 
   //
@@ -189,5 +375,61 @@ public class FastqScreen {
     this.mapperArgument =
         conf.get(Settings.QC_CONF_FASTQSCREEN_MAPPER_ARGUMENTS_KEY);
 
+    // Parameters of the adaptive mode
+    this.adaptiveMode = conf
+        .getBoolean(Settings.QC_CONF_FASTQSCREEN_ADAPTIVE_ENABLE_KEY, false);
+    this.adaptiveIncrement = Math.max(1,
+        conf.getInt(Settings.QC_CONF_FASTQSCREEN_ADAPTIVE_INCREMENT_KEY,
+            DEFAULT_ADAPTIVE_INCREMENT));
+    this.adaptiveMaxCIWidth = conf.getDouble(
+        Settings.QC_CONF_FASTQSCREEN_ADAPTIVE_MAX_CI_WIDTH_KEY,
+        DEFAULT_ADAPTIVE_MAX_CI_WIDTH);
+
+    // Parameters of the contaminant prefilter
+    final String prefilterGenomeNames =
+        conf.get(Settings.QC_CONF_FASTQSCREEN_PREFILTER_GENOMES_KEY);
+    this.prefilterGenomes = prefilterGenomeNames == null
+        ? Collections.<String> emptyList()
+        : Splitter.on(',').trimResults().omitEmptyStrings()
+            .splitToList(prefilterGenomeNames);
+    this.prefilterKmerSize =
+        conf.getInt(Settings.QC_CONF_FASTQSCREEN_PREFILTER_KMER_SIZE_KEY,
+            ContaminantPrefilter.DEFAULT_KMER_SIZE);
+    this.prefilterMinFraction = conf.getDouble(
+        Settings.QC_CONF_FASTQSCREEN_PREFILTER_MIN_FRACTION_KEY,
+        ContaminantPrefilter.DEFAULT_MIN_FRACTION);
+
+    // Parameters of the mapper index cache
+    final String indexCachePath =
+        conf.get(Settings.QC_CONF_FASTQSCREEN_MAPPER_INDEX_CACHE_PATH_KEY);
+    this.indexCacheDir =
+        indexCachePath == null || indexCachePath.trim().isEmpty()
+            ? new File(this.tmpDir, DEFAULT_INDEX_CACHE_DIRNAME)
+            : new File(indexCachePath.trim());
+    this.indexCacheQuota = conf.getInt(
+        Settings.QC_CONF_FASTQSCREEN_MAPPER_INDEX_CACHE_QUOTA_KEY,
+        DEFAULT_INDEX_CACHE_QUOTA) * 1024L * 1024L * 1024L;
+
+    // Parameters of the k-mer engine
+    this.kmerEngine = KmerScreener.ENGINE_NAME.equals(
+        conf.get(Settings.QC_CONF_FASTQSCREEN_ENGINE_KEY, "mapper").trim()
+            .toLowerCase(Globals.DEFAULT_LOCALE));
+
+    // By default, the k-mer indexes are created in the temporary directory
+    // and not in the shared repository of the mapper indexes
+    final String kmerIndexPath =
+        conf.get(Settings.QC_CONF_FASTQSCREEN_KMER_INDEXES_PATH_KEY);
+    this.kmerIndexDir = kmerIndexPath == null || kmerIndexPath.trim().isEmpty()
+        ? new File(this.tmpDir, DEFAULT_KMER_INDEX_DIRNAME)
+        : new File(kmerIndexPath.trim());
+    this.kmerSize = conf.getInt(Settings.QC_CONF_FASTQSCREEN_KMER_SIZE_KEY,
+        KmerScreener.DEFAULT_KMER_SIZE);
+    this.kmerWindowSize =
+        conf.getInt(Settings.QC_CONF_FASTQSCREEN_KMER_WINDOW_SIZE_KEY,
+            KmerScreener.DEFAULT_WINDOW_SIZE);
+    this.kmerMinHits =
+        conf.getInt(Settings.QC_CONF_FASTQSCREEN_KMER_MIN_HITS_KEY,
+            KmerScreener.DEFAULT_MIN_HITS);
+
   }
 }
\ No newline at end of file
@@ -0,0 +1,450 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.toTimeHumanReadable;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.google.common.base.Stopwatch;
+
+import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqReader;
+
+/**
+ * This class map the reads of several samples with one mapper execution per
+ * genome. The reads of the samples that must be mapped on a genome are
+ * concatenated in a FASTQ file where the read names contain the index of the
+ * sample and the index of the read (see ReadHitTable.batchReadName()). The
+ * hits are stored in a shared ReadHitTable and then split per sample, so the
+ * FastqScreenResult of each sample is the same as the result of a mapping per
+ * sample. The index of a genome is only loaded once per run.
+ * @since 2.3
+ * @author agent
+ */
+public class FastqScreenBatch {
+
+  /** Logger. */
+  private static final Logger LOGGER = Common.getLogger();
+
+  private static final String BATCH_FILENAME_PREFIX =
+      "aozan-fastqscreen-batch-";
+
+  private final File tmpDir;
+  private final MapperIndexCache indexCache;
+  private final boolean pairedMode;
+  private final String mapperName;
+  private final String mapperArguments;
+  private final int threadNumber;
+
+  private final List<Job> jobs = new ArrayList<>();
+
+  /**
+   * A sample to map.
+   */
+  private static final class Job {
+
+    private final File read1;
+    private final File read2;
+    private final List<String> genomes;
+    private final String sampleGenome;
+    private int readCount = -1;
+
+    private Job(final File read1, final File read2, final List<String> genomes,
+        final String sampleGenome) {
+
+      this.read1 = read1;
+      this.read2 = read2;
+      this.genomes = genomes;
+      this.sampleGenome = sampleGenome;
+    }
+  }
+
+  //
+  // Public methods
+  //
+
+  /**
+   * Add a sample to the batch.
+   * @param fastqRead1 fastq file
+   * @param fastqRead2 fastq file of the second read in paired mode, can be
+   *          null
+   * @param genomes list of the genomes
+   * @param sampleGenome genome reference corresponding to sample, can be null
+   */
+  public void add(final File fastqRead1, final File fastqRead2,
+      final List<String> genomes, final String sampleGenome) {
+
+    checkNotNull(fastqRead1, "fastqRead1 argument cannot be null");
+    checkNotNull(genomes, "genomes argument cannot be null");
+
+    if (this.pairedMode) {
+      checkNotNull(fastqRead2, "fastqRead2 argument cannot be null");
+    }
+
+    this.jobs.add(new Job(fastqRead1, this.pairedMode ? fastqRead2 : null,
+        new ArrayList<>(genomes), sampleGenome));
+  }
+
+  /**
+   * Get the number of samples in the batch.
+   * @return the number of samples in the batch
+   */
+  public int size() {
+
+    return this.jobs.size();
+  }
+
+  /**
+   * Map the samples of the batch.
+   * @return a map with the results of the samples, the keys of the map are
+   *         the FASTQ files of the first read of the samples
+   * @throws AozanException if an error occurs while mapping the samples
+   */
+  public Map<File, FastqScreenResult> execute() throws AozanException {
+
+    if (this.jobs.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    final Stopwatch timer = Stopwatch.createStarted();
+
+    // Group the genomes that must be mapped with the same samples
+    final Map<BitSet, List<String>> groups = groupGenomes();
+
+    final List<File> files = new ArrayList<>();
+
+    try {
+
+      // Create the FASTQ files of the groups
+      final Map<BitSet, File[]> groupFiles = new HashMap<>();
+      for (final BitSet samples : groups.keySet()) {
+
+        final int groupIndex = groupFiles.size();
+        final File[] fastqFiles = new File[] {newBatchFile(groupIndex, 1),
+            this.pairedMode ? newBatchFile(groupIndex, 2) : null};
+
+        for (final File f : fastqFiles) {
+          if (f != null) {
+            files.add(f);
+          }
+        }
+
+        writeGroupFastq(samples, fastqFiles);
+        groupFiles.put(samples, fastqFiles);
+      }
+
+      // Create the read hit table
+      final int[] readCounts = new int[this.jobs.size()];
+      for (int i = 0; i < readCounts.length; i++) {
+        readCounts[i] = Math.max(0, this.jobs.get(i).readCount);
+      }
+      final ReadHitTable hitTable = new ReadHitTable(readCounts);
+
+      final FastqScreenGenomeMapper mapper =
+          new FastqScreenGenomeMapper(this.tmpDir, this.indexCache, hitTable,
+              this.pairedMode, this.mapperName, this.mapperArguments);
+
+      // One mapping per genome for all the samples
+      for (final Map.Entry<BitSet, List<String>> e : groups.entrySet()) {
+
+        // No read to map
+        if (hitTable.getReadCount() == 0) {
+          break;
+        }
+
+        final File[] fastqFiles = groupFiles.get(e.getKey());
+        mapper.doMap(fastqFiles[0], fastqFiles[1], e.getValue(), null,
+            this.threadNumber);
+      }
+
+      final Map<File, FastqScreenResult> results = createResults(hitTable);
+
+      LOGGER.info("FASTQSCREEN: batch mapping of "
+          + this.jobs.size() + " samples in mode "
+          + (this.pairedMode ? "paired" : "single") + " on "
+          + groups.size() + " group(s) of genomes in "
+          + toTimeHumanReadable(timer.elapsed(TimeUnit.MILLISECONDS)));
+
+      return results;
+
+    } finally {
+
+      // Remove the batch FASTQ files
+      for (final File f : files) {
+        if (f.exists() && !f.delete()) {
+          LOGGER.warning("FASTQSCREEN: fail to delete " + f);
+        }
+      }
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Group the genomes that must be mapped with the same set of samples.
+   * @return a map where the keys are the sets of samples and the values the
+   *         genomes
+   */
+  private Map<BitSet, List<String>> groupGenomes() {
+
+    final Map<String, BitSet> genomeSamples = new LinkedHashMap<>();
+
+    for (int i = 0; i < this.jobs.size(); i++) {
+      for (final String genome : this.jobs.get(i).genomes) {
+
+        BitSet samples = genomeSamples.get(genome);
+        if (samples == null) {
+          samples = new BitSet();
+          genomeSamples.put(genome, samples);
+        }
+        samples.set(i);
+      }
+    }
+
+    final Map<BitSet, List<String>> result = new LinkedHashMap<>();
+
+    for (final Map.Entry<String, BitSet> e : genomeSamples.entrySet()) {
+
+      List<String> genomes = result.get(e.getValue());
+      if (genomes == null) {
+        genomes = new ArrayList<>();
+        result.put(e.getValue(), genomes);
+      }
+      genomes.add(e.getKey());
+    }
+
+    return result;
+  }
+
+  /**
+   * Write the FASTQ files with the reads of a set of samples.
+   * @param samples the indexes of the samples
+   * @param fastqFiles an array with the FASTQ file of the first read and the
+   *          FASTQ file of the second read in paired mode
+   * @throws AozanException if an error occurs while writing the files
+   */
+  private void writeGroupFastq(final BitSet samples, final File[] fastqFiles)
+      throws AozanException {
+
+    try (Writer writer1 = newWriter(fastqFiles[0]);
+        Writer writer2 = this.pairedMode ? newWriter(fastqFiles[1]) : null) {
+
+      for (int i = samples.nextSetBit(0); i >= 0; i =
+          samples.nextSetBit(i + 1)) {
+
+        final Job job = this.jobs.get(i);
+        final int count1 = copyFastq(job.read1, i, writer1);
+
+        if (this.pairedMode) {
+
+          final int count2 = copyFastq(job.read2, i, writer2);
+          if (count1 != count2) {
+            throw new AozanException(
+                "FASTQSCREEN: the number of reads is not the same in "
+                    + job.read1 + " and " + job.read2);
+          }
+        }
+
+        if (job.readCount == -1) {
+          job.readCount = count1;
+        }
+      }
+
+    } catch (final IOException e) {
+      throw new AozanException(e);
+    }
+  }
+
+  /**
+   * Copy the reads of a FASTQ file in a batch FASTQ file.
+   * @param fastqFile the FASTQ file to copy
+   * @param sampleIndex index of the sample
+   * @param writer the writer of the batch FASTQ file
+   * @return the number of reads copied
+   * @throws AozanException if an error occurs while copying the reads
+   */
+  private static int copyFastq(final File fastqFile, final int sampleIndex,
+      final Writer writer) throws AozanException {
+
+    FastqReader reader = null;
+    int count = 0;
+
+    try {
+
+      reader = new FastqReader(new FileInputStream(fastqFile));
+
+      final Iterator<ReadSequence> it = reader.iterator();
+      while (it.hasNext()) {
+
+        final ReadSequence read = it.next();
+
+        writer.write('@');
+        writer.write(ReadHitTable.batchReadName(sampleIndex, count++));
+        writer.write('\n');
+        writer.write(read.getSequence());
+        writer.write("\n+\n");
+        writer.write(read.getQuality());
+        writer.write('\n');
+      }
+
+      // Throw an exception if an error has occurred while reading data
+      reader.throwException();
+
+    } catch (final IOException | BadBioEntryException e) {
+      throw new AozanException(e);
+    } finally {
+
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (final IOException e) {
+          LOGGER.warning("FASTQSCREEN: fail to close " + fastqFile);
+        }
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Create the results of the samples.
+   * @param hitTable the read hit table
+   * @return a map with the results of the samples
+   */
+  private Map<File, FastqScreenResult> createResults(
+      final ReadHitTable hitTable) {
+
+    final Map<File, FastqScreenResult> results = new HashMap<>();
+    final List<String> mappedGenomes = hitTable.getGenomes();
+
+    for (int i = 0; i < this.jobs.size(); i++) {
+
+      final Job job = this.jobs.get(i);
+      final FastqScreenResult result = new FastqScreenResult();
+
+      for (final String genome : job.genomes) {
+        if (mappedGenomes.contains(genome)) {
+          result.addGenome(genome, job.sampleGenome);
+        }
+      }
+
+      final int readsMapped = hitTable.fillSampleResult(result, i);
+
+      try {
+        result.countPercentValue(readsMapped, hitTable.getSampleReadCount(i));
+      } catch (final AozanException e) {
+
+        // The sample will be mapped alone
+        LOGGER.warning("FASTQSCREEN: no batch result for "
+            + job.read1.getName() + ": " + e.getMessage());
+        continue;
+      }
+
+      results.put(job.read1, result);
+    }
+
+    return results;
+  }
+
+  /**
+   * Create a new batch FASTQ file.
+   * @param groupIndex index of the group of genomes
+   * @param read the read number
+   * @return a new File object
+   */
+  private File newBatchFile(final int groupIndex, final int read) {
+
+    return new File(this.tmpDir, BATCH_FILENAME_PREFIX
+        + (this.pairedMode ? "pe-" : "se-") + groupIndex + "_R" + read
+        + ".fastq");
+  }
+
+  /**
+   * Create a writer for a batch FASTQ file.
+   * @param file the file
+   * @return a new Writer object
+   * @throws IOException if an error occurs while creating the file
+   */
+  private static Writer newWriter(final File file) throws IOException {
+
+    return new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file), StandardCharsets.ISO_8859_1));
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param tmpDir path to temporary directory
+   * @param indexCache cache of the unpacked indexes
+   * @param pairedMode true if the reads are mapped in paired mode
+   * @param mapperName mapper name, can be null
+   * @param mapperArguments mapper arguments, can be null
+   * @param threadNumber number of threads used for mapping
+   */
+  public FastqScreenBatch(final File tmpDir, final MapperIndexCache indexCache,
+      final boolean pairedMode, final String mapperName,
+      final String mapperArguments, final int threadNumber) {
+
+    checkNotNull(tmpDir, "tmpDir argument cannot be null");
+    checkNotNull(indexCache, "indexCache argument cannot be null");
+    checkArgument(tmpDir.isDirectory(),
+        "temporary directory does not exists or is not a directory: " + tmpDir);
+
+    this.tmpDir = tmpDir;
+    this.indexCache = indexCache;
+    this.pairedMode = pairedMode;
+    this.mapperName = mapperName;
+    this.mapperArguments = mapperArguments;
+    this.threadNumber = threadNumber;
+  }
+
+}
@@ -0,0 +1,1160 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 3 or
+ * later and CeCILL. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.toTimeHumanReadable;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Stopwatch;
+
+import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.aozan.Globals;
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqReader;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.Bowtie2MapperProvider;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.BowtieMapperProvider;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.FileMapping;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.Mapper;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperInstance;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperProcess;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.StreamMapping;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.modules.generators.GenomeMapperIndexer;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+
+/**
+ * This class account reads that map to each of the reference genome. The reads
+ * of the subset have a dense identifier and the hits of the mappers are stored
+ * in memory in a ReadHitTable, no temporary file is used.
+ * @since 1.0
+ * @author Sandrine Perrin
+ */
+public class FastqScreenGenomeMapper {
+
+  /** Logger. */
+  private static final Logger LOGGER = Common.getLogger();
+
+  // Boolean use to update logger with parameter mapper only at the first
+  // execution
+  private static volatile boolean firstDoMapRun = true;
+
+  private static final String COUNTER_GROUP = "reads_mapping";
+
+  // Number of bases of a genome for each thread of the mapper
+  private static final long BASES_PER_MAPPER_THREAD = 250000000L;
+
+  // CPU budgets shared by the mappings, by number of threads
+  private static final ConcurrentMap<Integer, Semaphore> CPU_BUDGETS =
+      new ConcurrentHashMap<>();
+
+  // Locks used to create and unzip the mapper indexes
+  private static final ConcurrentMap<String, Object> INDEX_LOCKS =
+      new ConcurrentHashMap<>();
+
+  /**
+   * This class controls the adaptive mapping. The reads are streamed to the
+   * mappers of the genomes and the control is called by the SAM parsers. At
+   * each increment, the 95% confidence intervals of the mapped percentages
+   * are computed on the first reads that have been parsed for all the genomes
+   * being mapped. When all the intervals are narrow enough, the number of
+   * reads to map is limited to these reads. The genomes mapped after this
+   * decision (e.g. when waiting for CPUs) are mapped on the same reads.
+   */
+  static final class AdaptiveControl implements Runnable {
+
+    private final int readCount;
+    private final int increment;
+    private final double maxCIWidth;
+    private final List<FastqScreenSAMParser> parsers = new ArrayList<>();
+
+    private volatile int limit;
+    private int nextCheck;
+    private double ciWidth = Double.NaN;
+
+    /**
+     * Get the number of reads to map.
+     * @return the number of reads to map
+     */
+    int getLimit() {
+
+      return this.limit;
+    }
+
+    /**
+     * Get the maximal width of the confidence intervals at the last check.
+     * @return the maximal width of the confidence intervals
+     */
+    synchronized double getCIWidth() {
+
+      return this.ciWidth;
+    }
+
+    /**
+     * Add the parser of a genome which mapping starts.
+     * @param parser the parser
+     */
+    synchronized void addParser(final FastqScreenSAMParser parser) {
+
+      checkNotNull(parser, "parser argument cannot be null");
+
+      parser.setProgressListener(this, this.increment);
+      this.parsers.add(parser);
+    }
+
+    @Override
+    public synchronized void run() {
+
+      if (this.limit < this.readCount || this.parsers.isEmpty()) {
+        return;
+      }
+
+      // First reads parsed for all the genomes
+      int processed = this.readCount;
+      for (final FastqScreenSAMParser parser : this.parsers) {
+        processed = Math.min(processed, parser.getParsedPrefix());
+      }
+
+      if (processed < this.nextCheck) {
+        return;
+      }
+      this.nextCheck = processed + this.increment;
+
+      final int[] mapped = new int[this.parsers.size()];
+      for (int i = 0; i < mapped.length; i++) {
+        mapped[i] = this.parsers.get(i).countHits(processed);
+      }
+
+      this.ciWidth = maxIntervalWidth(mapped, processed);
+      if (this.ciWidth <= this.maxCIWidth) {
+        this.limit = processed;
+      }
+    }
+
+    //
+    // Constructor
+    //
+
+    /**
+     * Constructor.
+     * @param readCount number of reads of the subset
+     * @param increment number of reads between two checks
+     * @param maxCIWidth maximal width of the 95% confidence intervals
+     */
+    AdaptiveControl(final int readCount, final int increment,
+        final double maxCIWidth) {
+
+      checkArgument(readCount >= 0, "readCount cannot be lower than 0");
+      checkArgument(increment > 0, "increment must be greater than 0");
+
+      this.readCount = readCount;
+      this.increment = increment;
+      this.maxCIWidth = maxCIWidth;
+      this.limit = readCount;
+      this.nextCheck = increment;
+    }
+  }
+
+  private final FastqScreenResult fastqScreenResult;
+  private final ReadHitTable hitTable;
+  private final File tmpDir;
+  private final MapperIndexCache indexCache;
+
+  // Number of reads mapped in adaptive mode, -1 if all the reads are mapped
+  private int processedReads = -1;
+
+  private final boolean pairedMode;
+
+  private final String mapperArguments;
+
+  private final String mapperName;
+
+  /**
+   * Mapper Receive value in SAM format, only the read mapped are added in
+   * output with reference genome.
+   * @param fastqRead fastq file
+   * @param genomes list of reference genome
+   * @param sampleGenome genome reference corresponding to sample, can be null
+   * @param threadNumber number threads used for mapping
+   * @throws AozanException if an error occurs while mapping
+   */
+  public void doMap(final File fastqRead, final List<String> genomes,
+      final String sampleGenome, final int threadNumber) throws AozanException {
+
+    this.doMap(fastqRead, null, genomes, sampleGenome, threadNumber);
+  }
+
+  /**
+   * Mapper Receive value in SAM format, only the read mapped are added in
+   * output with reference genome.
+   * @param fastqRead1 fastq file
+   * @param fastqRead2 fastq file in mode paired
+   * @param genomes list of genome reference
+   * @param sampleGenome genome reference corresponding to sample, can be null
+   * @param threadNumber number threads used for mapping
+   * @throws AozanException if an error occurs while mapping
+   */
+  public void doMap(final File fastqRead1, final File fastqRead2,
+      final List<String> genomes, final String sampleGenome,
+      final int threadNumber) throws AozanException {
+
+    checkNotNull(fastqRead1, "fastqRead1 argument cannot be null");
+    checkNotNull(genomes, "genomesForMapping argument cannot be null");
+
+    if (this.pairedMode) {
+      checkNotNull(fastqRead2, "fastqRead2 argument cannot be null");
+    }
+
+    // Define the number of thread to use
+    final int mapperThreads = threadNumber > 0
+        ? threadNumber : Runtime.getRuntime().availableProcessors();
+
+    if (firstDoMapRun) {
+      // Update logger at the first execution
+      LOGGER.info("FASTQSCREEN: map "
+          + fastqRead1.getName() + " on genomes "
+          + Joiner.on(",").join(genomes));
+
+      LOGGER.info("FASTQSCREEN: init "
+          + this.mapperName + " mapper, arguments: \"" + this.mapperArguments
+          + "\", mode: " + (pairedMode ? "paired" : "single") + ", threads: "
+          + mapperThreads);
+    }
+
+    // Assign an identifier to each read of the subset
+    loadReadNames(fastqRead1);
+
+    mapGenomes(fastqRead1, fastqRead2, genomes, sampleGenome, mapperThreads);
+  }
+
+  /**
+   * Classify the reads with a contaminant prefilter and map only the reads
+   * that have not been classified. The classified reads are counted as a
+   * single hit on their contaminant only. As they are not mapped on the other
+   * genomes, this is an approximation: a read of a contaminant that would also
+   * map on another genome is counted as hitting only one genome. The other
+   * reads are mapped on all the genomes, including the contaminants, so the
+   * reads missed by the prefilter are still counted. Only the contaminants of
+   * the prefilter that are in the list of genomes are used.
+   * @param fastqRead fastq file
+   * @param genomes list of genome reference
+   * @param prefilter the contaminant prefilter
+   * @param threadNumber number threads used for mapping
+   * @throws AozanException if an error occurs while mapping
+   */
+  public void doPrefilteredMap(final File fastqRead,
+      final List<String> genomes, final ContaminantPrefilter prefilter,
+      final int threadNumber) throws AozanException {
+
+    checkNotNull(fastqRead, "fastqRead argument cannot be null");
+    checkNotNull(genomes, "genomesForMapping argument cannot be null");
+    checkNotNull(prefilter, "prefilter argument cannot be null");
+    checkArgument(!this.pairedMode,
+        "the prefilter cannot be used in paired mode");
+
+    final int mapperThreads = threadNumber > 0
+        ? threadNumber : Runtime.getRuntime().availableProcessors();
+
+    // Assign an identifier to each read of the subset
+    loadReadNames(fastqRead);
+
+    // Only the contaminants requested are used
+    final List<String> contaminants = prefilter.getContaminants();
+    final BitSet[] classified = new BitSet[contaminants.size()];
+    for (int i = 0; i < classified.length; i++) {
+      if (genomes.contains(contaminants.get(i))) {
+        classified[i] = new BitSet();
+      }
+    }
+
+    final File remainder = new File(this.tmpDir, "aozan-fastqscreen-prefilter-"
+        + Thread.currentThread().getId() + "-" + fastqRead.getName());
+
+    FastqReader reader = null;
+    final BitSet classifiedReads = new BitSet();
+
+    try {
+
+      // Classify the reads and write the other reads in the remainder file
+      reader = new FastqReader(new FileInputStream(fastqRead));
+
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+          new FileOutputStream(remainder), StandardCharsets.ISO_8859_1))) {
+
+        for (final ReadSequence read : reader) {
+
+          final int contaminant = prefilter.classify(read.getSequence());
+
+          final int readId = this.hitTable.getReadId(read.getName());
+
+          if (contaminant == ContaminantPrefilter.NOT_CLASSIFIED
+              || classified[contaminant] == null || readId == -1) {
+            writeRead(writer, read);
+          } else {
+            classified[contaminant].set(readId);
+            classifiedReads.set(readId);
+          }
+        }
+      }
+
+      // Throw an exception if an error has occurred while reading data
+      reader.throwException();
+
+      // Add the hits of the contaminants
+      for (int i = 0; i < classified.length; i++) {
+
+        if (classified[i] == null) {
+          continue;
+        }
+
+        final String contaminant = contaminants.get(i);
+        this.hitTable.addHits(this.hitTable.addGenome(contaminant),
+            classified[i], new BitSet());
+
+        synchronized (this.fastqScreenResult) {
+          this.fastqScreenResult.addGenome(contaminant, null);
+        }
+      }
+
+      LOGGER.fine("FASTQSCREEN: prefilter classified "
+          + classifiedReads.cardinality() + "/"
+          + this.hitTable.getReadCount() + " reads of " + fastqRead.getName());
+
+      // Map the remaining reads on all the genomes
+      if (classifiedReads.cardinality() < this.hitTable.getReadCount()) {
+        mapGenomes(remainder, null, genomes, null, mapperThreads);
+      }
+
+    } catch (final IOException | BadBioEntryException e) {
+      throw new AozanException(e);
+    } finally {
+
+      closeReader(reader, fastqRead);
+
+      if (remainder.exists() && !remainder.delete()) {
+        LOGGER.warning("FASTQSCREEN: fail to delete " + remainder);
+      }
+    }
+
+    this.fastqScreenResult
+        .setPrefilteredReadCount(classifiedReads.cardinality());
+  }
+
+  /**
+   * Map the reads of the subset until the confidence interval of the mapped
+   * percentage of each genome is narrower than a maximal width. The reads are
+   * streamed to a single mapper process by genome, the streaming stops when
+   * the intervals computed at an increment are narrow enough. The reads that
+   * have not been mapped are not counted in the result. The mapper must
+   * output the unmapped reads (the default of bowtie and bowtie2), otherwise
+   * all the reads are mapped.
+   * @param fastqRead1 fastq file
+   * @param fastqRead2 fastq file in mode paired
+   * @param genomes list of genome reference
+   * @param sampleGenome genome reference corresponding to sample, can be null
+   * @param threadNumber number threads used for mapping
+   * @param increment number of reads between two computations of the
+   *          confidence intervals
+   * @param maxCIWidth maximal width of the 95% confidence intervals
+   * @throws AozanException if an error occurs while mapping
+   */
+  public void doAdaptiveMap(final File fastqRead1, final File fastqRead2,
+      final List<String> genomes, final String sampleGenome,
+      final int threadNumber, final int increment, final double maxCIWidth)
+      throws AozanException {
+
+    checkNotNull(fastqRead1, "fastqRead1 argument cannot be null");
+    checkNotNull(genomes, "genomesForMapping argument cannot be null");
+    checkArgument(increment > 0, "increment must be greater than 0");
+
+    if (this.pairedMode) {
+      checkNotNull(fastqRead2, "fastqRead2 argument cannot be null");
+    }
+
+    final int mapperThreads = threadNumber > 0
+        ? threadNumber : Runtime.getRuntime().availableProcessors();
+
+    // Assign an identifier to each read of the subset
+    loadReadNames(fastqRead1);
+
+    final int readCount = this.hitTable.getReadCount();
+    final AdaptiveControl control =
+        new AdaptiveControl(readCount, increment, maxCIWidth);
+
+    mapGenomes(fastqRead1, fastqRead2, genomes, sampleGenome, mapperThreads,
+        control);
+
+    // All the genomes have been mapped at least on the first reads
+    final int processed = control.getLimit();
+    final double ciWidth = computeConfidenceIntervals(processed);
+
+    this.processedReads = processed;
+    this.fastqScreenResult.setSubsetReadCount(readCount);
+
+    LOGGER.fine("FASTQSCREEN: adaptive mapping of "
+        + fastqRead1.getName() + " stopped after " + processed + "/"
+        + readCount + " reads, maximal confidence interval width: "
+        + ciWidth);
+  }
+
+  /**
+   * Write the reads to the input of a mapper process in a separate thread.
+   * The input of the process is closed when the reads have been written.
+   * @param process the mapper process
+   * @param fastqRead1 fastq file
+   * @param fastqRead2 fastq file in mode paired, can be null
+   * @param control the adaptive control that limits the number of reads
+   * @param errors list where adding the exception of the thread
+   * @return the started thread
+   */
+  private static Thread startReadsWriter(final MapperProcess process,
+      final File fastqRead1, final File fastqRead2,
+      final AdaptiveControl control, final List<Exception> errors) {
+
+    final Thread result = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+
+        try {
+          writeReads(process, fastqRead1, fastqRead2, control);
+        } catch (final IOException | BadBioEntryException e) {
+          errors.add(e);
+        }
+      }
+    }, "fastqscreen-writer-" + fastqRead1.getName());
+
+    result.start();
+
+    return result;
+  }
+
+  /**
+   * Write the reads to the input of a mapper process until the limit of the
+   * adaptive control is reached.
+   * @param process the mapper process
+   * @param fastqRead1 fastq file
+   * @param fastqRead2 fastq file in mode paired, can be null
+   * @param control the adaptive control that limits the number of reads
+   * @throws IOException if an error occurs while writing the reads
+   * @throws BadBioEntryException if a read is invalid
+   */
+  private static void writeReads(final MapperProcess process,
+      final File fastqRead1, final File fastqRead2,
+      final AdaptiveControl control) throws IOException, BadBioEntryException {
+
+    FastqReader reader1 = null;
+    FastqReader reader2 = null;
+
+    try {
+
+      reader1 = new FastqReader(new FileInputStream(fastqRead1));
+      final Iterator<ReadSequence> it1 = reader1.iterator();
+      Iterator<ReadSequence> it2 = null;
+      if (fastqRead2 != null) {
+        reader2 = new FastqReader(new FileInputStream(fastqRead2));
+        it2 = reader2.iterator();
+      }
+
+      int count = 0;
+      while (count < control.getLimit() && it1.hasNext()) {
+
+        final ReadSequence read1 = it1.next();
+
+        if (it2 == null) {
+          process.writeEntry(read1);
+        } else {
+
+          if (!it2.hasNext()) {
+            throw new IOException("The number of reads is not the same in "
+                + fastqRead1 + " and " + fastqRead2);
+          }
+          process.writeEntry(read1, it2.next());
+        }
+        count++;
+      }
+
+      // Throw an exception if an error has occurred while reading data
+      reader1.throwException();
+      if (reader2 != null) {
+        reader2.throwException();
+      }
+
+    } finally {
+
+      process.closeEntriesWriter();
+      closeReader(reader1, fastqRead1);
+      closeReader(reader2, fastqRead2);
+    }
+  }
+
+  /**
+   * Write a read in FASTQ format.
+   * @param writer the writer
+   * @param read the read to write
+   * @throws IOException if an error occurs while writing the read
+   */
+  private static void writeRead(final Writer writer, final ReadSequence read)
+      throws IOException {
+
+    writer.write('@');
+    writer.write(read.getName());
+    writer.write('\n');
+    writer.write(read.getSequence());
+    writer.write("\n+\n");
+    writer.write(read.getQuality());
+    writer.write('\n');
+  }
+
+  /**
+   * Compute the width of the 95% Wilson confidence interval of the mapped
+   * percentage of each genome and save them in the result.
+   * @param processed number of reads mapped
+   * @return the maximal width of the confidence intervals
+   */
+  private double computeConfidenceIntervals(final int processed) {
+
+    final List<String> genomes = this.hitTable.getGenomes();
+    final int[] mapped = this.hitTable.countReadsPerGenome(0, processed);
+
+    double result = 0.0;
+
+    for (int i = 0; i < mapped.length; i++) {
+
+      final double width = wilsonIntervalWidth(mapped[i], processed);
+      this.fastqScreenResult.setMappedPercentConfidenceInterval(genomes.get(i),
+          width);
+      result = Math.max(result, width);
+    }
+
+    return result;
+  }
+
+  /**
+   * Compute the width of the 95% Wilson score interval of a proportion.
+   * @param successes number of successes
+   * @param n number of trials
+   * @return the width of the confidence interval
+   */
+  static double wilsonIntervalWidth(final int successes, final int n) {
+
+    if (n <= 0) {
+      return 1.0;
+    }
+
+    final double z = 1.959964;
+    final double p = (double) successes / n;
+    final double z2 = z * z;
+
+    return 2.0
+        * z * Math.sqrt(p * (1.0 - p) / n + z2 / (4.0 * n * n))
+        / (1.0 + z2 / n);
+  }
+
+  /**
+   * Compute the maximal width of the 95% Wilson score intervals of the
+   * mapped percentages of several genomes.
+   * @param mapped number of mapped reads for each genome
+   * @param n number of reads
+   * @return the maximal width of the confidence intervals
+   */
+  static double maxIntervalWidth(final int[] mapped, final int n) {
+
+    double result = 0.0;
+
+    for (final int m : mapped) {
+      result = Math.max(result, wilsonIntervalWidth(m, n));
+    }
+
+    return result;
+  }
+
+  /**
+   * Close a FASTQ reader.
+   * @param reader the reader to close, can be null
+   * @param fastqFile the FASTQ file read
+   */
+  private static void closeReader(final FastqReader reader,
+      final File fastqFile) {
+
+    if (reader != null) {
+      try {
+        reader.close();
+      } catch (final IOException e) {
+        LOGGER.warning("FASTQSCREEN: fail to close " + fastqFile);
+      }
+    }
+  }
+
+  /**
+   * Map the reads on the genomes. Each genome is mapped in a separate thread.
+   * @param fastqRead1 fastq file
+   * @param fastqRead2 fastq file in mode paired
+   * @param genomes list of genome reference
+   * @param sampleGenome genome reference corresponding to sample, can be null
+   * @param mapperThreads number threads available for mapping
+   * @throws AozanException if an error occurs while mapping
+   */
+  private void mapGenomes(final File fastqRead1, final File fastqRead2,
+      final List<String> genomes, final String sampleGenome,
+      final int mapperThreads) throws AozanException {
+
+    mapGenomes(fastqRead1, fastqRead2, genomes, sampleGenome, mapperThreads,
+        null);
+  }
+
+  /**
+   * Map the reads on the genomes. Each genome is mapped in a separate thread.
+   * @param fastqRead1 fastq file
+   * @param fastqRead2 fastq file in mode paired
+   * @param genomes list of genome reference
+   * @param sampleGenome genome reference corresponding to sample, can be null
+   * @param mapperThreads number threads available for mapping
+   * @param control the adaptive control, null if all the reads are mapped
+   * @throws AozanException if an error occurs while mapping
+   */
+  private void mapGenomes(final File fastqRead1, final File fastqRead2,
+      final List<String> genomes, final String sampleGenome,
+      final int mapperThreads, final AdaptiveControl control)
+      throws AozanException {
+
+    if (genomes.isEmpty()) {
+      return;
+    }
+
+    // The mappings of all the genomes of all the samples share the same CPU
+    // budget for a number of threads
+    final Semaphore cpuBudget = getCpuBudget(mapperThreads);
+
+    final ExecutorService executor = Executors
+        .newFixedThreadPool(Math.min(genomes.size(), mapperThreads));
+    final List<Future<Void>> futures = new ArrayList<>();
+
+    for (final String genome : genomes) {
+      futures.add(executor.submit(new Callable<Void>() {
+
+        @Override
+        public Void call() throws Exception {
+
+          mapGenome(fastqRead1, fastqRead2, genome, sampleGenome, cpuBudget,
+              mapperThreads, control);
+          return null;
+        }
+      }));
+    }
+
+    executor.shutdown();
+
+    try {
+
+      for (final Future<Void> future : futures) {
+        future.get();
+      }
+
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AozanException(e);
+    } catch (final ExecutionException e) {
+
+      if (e.getCause() instanceof AozanException) {
+        throw (AozanException) e.getCause();
+      }
+      throw new AozanException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Map the reads on a genome.
+   * @param fastqRead1 fastq file
+   * @param fastqRead2 fastq file in mode paired
+   * @param genome the genome
+   * @param sampleGenome genome reference corresponding to sample, can be null
+   * @param cpuBudget CPU budget shared by all the mappings
+   * @param maxThreads maximal number of threads for the mapping
+   * @param control the adaptive control, null if all the reads are mapped
+   * @throws AozanException if an error occurs while mapping
+   * @throws InterruptedException if the thread has been interrupted while
+   *           waiting for available CPUs
+   */
+  private void mapGenome(final File fastqRead1, final File fastqRead2,
+      final String genome, final String sampleGenome,
+      final Semaphore cpuBudget, final int maxThreads,
+      final AdaptiveControl control)
+      throws AozanException, InterruptedException {
+
+    // Timer : for step mapping on genome
+    final Stopwatch timer = Stopwatch.createStarted();
+
+    // Get the mapper object
+    final Mapper mapper = Mapper.newMapper(this.mapperName);
+
+    // Set mapper temporary directory
+    mapper.setTempDirectory(this.tmpDir);
+
+    try {
+
+      // Create the mapper instance
+      final MapperInstance mapperInstance =
+          mapper.newMapperInstance("", "", true, null);
+
+      GenomeDescriptionCreator.initializeDataProtocols();
+      final DataFile genomeFile = new DataFile("genome://" + genome);
+
+      // Create genome description
+      final GenomeDescription desc;
+      try {
+        desc = GenomeDescriptionCreator.getInstance()
+            .createGenomeDescription(genomeFile);
+      } catch (final BadBioEntryException e) {
+        throw new AozanException(e);
+      }
+
+      if (desc == null) {
+        LOGGER.warning(
+            "FASTQSCREEN: archive index file not found for " + genome);
+        return;
+      }
+
+      // get index Genome reference exists
+      final File archiveIndexFile =
+          createIndex(mapperInstance, genomeFile, desc);
+
+      final FastqScreenSAMParser parser =
+          new FastqScreenSAMParser(this.hitTable, genome, this.pairedMode);
+
+      synchronized (this.fastqScreenResult) {
+        this.fastqScreenResult.addGenome(genome, sampleGenome);
+      }
+
+      // Do nothing if the file is empty
+      if (fastqRead1.length() == 0) {
+        parser.closeMapOutputFile();
+        return;
+      }
+
+      // The number of threads depends of the size of the genome
+      final int threads = getMapperThreads(desc, maxThreads);
+
+      cpuBudget.acquire(threads);
+      File indexDir = null;
+      try {
+
+        // Unpack the index in the index cache if required
+        indexDir = this.indexCache.acquire(archiveIndexFile);
+
+        LOGGER.info("FASTQSCREEN: map "
+            + fastqRead1.getName()
+            + (this.pairedMode ? ", " + fastqRead2.getName() : "") + " on "
+            + genome + " with " + threads + " thread(s)");
+
+        // Create the MapperIndex object
+        final MapperIndex mapperIndex;
+        synchronized (getIndexLock(archiveIndexFile)) {
+          mapperIndex =
+              mapperInstance.newMapperIndex(archiveIndexFile, indexDir);
+        }
+
+        if (control == null) {
+
+          // Create the mapping object
+          FileMapping mapping = mapperIndex.newFileMapping(
+              FastqFormat.FASTQ_SANGER, this.mapperArguments, threads, false,
+              new LocalReporter(), COUNTER_GROUP);
+
+          // Create the MapperProcess
+          final MapperProcess process = this.pairedMode
+              ? mapping.mapPE(fastqRead1, fastqRead2, null, null)
+              : mapping.mapSE(fastqRead1, null, null);
+
+          // Parse SAM output
+          parser.parseLines(process.getStout());
+
+          // Wait the end of the process and do cleanup
+          process.waitFor();
+
+          // Throw an exception if an exception has occurred while mapping
+          mapping.throwMappingException();
+
+        } else {
+
+          // Stream the reads to the mapper until the control stops it
+          final StreamMapping mapping = mapperIndex.newStreamMapping(
+              FastqFormat.FASTQ_SANGER, this.mapperArguments, threads, false,
+              new LocalReporter(), COUNTER_GROUP);
+
+          final MapperProcess process =
+              this.pairedMode ? mapping.mapPE() : mapping.mapSE();
+
+          control.addParser(parser);
+          final List<Exception> errors =
+              Collections.synchronizedList(new ArrayList<Exception>());
+          final Thread writer = startReadsWriter(process, fastqRead1,
+              this.pairedMode ? fastqRead2 : null, control, errors);
+
+          // Parse SAM output
+          parser.parseLines(process.getStout());
+
+          // Wait the end of the writer and of the process
+          writer.join();
+          process.waitFor();
+
+          // Throw an exception if an exception has occurred while mapping
+          mapping.throwMappingException();
+
+          if (!errors.isEmpty()) {
+            throw new AozanException(errors.get(0));
+          }
+        }
+
+      } finally {
+        cpuBudget.release(threads);
+        if (indexDir != null) {
+          this.indexCache.release(archiveIndexFile);
+        }
+      }
+
+      LOGGER.fine("FASTQSCREEN: "
+          + mapper.getName() + " mapping on genome " + genome + " in mode "
+          + (this.pairedMode ? "paired" : "single") + ", in "
+          + toTimeHumanReadable(timer.elapsed(TimeUnit.MILLISECONDS)));
+
+      timer.stop();
+
+      firstDoMapRun = false;
+
+    } catch (final IOException e) {
+      throw new AozanException(e);
+    }
+  }
+
+  /**
+   * Get the number of threads to use for the mapping on a genome. Small
+   * genomes like PhiX or adapters use only one thread.
+   * @param desc description of the genome
+   * @param maxThreads maximal number of threads
+   * @return the number of threads to use
+   */
+  private static int getMapperThreads(final GenomeDescription desc,
+      final int maxThreads) {
+
+    final long threads =
+        (desc.getGenomeLength() + BASES_PER_MAPPER_THREAD - 1)
+            / BASES_PER_MAPPER_THREAD;
+
+    return (int) Math.max(1, Math.min(maxThreads, threads));
+  }
+
+  /**
+   * Get the CPU budget shared by all the mappings with the same number of
+   * threads.
+   * @param threads number of threads available for the mappings
+   * @return a semaphore with a permit for each thread
+   */
+  private static Semaphore getCpuBudget(final int threads) {
+
+    final Semaphore budget = new Semaphore(threads, true);
+    final Semaphore previous = CPU_BUDGETS.putIfAbsent(threads, budget);
+
+    return previous == null ? budget : previous;
+  }
+
+  /**
+   * Get the lock object for an index file.
+   * @param indexFile the index file
+   * @return an object to use as a lock
+   */
+  private static Object getIndexLock(final File indexFile) {
+
+    final Object lock = new Object();
+    final Object previous =
+        INDEX_LOCKS.putIfAbsent(indexFile.getAbsolutePath(), lock);
+
+    return previous == null ? lock : previous;
+  }
+
+  /**
+   * Create a index with bowtie from the fasta file genome. The archive of the
+   * index is kept in the index cache directory and is named with the MD5 sum
+   * of the genome, so it is only created again when the genome changes.
+   * @param bowtie mapper
+   * @param genomeDataFile fasta file of genome
+   * @param desc description of the genome
+   * @return File file of genome index
+   * @throws IOException if an error occurs while using file index genome
+   * @throws AozanException if an error occurs during call
+   *           FastqScreenGenomeMapper instance.
+   */
+  private File createIndex(final MapperInstance bowtie,
+      final DataFile genomeDataFile, final GenomeDescription desc)
+      throws IOException, AozanException {
+
+    // Timer :
+    final Stopwatch timer = Stopwatch.createStarted();
+
+    final File archiveDir = this.indexCache.getArchiveDirectory();
+    final String prefix = "aozan-"
+        + bowtie.getName().toLowerCase() + "-index-"
+        + genomeDataFile.getName() + "-";
+    final File result = new File(archiveDir, prefix
+        + (desc.getMD5Sum() == null ? "nomd5" : desc.getMD5Sum()) + ".zip");
+
+    // Only one thread can create or retrieve an index
+    synchronized (getIndexLock(result)) {
+
+      // Check if the index has already been created/retrieved
+      if (result.exists()) {
+        return result;
+      }
+
+      final Map<String, String> additionnalArgument = Collections.emptyMap();
+
+      final GenomeMapperIndexer indexer =
+          new GenomeMapperIndexer(bowtie, "", additionnalArgument, 1);
+
+      // Another Aozan instance may use the same directory
+      final File tmpFile = new File(archiveDir,
+          "tmp" + System.nanoTime() + "-" + result.getName());
+
+      try {
+        indexer.createIndex(genomeDataFile, desc, new DataFile(tmpFile));
+
+        if (!tmpFile.renameTo(result) && !result.exists()) {
+          throw new IOException(
+              "Unable to rename " + tmpFile + " to " + result);
+        }
+      } finally {
+        if (tmpFile.exists() && !tmpFile.delete()) {
+          LOGGER.warning("FASTQSCREEN: fail to delete " + tmpFile);
+        }
+      }
+
+      // Remove the archives of the previous versions of the genome
+      final File[] files = archiveDir.listFiles();
+      if (files != null) {
+        for (final File f : files) {
+          if (f.getName().startsWith(prefix)
+              && f.getName().endsWith(".zip") && !f.equals(result)
+              && !f.delete()) {
+            LOGGER.warning("FASTQSCREEN: fail to delete " + f);
+          }
+        }
+      }
+    }
+
+    LOGGER.fine("FASTQSCREEN: create/retrieve index for "
+        + genomeDataFile.getName() + " in "
+        + toTimeHumanReadable(timer.elapsed(TimeUnit.MILLISECONDS)));
+
+    timer.stop();
+
+    return result;
+  }
+
+  /**
+   * Assign an identifier to each read of the subset.
+   * @param fastqFile the FASTQ file of the first read
+   * @throws AozanException if an error occurs while reading the FASTQ file
+   */
+  private void loadReadNames(final File fastqFile) throws AozanException {
+
+    if (this.hitTable.getReadCount() > 0) {
+      return;
+    }
+
+    FastqReader reader = null;
+
+    try {
+
+      reader = new FastqReader(new FileInputStream(fastqFile));
+
+      for (final ReadSequence read : reader) {
+        this.hitTable.addRead(read.getName());
+      }
+
+      // Throw an exception if an error has occurred while reading data
+      reader.throwException();
+
+    } catch (final IOException | BadBioEntryException e) {
+      throw new AozanException(e);
+    } finally {
+      closeReader(reader, fastqFile);
+    }
+  }
+
+  /**
+   * Compile data of fastqscreen in percentage.
+   * @return FastqScreenResult result of FastqScreen
+   * @throws AozanException if no genome has been mapped
+   */
+  public FastqScreenResult getFastqScreenResult() throws AozanException {
+
+    // Linear scan of the hits of all the reads
+    final int readsProcessed = this.processedReads == -1
+        ? this.hitTable.getReadCount() : this.processedReads;
+    final int readsMapped =
+        this.hitTable.fillResult(this.fastqScreenResult, 0, readsProcessed);
+
+    LOGGER.fine("FASTQSCREEN: result of mappings : nb read mapped "
+        + readsMapped + " / nb read " + readsProcessed);
+
+    this.fastqScreenResult.countPercentValue(readsMapped, readsProcessed);
+
+    return this.fastqScreenResult;
+  }
+
+  /**
+   * Return mapper arguments either the defaults or those specified in the
+   * configuration.
+   * @return mapper arguments
+   * @throws AozanException for mapper different bowtie or bowtie2, no
+   *           parameters are define
+   */
+  private static String getMapperArguments(final String mapperName,
+      final String mapperArguments, final boolean pairedMode)
+      throws AozanException {
+
+    if (mapperArguments != null && !mapperArguments.isEmpty()) {
+      return mapperArguments;
+    }
+
+    // Use default argument mapper
+    final String mapperNameLower =
+        mapperName.toLowerCase(Globals.DEFAULT_LOCALE);
+
+    if (BowtieMapperProvider.MAPPER_NAME.toLowerCase(Globals.DEFAULT_LOCALE).equals(mapperNameLower)) {
+      return " -l 20 -k 2 --chunkmbs 512"
+          + (pairedMode ? " --maxins 1000" : "");
+    }
+
+    if (Bowtie2MapperProvider.MAPPER_NAME.toLowerCase(Globals.DEFAULT_LOCALE).equals(mapperNameLower)) {
+      return " -k 2 --very-fast-local --no-discordant --no-mixed"
+          + (pairedMode ? " --maxins 1000" : "");
+    }
+
+    throw new AozanException(
+          "FastqScreen fail: no argument defined for the mapper "
+              + mapperName);
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public construction. Instantiation the mapper, the mapper name and the
+   * mapper arguments must be define together else it uses the default mapper.
+   * @param tmpDir path to temporary directory
+   * @param indexCache cache of the unpacked indexes
+   * @param pairedMode true if a pair-end run and option paired mode equals true
+   *          else false
+   * @param mapperName mapper name name can be null
+   * @param mapperArguments mapper arguments can be null
+   * @throws AozanException occurs when the instantiation of mapper fails
+   */
+  public FastqScreenGenomeMapper(final File tmpDir,
+      final MapperIndexCache indexCache, final boolean pairedMode,
+      final String mapperName, final String mapperArguments)
+      throws AozanException {
+
+    this(tmpDir, indexCache, new ReadHitTable(), pairedMode, mapperName,
+        mapperArguments);
+  }
+
+  /**
+   * Constructor used to share a read hit table, like in batch mode. The reads
+   * are not loaded from the FASTQ file if the table already contains reads.
+   * @param tmpDir path to temporary directory
+   * @param indexCache cache of the unpacked indexes
+   * @param hitTable the read hit table
+   * @param pairedMode true if a pair-end run and option paired mode equals true
+   *          else false
+   * @param mapperName mapper name name can be null
+   * @param mapperArguments mapper arguments can be null
+   * @throws AozanException occurs when the instantiation of mapper fails
+   */
+  FastqScreenGenomeMapper(final File tmpDir, final MapperIndexCache indexCache,
+      final ReadHitTable hitTable, final boolean pairedMode,
+      final String mapperName, final String mapperArguments)
+      throws AozanException {
+
+    checkNotNull(tmpDir, "tmpDir argument cannot be null");
+    checkNotNull(indexCache, "indexCache argument cannot be null");
+    checkNotNull(hitTable, "hitTable argument cannot be null");
+    checkNotNull(mapperName, "mapperName argument cannot be null");
+
+    checkArgument(tmpDir.isDirectory(),
+        "temporary directory does not exists or is not a directory: " + tmpDir);
+
+    this.pairedMode = pairedMode;
+    this.tmpDir = tmpDir;
+    this.indexCache = indexCache;
+
+    // Use default mapper if mapper name or arguments is null
+    if (mapperName == null || mapperName.isEmpty()) {
+      this.mapperName = new BowtieMapperProvider().getName();
+    } else {
+      this.mapperName = mapperName;
+    }
+
+    this.mapperArguments =
+        getMapperArguments(mapperName, mapperArguments, pairedMode);
+
+    this.fastqScreenResult = new FastqScreenResult();
+    this.hitTable = hitTable;
+  }
+}
@@ -26,9 +26,11 @@ package fr.ens.biologie.genomique.aozan.fastqscreen;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -44,7 +46,6 @@ import fr.ens.biologie.genomique.aozan.illumina.samplesheet.Sample;
 import fr.ens.biologie.genomique.aozan.illumina.samplesheet.SampleSheet;
 import fr.ens.biologie.genomique.aozan.illumina.samplesheet.io.SampleSheetCSVReader;
 import fr.ens.biologie.genomique.aozan.tests.TestConfiguration;
-import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
 
 /**
@@ -72,7 +73,7 @@ public class FastqScreenGenomes {
   /**
    * Set reference genomes for the samples of a run. Retrieve list of genomes
    * sample from Bcl2fastq samplesheet file and filtered them compared to alias
-   * genome file. Keep only if it can be create the genome description object.
+   * genome file. Keep only if the Fasta file of the genome exists.
    * @return collection valid genomes names can be use for mapping
    * @throws AozanException if an error occurs during updating alias genomes
    *           file
@@ -88,22 +89,23 @@ public class FastqScreenGenomes {
 
     final GenomeAliases genomeAliases = GenomeAliases.getInstance();
 
+    // Compute the missing genome descriptions in parallel
+    final List<DataFile> genomeFiles = new ArrayList<>();
+    for (final String genomeName : genomesReferencesSample) {
+      genomeFiles.add(new DataFile("genome://"
+          + (genomeAliases.contains(genomeName)
+              ? genomeAliases.get(genomeName) : genomeName)));
+    }
+    GenomeDescriptionCreator.getInstance().prefetch(genomeFiles);
+
     for (final String genomeName : genomesReferencesSample) {
 
       final String newGenomeName = genomeAliases.contains(genomeName)
           ? genomeAliases.get(genomeName) : genomeName;
 
-      // Retrieve genome description if it exists
-      GenomeDescription gdesc = null;
-      try {
-        gdesc = GenomeDescriptionCreator.getInstance()
-            .createGenomeDescription(new DataFile("genome://" + newGenomeName));
-      } catch (final Exception isIgnored) {
-        // Do nothing
-      }
-
-      // Check if a genome is available for mapping
-      if (gdesc != null) {
+      // Check if a genome is available for mapping, its description is
+      // computed in background
+      if (isGenomeAvailable(newGenomeName)) {
         // Genome description exist for the genome
         genomes.add(newGenomeName);
 
@@ -129,6 +131,22 @@ public class FastqScreenGenomes {
     return Collections.unmodifiableSet(genomes);
   }
 
+  /**
+   * Test if a genome can be used for mapping. Only the existence of the Fasta
+   * file is checked, the description of the genome is computed in background
+   * after the call to prefetch() and is only waited for by the mapping.
+   * @param genome name of the genome
+   * @return true if the Fasta file of the genome exists
+   */
+  private static boolean isGenomeAvailable(final String genome) {
+
+    try {
+      return new DataFile("genome://" + genome).exists();
+    } catch (final RuntimeException isIgnored) {
+      return false;
+    }
+  }
+
   /**
    * Initialize collection on genomes reference names from the samples
    * sequencing.
@@ -201,19 +219,17 @@ public class FastqScreenGenomes {
       throw new AozanException("FastqScreen : no contaminant genome defined.");
     }
 
+    // Compute the missing genome descriptions in parallel
+    final List<DataFile> genomeFiles = new ArrayList<>();
+    for (final String genome : COMMA_SPLITTER.split(contaminantGenomeNames)) {
+      genomeFiles.add(new DataFile("genome://" + genome));
+    }
+    GenomeDescriptionCreator.getInstance().prefetch(genomeFiles);
+
     for (final String genome : COMMA_SPLITTER.split(contaminantGenomeNames)) {
-      final DataFile genomeFile = new DataFile("genome://" + genome);
 
-      // Retrieve genome description if it exists
-      GenomeDescription gdesc = null;
-      try {
-        gdesc = GenomeDescriptionCreator.getInstance()
-            .createGenomeDescription(genomeFile);
-      } catch (final Exception isIgnored) {
-        // Do nothing
-      }
       // Check genomes can be use for mapping
-      if (gdesc != null) {
+      if (isGenomeAvailable(genome)) {
         genomes.add(genome);
       }
     }
@@ -286,6 +302,9 @@ public class FastqScreenGenomes {
     checkNotNull(contaminantGenomeNames,
         "contaminantGenomeNames argument cannot be null");
 
+    // The "genome://" protocol must be available before creating DataFiles
+    GenomeDescriptionCreator.initializeDataProtocols();
+
     // Collect genomes contaminant list
     this.contaminantGenomes = initContaminantGenomes(contaminantGenomeNames);
 
@@ -24,23 +24,30 @@ package fr.ens.biologie.genomique.aozan.fastqscreen;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.transform.stream.StreamSource;
 
 import com.google.common.base.Joiner;
 
@@ -50,7 +57,9 @@ import fr.ens.biologie.genomique.aozan.util.XMLUtilsWriter;
 
 /**
  * The class set a project HTML report file on detection contamination by
- * compilation report on samples.
+ * compilation report on samples. The XML files of the samples are merged with
+ * a streaming parser, so the memory used does not depend on the number of
+ * samples.
  * @author Sandrine Perrin
  * @since 1.4
  */
@@ -62,6 +71,18 @@ public class FastqScreenProjectReport {
   private final List<File> fastqScreenFiles;
   private final String description;
 
+  // Tags of the run data to extract from the first sample
+  private static final List<String> RUN_DATA_TAGS = Arrays.asList(
+      "GeneratorName", "GeneratorVersion", "GeneratorWebsite",
+      "GeneratorRevision", "RunId", "RunDate", "FlowcellId", "InstrumentSN",
+      "InstrumentRunNumber", "ReportDate", "projectName");
+
+  // Tags of the sample data to extract from each sample
+  private static final List<String> SAMPLE_DATA_TAGS = Arrays.asList(
+      "sampleName", "genomeSample", "descriptionSample", "lane", "Report");
+
+  private final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
   /**
    * Creates the HTML report.
    * @param reportHtml the report HTML.
@@ -89,229 +110,229 @@ public class FastqScreenProjectReport {
       is = new FileInputStream(fastqscreenXSLFile);
     }
 
-    // Build document instance
-    final Document doc = buildDoc();
+    // Merge the sample XML files in a temporary file
+    final File projectXml = File.createTempFile("fastqscreen-project-", ".xml",
+        reportHtml.getAbsoluteFile().getParentFile());
+
+    try {
 
-    XMLUtilsWriter.createXMLFileContent(doc);
+      try (OutputStream os =
+          new BufferedOutputStream(new FileOutputStream(projectXml))) {
+        writeProjectXML(os);
+      }
 
-    XMLUtilsWriter.createHTMLFileFromXSL(doc, is, reportHtml);
+      XMLUtilsWriter.createHTMLFileFromXSL(new StreamSource(projectXml), is,
+          reportHtml);
+
+    } finally {
+      projectXml.delete();
+    }
   }
 
   /**
-   * Builds the document xml on project by extraction data from sample xml file.
-   * @return the document
+   * Write the XML document of the project. The sample XML files are read one
+   * by one with a streaming parser and only the selected elements of a sample
+   * are kept in memory.
+   * @param os output stream
    * @throws AozanException if an error occurs during extract data from sample
    *           xml
    */
-  private Document buildDoc() throws AozanException {
+  void writeProjectXML(final OutputStream os) throws AozanException {
 
-    boolean runDataAdded = false;
+    final Set<String> genomes = new TreeSet<>();
+    List<XMLEvent> runData = null;
 
-    DocumentBuilderFactory dbfac = DocumentBuilderFactory.newInstance();
+    try {
 
-    DocumentBuilder docBuilder = null;
-    Document doc = null;
+      final XMLEventWriter writer =
+          XMLOutputFactory.newInstance().createXMLEventWriter(os, "UTF-8");
 
-    try {
-      docBuilder = dbfac.newDocumentBuilder();
-      doc = docBuilder.newDocument();
+      writer.add(this.eventFactory.createStartDocument("UTF-8", "1.0"));
 
-    } catch (ParserConfigurationException e) {
-      throw new AozanException(e);
-    }
+      // Create the root element
+      writer.add(this.eventFactory.createStartElement("", "",
+          "ReportFastqScreen"));
+      writer.add(this.eventFactory.createAttribute("formatversion", "1.0"));
+
+      // Create a project element
+      writer.add(this.eventFactory.createStartElement("", "", "project"));
 
-    // Create the root element and add it to the document
-    Element root = doc.createElement("ReportFastqScreen");
-    root.setAttribute("formatversion", "1.0");
-    doc.appendChild(root);
+      // Parsing all sample on project
+      for (final File fqsxml : this.fastqScreenFiles) {
 
-    // Create a project element
-    final Element project = doc.createElement("project");
-    root.appendChild(project);
+        final Map<String, List<XMLEvent>> elements =
+            extractElements(fqsxml, runData == null);
 
-    // Parsing all sample on project
-    for (File fqsxml : this.fastqScreenFiles) {
+        if (runData == null) {
+          // Extract run data from first xml file
+          runData = new ArrayList<>();
+          for (final String tagName : RUN_DATA_TAGS) {
+            addEvents(runData, elements.get(tagName));
+          }
+        }
 
-      // Buid document on sample xml file
-      final Document srcDoc = buildDom(fqsxml);
+        // Set project name
+        final String name = fqsxml.getName().substring(0, 10);
 
-      if (!runDataAdded) {
-        // Extract run data from first xml file
-        extractRunData(doc, root, srcDoc);
-        runDataAdded = true;
-      }
+        // Create a sample element
+        writer.add(this.eventFactory.createStartElement("", "", "sample"));
+        writer.add(this.eventFactory.createAttribute("name", name));
+
+        // Add sample data in project document
+        for (final String tagName : SAMPLE_DATA_TAGS) {
+          writeEvents(writer, elements.get(tagName));
+        }
 
-      // Set project name
-      final String name = fqsxml.getName().substring(0, 10);
+        writer.add(this.eventFactory.createEndElement("", "", "sample"));
 
-      // Create a sample element
-      Element sample = doc.createElement("sample");
-      sample.setAttribute("name", name);
-      project.appendChild(sample);
+        // Save the genome of the sample
+        final String genome = getText(elements.get("genomeSample"));
+        if (genome != null && !genome.isEmpty()) {
+          genomes.add(genome);
+        }
+      }
 
-      // Add sample data in project document
-      extractSampleData(doc, sample, srcDoc);
+      writer.add(this.eventFactory.createEndElement("", "", "project"));
 
-    }
+      // Add run data
+      writeEvents(writer, runData);
 
-    // Create project element with all genomes names
-    final String textContent = compileGenomesInProject(doc);
+      // Create project element with all genomes names
+      writer.add(this.eventFactory.createStartElement("", "",
+          "genomesProject"));
+      writer.add(this.eventFactory.createCharacters(
+          genomes.isEmpty() ? "No genome" : Joiner.on(", ").join(genomes)));
+      writer.add(this.eventFactory.createEndElement("", "", "genomesProject"));
 
-    final Element e = doc.createElement("genomesProject");
-    e.setTextContent(textContent);
-    root.appendChild(e);
+      writer.add(this.eventFactory.createEndElement("", "",
+          "ReportFastqScreen"));
+      writer.add(this.eventFactory.createEndDocument());
+      writer.close();
 
-    // Return document on project
-    return doc;
+    } catch (final XMLStreamException e) {
+      throw new AozanException(e);
+    }
   }
 
   /**
-   * Builds the DOM from a XML file.
+   * Extract the elements of a sample XML file with a streaming parser. As
+   * Element.getElementsByTagName(), only the first element with a given tag
+   * name is extracted.
    * @param xmlFile the xml file.
-   * @return the document from xml file.
-   * @throws AozanException if an error occurs when build DOM file.
+   * @param runData true if the run data elements must be extracted
+   * @return a map with the events of the extracted elements
+   * @throws AozanException if an error occurs when reading the file
    */
-  private Document buildDom(final File xmlFile) throws AozanException {
+  private Map<String, List<XMLEvent>> extractElements(final File xmlFile,
+      final boolean runData) throws AozanException {
 
-    Document doc = null;
-
-    try {
-      DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-      DocumentBuilder dBuilder;
-      dBuilder = dbFactory.newDocumentBuilder();
+    final Set<String> tagNames = new HashSet<>(SAMPLE_DATA_TAGS);
+    if (runData) {
+      tagNames.addAll(RUN_DATA_TAGS);
+    }
 
-      doc = dBuilder.parse(xmlFile);
+    final Map<String, List<XMLEvent>> result = new HashMap<>();
 
-    } catch (ParserConfigurationException | SAXException | IOException e) {
-      throw new AozanException(e);
-    }
+    try (InputStream is = new FileInputStream(xmlFile)) {
 
-    if (doc == null) {
-      throw new AozanException("Fail to create document from file "
-          + xmlFile.getAbsolutePath() + " for " + description);
-    }
+      final XMLEventReader reader =
+          XMLInputFactory.newInstance().createXMLEventReader(is);
 
-    doc.getDocumentElement().normalize();
+      List<XMLEvent> current = null;
+      int depth = 0;
 
-    return doc;
-  }
+      while (reader.hasNext()) {
 
-  /**
-   * Extract run data on sample DOM to add in project DOM.
-   * @param destDocument the destination document.
-   * @param root the parent element to add in destination document.
-   * @param srcDocument the source document.
-   */
-  private void extractRunData(final Document destDocument, final Element root,
-      final Document srcDocument) {
-
-    // Tag name to extract
-    final List<String> runDataTag = new ArrayList<>();
-    runDataTag.add("GeneratorName");
-    runDataTag.add("GeneratorVersion");
-    runDataTag.add("GeneratorWebsite");
-    runDataTag.add("GeneratorRevision");
-    runDataTag.add("RunId");
-    runDataTag.add("RunDate");
-    runDataTag.add("FlowcellId");
-    runDataTag.add("InstrumentSN");
-    runDataTag.add("InstrumentRunNumber");
-    runDataTag.add("ReportDate");
-    runDataTag.add("projectName");
-
-    // Extract
-    extractDataFromDOMtoDOM(destDocument, root, srcDocument, runDataTag);
+        final XMLEvent event = reader.nextEvent();
 
-  }
+        if (current == null) {
 
-  /**
-   * Extract sample data from DOM on sample to add in DOM on project.
-   * @param destDocument the destination document, project
-   * @param sample the sample element
-   * @param srcDocument the source document, sample
-   */
-  private void extractSampleData(final Document destDocument,
-      final Element sample, final Document srcDocument) {
+          if (event.isStartElement()) {
 
-    // Tags name to extract
-    final List<String> sampleDataTag = new ArrayList<>();
-    sampleDataTag.add("sampleName");
-    sampleDataTag.add("genomeSample");
-    sampleDataTag.add("descriptionSample");
-    sampleDataTag.add("lane");
-    sampleDataTag.add("Report");
+            final String tagName =
+                event.asStartElement().getName().getLocalPart();
 
-    // Extract
-    extractDataFromDOMtoDOM(destDocument, sample, srcDocument, sampleDataTag);
+            if (tagNames.contains(tagName) && !result.containsKey(tagName)) {
+              current = new ArrayList<>();
+              result.put(tagName, current);
+              current.add(event);
+              depth = 1;
+            }
+          }
+          continue;
+        }
 
-  }
+        current.add(event);
 
-  /**
-   * Extract sample data from DOM on sample to add in DOM on project.
-   * @param destDocument the destination document, project
-   * @param destElement the dest element
-   * @param srcDocument the source document, sample
-   * @param tagNames the tag names
-   */
-  private void extractDataFromDOMtoDOM(final Document destDocument,
-      final Element destElement, final Document srcDocument,
-      final List<String> tagNames) {
+        if (event.isStartElement()) {
+          depth++;
+        } else if (event.isEndElement() && --depth == 0) {
+          current = null;
+        }
+      }
 
-    // Source root element
-    final Element srcRoot = srcDocument.getDocumentElement();
+      reader.close();
 
-    // Parsing tag names selected
-    for (final String tagName : tagNames) {
-      // Extract node from tag name
-      final NodeList childs = srcRoot.getElementsByTagName(tagName);
+    } catch (XMLStreamException | IOException e) {
+      throw new AozanException("Fail to read file "
+          + xmlFile.getAbsolutePath() + " for " + description + ": "
+          + e.getMessage(), e);
+    }
 
-      if (childs != null && childs.getLength() > 0) {
-        // Create new element in destination document
-        final Element elem = (Element) childs.item(0);
+    return result;
+  }
 
-        Node newElem = destDocument.importNode(elem, true);
-        destElement.appendChild(newElem);
+  /**
+   * Add events to a list.
+   * @param list the list
+   * @param events the events to add, can be null
+   */
+  private static void addEvents(final List<XMLEvent> list,
+      final List<XMLEvent> events) {
 
-      }
+    if (events != null) {
+      list.addAll(events);
     }
   }
 
   /**
-   * Compile genomes in project.
-   * @param doc the document from xml file.
-   * @return all genomes or if none found no genome
+   * Write events.
+   * @param writer the writer
+   * @param events the events to write, can be null
+   * @throws XMLStreamException if an error occurs while writing the events
    */
-  private String compileGenomesInProject(final Document doc) {
-    // Save all genomes in project
-    final List<String> genomes = new ArrayList<>();
-    final String tagName = "genomeSample";
-
-    String textTag = "No genome";
+  private static void writeEvents(final XMLEventWriter writer,
+      final List<XMLEvent> events) throws XMLStreamException {
 
-    final NodeList childs = doc.getElementsByTagName(tagName);
+    if (events == null) {
+      return;
+    }
 
-    if (childs != null && childs.getLength() > 0) {
+    for (final XMLEvent event : events) {
+      writer.add(event);
+    }
+  }
 
-      for (int i = 0; i < childs.getLength(); i++) {
-        final String genome = childs.item(i).getTextContent();
+  /**
+   * Get the text content of an element.
+   * @param events the events of the element, can be null
+   * @return the text content of the element or null if the element does not
+   *         exist
+   */
+  private static String getText(final List<XMLEvent> events) {
 
-        if (!genome.isEmpty() && !genomes.contains(genome)) {
-          // Add new founded genome name
-          genomes.add(genome);
-        }
-      }
+    if (events == null) {
+      return null;
     }
 
-    // Compile genomes name
-    if (!genomes.isEmpty()) {
-      // Sort list
-      Collections.sort(genomes);
-
-      // Set new tag text content
-      textTag = Joiner.on(", ").join(genomes);
+    final StringBuilder sb = new StringBuilder();
+    for (final XMLEvent event : events) {
+      if (event.isCharacters()) {
+        sb.append(event.asCharacters().getData());
+      }
     }
 
-    return textTag;
+    return sb.toString();
   }
 
   //
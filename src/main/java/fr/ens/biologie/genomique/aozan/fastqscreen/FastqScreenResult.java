@@ -83,6 +83,13 @@ public class FastqScreenResult {
   private int readsMapped;
   private int readsprocessed;
 
+  // Values of the adaptive mode
+  private int subsetReadCount = -1;
+  private final Map<String, Double> mappedPercentCI = new HashMap<>();
+
+  // Number of reads classified by the contaminant prefilter
+  private int prefilteredReadCount = -1;
+
   /**
    * Print table percent in format use by fastqscreen program with rounding
    * value.
@@ -375,6 +382,37 @@ public class FastqScreenResult {
     this.isComputedPercent = true;
   }
 
+  /**
+   * Set the number of reads of the subset when only a part of the subset has
+   * been mapped.
+   * @param subsetReadCount number of reads of the subset
+   */
+  public void setSubsetReadCount(final int subsetReadCount) {
+
+    this.subsetReadCount = subsetReadCount;
+  }
+
+  /**
+   * Set the width of the confidence interval of the mapped percentage of a
+   * genome.
+   * @param genome genome name
+   * @param width width of the confidence interval
+   */
+  public void setMappedPercentConfidenceInterval(final String genome,
+      final double width) {
+
+    this.mappedPercentCI.put(genome, width);
+  }
+
+  /**
+   * Set the number of reads classified by the contaminant prefilter.
+   * @param prefilteredReadCount number of reads classified by the prefilter
+   */
+  public void setPrefilteredReadCount(final int prefilteredReadCount) {
+
+    this.prefilteredReadCount = prefilteredReadCount;
+  }
+
   /**
    * Update rundata with results from fastqscreen.
    * @param prefix name of sample
@@ -411,6 +449,23 @@ public class FastqScreenResult {
     data.put(prefix + ".read.mapped.count", this.readsMapped);
     data.put(prefix + ".read.processed.count", this.readsprocessed);
 
+    // Values of the adaptive mode
+    if (this.subsetReadCount != -1) {
+
+      data.put(prefix + ".read.subset.count", this.subsetReadCount);
+
+      for (final Map.Entry<String, Double> e : this.mappedPercentCI
+          .entrySet()) {
+        data.put(prefix + "." + e.getKey() + ".mapped.percent.ci",
+            e.getValue().doubleValue());
+      }
+    }
+
+    // Value of the contaminant prefilter
+    if (this.prefilteredReadCount != -1) {
+      data.put(prefix + ".read.prefiltered.count", this.prefilteredReadCount);
+    }
+
     return data;
   }
 
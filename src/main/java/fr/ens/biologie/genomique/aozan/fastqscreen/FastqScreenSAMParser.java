@@ -23,148 +23,267 @@
 
 package fr.ens.biologie.genomique.aozan.fastqscreen;
 
-import java.io.BufferedReader;
-import java.io.File;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
-
-import htsjdk.samtools.SAMLineParser;
-import htsjdk.samtools.SAMRecord;
-
-import com.google.common.io.Files;
-
-import fr.ens.biologie.genomique.aozan.Globals;
-import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
-import fr.ens.biologie.genomique.eoulsan.bio.SAMUtils;
-import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.MultiReadAlignmentsFilter;
-import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.ReadAlignmentsFilter;
-import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.ReadAlignmentsFilterBuffer;
-import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.RemoveUnmappedReadAlignmentsFilter;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
- * This class ensures alignment fastqScreen treating the output format BAM of
- * mapper.
+ * This class ensures alignment fastqScreen treating the output format SAM of
+ * mapper. Only the QNAME and the FLAG fields of the alignments are read, the
+ * lines are directly scanned in a byte buffer and consecutive alignments with
+ * the same QNAME are grouped as the alignments of a read. Unmapped alignments
+ * are ignored. No object is created for each alignment or each read. In
+ * adaptive mode, the parsed reads are tracked and a listener is notified at
+ * regular intervals while the output of the mapper is parsed.
  * @since 1.0
  * @author Sandrine Perrin
  */
 public class FastqScreenSAMParser {
 
-  // private File mapOutputFile = null;
-  private final String genome;
-  private final Writer fw;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int UNMAPPED_FLAG = 0x4;
+  private static final int MATE_UNMAPPED_FLAG = 0x8;
+
+  private final ReadHitTable hitTable;
+  private final int genomeIndex;
+
+  // Hits of the genome, added to the table at the end of the parsing
+  private final BitSet hits = new BitSet();
+  private final BitSet multipleHits = new BitSet();
 
-  private final SAMLineParser parser;
   private boolean headerParsed = false;
   private final boolean pairedMode;
 
-  private final ReadAlignmentsFilterBuffer buffer;
+  // Name and number of mapped alignments of the current read
+  private byte[] readName = new byte[256];
+  private int readNameLength = -1;
+  private int mappedAlignments;
 
   private int readsprocessed = 0;
 
+  // Parsed reads and progress listener, only used in adaptive mode
+  private BitSet parsedReads;
+  private Runnable progressListener;
+  private int progressInterval;
+
   /**
-   * Parse a SAM file and create a new file mapoutsamfile, it contains a line
-   * for each read mapped with her name and mapping data : first character
-   * represent the number of hits for a read : 1 or 2 (for several hits) and the
-   * end represent the name of reference genome.
+   * Parse a SAM file and add the hits of the mapped reads in the read hit
+   * table.
    * @param is inputStream to parse
    * @throws IOException
    */
   public void parseLines(final InputStream is) throws IOException {
 
-    final BufferedReader br = new BufferedReader(
-        new InputStreamReader(is, StandardCharsets.ISO_8859_1));
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int start = 0;
+    int end = 0;
+
+    try {
+
+      while (true) {
+
+        // Parse the complete lines of the buffer
+        int eol;
+        while ((eol = indexOf(buffer, start, end, (byte) '\n')) != -1) {
+          parseLine(buffer, start, eol);
+          start = eol + 1;
+        }
+
+        // Move the incomplete line at the beginning of the buffer
+        if (start > 0) {
+          System.arraycopy(buffer, start, buffer, 0, end - start);
+          end -= start;
+          start = 0;
+        } else if (end == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        final int n = is.read(buffer, end, buffer.length - end);
+        if (n == -1) {
+          break;
+        }
+        end += n;
+      }
 
-    String line = null;
+      // Last line without end of line
+      if (end > start) {
+        parseLine(buffer, start, end);
+      }
 
-    while ((line = br.readLine()) != null) {
-      parseLine(line);
+    } finally {
+      is.close();
     }
 
-    br.close();
-
     closeMapOutputFile();
   }
 
   /**
-   * Call for each line of SAM file. Method create a new file, it contains a
-   * line for each read mapped with her name and mapping data : first character
-   * represent the number of hits for a read : 1 or 2 (for several hits) and the
-   * end represent the name of reference genome.
-   * @param SAMline parse SAM line
-   * @throws IOException if an error occurs while writing in mapOutputFile
+   * Call for each line of SAM file. The hits of the mapped reads are added in
+   * the read hit table.
+   * @param buffer the buffer that contains the line
+   * @param start start of the line in the buffer
+   * @param end end of the line in the buffer
    */
-  private void parseLine(final String SAMline) throws IOException {
+  private void parseLine(final byte[] buffer, final int start, int end) {
 
-    if (SAMline == null || SAMline.length() == 0) {
+    // Remove the carriage return
+    if (end > start && buffer[end - 1] == '\r') {
+      end--;
+    }
+
+    if (end == start) {
       return;
     }
 
     if (!this.headerParsed) {
 
-      if (SAMline.charAt(0) == '@') {
+      if (buffer[start] == '@') {
         return;
-
-      } else {
-        // Set the chromosomes sizes in the parser
-        this.headerParsed = true;
       }
+      this.headerParsed = true;
+    }
+
+    // QNAME field
+    final int nameEnd = indexOf(buffer, start, end, (byte) '\t');
+    if (nameEnd == -1) {
+      return;
     }
 
-    final SAMRecord samRecord = this.parser.parseLine(SAMline);
-    final boolean result = this.buffer.addAlignment(samRecord);
+    // FLAG field
+    int flag = 0;
+    for (int i = nameEnd + 1; i < end && buffer[i] != '\t'; i++) {
+      flag = flag * 10 + buffer[i] - '0';
+    }
 
     // Add a new read
-    if (!result) {
+    final int nameLength = nameEnd - start;
+    if (!isCurrentRead(buffer, start, nameLength)) {
+
       parseBuffered();
-      this.buffer.addAlignment(samRecord);
+
+      if (nameLength > this.readName.length) {
+        this.readName = new byte[nameLength * 2];
+      }
+      System.arraycopy(buffer, start, this.readName, 0, nameLength);
+      this.readNameLength = nameLength;
+    }
+
+    // In paired mode, a pair with an unmapped mate does not hit the genome
+    if ((flag & UNMAPPED_FLAG) == 0
+        && !(this.pairedMode && (flag & MATE_UNMAPPED_FLAG) != 0)) {
+      this.mappedAlignments++;
     }
   }
 
   /**
-   * Write last record and close file mapOutputFile.
+   * Test if a read name is the name of the current read.
+   * @param buffer the buffer that contains the name
+   * @param start start of the name in the buffer
+   * @param length length of the name
+   * @return true if the name is the name of the current read
    */
-  void closeMapOutputFile() throws IOException {
+  private boolean isCurrentRead(final byte[] buffer, final int start,
+      final int length) {
+
+    if (length != this.readNameLength) {
+      return false;
+    }
+
+    for (int i = 0; i < length; i++) {
+      if (buffer[start + i] != this.readName[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Search a byte in a buffer.
+   * @param buffer the buffer
+   * @param start start of the search
+   * @param end end of the search
+   * @param b the byte to search
+   * @return the position of the byte or -1 if not found
+   */
+  private static int indexOf(final byte[] buffer, final int start,
+      final int end, final byte b) {
+
+    for (int i = start; i < end; i++) {
+      if (buffer[i] == b) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Process the last record.
+   */
+  void closeMapOutputFile() {
 
     // processing read buffer - end of input stream bowtie execution
     if (this.headerParsed) {
       parseBuffered();
     }
 
-    this.fw.close();
+    this.hitTable.addHits(this.genomeIndex, this.hits, this.multipleHits);
+
+    if (this.progressListener != null) {
+      this.progressListener.run();
+    }
   }
 
-  private void parseBuffered() throws IOException {
+  private void parseBuffered() {
+
+    if (this.readNameLength == -1) {
+      return;
+    }
+
+    if (this.mappedAlignments > 0 || this.parsedReads != null) {
 
-    final List<SAMRecord> records = this.buffer.getFilteredAlignments();
+      final int readId =
+          this.hitTable.getReadId(this.readName, 0, this.readNameLength);
 
-    if (records != null && records.size() > 0) {
-      final String nameRead = records.get(0).getReadName();
+      if (readId != -1) {
+        synchronized (this) {
 
-      int nbHits;
-      // mode paired : records contains an event number of reads
-      if (this.pairedMode) {
-        nbHits = records.size() == 2 ? 1 : 2;
-      } else {
-        nbHits = records.size() == 1 ? 1 : 2;
-      }
+          if (this.mappedAlignments > 0) {
 
-      // write in SAMmapOutputFile
-      if (nameRead != null) {
-        this.fw.write(nameRead + "\t" + nbHits + this.genome);
-        this.fw.write("\n");
-      }
-    }
+            final int nbHits;
+            // mode paired : records contains an event number of reads
+            if (this.pairedMode) {
+              nbHits = this.mappedAlignments == 2 ? 1 : 2;
+            } else {
+              nbHits = this.mappedAlignments == 1 ? 1 : 2;
+            }
 
-    if (records != null) {
-      records.clear();
+            // Add the hit
+            this.hits.set(readId);
+            this.multipleHits.set(readId, nbHits != 1);
+          }
+
+          if (this.parsedReads != null) {
+            this.parsedReads.set(readId);
+          }
+        }
+      }
     }
 
+    this.readNameLength = -1;
+    this.mappedAlignments = 0;
     this.readsprocessed++;
+
+    // The listener is called outside the lock of the parser
+    if (this.progressListener != null
+        && this.readsprocessed % this.progressInterval == 0) {
+      this.progressListener.run();
+    }
   }
 
   //
@@ -176,39 +295,66 @@ public class FastqScreenSAMParser {
     return this.readsprocessed;
   }
 
+  /**
+   * Get the number of reads at the beginning of the subset that have all been
+   * parsed. The mapper may not output the reads in the same order as the
+   * input. This method can only be used in adaptive mode.
+   * @return the number of consecutive reads parsed from the first read
+   */
+  synchronized int getParsedPrefix() {
+
+    return this.parsedReads.nextClearBit(0);
+  }
+
+  /**
+   * Count the reads that hit the genome in the first reads of the subset.
+   * @param endRead identifier of the last read (excluded)
+   * @return the number of reads that hit the genome
+   */
+  synchronized int countHits(final int endRead) {
+
+    return this.hits.get(0, endRead).cardinality();
+  }
+
+  //
+  // Setters
+  //
+
+  /**
+   * Set a listener called each time a number of reads has been parsed and at
+   * the end of the parsing. Setting a listener enables the tracking of the
+   * parsed reads.
+   * @param listener the listener
+   * @param interval number of reads between two calls of the listener
+   */
+  void setProgressListener(final Runnable listener, final int interval) {
+
+    checkNotNull(listener, "listener argument cannot be null");
+    checkArgument(interval > 0, "interval must be greater than 0");
+
+    synchronized (this) {
+      this.parsedReads = new BitSet();
+    }
+    this.progressListener = listener;
+    this.progressInterval = interval;
+  }
+
   //
   // Constructor
   //
 
   /**
-   * Initialize FastqScreenSAMParser : create the mapOutputFile and the list
-   * filters used for parsing SAM file.
-   * @param mapOutputFile file result from mapping
+   * Initialize FastqScreenSAMParser.
+   * @param hitTable table where storing the hits
    * @param genome name genome
-   * @param genomeDescription description of the genome
    * @param pairedMode true if a pair-end run and option paired mode equals true
    *          else false
-   * @throws IOException if an error occurs while initializing mapOutputFile
    */
-  public FastqScreenSAMParser(final File mapOutputFile, final String genome,
-      final boolean pairedMode, final GenomeDescription genomeDescription)
-      throws IOException {
+  public FastqScreenSAMParser(final ReadHitTable hitTable, final String genome,
+      final boolean pairedMode) {
 
-    this.genome = genome;
+    this.hitTable = hitTable;
+    this.genomeIndex = hitTable.addGenome(genome);
     this.pairedMode = pairedMode;
-
-    // Create parser object
-    this.parser =
-        new SAMLineParser(SAMUtils.newSAMFileHeader(genomeDescription));
-
-    // object used for the Sam read alignments filter
-    final List<ReadAlignmentsFilter> listFilters = new ArrayList<>();
-    listFilters.add(new RemoveUnmappedReadAlignmentsFilter());
-
-    final ReadAlignmentsFilter filter =
-        new MultiReadAlignmentsFilter(listFilters);
-    this.buffer = new ReadAlignmentsFilterBuffer(filter);
-
-    this.fw = Files.newWriter(mapOutputFile, Globals.DEFAULT_FILE_ENCODING);
   }
 }
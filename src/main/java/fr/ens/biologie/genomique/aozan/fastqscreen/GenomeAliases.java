@@ -55,6 +55,7 @@ public class GenomeAliases {
   private static final Logger LOGGER = Common.getLogger();
 
   private static GenomeAliases singleton;
+  private static Settings settings;
 
   // Associated genome name from samplesheet file with valid genome call for
   // mapping
@@ -214,16 +215,18 @@ public class GenomeAliases {
   //
 
   /**
-   * Create a instance of GenomeAliases or if it exists return instance.
+   * Define the settings to use to create the instance of GenomeAliases. The
+   * alias file will be only read on the first call to getInstance().
    * @param settings Aozan settings
    * @throws AozanException if the initialization of instance fail.
    */
-  public static void initialize(final Settings settings) throws AozanException {
+  public static synchronized void initialize(final Settings settings)
+      throws AozanException {
 
     checkNotNull(settings, "conf argument cannot be null");
 
     if (singleton == null) {
-      singleton = new GenomeAliases(settings);
+      GenomeAliases.settings = settings;
     }
   }
 
@@ -232,12 +235,19 @@ public class GenomeAliases {
    * @return instance of GenomeAliases
    * @throws AozanException if the instance doesn't exist
    */
-  public static GenomeAliases getInstance() throws AozanException {
+  public static synchronized GenomeAliases getInstance()
+      throws AozanException {
 
     if (singleton == null) {
-      throw new IllegalStateException(
-          "GenomeAliases instance doesn't exist. It should be initialize with congfiguration Aozan properties.");
+
+      if (settings == null) {
+        throw new IllegalStateException(
+            "GenomeAliases instance doesn't exist. It should be initialize with congfiguration Aozan properties.");
+      }
+
+      singleton = new GenomeAliases(settings);
     }
+
     return singleton;
   }
 
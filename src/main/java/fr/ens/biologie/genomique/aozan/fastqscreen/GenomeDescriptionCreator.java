@@ -25,11 +25,30 @@ package fr.ens.biologie.genomique.aozan.fastqscreen;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
 
+import com.google.common.collect.Lists;
+
+import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.aozan.Settings;
+import fr.ens.biologie.genomique.eoulsan.EoulsanRuntime;
 import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.data.DataFileMetadata;
+import fr.ens.biologie.genomique.eoulsan.data.protocols.DataProtocolService;
 import fr.ens.biologie.genomique.eoulsan.data.storages.GenomeDescStorage;
 import fr.ens.biologie.genomique.eoulsan.data.storages.SimpleGenomeDescStorage;
 
@@ -41,12 +60,36 @@ import fr.ens.biologie.genomique.eoulsan.data.storages.SimpleGenomeDescStorage;
  */
 public class GenomeDescriptionCreator {
 
+  /** Logger. */
+  private static final Logger LOGGER = Common.getLogger();
+
   private static GenomeDescriptionCreator singleton;
+  private static Settings settings;
+  private static boolean dataProtocolsInitialized;
 
   private final GenomeDescStorage storage;
+  private final GenomeDescriptionRegistry registry;
+
+  // Descriptions being computed or already computed, one per genome file
+  private final ConcurrentMap<String, FutureTask<GenomeDescription>> tasks =
+      new ConcurrentHashMap<>();
+  private final ExecutorService executor =
+      Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(final Runnable r) {
+
+          final Thread t = new Thread(r, "genome-description");
+          t.setDaemon(true);
+          return t;
+        }
+      });
 
   /**
-   * Create a GenomeDescription object from a Fasta file.
+   * Create a GenomeDescription object from a Fasta file. The description is
+   * first searched in the genome registry, then in the genome description
+   * storage and is computed from the Fasta file if not found. Only the threads
+   * that request the same genome wait for its computation.
    * @param genomeFile file used for create index
    * @return genomeDescription description of the genome
    * @throws BadBioEntryException if an error occurs during create genome
@@ -58,37 +101,182 @@ public class GenomeDescriptionCreator {
 
     checkNotNull(genomeFile, "genomeFile argument cannot be null");
 
+    final FutureTask<GenomeDescription> task = getTask(genomeFile);
+
+    // Compute the description in the current thread if it is not already
+    // computed by another thread
+    task.run();
+
+    try {
+      return task.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (final ExecutionException e) {
+
+      // Allow a new computation on the next call
+      this.tasks.remove(genomeFile.getSource(), task);
+
+      final Throwable cause = e.getCause();
+      if (cause instanceof BadBioEntryException) {
+        throw (BadBioEntryException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Start the computation of the descriptions of genomes in background. The
+   * genomes that are not in the registry or that have changed are computed in
+   * parallel.
+   * @param genomeFiles genome files
+   */
+  public void prefetch(final Collection<DataFile> genomeFiles) {
+
+    checkNotNull(genomeFiles, "genomeFiles argument cannot be null");
+
+    for (final DataFile genomeFile : genomeFiles) {
+      this.executor.execute(getTask(genomeFile));
+    }
+  }
+
+  /**
+   * Get the task that compute the description of a genome.
+   * @param genomeFile genome file
+   * @return a FutureTask object
+   */
+  private FutureTask<GenomeDescription> getTask(final DataFile genomeFile) {
+
+    final String key = genomeFile.getSource();
+
+    FutureTask<GenomeDescription> task = this.tasks.get(key);
+
+    if (task == null) {
+
+      final FutureTask<GenomeDescription> newTask =
+          new FutureTask<>(new Callable<GenomeDescription>() {
+
+            @Override
+            public GenomeDescription call() throws Exception {
+
+              return loadGenomeDescription(genomeFile);
+            }
+          });
+
+      task = this.tasks.putIfAbsent(key, newTask);
+      if (task == null) {
+        task = newTask;
+      }
+    }
+
+    return task;
+  }
+
+  /**
+   * Load the description of a genome from the registry or the storage or
+   * compute it. The computed descriptions are added to the registry.
+   * @param genomeFile genome file
+   * @return genomeDescription description of the genome
+   * @throws BadBioEntryException if an error occurs during create genome
+   *           description object
+   * @throws IOException if an error occurs during access genome file
+   */
+  private GenomeDescription loadGenomeDescription(final DataFile genomeFile)
+      throws BadBioEntryException, IOException {
+
+    final String genome = genomeFile.getName();
+
+    // The registry entries are checked with the size and the modification
+    // time of the Fasta file
+    final DataFileMetadata metadata =
+        genomeFile.exists() ? genomeFile.getMetaData() : null;
+
     GenomeDescription desc = null;
 
+    if (this.registry != null && metadata != null) {
+      desc = this.registry.get(genome, metadata.getContentLength(),
+          metadata.getLastModified());
+
+      if (desc != null) {
+        return desc;
+      }
+    }
+
     if (this.storage != null) {
       desc = this.storage.get(genomeFile);
     }
 
     // Compute the genome description
     if (desc == null) {
-      desc = GenomeDescription.createGenomeDescFromFasta(genomeFile.open(),
-          genomeFile.getName());
+
+      LOGGER.info("FASTQSCREEN: compute the description of genome " + genome);
+
+      desc = computeGenomeDescription(genomeFile);
 
       if (this.storage != null) {
-        this.storage.put(genomeFile, desc);
+        synchronized (this.storage) {
+          this.storage.put(genomeFile, desc);
+        }
+      }
+    }
+
+    if (this.registry != null && metadata != null) {
+      try {
+        this.registry.add(genome, desc, metadata.getContentLength(),
+            metadata.getLastModified());
+      } catch (final IOException e) {
+        LOGGER.warning("FASTQSCREEN: unable to add genome "
+            + genome + " to the genome registry: " + e.getMessage());
       }
     }
 
     return desc;
   }
 
+  /**
+   * Compute the description of a genome from its Fasta file.
+   * @param genomeFile genome file
+   * @return genomeDescription description of the genome
+   * @throws BadBioEntryException if an error occurs during create genome
+   *           description object
+   * @throws IOException if an error occurs during access genome file
+   */
+  GenomeDescription computeGenomeDescription(final DataFile genomeFile)
+      throws BadBioEntryException, IOException {
+
+    return GenomeDescription.createGenomeDescFromFasta(genomeFile.open(),
+        genomeFile.getName());
+  }
+
   //
   // Static methods
   //
 
   /**
-   * Initialize the singleton.
+   * Initialize the singleton. This method only checks the settings, Eoulsan
+   * settings and data protocols will be initialized on the first call to
+   * initializeDataProtocols() or getInstance().
+   * @param settings Aozan settings
+   * @throws AozanException if the settings are invalid
    */
-  public static void initialize(final String genomeDescStoragePath) {
+  public static synchronized void initialize(final Settings settings)
+      throws AozanException {
 
-    if (singleton == null) {
+    checkNotNull(settings, "settings argument cannot be null");
 
-      singleton = new GenomeDescriptionCreator(genomeDescStoragePath);
+    checkSetting(settings, Settings.QC_CONF_FASTQSCREEN_GENOMES_DESC_PATH_KEY,
+        "the genome description files");
+    checkSetting(settings,
+        Settings.QC_CONF_FASTQSCREEN_MAPPERS_INDEXES_PATH_KEY,
+        "the genome mapper index files");
+    checkSetting(settings, Settings.QC_CONF_FASTQSCREEN_GENOMES_PATH_KEY,
+        "the genomes files");
+
+    if (singleton == null) {
+      GenomeDescriptionCreator.settings = settings;
     }
   }
 
@@ -96,14 +284,84 @@ public class GenomeDescriptionCreator {
    * Get the instance of the singleton.
    * @return the singleton instance of GenomeDescriptionCreator
    */
-  public static GenomeDescriptionCreator getInstance() {
+  public static synchronized GenomeDescriptionCreator getInstance() {
 
     if (singleton == null) {
+
+      initializeDataProtocols();
+
+      singleton = new GenomeDescriptionCreator(
+          settings.get(Settings.QC_CONF_FASTQSCREEN_GENOMES_DESC_PATH_KEY));
+    }
+
+    return singleton;
+  }
+
+  /**
+   * Initialize the Eoulsan settings and the data protocols required to access
+   * the genomes, the genome descriptions and the mapper indexes. This method
+   * must be called before the creation of the DataFile objects that use these
+   * protocols (e.g. "genome://"). Only the first call has an effect.
+   */
+  public static synchronized void initializeDataProtocols() {
+
+    if (dataProtocolsInitialized) {
+      return;
+    }
+
+    if (settings == null) {
       throw new IllegalStateException(
           "The instance of the singleton of GenomeDescriptionCreator has not been created");
     }
 
-    return singleton;
+    initializeEoulsan(settings);
+    dataProtocolsInitialized = true;
+  }
+
+  /**
+   * Check if a setting required by FastqScreen is defined.
+   * @param settings Aozan settings
+   * @param key the key of the setting
+   * @param description description of the setting
+   * @throws AozanException if the setting is not defined
+   */
+  private static void checkSetting(final Settings settings, final String key,
+      final String description) throws AozanException {
+
+    final String value = settings.get(key);
+
+    if (value == null || value.trim().isEmpty()) {
+      throw new AozanException("No "
+          + key + " property set in Aozan settings to define the path to "
+          + description);
+    }
+  }
+
+  /**
+   * Initialize the Eoulsan settings and data protocols required to access
+   * genomes, genome descriptions and mapper indexes.
+   * @param settings Aozan settings
+   */
+  private static void initializeEoulsan(final Settings settings) {
+
+    LOGGER.fine("FASTQSCREEN: initialize Eoulsan settings and data protocols");
+
+    final fr.ens.biologie.genomique.eoulsan.Settings eoulsanSettings =
+        EoulsanRuntime.getSettings();
+
+    // Set the values
+    eoulsanSettings.setGenomeDescStoragePath(
+        settings.get(Settings.QC_CONF_FASTQSCREEN_GENOMES_DESC_PATH_KEY));
+    eoulsanSettings.setGenomeMapperIndexStoragePath(
+        settings.get(Settings.QC_CONF_FASTQSCREEN_MAPPERS_INDEXES_PATH_KEY));
+    eoulsanSettings.setGenomeStoragePath(
+        settings.get(Settings.QC_CONF_FASTQSCREEN_GENOMES_PATH_KEY));
+
+    // Set data protocol from Eoulsan not load for Aozan because it needs to add
+    // dependencies
+    DataProtocolService.getInstance().addClassesToNotLoad(Lists.newArrayList(
+        "fr.ens.biologie.genomique.eoulsan.data.protocols.S3DataProtocol",
+        "fr.ens.biologie.genomique.eoulsan.data.protocols.S3NDataProtocol"));
   }
 
   //
@@ -119,6 +377,18 @@ public class GenomeDescriptionCreator {
     this.storage = genomeDescStoragePath == null
         ? null : SimpleGenomeDescStorage
             .getInstance(new DataFile(genomeDescStoragePath));
+
+    GenomeDescriptionRegistry registry = null;
+    if (genomeDescStoragePath != null) {
+      try {
+        registry = new GenomeDescriptionRegistry(new File(genomeDescStoragePath,
+            GenomeDescriptionRegistry.REGISTRY_FILENAME));
+      } catch (final IOException e) {
+        LOGGER.warning("FASTQSCREEN: unable to read the genome registry: "
+            + e.getMessage());
+      }
+    }
+    this.registry = registry;
   }
 
 }
@@ -0,0 +1,423 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.aozan.Settings;
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.data.DataFileMetadata;
+
+/**
+ * This class define a registry of genome descriptions stored in a single
+ * compact file. The file is memory mapped and the descriptions are only
+ * decoded when requested. The registry is created at install time with the
+ * main() method for all the genomes used by FastqScreen and is updated when
+ * the description of a new genome is computed.
+ * <p>
+ * The file contains a header (magic number, version and number of genomes)
+ * followed by the genomes. For each genome: its name, its MD5 sum, the size
+ * and the last modification time of its Fasta file, its length, its number of
+ * sequences and the name and length of each sequence. A description is only
+ * returned if the size and the modification time of the Fasta file have not
+ * changed. No mapper index metadata is stored: the index archives are named
+ * after the MD5 sum of the genome and are found from the description.
+ * <p>
+ * The registry file can be shared by several Aozan instances: it is updated
+ * under an exclusive lock and written in a temporary file that is renamed.
+ * @since 2.3
+ * @author agent
+ */
+public class GenomeDescriptionRegistry {
+
+  /** Logger. */
+  private static final Logger LOGGER = Common.getLogger();
+
+  /** Name of the registry file in the genome description storage. */
+  public static final String REGISTRY_FILENAME = "aozan-genome-registry.bin";
+
+  private static final int MAGIC = 0x415a4744;
+  private static final int VERSION = 2;
+  private static final String LOCK_EXTENSION = ".lock";
+
+  private final File file;
+
+  // Offsets of the genomes in the mapped file
+  private MappedByteBuffer buffer;
+  private final Map<String, Integer> offsets = new HashMap<>();
+
+  //
+  // Public methods
+  //
+
+  /**
+   * Get the description of a genome.
+   * @param genome name of the genome
+   * @param fastaSize size of the Fasta file of the genome
+   * @param fastaLastModified last modification time of the Fasta file
+   * @return the description of the genome or null if the genome is not in
+   *         the registry or if its Fasta file has changed
+   */
+  public synchronized GenomeDescription get(final String genome,
+      final long fastaSize, final long fastaLastModified) {
+
+    if (genome == null) {
+      return null;
+    }
+
+    final Integer offset = this.offsets.get(genome);
+    if (offset == null) {
+      return null;
+    }
+
+    final ByteBuffer b = this.buffer.duplicate();
+    b.position(offset);
+
+    final GenomeDescription result = new GenomeDescription();
+    result.setGenomeName(readString(b));
+
+    final String md5 = readString(b);
+    if (!md5.isEmpty()) {
+      result.setMD5Sum(md5);
+    }
+
+    // The Fasta file has been updated since the creation of the description
+    if (b.getLong() != fastaSize || b.getLong() != fastaLastModified) {
+      LOGGER.fine("FASTQSCREEN: the description of genome "
+          + genome + " in the genome registry is out of date");
+      return null;
+    }
+
+    // Genome length
+    b.getLong();
+
+    final int sequenceCount = b.getInt();
+    for (int i = 0; i < sequenceCount; i++) {
+      final String name = readString(b);
+      result.addSequence(name, b.getLong());
+    }
+
+    return result;
+  }
+
+  /**
+   * Add or replace the description of a genome in the registry. The registry
+   * file is read again and rewritten under an exclusive lock, so the genomes
+   * added by other Aozan instances are kept.
+   * @param genome name of the genome
+   * @param desc the description of the genome
+   * @param fastaSize size of the Fasta file of the genome
+   * @param fastaLastModified last modification time of the Fasta file
+   * @throws IOException if an error occurs while writing the registry
+   */
+  public synchronized void add(final String genome,
+      final GenomeDescription desc, final long fastaSize,
+      final long fastaLastModified) throws IOException {
+
+    checkNotNull(genome, "genome argument cannot be null");
+    checkNotNull(desc, "desc argument cannot be null");
+
+    try (FileChannel channel = FileChannel.open(
+        new File(this.file.getPath() + LOCK_EXTENSION).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+
+      // Get the genomes added by the other instances
+      load();
+
+      final File tmpFile = File.createTempFile(this.file.getName(), ".tmp",
+          this.file.getAbsoluteFile().getParentFile());
+
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+
+        final int count = this.offsets.size()
+            + (this.offsets.containsKey(genome) ? 0 : 1);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(count);
+
+        // Copy the records of the other genomes
+        for (final Map.Entry<String, Integer> e : this.offsets.entrySet()) {
+
+          if (e.getKey().equals(genome)) {
+            continue;
+          }
+
+          final ByteBuffer b = this.buffer.duplicate();
+          b.position(e.getValue());
+          skipRecord(b);
+
+          final byte[] record = new byte[b.position() - e.getValue()];
+          b.position(e.getValue());
+          b.get(record);
+          out.write(record);
+        }
+
+        writeRecord(out, genome, desc, fastaSize, fastaLastModified);
+
+      } catch (final IOException e) {
+        tmpFile.delete();
+        throw e;
+      }
+
+      if (!tmpFile.renameTo(this.file)) {
+        tmpFile.delete();
+        throw new IOException(
+            "Unable to rename " + tmpFile + " to " + this.file);
+      }
+
+      load();
+    }
+  }
+
+  //
+  // File management
+  //
+
+  /**
+   * Load the registry file. A registry file created by another version is
+   * ignored and will be replaced by the next addition.
+   * @throws IOException if an error occurs while reading the registry file
+   */
+  private void load() throws IOException {
+
+    this.offsets.clear();
+    this.buffer = null;
+
+    if (!this.file.exists()) {
+      return;
+    }
+
+    final MappedByteBuffer mapped;
+    try (RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+        FileChannel channel = raf.getChannel()) {
+
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    final ByteBuffer b = mapped.duplicate();
+
+    if (b.remaining() < 12 || b.getInt() != MAGIC) {
+      throw new IOException("Invalid genome registry file: " + this.file);
+    }
+
+    if (b.getInt() != VERSION) {
+      LOGGER.info("FASTQSCREEN: ignore the genome registry file "
+          + this.file + " created by another version of Aozan");
+      return;
+    }
+
+    final int genomeCount = b.getInt();
+
+    for (int i = 0; i < genomeCount; i++) {
+
+      final int offset = b.position();
+      final String genome = readString(b);
+      b.position(offset);
+      skipRecord(b);
+
+      this.offsets.put(genome, offset);
+    }
+
+    this.buffer = mapped;
+  }
+
+  /**
+   * Skip the record of a genome.
+   * @param b the buffer, positioned at the start of the record
+   */
+  private static void skipRecord(final ByteBuffer b) {
+
+    // Genome name and MD5 sum
+    readString(b);
+    readString(b);
+
+    // Fasta size and modification time, genome length
+    b.position(b.position() + 3 * Long.BYTES);
+
+    final int sequenceCount = b.getInt();
+    for (int j = 0; j < sequenceCount; j++) {
+      final int nameLength = b.getShort() & 0xffff;
+      b.position(b.position() + nameLength + Long.BYTES);
+    }
+  }
+
+  /**
+   * Write the record of a genome.
+   * @param out the output stream
+   * @param genome the name of the genome
+   * @param desc the genome description
+   * @param fastaSize size of the Fasta file of the genome
+   * @param fastaLastModified last modification time of the Fasta file
+   * @throws IOException if an error occurs while writing the record
+   */
+  private static void writeRecord(final DataOutputStream out,
+      final String genome, final GenomeDescription desc, final long fastaSize,
+      final long fastaLastModified) throws IOException {
+
+    final List<String> sequences = desc.getSequencesNames();
+
+    writeString(out, genome);
+    writeString(out, desc.getMD5Sum() == null ? "" : desc.getMD5Sum());
+    out.writeLong(fastaSize);
+    out.writeLong(fastaLastModified);
+    out.writeLong(desc.getGenomeLength());
+    out.writeInt(sequences.size());
+
+    for (final String sequence : sequences) {
+      writeString(out, sequence);
+      out.writeLong(desc.getSequenceLength(sequence));
+    }
+  }
+
+  /**
+   * Read a string.
+   * @param b the buffer
+   * @return the string
+   */
+  private static String readString(final ByteBuffer b) {
+
+    final byte[] bytes = new byte[b.getShort() & 0xffff];
+    b.get(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write a string.
+   * @param out the output stream
+   * @param s the string to write
+   * @throws IOException if an error occurs while writing the string
+   */
+  private static void writeString(final DataOutputStream out, final String s)
+      throws IOException {
+
+    final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+    if (bytes.length > 0xffff) {
+      throw new IOException("String too long for the genome registry: " + s);
+    }
+
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  //
+  // Main method
+  //
+
+  /**
+   * Create or update the genome registry for a list of genomes.
+   * @param args command line arguments: the path of the genome descriptions,
+   *          the path of the mapper indexes, the path of the genomes and the
+   *          names of the genomes
+   * @throws AozanException if an error occurs while computing a genome
+   *           description
+   * @throws IOException if an error occurs while writing the registry
+   */
+  public static void main(final String[] args)
+      throws AozanException, IOException {
+
+    if (args.length < 4) {
+      System.err.println("Syntax: genomeregistry genome_descs_path "
+          + "mapper_indexes_path genomes_path genome...");
+      System.exit(1);
+    }
+
+    final Map<String, String> map = new HashMap<>();
+    map.put(Settings.QC_CONF_FASTQSCREEN_GENOMES_DESC_PATH_KEY, args[0]);
+    map.put(Settings.QC_CONF_FASTQSCREEN_MAPPERS_INDEXES_PATH_KEY, args[1]);
+    map.put(Settings.QC_CONF_FASTQSCREEN_GENOMES_PATH_KEY, args[2]);
+
+    GenomeDescriptionCreator.initialize(new Settings(map));
+    GenomeDescriptionCreator.initializeDataProtocols();
+    final GenomeDescriptionCreator creator =
+        GenomeDescriptionCreator.getInstance();
+
+    final GenomeDescriptionRegistry registry = new GenomeDescriptionRegistry(
+        new File(args[0], REGISTRY_FILENAME));
+
+    for (final String genome : Arrays.asList(args).subList(3, args.length)) {
+
+      final DataFile genomeFile = new DataFile("genome://" + genome);
+      if (!genomeFile.exists()) {
+        System.err.println("Genome not found: " + genome);
+        continue;
+      }
+
+      final DataFileMetadata metadata = genomeFile.getMetaData();
+
+      try {
+        registry.add(genome, creator.computeGenomeDescription(genomeFile),
+            metadata.getContentLength(), metadata.getLastModified());
+      } catch (final BadBioEntryException e) {
+        throw new AozanException(e);
+      }
+
+      LOGGER.info("FASTQSCREEN: add genome " + genome + " to the registry");
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param file the registry file
+   * @throws IOException if an error occurs while reading the registry file
+   */
+  public GenomeDescriptionRegistry(final File file) throws IOException {
+
+    checkNotNull(file, "file argument cannot be null");
+
+    this.file = file;
+    load();
+  }
+
+}
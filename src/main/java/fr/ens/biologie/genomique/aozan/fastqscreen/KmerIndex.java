@@ -0,0 +1,592 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+import fr.ens.biologie.genomique.aozan.Common;
+
+/**
+ * This class define a memory mapped index of the minimizers of a genome. The
+ * index file contains the sorted list of the minimizers of the genome, the
+ * lowest bit of each entry is set if the minimizer occurs several times in the
+ * genome. The index is built with an external sort, so the memory required to
+ * build the index does not depend of the size of the genome. The header of the
+ * index contains the size, the modification time and the MD5 sum of the genome
+ * used to build the index, to detect the indexes of genomes that have changed.
+ * @since 2.3
+ * @author agent
+ */
+public class KmerIndex {
+
+  /** Logger. */
+  private static final Logger LOGGER = Common.getLogger();
+
+  /** Value returned when a minimizer is not in the index. */
+  public static final int NOT_FOUND = 0;
+  /** Value returned when a minimizer occurs once in the genome. */
+  public static final int UNIQUE = 1;
+  /** Value returned when a minimizer occurs several times in the genome. */
+  public static final int REPEATED = 2;
+
+  private static final long MAGIC = 0x414f5a414e4b4d52L; // "AOZANKMR"
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 64;
+  private static final int MD5_SIZE = 16;
+
+  // Number of entries in a mapped segment of the file (1 GB)
+  private static final int SEGMENT_SHIFT = 27;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+  // Number of entries sorted in memory while building the index (64 MB)
+  private static final int BUILD_CHUNK_SIZE = 1 << 23;
+
+  private final File file;
+  private final int k;
+  private final int w;
+  private final long genomeLength;
+  private final long genomeLastModified;
+  private final byte[] genomeMD5;
+  private final long size;
+  private final MappedByteBuffer[] segments;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the index file.
+   * @return the index file
+   */
+  public File getFile() {
+
+    return this.file;
+  }
+
+  /**
+   * Get the size of the k-mers of the index.
+   * @return the size of the k-mers
+   */
+  public int getKmerSize() {
+
+    return this.k;
+  }
+
+  /**
+   * Get the size of the windows of the index.
+   * @return the size of the windows
+   */
+  public int getWindowSize() {
+
+    return this.w;
+  }
+
+  /**
+   * Get the size of the genome file used to build the index.
+   * @return the size of the genome file or -1 if not known
+   */
+  public long getGenomeLength() {
+
+    return this.genomeLength;
+  }
+
+  /**
+   * Get the modification time of the genome file used to build the index.
+   * @return the modification time of the genome file or -1 if not known
+   */
+  public long getGenomeLastModified() {
+
+    return this.genomeLastModified;
+  }
+
+  /**
+   * Get the MD5 sum of the uncompressed FASTA content of the genome used to
+   * build the index.
+   * @return the MD5 sum of the genome
+   */
+  public byte[] getGenomeMD5() {
+
+    return this.genomeMD5.clone();
+  }
+
+  /**
+   * Get the number of minimizers in the index.
+   * @return the number of minimizers
+   */
+  public long size() {
+
+    return this.size;
+  }
+
+  //
+  // Lookup
+  //
+
+  /**
+   * Search a minimizer in the index. This method is thread safe.
+   * @param minimizer the minimizer to search
+   * @return NOT_FOUND, UNIQUE or REPEATED
+   */
+  public int lookup(final long minimizer) {
+
+    final long key = minimizer << 1;
+    long low = 0;
+    long high = this.size - 1;
+
+    while (low <= high) {
+
+      final long mid = (low + high) >>> 1;
+      final long entry = get(mid);
+      final long value = entry & ~1L;
+
+      if (value < key) {
+        low = mid + 1;
+      } else if (value > key) {
+        high = mid - 1;
+      } else {
+        return (entry & 1L) == 0 ? UNIQUE : REPEATED;
+      }
+    }
+
+    return NOT_FOUND;
+  }
+
+  /**
+   * Get an entry of the index.
+   * @param index index of the entry
+   * @return the value of the entry
+   */
+  private long get(final long index) {
+
+    return this.segments[(int) (index >>> SEGMENT_SHIFT)]
+        .getLong((int) (index & SEGMENT_MASK) << 3);
+  }
+
+  //
+  // Index creation
+  //
+
+  /**
+   * Create an index from a FASTA file. The index is first written in a
+   * temporary file that is renamed at the end of the creation.
+   * @param fasta input stream of the FASTA file
+   * @param indexFile the output file
+   * @param k size of the k-mers
+   * @param w size of the windows
+   * @throws IOException if an error occurs while creating the index
+   */
+  public static void create(final InputStream fasta, final File indexFile,
+      final int k, final int w) throws IOException {
+
+    create(fasta, indexFile, k, w, -1, -1);
+  }
+
+  /**
+   * Create an index from a FASTA file. The index is first written in a
+   * temporary file that is renamed at the end of the creation. The size and
+   * the modification time of the genome file and the MD5 sum of the FASTA
+   * content are stored in the header of the index.
+   * @param fasta input stream of the FASTA file
+   * @param indexFile the output file
+   * @param k size of the k-mers
+   * @param w size of the windows
+   * @param genomeLength size of the genome file
+   * @param genomeLastModified modification time of the genome file
+   * @throws IOException if an error occurs while creating the index
+   */
+  public static void create(final InputStream fasta, final File indexFile,
+      final int k, final int w, final long genomeLength,
+      final long genomeLastModified) throws IOException {
+
+    checkNotNull(fasta, "fasta argument cannot be null");
+    checkNotNull(indexFile, "indexFile argument cannot be null");
+
+    final File tmpFile = new File(indexFile.getParentFile(),
+        indexFile.getName() + ".tmp" + System.nanoTime());
+    final List<File> chunkFiles = new ArrayList<>();
+
+    try {
+
+      // Sort the minimizers by chunks
+      final MinimizerScanner scanner = new MinimizerScanner(k, w);
+      final long[] buffer = new long[BUILD_CHUNK_SIZE];
+      int count = 0;
+
+      final MessageDigest md5 = newMD5();
+
+      try (InputStream is = new BufferedInputStream(
+          new DigestInputStream(fasta, md5))) {
+
+        boolean header = false;
+        int c;
+
+        while ((c = is.read()) != -1) {
+
+          if (c == '>') {
+            header = true;
+            scanner.reset();
+            continue;
+          }
+
+          if (c == '\n' || c == '\r') {
+            header = false;
+            continue;
+          }
+
+          if (header) {
+            continue;
+          }
+
+          final long m = scanner.add((char) c);
+          if (m != MinimizerScanner.NO_MINIMIZER) {
+
+            buffer[count++] = m << 1;
+            if (count == buffer.length) {
+              chunkFiles.add(writeChunk(buffer, count, indexFile));
+              count = 0;
+            }
+          }
+        }
+      }
+
+      if (count > 0 || chunkFiles.isEmpty()) {
+        chunkFiles.add(writeChunk(buffer, count, indexFile));
+      }
+
+      // Merge the chunks
+      final long size = mergeChunks(chunkFiles, tmpFile, k, w, genomeLength,
+          genomeLastModified, md5.digest());
+
+      if (!tmpFile.renameTo(indexFile)) {
+        throw new IOException(
+            "Unable to rename " + tmpFile + " to " + indexFile);
+      }
+
+      LOGGER.fine("FASTQSCREEN: create k-mer index "
+          + indexFile + " with " + size + " minimizers");
+
+    } finally {
+
+      for (final File f : chunkFiles) {
+        if (f.exists() && !f.delete()) {
+          LOGGER.warning("FASTQSCREEN: fail to delete " + f);
+        }
+      }
+
+      if (tmpFile.exists() && !tmpFile.delete()) {
+        LOGGER.warning("FASTQSCREEN: fail to delete " + tmpFile);
+      }
+    }
+  }
+
+  /**
+   * Sort, collapse and write a chunk of minimizers.
+   * @param buffer the minimizers
+   * @param count the number of minimizers in the buffer
+   * @param indexFile the index file
+   * @return the chunk file
+   * @throws IOException if an error occurs while writing the chunk
+   */
+  private static File writeChunk(final long[] buffer, final int count,
+      final File indexFile) throws IOException {
+
+    Arrays.sort(buffer, 0, count);
+
+    final File chunkFile = File.createTempFile(indexFile.getName() + "-",
+        ".chunk", indexFile.getParentFile());
+
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(chunkFile)))) {
+
+      int i = 0;
+      while (i < count) {
+
+        final long value = buffer[i];
+        int j = i + 1;
+        while (j < count && buffer[j] == value) {
+          j++;
+        }
+
+        out.writeLong(j - i > 1 ? value | 1L : value);
+        i = j;
+      }
+    }
+
+    return chunkFile;
+  }
+
+  /**
+   * Merge the sorted chunks in the index file.
+   * @param chunkFiles the chunk files
+   * @param outputFile the output file
+   * @param k size of the k-mers
+   * @param w size of the windows
+   * @param genomeLength size of the genome file
+   * @param genomeLastModified modification time of the genome file
+   * @param genomeMD5 MD5 sum of the genome
+   * @return the number of entries of the index
+   * @throws IOException if an error occurs while merging the chunks
+   */
+  private static long mergeChunks(final List<File> chunkFiles,
+      final File outputFile, final int k, final int w,
+      final long genomeLength, final long genomeLastModified,
+      final byte[] genomeMD5) throws IOException {
+
+    final PriorityQueue<ChunkReader> queue = new PriorityQueue<>();
+    long size = 0;
+
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+
+      // Header, the size is written at the end
+      out.writeLong(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(k);
+      out.writeInt(w);
+      out.writeInt(0);
+      out.writeLong(genomeLength);
+      out.writeLong(genomeLastModified);
+      out.write(genomeMD5);
+      out.writeLong(0);
+
+      for (final File f : chunkFiles) {
+        final ChunkReader reader = new ChunkReader(f);
+        if (reader.next()) {
+          queue.add(reader);
+        } else {
+          reader.close();
+        }
+      }
+
+      while (!queue.isEmpty()) {
+
+        final ChunkReader first = queue.poll();
+        final long value = first.current & ~1L;
+        long flag = first.current & 1L;
+
+        advance(first, queue);
+
+        // Collapse the same minimizer from the other chunks
+        while (!queue.isEmpty() && (queue.peek().current & ~1L) == value) {
+          final ChunkReader other = queue.poll();
+          flag = 1L;
+          advance(other, queue);
+        }
+
+        out.writeLong(value | flag);
+        size++;
+      }
+
+    } finally {
+      for (final ChunkReader reader : queue) {
+        reader.close();
+      }
+    }
+
+    // Write the number of entries
+    try (RandomAccessFile raf = new RandomAccessFile(outputFile, "rw")) {
+      raf.seek(HEADER_SIZE - 8);
+      raf.writeLong(size);
+    }
+
+    return size;
+  }
+
+  /**
+   * Read the next value of a chunk and put it back in the queue.
+   * @param reader the chunk reader
+   * @param queue the queue
+   * @throws IOException if an error occurs while reading the chunk
+   */
+  private static void advance(final ChunkReader reader,
+      final PriorityQueue<ChunkReader> queue) throws IOException {
+
+    if (reader.next()) {
+      queue.add(reader);
+    } else {
+      reader.close();
+    }
+  }
+
+  /**
+   * This class allow to read a sorted chunk file.
+   */
+  private static final class ChunkReader implements Comparable<ChunkReader> {
+
+    private final DataInputStream in;
+    private long current;
+
+    boolean next() throws IOException {
+
+      try {
+        this.current = this.in.readLong();
+        return true;
+      } catch (final EOFException e) {
+        return false;
+      }
+    }
+
+    void close() throws IOException {
+      this.in.close();
+    }
+
+    @Override
+    public int compareTo(final ChunkReader o) {
+      return Long.compare(this.current & ~1L, o.current & ~1L);
+    }
+
+    ChunkReader(final File file) throws IOException {
+      this.in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(file)));
+    }
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Compute the MD5 sum of the content of a FASTA file, as stored in the
+   * header of the indexes.
+   * @param fasta input stream of the FASTA file
+   * @return the MD5 sum of the FASTA file
+   * @throws IOException if an error occurs while reading the file
+   */
+  public static byte[] computeGenomeMD5(final InputStream fasta)
+      throws IOException {
+
+    checkNotNull(fasta, "fasta argument cannot be null");
+
+    final MessageDigest md5 = newMD5();
+    final byte[] buffer = new byte[64 * 1024];
+
+    try (InputStream is = new DigestInputStream(fasta, md5)) {
+      while (is.read(buffer) != -1) {
+        // Only compute the MD5 sum
+      }
+    }
+
+    return md5.digest();
+  }
+
+  /**
+   * Create a MD5 message digest.
+   * @return a new MessageDigest object
+   */
+  private static MessageDigest newMD5() {
+
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (final NoSuchAlgorithmException e) {
+      // MD5 is available in all the Java platforms
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Open an index file.
+   * @param indexFile the index file
+   * @return a KmerIndex object
+   * @throws IOException if the file is not a valid index
+   */
+  public static KmerIndex open(final File indexFile) throws IOException {
+
+    checkNotNull(indexFile, "indexFile argument cannot be null");
+
+    return new KmerIndex(indexFile);
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   * @param file the index file
+   * @throws IOException if the file is not a valid index
+   */
+  private KmerIndex(final File file) throws IOException {
+
+    this.file = file;
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel()) {
+
+      if (raf.length() < HEADER_SIZE
+          || raf.readLong() != MAGIC || raf.readInt() != VERSION) {
+        throw new IOException("Invalid k-mer index file: " + file);
+      }
+
+      this.k = raf.readInt();
+      this.w = raf.readInt();
+      raf.readInt();
+      this.genomeLength = raf.readLong();
+      this.genomeLastModified = raf.readLong();
+      this.genomeMD5 = new byte[MD5_SIZE];
+      raf.readFully(this.genomeMD5);
+      this.size = raf.readLong();
+
+      if (HEADER_SIZE + this.size * 8 != raf.length()) {
+        throw new IOException("Invalid size for k-mer index file: " + file);
+      }
+
+      // Map the file in segments as a mapped buffer cannot exceed 2 GB
+      final int segmentCount =
+          (int) ((this.size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+      this.segments = new MappedByteBuffer[segmentCount];
+
+      for (int i = 0; i < segmentCount; i++) {
+
+        final long first = (long) i << SEGMENT_SHIFT;
+        final long entries = Math.min(this.size - first, 1L << SEGMENT_SHIFT);
+
+        this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+            HEADER_SIZE + first * 8, entries * 8);
+      }
+    }
+  }
+
+}
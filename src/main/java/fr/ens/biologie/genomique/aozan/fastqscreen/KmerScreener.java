@@ -0,0 +1,510 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.toTimeHumanReadable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.google.common.base.Stopwatch;
+
+import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqReader;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.data.DataFileMetadata;
+import fr.ens.biologie.genomique.eoulsan.io.CompressionType;
+
+/**
+ * This class define a FastqScreen engine that does not require any external
+ * mapper. The reads are classified in one pass against all the genomes using
+ * memory mapped indexes of the minimizers of the genomes. A read hits a genome
+ * if enough of its minimizers are found in the index of the genome and the hit
+ * is considered as multiple if all the minimizers found occur several times in
+ * the genome.
+ * @since 2.3
+ * @author agent
+ */
+public class KmerScreener {
+
+  /** Logger. */
+  private static final Logger LOGGER = Common.getLogger();
+
+  /** Name of the engine. */
+  public static final String ENGINE_NAME = "kmer";
+
+  /** Default size of the k-mers. */
+  public static final int DEFAULT_KMER_SIZE = 24;
+  /** Default number of k-mers in a window. */
+  public static final int DEFAULT_WINDOW_SIZE = 10;
+  /** Default minimal number of minimizers found to consider a hit. */
+  public static final int DEFAULT_MIN_HITS = 2;
+
+  // Opened indexes, shared by all the samples of a run
+  private static final ConcurrentMap<File, FutureTask<KmerIndex>> INDEXES =
+      new ConcurrentHashMap<>();
+
+  private final File indexDir;
+  private final int k;
+  private final int w;
+  private final int minHits;
+  private final boolean pairedMode;
+
+  /**
+   * Screen reads against a list of genomes.
+   * @param fastqRead1 fastq file
+   * @param fastqRead2 fastq file of the second read in paired mode, can be
+   *          null
+   * @param genomes list of the genomes
+   * @param sampleGenome genome reference corresponding to sample, can be null
+   * @return a FastqScreenResult object
+   * @throws AozanException if an error occurs while screening the reads
+   */
+  public FastqScreenResult screen(final File fastqRead1, final File fastqRead2,
+      final List<String> genomes, final String sampleGenome)
+      throws AozanException {
+
+    checkNotNull(fastqRead1, "fastqRead1 argument cannot be null");
+    checkNotNull(genomes, "genomes argument cannot be null");
+
+    if (this.pairedMode) {
+      checkNotNull(fastqRead2, "fastqRead2 argument cannot be null");
+    }
+
+    final FastqScreenResult result = new FastqScreenResult();
+    final List<String> genomeNames = new ArrayList<>();
+    final List<KmerIndex> indexes = new ArrayList<>();
+
+    for (final String genome : genomes) {
+
+      final KmerIndex index = getIndex(genome);
+
+      if (index == null) {
+        LOGGER.warning("FASTQSCREEN: k-mer index not found for " + genome);
+        continue;
+      }
+
+      genomeNames.add(genome);
+      indexes.add(index);
+      result.addGenome(genome, sampleGenome);
+    }
+
+    final Stopwatch timer = Stopwatch.createStarted();
+
+    final int[] counts = classify(fastqRead1, fastqRead2, genomeNames,
+        indexes.toArray(new KmerIndex[indexes.size()]), result);
+
+    LOGGER.fine("FASTQSCREEN: k-mer screening of "
+        + fastqRead1.getName() + " on genomes " + genomeNames + " in "
+        + toTimeHumanReadable(timer.elapsed(TimeUnit.MILLISECONDS)));
+
+    result.countPercentValue(counts[0], counts[1]);
+
+    return result;
+  }
+
+  /**
+   * Classify the reads.
+   * @param fastqRead1 fastq file
+   * @param fastqRead2 fastq file of the second read in paired mode
+   * @param genomes the names of the genomes
+   * @param indexes the indexes of the genomes
+   * @param result the result object to fill
+   * @return an array with the number of reads mapped and the number of reads
+   *         processed
+   * @throws AozanException if an error occurs while reading the FASTQ files
+   */
+  private int[] classify(final File fastqRead1, final File fastqRead2,
+      final List<String> genomes, final KmerIndex[] indexes,
+      final FastqScreenResult result) throws AozanException {
+
+    final MinimizerScanner scanner = new MinimizerScanner(this.k, this.w);
+    final int genomeCount = indexes.length;
+    final int[] status1 = new int[genomeCount];
+    final int[] status2 = new int[genomeCount];
+    long[] minimizers = new long[1024];
+
+    int readsMapped = 0;
+    int readsProcessed = 0;
+
+    FastqReader reader1 = null;
+    FastqReader reader2 = null;
+
+    try {
+
+      reader1 = new FastqReader(open(fastqRead1));
+      if (this.pairedMode) {
+        reader2 = new FastqReader(open(fastqRead2));
+      }
+
+      final Iterator<ReadSequence> it2 =
+          reader2 == null ? null : reader2.iterator();
+
+      for (final ReadSequence read1 : reader1) {
+
+        if (read1.length() > minimizers.length) {
+          minimizers = new long[read1.length()];
+        }
+        classifyRead(scanner, read1.getSequence(), minimizers, indexes,
+            status1);
+
+        if (it2 != null) {
+
+          if (!it2.hasNext()) {
+            throw new AozanException(
+                "FASTQSCREEN: the number of reads is not the same in "
+                    + fastqRead1 + " and " + fastqRead2);
+          }
+
+          final ReadSequence read2 = it2.next();
+          if (read2.length() > minimizers.length) {
+            minimizers = new long[read2.length()];
+          }
+          classifyRead(scanner, read2.getSequence(), minimizers, indexes,
+              status2);
+
+          // Both mates must hit the genome
+          for (int g = 0; g < genomeCount; g++) {
+            if (status1[g] == 0 || status2[g] == 0) {
+              status1[g] = 0;
+            } else {
+              status1[g] = Math.min(status1[g], status2[g]);
+            }
+          }
+        }
+
+        readsProcessed++;
+
+        int genomesHit = 0;
+        for (int g = 0; g < genomeCount; g++) {
+          if (status1[g] != 0) {
+            genomesHit++;
+          }
+        }
+
+        if (genomesHit > 0) {
+
+          readsMapped++;
+
+          for (int g = 0; g < genomeCount; g++) {
+            if (status1[g] != 0) {
+              result.countHitPerGenome(genomes.get(g),
+                  status1[g] == KmerIndex.UNIQUE, genomesHit == 1);
+            }
+          }
+        }
+      }
+
+      // Throw an exception if an error has occurred while reading data
+      reader1.throwException();
+      if (reader2 != null) {
+        reader2.throwException();
+      }
+
+    } catch (final IOException | BadBioEntryException e) {
+      throw new AozanException(e);
+    } finally {
+      close(reader1);
+      close(reader2);
+    }
+
+    return new int[] {readsMapped, readsProcessed};
+  }
+
+  /**
+   * Classify a read against all the genomes.
+   * @param scanner minimizer scanner
+   * @param sequence sequence of the read
+   * @param minimizers buffer for the minimizers
+   * @param indexes indexes of the genomes
+   * @param status array filled with the result for each genome: 0 for no hit,
+   *          KmerIndex.UNIQUE for one hit and KmerIndex.REPEATED for multiple
+   *          hits
+   */
+  void classifyRead(final MinimizerScanner scanner,
+      final String sequence, final long[] minimizers, final KmerIndex[] indexes,
+      final int[] status) {
+
+    final int count = scanner.scan(sequence, minimizers);
+
+    for (int g = 0; g < indexes.length; g++) {
+
+      final KmerIndex index = indexes[g];
+      int found = 0;
+      boolean unique = false;
+
+      for (int i = 0; i < count; i++) {
+
+        final int r = index.lookup(minimizers[i]);
+        if (r != KmerIndex.NOT_FOUND) {
+          found++;
+          if (r == KmerIndex.UNIQUE) {
+            unique = true;
+          }
+        }
+      }
+
+      if (found >= this.minHits) {
+        status[g] = unique ? KmerIndex.UNIQUE : KmerIndex.REPEATED;
+      } else {
+        status[g] = 0;
+      }
+    }
+  }
+
+  /**
+   * Close a FASTQ reader.
+   * @param reader the reader to close, can be null
+   */
+  private static void close(final FastqReader reader) {
+
+    if (reader == null) {
+      return;
+    }
+
+    try {
+      reader.close();
+    } catch (final IOException e) {
+      LOGGER.warning("FASTQSCREEN: fail to close FASTQ reader: "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * Open a FASTQ file.
+   * @param file the file
+   * @return an input stream
+   * @throws IOException if an error occurs while opening the file
+   */
+  private static InputStream open(final File file) throws IOException {
+
+    return CompressionType.getCompressionTypeByFilename(file.getName())
+        .createInputStream(new FileInputStream(file));
+  }
+
+  /**
+   * Close the indexes opened by the screeners. The indexes are unmapped from
+   * the memory when they are no more referenced and will be opened again by
+   * the next screening.
+   */
+  public static void closeIndexes() {
+
+    if (!INDEXES.isEmpty()) {
+      LOGGER.fine("FASTQSCREEN: close " + INDEXES.size() + " k-mer indexes");
+      INDEXES.clear();
+    }
+  }
+
+  /**
+   * Get the index of a genome. The index is created if it does not exist or if
+   * the genome has changed. Each index is loaded only once, the indexes of
+   * different genomes can be loaded at the same time.
+   * @param genome the genome
+   * @return the index of the genome or null if the genome is not available
+   * @throws AozanException if an error occurs while creating the index
+   */
+  private KmerIndex getIndex(final String genome) throws AozanException {
+
+    final File indexFile = new File(this.indexDir, "aozan-kmer-index-"
+        + genome + "-k" + this.k + "-w" + this.w + ".idx");
+
+    FutureTask<KmerIndex> task = INDEXES.get(indexFile);
+
+    if (task == null) {
+
+      final FutureTask<KmerIndex> newTask =
+          new FutureTask<>(new Callable<KmerIndex>() {
+
+            @Override
+            public KmerIndex call() throws Exception {
+
+              return loadIndex(genome, indexFile);
+            }
+          });
+
+      task = INDEXES.putIfAbsent(indexFile, newTask);
+      if (task == null) {
+        task = newTask;
+      }
+    }
+
+    // Load the index in the current thread if it is not already loaded by
+    // another thread
+    task.run();
+
+    try {
+      return task.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AozanException(e);
+    } catch (final ExecutionException e) {
+
+      // Allow a new loading on the next call
+      INDEXES.remove(indexFile, task);
+
+      throw new AozanException(e.getCause());
+    }
+  }
+
+  /**
+   * Open the index of a genome. The index is created if it does not exist, if
+   * it is not valid or if it has been built from another version of the
+   * genome.
+   * @param genome the genome
+   * @param indexFile the index file
+   * @return the index of the genome or null if the genome is not available
+   * @throws IOException if an error occurs while creating the index
+   */
+  private KmerIndex loadIndex(final String genome, final File indexFile)
+      throws IOException {
+
+    GenomeDescriptionCreator.initializeDataProtocols();
+
+    final DataFile genomeFile = new DataFile("genome://" + genome);
+    final boolean genomeExists = genomeFile.exists();
+
+    if (indexFile.exists()) {
+
+      try {
+
+        final KmerIndex index = KmerIndex.open(indexFile);
+
+        // The index cannot be checked without the genome
+        if (!genomeExists || isIndexOf(index, genomeFile)) {
+          return index;
+        }
+
+        LOGGER.info("FASTQSCREEN: the genome "
+            + genome + " has changed, create again its k-mer index");
+
+      } catch (final IOException e) {
+
+        if (!genomeExists) {
+          throw e;
+        }
+
+        LOGGER.warning("FASTQSCREEN: create again the invalid k-mer index "
+            + indexFile + ": " + e.getMessage());
+      }
+    }
+
+    if (!genomeExists) {
+      return null;
+    }
+
+    final Stopwatch timer = Stopwatch.createStarted();
+    final DataFileMetadata metadata = genomeFile.getMetaData();
+
+    KmerIndex.create(openGenome(genomeFile), indexFile, this.k, this.w,
+        metadata.getContentLength(), metadata.getLastModified());
+
+    LOGGER.info("FASTQSCREEN: create k-mer index for "
+        + genome + " in "
+        + toTimeHumanReadable(timer.elapsed(TimeUnit.MILLISECONDS)));
+
+    return KmerIndex.open(indexFile);
+  }
+
+  /**
+   * Test if an index has been built from the current version of a genome. The
+   * MD5 sum of the genome is only computed when the size or the modification
+   * time of the genome file differ from the values stored in the index.
+   * @param index the index
+   * @param genomeFile the genome file
+   * @return true if the index has been built from the genome
+   * @throws IOException if an error occurs while reading the genome
+   */
+  private static boolean isIndexOf(final KmerIndex index,
+      final DataFile genomeFile) throws IOException {
+
+    final DataFileMetadata metadata = genomeFile.getMetaData();
+
+    if (index.getGenomeLength() == metadata.getContentLength()
+        && index.getGenomeLastModified() == metadata.getLastModified()) {
+      return true;
+    }
+
+    return Arrays.equals(index.getGenomeMD5(),
+        KmerIndex.computeGenomeMD5(openGenome(genomeFile)));
+  }
+
+  /**
+   * Open a genome file.
+   * @param genomeFile the genome file
+   * @return an input stream on the uncompressed FASTA content of the genome
+   * @throws IOException if an error occurs while opening the file
+   */
+  private static InputStream openGenome(final DataFile genomeFile)
+      throws IOException {
+
+    return CompressionType.getCompressionTypeByFilename(genomeFile.getName())
+        .createInputStream(genomeFile.open());
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param indexDir directory of the indexes
+   * @param k size of the k-mers
+   * @param w number of k-mers in a window
+   * @param minHits minimal number of minimizers found to consider a hit
+   * @param pairedMode true if the reads are paired
+   */
+  public KmerScreener(final File indexDir, final int k, final int w,
+      final int minHits, final boolean pairedMode) {
+
+    checkNotNull(indexDir, "indexDir argument cannot be null");
+    checkArgument(indexDir.isDirectory(),
+        "index directory does not exists or is not a directory: " + indexDir);
+    checkArgument(minHits > 0, "minHits must be greater than 0: " + minHits);
+
+    this.indexDir = indexDir;
+    this.k = k;
+    this.w = w;
+    this.minHits = minHits;
+    this.pairedMode = pairedMode;
+  }
+
+}
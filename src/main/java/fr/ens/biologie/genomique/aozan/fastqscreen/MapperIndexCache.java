@@ -0,0 +1,704 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.toTimeHumanReadable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.google.common.base.Stopwatch;
+
+import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.eoulsan.util.StringUtils;
+
+/**
+ * This class manage a directory where the archives of the mapper indexes are
+ * unpacked once and then reused by all the samples and all the runs. The
+ * directory can be shared by several Aozan instances: an unpacked index is
+ * locked with a shared lock while it is used and with an exclusive lock while
+ * it is unpacked or removed. An unpacked index is valid only if its ready file
+ * exists, if the checksum of its archive has not changed and if the size of
+ * its files is the expected one. When the size of the cache exceeds the quota,
+ * the least recently used indexes are removed. The archives of the indexes can
+ * also be kept in the cache directory to avoid computing their checksum at
+ * each run.
+ * @since 2.3
+ * @author agent
+ */
+public class MapperIndexCache {
+
+  /** Logger. */
+  private static final Logger LOGGER = Common.getLogger();
+
+  private static final String READY_EXTENSION = ".ready";
+  private static final String LOCK_EXTENSION = ".lock";
+  private static final String TMP_EXTENSION = ".tmp";
+  private static final String ARCHIVES_DIRNAME = "archives";
+
+  private static final String ARCHIVE_LENGTH_KEY = "archive.length";
+  private static final String ARCHIVE_LAST_MODIFIED_KEY =
+      "archive.last.modified";
+  private static final String ARCHIVE_CHECKSUM_KEY = "archive.crc32";
+  private static final String FILES_KEY = "files";
+  private static final String SIZE_KEY = "size";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File cacheDir;
+  private final long quota;
+
+  // Indexes used by this instance
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  /**
+   * An index used by this instance. The shared lock is kept until the last
+   * user has released the index.
+   */
+  private static final class Entry {
+
+    private FileChannel channel;
+    private FileLock lock;
+    private int users;
+  }
+
+  //
+  // Public methods
+  //
+
+  /**
+   * Get the directory of the unpacked index of an archive. The archive is
+   * unpacked if the index is not in the cache or if it is not valid. The index
+   * cannot be removed from the cache until the release() method has been
+   * called.
+   * @param archiveFile the archive of the index
+   * @return the directory of the unpacked index
+   * @throws IOException if an error occurs while unpacking the index
+   */
+  public File acquire(final File archiveFile) throws IOException {
+
+    checkNotNull(archiveFile, "archiveFile argument cannot be null");
+
+    final String name = getEntryName(archiveFile);
+    final Entry entry = getEntry(name);
+
+    synchronized (entry) {
+
+      if (entry.users == 0) {
+        lockValidEntry(entry, name, archiveFile);
+      }
+      entry.users++;
+    }
+
+    // Update the last use date of the index
+    new File(this.cacheDir, name + READY_EXTENSION)
+        .setLastModified(System.currentTimeMillis());
+
+    evict();
+
+    return new File(this.cacheDir, name);
+  }
+
+  /**
+   * Get the directory where the archives of the indexes are kept between the
+   * runs. As the archives are not created again, their size and their
+   * modification date do not change and their checksum is not computed again
+   * to check the unpacked indexes. The archives are not removed by the
+   * eviction of the unpacked indexes.
+   * @return the directory of the archives
+   * @throws IOException if the directory cannot be created
+   */
+  public File getArchiveDirectory() throws IOException {
+
+    final File result = new File(this.cacheDir, ARCHIVES_DIRNAME);
+
+    if (!result.exists() && !result.mkdirs() && !result.isDirectory()) {
+      throw new IOException("Unable to create index archive directory: "
+          + result);
+    }
+
+    return result;
+  }
+
+  /**
+   * Release an index acquired with the acquire() method.
+   * @param archiveFile the archive of the index
+   */
+  public void release(final File archiveFile) {
+
+    checkNotNull(archiveFile, "archiveFile argument cannot be null");
+
+    final Entry entry = getEntry(getEntryName(archiveFile));
+
+    synchronized (entry) {
+
+      if (entry.users == 0) {
+        return;
+      }
+
+      if (--entry.users == 0) {
+        unlock(entry);
+      }
+    }
+  }
+
+  //
+  // Locking
+  //
+
+  /**
+   * Get the entry of an index.
+   * @param name name of the index
+   * @return an Entry object
+   */
+  private Entry getEntry(final String name) {
+
+    synchronized (this.entries) {
+
+      Entry entry = this.entries.get(name);
+      if (entry == null) {
+        entry = new Entry();
+        this.entries.put(name, entry);
+      }
+
+      return entry;
+    }
+  }
+
+  /**
+   * Lock an index with a shared lock, unpacking the index first if required.
+   * @param entry the entry of the index
+   * @param name the name of the index
+   * @param archiveFile the archive of the index
+   * @throws IOException if an error occurs while unpacking the index
+   */
+  private void lockValidEntry(final Entry entry, final String name,
+      final File archiveFile) throws IOException {
+
+    final FileChannel channel = openLockFile(name);
+
+    try {
+
+      while (true) {
+
+        final FileLock sharedLock = channel.lock(0, Long.MAX_VALUE, true);
+
+        if (isValid(name, archiveFile)) {
+          entry.channel = channel;
+          entry.lock = sharedLock;
+          return;
+        }
+
+        sharedLock.release();
+
+        // Only one process can unpack the index
+        final FileLock exclusiveLock = channel.lock();
+        try {
+          if (!isValid(name, archiveFile)) {
+            unpack(name, archiveFile);
+          }
+        } finally {
+          exclusiveLock.release();
+        }
+      }
+
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Open the lock file of an index.
+   * @param name the name of the index
+   * @return a FileChannel object
+   * @throws IOException if an error occurs while opening the lock file
+   */
+  private FileChannel openLockFile(final String name) throws IOException {
+
+    return FileChannel.open(
+        new File(this.cacheDir, name + LOCK_EXTENSION).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Release the shared lock of an index.
+   * @param entry the entry of the index
+   */
+  private static void unlock(final Entry entry) {
+
+    try {
+      entry.lock.release();
+      entry.channel.close();
+    } catch (final IOException e) {
+      LOGGER.warning(
+          "FASTQSCREEN: fail to release index cache lock: " + e.getMessage());
+    }
+
+    entry.lock = null;
+    entry.channel = null;
+  }
+
+  //
+  // Validation
+  //
+
+  /**
+   * Test if the unpacked index is valid.
+   * @param name the name of the index
+   * @param archiveFile the archive of the index
+   * @return true if the unpacked index can be used
+   * @throws IOException if an error occurs while reading the archive
+   */
+  private boolean isValid(final String name, final File archiveFile)
+      throws IOException {
+
+    final Properties ready = readReadyFile(name);
+
+    if (ready == null) {
+      return false;
+    }
+
+    // Check the content of the unpacked index
+    final long[] content = contentSize(new File(this.cacheDir, name));
+    if (content[0] != getLong(ready, FILES_KEY)
+        || content[1] != getLong(ready, SIZE_KEY)) {
+      return false;
+    }
+
+    // The checksum of the archive is only computed if the archive has changed
+    if (archiveFile.length() == getLong(ready, ARCHIVE_LENGTH_KEY)
+        && archiveFile.lastModified() == getLong(ready,
+            ARCHIVE_LAST_MODIFIED_KEY)) {
+      return true;
+    }
+
+    return checksum(archiveFile) == getLong(ready, ARCHIVE_CHECKSUM_KEY);
+  }
+
+  /**
+   * Read the ready file of an index.
+   * @param name the name of the index
+   * @return a Properties object or null if the ready file does not exist
+   */
+  private Properties readReadyFile(final String name) {
+
+    final File file = new File(this.cacheDir, name + READY_EXTENSION);
+
+    if (!file.isFile()) {
+      return null;
+    }
+
+    final Properties result = new Properties();
+
+    try (InputStream is = new FileInputStream(file)) {
+      result.load(is);
+    } catch (final IOException e) {
+      return null;
+    }
+
+    return result;
+  }
+
+  /**
+   * Get a long value from the ready file of an index.
+   * @param properties the content of the ready file
+   * @param key the key
+   * @return the value or -1 if the value is not defined or invalid
+   */
+  private static long getLong(final Properties properties, final String key) {
+
+    try {
+      return Long.parseLong(properties.getProperty(key, "-1"));
+    } catch (final NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Compute the number of files and the size of a directory.
+   * @param dir the directory
+   * @return an array with the number of files and the size of the files
+   */
+  private static long[] contentSize(final File dir) {
+
+    final long[] result = new long[2];
+    final File[] files = dir.listFiles();
+
+    if (files == null) {
+      return result;
+    }
+
+    for (final File f : files) {
+
+      if (f.isDirectory()) {
+        final long[] subDir = contentSize(f);
+        result[0] += subDir[0];
+        result[1] += subDir[1];
+      } else {
+        result[0]++;
+        result[1] += f.length();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Compute the CRC32 checksum of a file.
+   * @param file the file
+   * @return the checksum of the file
+   * @throws IOException if an error occurs while reading the file
+   */
+  private static long checksum(final File file) throws IOException {
+
+    final byte[] buffer = new byte[BUFFER_SIZE];
+
+    try (CheckedInputStream is =
+        new CheckedInputStream(new FileInputStream(file), new CRC32())) {
+
+      while (is.read(buffer) != -1) {
+        // Read the whole file
+      }
+
+      return is.getChecksum().getValue();
+    }
+  }
+
+  //
+  // Unpacking
+  //
+
+  /**
+   * Unpack an index. The index is first unpacked in a temporary directory
+   * that is renamed at the end of the unpacking. This method must be called
+   * with an exclusive lock on the index.
+   * @param name the name of the index
+   * @param archiveFile the archive of the index
+   * @throws IOException if an error occurs while unpacking the index
+   */
+  private void unpack(final String name, final File archiveFile)
+      throws IOException {
+
+    final Stopwatch timer = Stopwatch.createStarted();
+
+    final File readyFile = new File(this.cacheDir, name + READY_EXTENSION);
+    final File indexDir = new File(this.cacheDir, name);
+    final File tmpDir = new File(this.cacheDir, name + TMP_EXTENSION);
+
+    // Remove the previous version of the index
+    if (readyFile.exists() && !readyFile.delete()) {
+      throw new IOException("Unable to remove index ready file: " + readyFile);
+    }
+    delete(indexDir);
+    delete(tmpDir);
+
+    if (!tmpDir.mkdirs()) {
+      throw new IOException("Unable to create directory: " + tmpDir);
+    }
+
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    final long checksum;
+
+    try (CheckedInputStream cis =
+        new CheckedInputStream(new FileInputStream(archiveFile), new CRC32())) {
+
+      final ZipInputStream zis = new ZipInputStream(cis);
+      ZipEntry e;
+
+      while ((e = zis.getNextEntry()) != null) {
+
+        final File f = new File(tmpDir, e.getName());
+
+        // Do not write outside the index directory
+        if (!f.getCanonicalPath()
+            .startsWith(tmpDir.getCanonicalPath() + File.separator)) {
+          throw new IOException("Invalid entry in index archive "
+              + archiveFile + ": " + e.getName());
+        }
+
+        if (e.isDirectory()) {
+          f.mkdirs();
+          continue;
+        }
+
+        f.getParentFile().mkdirs();
+
+        try (OutputStream os = new FileOutputStream(f)) {
+
+          int n;
+          while ((n = zis.read(buffer)) != -1) {
+            os.write(buffer, 0, n);
+          }
+        }
+      }
+
+      // Read the end of the archive to compute the checksum of the whole file
+      while (cis.read(buffer) != -1) {
+        // Read the whole file
+      }
+
+      checksum = cis.getChecksum().getValue();
+    }
+
+    if (!tmpDir.renameTo(indexDir)) {
+      throw new IOException(
+          "Unable to rename " + tmpDir + " to " + indexDir);
+    }
+
+    // Write the ready file
+    final long[] content = contentSize(indexDir);
+    final Properties ready = new Properties();
+    ready.setProperty(ARCHIVE_LENGTH_KEY, "" + archiveFile.length());
+    ready.setProperty(ARCHIVE_LAST_MODIFIED_KEY,
+        "" + archiveFile.lastModified());
+    ready.setProperty(ARCHIVE_CHECKSUM_KEY, "" + checksum);
+    ready.setProperty(FILES_KEY, "" + content[0]);
+    ready.setProperty(SIZE_KEY, "" + content[1]);
+
+    final File tmpReadyFile =
+        new File(this.cacheDir, name + READY_EXTENSION + TMP_EXTENSION);
+    try (OutputStream os = new FileOutputStream(tmpReadyFile)) {
+      ready.store(os, "Aozan mapper index cache");
+    }
+
+    if (!tmpReadyFile.renameTo(readyFile)) {
+      throw new IOException(
+          "Unable to rename " + tmpReadyFile + " to " + readyFile);
+    }
+
+    LOGGER.info("FASTQSCREEN: unpack index "
+        + archiveFile.getName() + " in " + this.cacheDir + " in "
+        + toTimeHumanReadable(timer.elapsed(TimeUnit.MILLISECONDS)));
+  }
+
+  //
+  // Eviction
+  //
+
+  /**
+   * Remove the least recently used indexes while the size of the cache
+   * exceeds the quota. Indexes used by this instance or by another process
+   * are never removed.
+   */
+  private synchronized void evict() {
+
+    if (this.quota <= 0) {
+      return;
+    }
+
+    final File[] readyFiles = this.cacheDir.listFiles();
+    if (readyFiles == null) {
+      return;
+    }
+
+    final List<File> candidates = new ArrayList<>();
+    long total = 0;
+
+    for (final File f : readyFiles) {
+
+      if (!f.getName().endsWith(READY_EXTENSION)) {
+        continue;
+      }
+
+      final Properties ready = readReadyFile(getName(f));
+      if (ready != null) {
+        total += Math.max(0, getLong(ready, SIZE_KEY));
+        candidates.add(f);
+      }
+    }
+
+    if (total <= this.quota) {
+      return;
+    }
+
+    // Oldest indexes first
+    final File[] sorted = candidates.toArray(new File[candidates.size()]);
+    Arrays.sort(sorted, new Comparator<File>() {
+
+      @Override
+      public int compare(final File f1, final File f2) {
+        return Long.compare(f1.lastModified(), f2.lastModified());
+      }
+    });
+
+    for (final File f : sorted) {
+
+      if (total <= this.quota) {
+        break;
+      }
+
+      final String name = getName(f);
+      final Properties ready = readReadyFile(name);
+
+      if (ready != null && remove(name)) {
+        total -= Math.max(0, getLong(ready, SIZE_KEY));
+      }
+    }
+  }
+
+  /**
+   * Remove an index from the cache if it is not used.
+   * @param name the name of the index
+   * @return true if the index has been removed
+   */
+  private boolean remove(final String name) {
+
+    final Entry entry = getEntry(name);
+
+    synchronized (entry) {
+
+      // The index is used by this instance
+      if (entry.users > 0) {
+        return false;
+      }
+
+      try (FileChannel channel = openLockFile(name)) {
+
+        final FileLock lock = channel.tryLock();
+
+        // The index is used by another process
+        if (lock == null) {
+          return false;
+        }
+
+        try {
+          new File(this.cacheDir, name + READY_EXTENSION).delete();
+          delete(new File(this.cacheDir, name));
+        } finally {
+          lock.release();
+        }
+
+      } catch (final IOException | OverlappingFileLockException e) {
+        return false;
+      }
+    }
+
+    LOGGER.info("FASTQSCREEN: remove index " + name + " from index cache");
+
+    return true;
+  }
+
+  //
+  // Utility methods
+  //
+
+  /**
+   * Get the name of the entry of an archive.
+   * @param archiveFile the archive
+   * @return the name of the entry
+   */
+  private static String getEntryName(final File archiveFile) {
+
+    return StringUtils.filenameWithoutExtension(archiveFile.getName());
+  }
+
+  /**
+   * Get the name of an index from its ready file.
+   * @param readyFile the ready file
+   * @return the name of the index
+   */
+  private static String getName(final File readyFile) {
+
+    final String filename = readyFile.getName();
+
+    return filename.substring(0,
+        filename.length() - READY_EXTENSION.length());
+  }
+
+  /**
+   * Delete a file or a directory and its content.
+   * @param file the file to delete
+   * @throws IOException if the file cannot be deleted
+   */
+  private static void delete(final File file) throws IOException {
+
+    if (!file.exists()) {
+      return;
+    }
+
+    final File[] files = file.listFiles();
+    if (files != null) {
+      for (final File f : files) {
+        delete(f);
+      }
+    }
+
+    if (!file.delete()) {
+      throw new IOException("Unable to remove: " + file);
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param cacheDir directory of the cache
+   * @param quota maximal size of the cache in bytes, no limit if the value is
+   *          lower or equal to 0
+   * @throws IOException if the cache directory cannot be created
+   */
+  public MapperIndexCache(final File cacheDir, final long quota)
+      throws IOException {
+
+    checkNotNull(cacheDir, "cacheDir argument cannot be null");
+
+    if (!cacheDir.exists() && !cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+      throw new IOException("Unable to create index cache directory: "
+          + cacheDir);
+    }
+    checkArgument(cacheDir.isDirectory(),
+        "index cache directory is not a directory: " + cacheDir);
+
+    this.cacheDir = cacheDir;
+    this.quota = quota;
+  }
+
+}
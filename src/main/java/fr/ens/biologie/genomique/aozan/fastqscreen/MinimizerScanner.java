@@ -0,0 +1,249 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+/**
+ * This class compute the minimizers of a stream of nucleotides. A minimizer is
+ * the canonical k-mer with the lowest hash value in a window of w consecutive
+ * k-mers. Two sequences that share at least w + k - 1 bases share at least one
+ * minimizer, so the same scanner is used to index the genomes and to screen
+ * the reads. Characters that are not A, C, G or T reset the scanner.
+ * @since 2.3
+ * @author agent
+ */
+public class MinimizerScanner {
+
+  /** Value returned when no new minimizer is available. */
+  public static final long NO_MINIMIZER = -1;
+
+  /** Maximal size of the k-mers, a k-mer is stored in a long. */
+  public static final int MAX_KMER_SIZE = 31;
+
+  private static final byte[] CODES = new byte[128];
+
+  static {
+    Arrays.fill(CODES, (byte) -1);
+    CODES['A'] = 0;
+    CODES['C'] = 1;
+    CODES['G'] = 2;
+    CODES['T'] = 3;
+    CODES['a'] = 0;
+    CODES['c'] = 1;
+    CODES['g'] = 2;
+    CODES['t'] = 3;
+  }
+
+  private final int k;
+  private final int w;
+  private final long mask;
+  private final int reverseShift;
+
+  // Circular buffers of the k-mers of the current window and of their hashes
+  private final long[] kmers;
+  private final long[] hashes;
+
+  private long forward;
+  private long reverse;
+  private int validBases;
+  private long kmerCount;
+
+  private long minPosition;
+  private long minHash;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the size of the k-mers.
+   * @return the size of the k-mers
+   */
+  public int getKmerSize() {
+
+    return this.k;
+  }
+
+  /**
+   * Get the number of k-mers of the windows.
+   * @return the size of the windows
+   */
+  public int getWindowSize() {
+
+    return this.w;
+  }
+
+  //
+  // Scanning
+  //
+
+  /**
+   * Reset the scanner. Must be called before scanning a new sequence.
+   */
+  public void reset() {
+
+    this.forward = 0;
+    this.reverse = 0;
+    this.validBases = 0;
+    this.kmerCount = 0;
+    this.minPosition = -1;
+  }
+
+  /**
+   * Add a base to the scanner.
+   * @param c the base to add
+   * @return a new minimizer or NO_MINIMIZER if the minimizer of the window has
+   *         not changed
+   */
+  public long add(final char c) {
+
+    final int code = c < 128 ? CODES[c] : -1;
+
+    // Unknown base, start a new sequence
+    if (code == -1) {
+      reset();
+      return NO_MINIMIZER;
+    }
+
+    this.forward = ((this.forward << 2) | code) & this.mask;
+    this.reverse =
+        (this.reverse >>> 2) | ((long) (3 - code) << this.reverseShift);
+
+    if (++this.validBases < this.k) {
+      return NO_MINIMIZER;
+    }
+
+    final long canonical = Math.min(this.forward, this.reverse);
+    final long hash = hash(canonical);
+    final long position = this.kmerCount++;
+    final int index = (int) (position % this.w);
+
+    this.kmers[index] = canonical;
+    this.hashes[index] = hash;
+
+    if (this.kmerCount < this.w) {
+      return NO_MINIMIZER;
+    }
+
+    final long previousPosition = this.minPosition;
+
+    if (this.minPosition <= position - this.w) {
+
+      // The minimizer has left the window, search the new minimizer
+      final long first = position - this.w + 1;
+      this.minPosition = first;
+      this.minHash = this.hashes[(int) (first % this.w)];
+
+      for (long p = first + 1; p <= position; p++) {
+
+        final long h = this.hashes[(int) (p % this.w)];
+        if (Long.compareUnsigned(h, this.minHash) < 0) {
+          this.minHash = h;
+          this.minPosition = p;
+        }
+      }
+    } else if (Long.compareUnsigned(hash, this.minHash) < 0) {
+      this.minHash = hash;
+      this.minPosition = position;
+    }
+
+    if (this.minPosition == previousPosition) {
+      return NO_MINIMIZER;
+    }
+
+    return this.kmers[(int) (this.minPosition % this.w)];
+  }
+
+  /**
+   * Compute the minimizers of a sequence.
+   * @param sequence the sequence
+   * @param result array where storing the minimizers, its size must be at
+   *          least the length of the sequence
+   * @return the number of minimizers
+   */
+  public int scan(final CharSequence sequence, final long[] result) {
+
+    reset();
+
+    int count = 0;
+    final int len = sequence.length();
+
+    for (int i = 0; i < len; i++) {
+
+      final long m = add(sequence.charAt(i));
+      if (m != NO_MINIMIZER) {
+        result[count++] = m;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Bijective hash function of a k-mer (finalizer of MurmurHash3). As the
+   * function is bijective, two k-mers with the same hash are identical.
+   * @param kmer the k-mer
+   * @return the hash value
+   */
+  private static long hash(final long kmer) {
+
+    long h = kmer;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+
+    return h;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param k size of the k-mers
+   * @param w number of k-mers in a window
+   */
+  public MinimizerScanner(final int k, final int w) {
+
+    checkArgument(k > 0 && k <= MAX_KMER_SIZE,
+        "k-mer size must be between 1 and " + MAX_KMER_SIZE + ": " + k);
+    checkArgument(w > 0, "window size must be greater than 0: " + w);
+
+    this.k = k;
+    this.w = w;
+    this.mask = (1L << (2 * k)) - 1;
+    this.reverseShift = 2 * (k - 1);
+    this.kmers = new long[w];
+    this.hashes = new long[w];
+
+    reset();
+  }
+
+}
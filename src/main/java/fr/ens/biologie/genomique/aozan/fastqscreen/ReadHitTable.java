@@ -0,0 +1,651 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class store the genomes hit by each read of a subset. Each read has a
+ * dense identifier, found from the name of the read without creating any
+ * object, and the hits are stored in two bitsets per read: one for the genomes
+ * hit and one for the genomes hit several times. The FastqScreenResult is then
+ * computed with a linear scan of the table. In batch mode, the reads of
+ * several samples are stored in the same table and the identifier of a read is
+ * computed from its name (see batchReadName()).
+ * @since 2.3
+ * @author agent
+ */
+public class ReadHitTable {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int NO_READ = -1;
+
+  // Normalized names of the reads and open addressing table of their
+  // identifiers
+  private byte[] names;
+  private int[] nameEnds;
+  private int[] slots;
+  private int namesLength;
+
+  private final List<String> genomes = new ArrayList<>();
+
+  // Identifier of the first read of each sample in batch mode
+  private final int[] sampleOffsets;
+
+  private int readCount;
+  private int words;
+  private long[] hits;
+  private long[] multipleHits;
+
+  //
+  // Reads
+  //
+
+  /**
+   * Add a read to the table.
+   * @param readName name of the read
+   * @return the identifier of the read
+   */
+  public int addRead(final String readName) {
+
+    checkNotNull(readName, "readName argument cannot be null");
+    checkArgument(this.sampleOffsets == null,
+        "reads cannot be added to a table in batch mode");
+    checkArgument(this.hits == null,
+        "reads cannot be added once genomes have been added");
+
+    final byte[] name = readName.getBytes(StandardCharsets.ISO_8859_1);
+    final int length = nameEnd(name, 0, name.length);
+    final int id = findRead(name, 0, length);
+
+    if (id != NO_READ) {
+      return id;
+    }
+
+    // Store the name
+    if (this.namesLength + length > this.names.length) {
+      this.names = Arrays.copyOf(this.names,
+          Math.max(this.names.length * 2, this.namesLength + length));
+    }
+    System.arraycopy(name, 0, this.names, this.namesLength, length);
+    this.namesLength += length;
+
+    if (this.readCount == this.nameEnds.length) {
+      this.nameEnds = Arrays.copyOf(this.nameEnds, this.nameEnds.length * 2);
+    }
+    this.nameEnds[this.readCount] = this.namesLength;
+
+    // Resize the table when it is half full
+    if (2 * (this.readCount + 1) > this.slots.length) {
+      rehash(this.slots.length * 2);
+    }
+    insert(this.readCount);
+
+    return this.readCount++;
+  }
+
+  /**
+   * Get the identifier of a read.
+   * @param readName the name of the read
+   * @return the identifier of the read or -1 if the read is not in the table
+   */
+  public int getReadId(final String readName) {
+
+    if (readName == null) {
+      return NO_READ;
+    }
+
+    final byte[] name = readName.getBytes(StandardCharsets.ISO_8859_1);
+
+    return getReadId(name, 0, name.length);
+  }
+
+  /**
+   * Get the identifier of a read from its name in a byte buffer. This method
+   * does not create any object.
+   * @param buffer the buffer that contains the name of the read
+   * @param start start of the name in the buffer
+   * @param length length of the name
+   * @return the identifier of the read or -1 if the read is not in the table
+   */
+  public int getReadId(final byte[] buffer, final int start,
+      final int length) {
+
+    checkNotNull(buffer, "buffer argument cannot be null");
+
+    final int end = nameEnd(buffer, start, start + length);
+
+    if (this.sampleOffsets != null) {
+      return getBatchReadId(buffer, start, end);
+    }
+
+    return findRead(buffer, start, end - start);
+  }
+
+  /**
+   * Get the number of reads in the table.
+   * @return the number of reads
+   */
+  public int getReadCount() {
+
+    return this.readCount;
+  }
+
+  /**
+   * Get the number of reads of a sample in batch mode.
+   * @param sampleIndex index of the sample
+   * @return the number of reads of the sample
+   */
+  public int getSampleReadCount(final int sampleIndex) {
+
+    checkArgument(this.sampleOffsets != null, "the table is not in batch mode");
+
+    return this.sampleOffsets[sampleIndex + 1]
+        - this.sampleOffsets[sampleIndex];
+  }
+
+  /**
+   * Get the name of a read in batch mode.
+   * @param sampleIndex index of the sample
+   * @param readIndex index of the read in the sample
+   * @return the name of the read
+   */
+  public static String batchReadName(final int sampleIndex,
+      final int readIndex) {
+
+    return sampleIndex + ":" + readIndex;
+  }
+
+  /**
+   * Get the identifier of a read from its name in batch mode.
+   * @param buffer the buffer that contains the normalized name of the read
+   * @param start start of the name in the buffer
+   * @param end end of the name in the buffer
+   * @return the identifier of the read or -1 if the name is not valid
+   */
+  private int getBatchReadId(final byte[] buffer, final int start,
+      final int end) {
+
+    int sep = -1;
+    for (int i = start; i < end; i++) {
+      if (buffer[i] == ':') {
+        sep = i;
+        break;
+      }
+    }
+
+    if (sep <= start || sep == end - 1) {
+      return NO_READ;
+    }
+
+    final int sampleIndex = parsePositiveInt(buffer, start, sep);
+    final int readIndex = parsePositiveInt(buffer, sep + 1, end);
+
+    if (sampleIndex == -1
+        || readIndex == -1 || sampleIndex >= this.sampleOffsets.length - 1
+        || readIndex >= getSampleReadCount(sampleIndex)) {
+      return NO_READ;
+    }
+
+    return this.sampleOffsets[sampleIndex] + readIndex;
+  }
+
+  /**
+   * Parse a positive integer.
+   * @param buffer the buffer to parse
+   * @param start start of the integer in the buffer
+   * @param end end of the integer in the buffer
+   * @return the integer or -1 if the bytes are not a valid integer
+   */
+  private static int parsePositiveInt(final byte[] buffer, final int start,
+      final int end) {
+
+    if (end - start > 9) {
+      return -1;
+    }
+
+    int result = 0;
+    for (int i = start; i < end; i++) {
+
+      final byte c = buffer[i];
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      result = result * 10 + c - '0';
+    }
+
+    return result;
+  }
+
+  /**
+   * Normalize a read name as the mappers do: only the first word of the name
+   * is kept and the "/1" or "/2" suffix of paired reads is removed.
+   * @param buffer the buffer that contains the name of the read
+   * @param start start of the name in the buffer
+   * @param end end of the name in the buffer
+   * @return the end of the normalized name in the buffer
+   */
+  static int nameEnd(final byte[] buffer, final int start, final int end) {
+
+    int result = end;
+
+    for (int i = start; i < result; i++) {
+      if (buffer[i] == ' ' || buffer[i] == '\t') {
+        result = i;
+        break;
+      }
+    }
+
+    if (result - start > 2 && buffer[result - 2] == '/') {
+      final byte c = buffer[result - 1];
+      if (c == '1' || c == '2') {
+        result -= 2;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Search a read in the table of the names.
+   * @param buffer the buffer that contains the normalized name of the read
+   * @param start start of the name in the buffer
+   * @param length length of the name
+   * @return the identifier of the read or -1 if the read is not in the table
+   */
+  private int findRead(final byte[] buffer, final int start,
+      final int length) {
+
+    final int mask = this.slots.length - 1;
+
+    for (int i = hash(buffer, start, length) & mask;; i = (i + 1) & mask) {
+
+      final int id = this.slots[i];
+
+      if (id == NO_READ) {
+        return NO_READ;
+      }
+
+      final int nameStart = id == 0 ? 0 : this.nameEnds[id - 1];
+      if (this.nameEnds[id] - nameStart == length
+          && equals(buffer, start, this.names, nameStart, length)) {
+        return id;
+      }
+    }
+  }
+
+  /**
+   * Insert a read in the table of the names.
+   * @param id identifier of the read
+   */
+  private void insert(final int id) {
+
+    final int nameStart = id == 0 ? 0 : this.nameEnds[id - 1];
+    final int mask = this.slots.length - 1;
+
+    int i = hash(this.names, nameStart, this.nameEnds[id] - nameStart) & mask;
+    while (this.slots[i] != NO_READ) {
+      i = (i + 1) & mask;
+    }
+
+    this.slots[i] = id;
+  }
+
+  /**
+   * Resize the table of the names.
+   * @param capacity the new capacity of the table, a power of 2
+   */
+  private void rehash(final int capacity) {
+
+    this.slots = new int[capacity];
+    Arrays.fill(this.slots, NO_READ);
+
+    for (int id = 0; id < this.readCount; id++) {
+      insert(id);
+    }
+  }
+
+  /**
+   * Compute the hash of a read name.
+   * @param buffer the buffer that contains the name
+   * @param start start of the name in the buffer
+   * @param length length of the name
+   * @return the hash of the name
+   */
+  private static int hash(final byte[] buffer, final int start,
+      final int length) {
+
+    int h = 0;
+    for (int i = start; i < start + length; i++) {
+      h = 31 * h + buffer[i];
+    }
+
+    // Spread the bits as the table is indexed with the low bits
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+
+    return h;
+  }
+
+  /**
+   * Compare two ranges of bytes.
+   * @param a the first array
+   * @param aStart start of the range in the first array
+   * @param b the second array
+   * @param bStart start of the range in the second array
+   * @param length length of the ranges
+   * @return true if the ranges are equal
+   */
+  private static boolean equals(final byte[] a, final int aStart,
+      final byte[] b, final int bStart, final int length) {
+
+    for (int i = 0; i < length; i++) {
+      if (a[aStart + i] != b[bStart + i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  //
+  // Genomes
+  //
+
+  /**
+   * Add a genome to the table.
+   * @param genome the name of the genome
+   * @return the index of the genome
+   */
+  public synchronized int addGenome(final String genome) {
+
+    checkNotNull(genome, "genome argument cannot be null");
+
+    final int index = this.genomes.indexOf(genome);
+    if (index != -1) {
+      return index;
+    }
+
+    this.genomes.add(genome);
+
+    // Resize the bitsets
+    final int newWords = (this.genomes.size() + 63) / 64;
+    if (this.hits == null || newWords != this.words) {
+
+      final long[] newHits = new long[this.readCount * newWords];
+      final long[] newMultipleHits = new long[this.readCount * newWords];
+
+      for (int r = 0; this.hits != null && r < this.readCount; r++) {
+        System.arraycopy(this.hits, r * this.words, newHits, r * newWords,
+            this.words);
+        System.arraycopy(this.multipleHits, r * this.words, newMultipleHits,
+            r * newWords, this.words);
+      }
+
+      this.words = newWords;
+      this.hits = newHits;
+      this.multipleHits = newMultipleHits;
+    }
+
+    return this.genomes.size() - 1;
+  }
+
+  /**
+   * Get the genomes of the table.
+   * @return an unmodifiable list with the genomes
+   */
+  public synchronized List<String> getGenomes() {
+
+    return Collections.unmodifiableList(this.genomes);
+  }
+
+  //
+  // Hits
+  //
+
+  /**
+   * Add a hit.
+   * @param readId identifier of the read
+   * @param genomeIndex index of the genome
+   * @param oneHit true if the read map only one time on the genome
+   */
+  public synchronized void addHit(final int readId, final int genomeIndex,
+      final boolean oneHit) {
+
+    final int word = readId * this.words + (genomeIndex >>> 6);
+    final long bit = 1L << genomeIndex;
+
+    this.hits[word] |= bit;
+
+    if (oneHit) {
+      this.multipleHits[word] &= ~bit;
+    } else {
+      this.multipleHits[word] |= bit;
+    }
+  }
+
+  /**
+   * Test if a read hits a genome.
+   * @param readId identifier of the read
+   * @param genomeIndex index of the genome
+   * @return true if the read hits the genome
+   */
+  synchronized boolean isHit(final int readId, final int genomeIndex) {
+
+    return this.hits != null
+        && (this.hits[readId * this.words + (genomeIndex >>> 6)]
+            & (1L << genomeIndex)) != 0;
+  }
+
+  /**
+   * Test if a read hits a genome several times.
+   * @param readId identifier of the read
+   * @param genomeIndex index of the genome
+   * @return true if the read hits the genome several times
+   */
+  synchronized boolean isMultipleHit(final int readId,
+      final int genomeIndex) {
+
+    return isHit(readId, genomeIndex)
+        && (this.multipleHits[readId * this.words + (genomeIndex >>> 6)]
+            & (1L << genomeIndex)) != 0;
+  }
+
+  /**
+   * Add all the hits of a genome. This method allows to map the reads on
+   * several genomes at the same time.
+   * @param genomeIndex index of the genome
+   * @param genomeHits identifiers of the reads that hit the genome
+   * @param genomeMultipleHits identifiers of the reads that hit the genome
+   *          several times
+   */
+  public synchronized void addHits(final int genomeIndex,
+      final BitSet genomeHits, final BitSet genomeMultipleHits) {
+
+    checkNotNull(genomeHits, "genomeHits argument cannot be null");
+    checkNotNull(genomeMultipleHits,
+        "genomeMultipleHits argument cannot be null");
+
+    for (int r = genomeHits.nextSetBit(0); r >= 0
+        && r < this.readCount; r = genomeHits.nextSetBit(r + 1)) {
+      addHit(r, genomeIndex, !genomeMultipleHits.get(r));
+    }
+  }
+
+  /**
+   * Fill a FastqScreenResult with the content of the table. The genomes of
+   * the table must have been added to the result.
+   * @param result the result object to fill
+   * @return the number of reads that hit at least one genome
+   */
+  public int fillResult(final FastqScreenResult result) {
+
+    return fillResult(result, 0, this.readCount);
+  }
+
+  /**
+   * Fill a FastqScreenResult with the reads of a sample in batch mode. The
+   * genomes hit by the reads of the sample must have been added to the result.
+   * @param result the result object to fill
+   * @param sampleIndex index of the sample
+   * @return the number of reads of the sample that hit at least one genome
+   */
+  public int fillSampleResult(final FastqScreenResult result,
+      final int sampleIndex) {
+
+    checkArgument(this.sampleOffsets != null, "the table is not in batch mode");
+
+    return fillResult(result, this.sampleOffsets[sampleIndex],
+        this.sampleOffsets[sampleIndex + 1]);
+  }
+
+  /**
+   * Count the number of reads that hit each genome in a range of reads.
+   * @param firstRead identifier of the first read
+   * @param endRead identifier of the last read (excluded)
+   * @return an array with the number of reads for each genome, in the order
+   *         of getGenomes()
+   */
+  public synchronized int[] countReadsPerGenome(final int firstRead,
+      final int endRead) {
+
+    final int[] result = new int[this.genomes.size()];
+
+    if (this.hits == null) {
+      return result;
+    }
+
+    for (int r = firstRead; r < endRead; r++) {
+
+      final int offset = r * this.words;
+
+      for (int g = 0; g < result.length; g++) {
+        if ((this.hits[offset + (g >>> 6)] & (1L << g)) != 0) {
+          result[g]++;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Fill a FastqScreenResult with a range of reads of the table.
+   * @param result the result object to fill
+   * @param firstRead identifier of the first read
+   * @param endRead identifier of the last read (excluded)
+   * @return the number of reads that hit at least one genome
+   */
+  public synchronized int fillResult(final FastqScreenResult result,
+      final int firstRead, final int endRead) {
+
+    checkNotNull(result, "result argument cannot be null");
+
+    final int genomeCount = this.genomes.size();
+    int readsMapped = 0;
+
+    // No genome has been added
+    if (this.hits == null) {
+      return 0;
+    }
+
+    for (int r = firstRead; r < endRead; r++) {
+
+      final int offset = r * this.words;
+
+      int genomesHit = 0;
+      for (int w = 0; w < this.words; w++) {
+        genomesHit += Long.bitCount(this.hits[offset + w]);
+      }
+
+      if (genomesHit == 0) {
+        continue;
+      }
+
+      readsMapped++;
+
+      for (int g = 0; g < genomeCount; g++) {
+
+        final int word = offset + (g >>> 6);
+        final long bit = 1L << g;
+
+        if ((this.hits[word] & bit) != 0) {
+          result.countHitPerGenome(this.genomes.get(g),
+              (this.multipleHits[word] & bit) == 0,
+              genomesHit == 1);
+        }
+      }
+    }
+
+    return readsMapped;
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Public constructor.
+   */
+  public ReadHitTable() {
+
+    this.sampleOffsets = null;
+    this.names = new byte[INITIAL_CAPACITY * 32];
+    this.nameEnds = new int[INITIAL_CAPACITY];
+    this.slots = new int[2 * INITIAL_CAPACITY];
+    Arrays.fill(this.slots, NO_READ);
+  }
+
+  /**
+   * Public constructor for the batch mode. The reads of the sample i are named
+   * from batchReadName(i, 0) to batchReadName(i, sampleReadCounts[i] - 1).
+   * @param sampleReadCounts number of reads of each sample
+   */
+  public ReadHitTable(final int[] sampleReadCounts) {
+
+    checkNotNull(sampleReadCounts, "sampleReadCounts argument cannot be null");
+
+    this.sampleOffsets = new int[sampleReadCounts.length + 1];
+
+    for (int i = 0; i < sampleReadCounts.length; i++) {
+
+      checkArgument(sampleReadCounts[i] >= 0,
+          "the number of reads of a sample cannot be negative");
+      this.sampleOffsets[i + 1] =
+          Math.addExact(this.sampleOffsets[i], sampleReadCounts[i]);
+    }
+
+    this.readCount = this.sampleOffsets[sampleReadCounts.length];
+  }
+
+}
@@ -0,0 +1,959 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.illumina;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static fr.ens.biologie.genomique.aozan.util.PackedIndexCounter.NO_KEY;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fr.ens.biologie.genomique.aozan.Common;
+import fr.ens.biologie.genomique.aozan.illumina.samplesheet.Sample;
+import fr.ens.biologie.genomique.aozan.illumina.samplesheet.SampleSheet;
+import fr.ens.biologie.genomique.aozan.util.IndexNeighborhood;
+import fr.ens.biologie.genomique.aozan.util.PackedIndexCounter;
+
+/**
+ * This class count the indexes of the clusters of a run directly from the base
+ * calls of the index cycles (BCL or CBCL files), before the demultiplexing.
+ * Only the index cycles and the filter files are read, so the census of a lane
+ * is fast and can be used to check the samplesheet and the number of allowed
+ * mismatches before launching bcl2fastq.
+ * <p>
+ * The census of a lane is a PackedIndexCounter of the concatenation of the
+ * first index read and of the second index read.
+ * @since 2.3
+ * @author agent
+ */
+public class BclIndexCensus {
+
+  /** Logger. */
+  private static final Logger LOGGER = Common.getLogger();
+
+  /** Minimal fraction of the PF clusters of a lane for a suggestion. */
+  private static final double MIN_SUGGESTION_FRACTION = 0.01;
+
+  /** Minimal ratio between the count of an alternative index and the count. */
+  private static final int MIN_ALTERNATIVE_RATIO = 10;
+
+  /** Maximal number of mismatches allowed by bcl2fastq. */
+  private static final int MAX_BCL2FASTQ_MISMATCHES = 2;
+
+  private static final Pattern BCL_FILE_PATTERN =
+      Pattern.compile("^s_(\\d+)_(\\d+)\\.bcl(\\.gz)?$");
+  private static final String CBCL_EXTENSION = ".cbcl";
+
+  private final File baseCallsDir;
+  private final int index1FirstCycle;
+  private final int index1Length;
+  private final int index2FirstCycle;
+  private final int index2Length;
+  private final int maxTilesPerLane;
+
+  private final Map<Integer, PackedIndexCounter> counters = new TreeMap<>();
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the length of the first index in the census.
+   * @return the length of the first index
+   */
+  public int getIndex1Length() {
+
+    return this.index1Length;
+  }
+
+  /**
+   * Get the length of the second index in the census.
+   * @return the length of the second index
+   */
+  public int getIndex2Length() {
+
+    return this.index2Length;
+  }
+
+  /**
+   * Get the census of a lane.
+   * @param lane the lane
+   * @return a PackedIndexCounter object or null if the lane has not been
+   *         counted
+   */
+  public PackedIndexCounter getCounter(final int lane) {
+
+    return this.counters.get(lane);
+  }
+
+  //
+  // Counting
+  //
+
+  /**
+   * Count the indexes of a lane.
+   * @param lane the lane
+   * @return a PackedIndexCounter object with the indexes of the lane
+   * @throws IOException if an error occurs while reading the base calls
+   */
+  public PackedIndexCounter count(final int lane) throws IOException {
+
+    checkArgument(lane > 0, "invalid lane: " + lane);
+
+    final long startTime = System.currentTimeMillis();
+
+    final File laneDir =
+        new File(this.baseCallsDir, String.format("L%03d", lane));
+    final int[] cycles = getCycles();
+    final PackedIndexCounter counter =
+        new PackedIndexCounter(this.index1Length + this.index2Length);
+
+    if (!laneDir.isDirectory()) {
+      throw new IOException("Lane directory not found: " + laneDir);
+    }
+
+    final File firstCycleDir = cycleDir(laneDir, cycles[0]);
+    final File[] cbclFiles = listCbclFiles(firstCycleDir);
+
+    final int tileCount;
+    if (cbclFiles.length > 0) {
+      tileCount = countCbcl(lane, laneDir, cycles, cbclFiles, counter);
+    } else {
+      tileCount = countBcl(lane, laneDir, cycles, firstCycleDir, counter);
+    }
+
+    if (tileCount == 0) {
+      throw new IOException("No base calls found for lane " + lane);
+    }
+
+    LOGGER.info("Index census of lane "
+        + lane + ": " + counter.getTotalRawCount() + " clusters ("
+        + counter.getTotalPFCount() + " PF) in " + tileCount + " tiles in "
+        + (System.currentTimeMillis() - startTime) + " ms");
+
+    this.counters.put(lane, counter);
+
+    return counter;
+  }
+
+  /**
+   * Count the indexes of a lane with BCL files.
+   * @param lane the lane
+   * @param laneDir the directory of the lane
+   * @param cycles the index cycles
+   * @param firstCycleDir the directory of the first index cycle
+   * @param counter the counter
+   * @return the number of counted tiles
+   * @throws IOException if an error occurs while reading the base calls
+   */
+  private int countBcl(final int lane, final File laneDir, final int[] cycles,
+      final File firstCycleDir, final PackedIndexCounter counter)
+      throws IOException {
+
+    final String[] filenames = firstCycleDir.list();
+    if (filenames == null) {
+      throw new IOException("Cycle directory not found: " + firstCycleDir);
+    }
+
+    final List<Integer> tiles = new ArrayList<>();
+    for (String filename : filenames) {
+
+      final Matcher m = BCL_FILE_PATTERN.matcher(filename);
+      if (m.matches() && Integer.parseInt(m.group(1)) == lane) {
+        tiles.add(Integer.parseInt(m.group(2)));
+      }
+    }
+    Collections.sort(tiles);
+
+    final List<Integer> selectedTiles = selectTiles(tiles);
+
+    for (int tile : selectedTiles) {
+
+      final byte[][] calls = new byte[cycles.length][];
+
+      for (int i = 0; i < cycles.length; i++) {
+
+        final File dir = cycleDir(laneDir, cycles[i]);
+        final String prefix = "s_" + lane + "_" + tile + ".bcl";
+
+        File file = new File(dir, prefix);
+        if (!file.exists()) {
+          file = new File(dir, prefix + ".gz");
+        }
+
+        calls[i] = BclReader.readBclFile(file);
+      }
+
+      addClusters(counter, calls, readFilter(laneDir, lane, tile));
+    }
+
+    return selectedTiles.size();
+  }
+
+  /**
+   * Count the indexes of a lane with CBCL files.
+   * @param lane the lane
+   * @param laneDir the directory of the lane
+   * @param cycles the index cycles
+   * @param cbclFiles the CBCL files of the first index cycle
+   * @param counter the counter
+   * @return the number of counted tiles
+   * @throws IOException if an error occurs while reading the base calls
+   */
+  private int countCbcl(final int lane, final File laneDir, final int[] cycles,
+      final File[] cbclFiles, final PackedIndexCounter counter)
+      throws IOException {
+
+    // Open the CBCL files of each surface for all the cycles
+    final List<BclReader.CbclFile[]> surfaces = new ArrayList<>();
+    final List<Integer> tiles = new ArrayList<>();
+
+    for (File cbclFile : cbclFiles) {
+
+      final BclReader.CbclFile[] files = new BclReader.CbclFile[cycles.length];
+      for (int i = 0; i < cycles.length; i++) {
+        files[i] = new BclReader.CbclFile(
+            new File(cycleDir(laneDir, cycles[i]), cbclFile.getName()));
+      }
+
+      surfaces.add(files);
+      tiles.addAll(files[0].getTiles());
+    }
+    Collections.sort(tiles);
+
+    final List<Integer> selectedTiles = selectTiles(tiles);
+
+    for (BclReader.CbclFile[] files : surfaces) {
+      for (int tile : files[0].getTiles()) {
+
+        if (!selectedTiles.contains(tile)) {
+          continue;
+        }
+
+        final byte[][] calls = new byte[cycles.length][];
+        for (int i = 0; i < cycles.length; i++) {
+          calls[i] = files[i].readTile(tile);
+        }
+
+        // Without filter file, all the clusters are passing filter
+        final boolean[] filter = files[0].isNonPFClustersExcluded()
+            ? null : readFilter(laneDir, lane, tile);
+
+        addClusters(counter, calls, filter);
+      }
+    }
+
+    return selectedTiles.size();
+  }
+
+  /**
+   * Add the clusters of a tile to a counter.
+   * @param counter the counter
+   * @param calls the base calls of each index cycle
+   * @param filter the filter of the clusters, null if all the clusters are
+   *          passing filter
+   * @throws IOException if the number of clusters of the cycles or of the
+   *           filter is not the same
+   */
+  private static void addClusters(final PackedIndexCounter counter,
+      final byte[][] calls, final boolean[] filter) throws IOException {
+
+    final int length = calls.length;
+    final int clusterCount = calls[0].length;
+
+    for (byte[] c : calls) {
+      if (c.length != clusterCount) {
+        throw new IOException(
+            "The cycles of a tile do not have the same number of clusters");
+      }
+    }
+
+    if (filter != null && filter.length != clusterCount) {
+      throw new IOException("The filter file and the base calls of a tile do"
+          + " not have the same number of clusters");
+    }
+
+    for (int i = 0; i < clusterCount; i++) {
+
+      long key = 0;
+
+      // The calls (NO_CALL for N) are the symbols of the packed indexes
+      for (int j = 0; j < length; j++) {
+        key = key * PackedIndexCounter.SYMBOL_COUNT + calls[j][i];
+      }
+
+      counter.add(key, filter == null || filter[i]);
+    }
+  }
+
+  /**
+   * Read the filter file of a tile.
+   * @param laneDir the directory of the lane
+   * @param lane the lane
+   * @param tile the tile
+   * @return the filter of the clusters or null if the filter file does not
+   *         exist
+   * @throws IOException if an error occurs while reading the filter file
+   */
+  private static boolean[] readFilter(final File laneDir, final int lane,
+      final int tile) throws IOException {
+
+    final File file = new File(laneDir, "s_" + lane + "_" + tile + ".filter");
+
+    return file.exists() ? BclReader.readFilterFile(file) : null;
+  }
+
+  /**
+   * Select the tiles to count.
+   * @param tiles the sorted tiles of the lane
+   * @return the tiles to count, evenly spread over the lane if the number of
+   *         tiles is limited
+   */
+  private List<Integer> selectTiles(final List<Integer> tiles) {
+
+    final int count = tiles.size();
+
+    if (this.maxTilesPerLane <= 0 || count <= this.maxTilesPerLane) {
+      return tiles;
+    }
+
+    final List<Integer> result = new ArrayList<>();
+    for (int i = 0; i < this.maxTilesPerLane; i++) {
+      result.add(tiles.get((int) ((long) i * count / this.maxTilesPerLane)));
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the index cycles.
+   * @return an array with the cycles of the first index and the cycles of the
+   *         second index
+   */
+  private int[] getCycles() {
+
+    final int[] result = new int[this.index1Length + this.index2Length];
+
+    for (int i = 0; i < this.index1Length; i++) {
+      result[i] = this.index1FirstCycle + i;
+    }
+
+    for (int i = 0; i < this.index2Length; i++) {
+      result[this.index1Length + i] = this.index2FirstCycle + i;
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the directory of a cycle.
+   * @param laneDir the directory of the lane
+   * @param cycle the cycle
+   * @return the directory of the cycle
+   */
+  private static File cycleDir(final File laneDir, final int cycle) {
+
+    return new File(laneDir, "C" + cycle + ".1");
+  }
+
+  /**
+   * List the CBCL files of a cycle.
+   * @param cycleDir the directory of the cycle
+   * @return a sorted array with the CBCL files
+   */
+  private static File[] listCbclFiles(final File cycleDir) {
+
+    final List<File> result = new ArrayList<>();
+    final File[] files = cycleDir.listFiles();
+
+    if (files != null) {
+      for (File f : files) {
+        if (f.getName().endsWith(CBCL_EXTENSION)) {
+          result.add(f);
+        }
+      }
+    }
+    Collections.sort(result);
+
+    return result.toArray(new File[result.size()]);
+  }
+
+  //
+  // Samplesheet check
+  //
+
+  /**
+   * Check the samplesheet with the census of the counted lanes.
+   * @param samplesheet the samplesheet
+   * @param mismatches the number of mismatches allowed for the demultiplexing
+   * @return a list of warnings with the suggested fixes
+   */
+  public List<String> checkSampleSheet(final SampleSheet samplesheet,
+      final int mismatches) {
+
+    checkNotNull(samplesheet, "samplesheet argument cannot be null");
+
+    final List<String> warnings = new ArrayList<>();
+
+    for (int lane : this.counters.keySet()) {
+      checkLane(lane, samplesInLane(samplesheet, lane), mismatches, warnings);
+    }
+
+    return warnings;
+  }
+
+  /**
+   * Check the samples of a lane.
+   * @param lane the lane
+   * @param samples the samples of the lane
+   * @param mismatches the number of mismatches allowed for the demultiplexing
+   * @param warnings the list of the warnings
+   */
+  private void checkLane(final int lane, final List<Sample> samples,
+      final int mismatches, final List<String> warnings) {
+
+    if (samples.isEmpty()) {
+      return;
+    }
+
+    // Get the indexes of the samples
+    final List<String> indexes1 = new ArrayList<>();
+    final List<String> indexes2 = new ArrayList<>();
+
+    for (Sample sample : samples) {
+
+      if (!sample.isIndexed()) {
+        return;
+      }
+
+      indexes1.add(sample.getIndex1().trim().toUpperCase(Locale.ROOT));
+      indexes2.add(sample.isDualIndexed()
+          ? sample.getIndex2().trim().toUpperCase(Locale.ROOT) : "");
+    }
+
+    final int length1 = indexes1.get(0).length();
+    final int length2 = indexes2.get(0).length();
+
+    for (int i = 1; i < samples.size(); i++) {
+      if (indexes1.get(i).length() != length1
+          || indexes2.get(i).length() != length2) {
+        warnings.add("Lane "
+            + lane + ": the indexes of the samples do not have the same"
+            + " length, they cannot be checked with the base calls.");
+        return;
+      }
+    }
+
+    // When only the first cycles of the long indexes are counted, the first
+    // bases of the indexes of the samples are checked
+    final boolean truncated = this.index1Length
+        + this.index2Length == PackedIndexCounter.MAX_LENGTH;
+
+    if ((length1 > this.index1Length || length2 > this.index2Length)
+        && (!truncated || (length2 > 0 && this.index2Length == 0))) {
+      warnings.add("Lane "
+          + lane + ": the indexes of the samples are longer than the index"
+          + " reads, they cannot be checked with the base calls.");
+      return;
+    }
+
+    final int countedLength1 = Math.min(length1, this.index1Length);
+    final int countedLength2 = Math.min(length2, this.index2Length);
+
+    final PackedIndexCounter census =
+        project(this.counters.get(lane), this.index1Length,
+            this.index2Length, countedLength1, countedLength2);
+    final long lanePFCount = census.getTotalPFCount();
+    final long minCount =
+        (long) Math.ceil(MIN_SUGGESTION_FRACTION * lanePFCount);
+
+    if (lanePFCount == 0) {
+      return;
+    }
+
+    // Check the orientation of the indexes of each sample
+    for (int i = 0; i < samples.size(); i++) {
+      checkIndexOrientation(lane, samples.get(i).getSampleId(),
+          indexes1.get(i), indexes2.get(i), census, countedLength1,
+          countedLength2, minCount, warnings);
+    }
+
+    // Check the number of mismatches
+    final int maxMismatches = maxMismatches(indexes1, indexes2);
+    if (maxMismatches >= 0 && mismatches > maxMismatches) {
+      warnings.add("Lane "
+          + lane + ": the indexes of the samples allow at most "
+          + maxMismatches + " mismatch(es) but " + mismatches
+          + " mismatch(es) will be used for the demultiplexing.");
+    }
+
+    final IndexNeighborhood neighborhood =
+        new IndexNeighborhood(countedLength1 + countedLength2, 1);
+    for (int i = 0; i < samples.size(); i++) {
+      neighborhood.addIndex(i,
+          indexes1.get(i).substring(0, countedLength1)
+              + indexes2.get(i).substring(0, countedLength2));
+    }
+
+    long oneMismatchCount = 0;
+    final List<Integer> unknownSlots = new ArrayList<>();
+
+    for (int slot = census.nextSlot(-1); slot != -1; slot =
+        census.nextSlot(slot)) {
+
+      final int[] entries = neighborhood.lookup(census.getKey(slot));
+
+      if (entries.length == 0) {
+
+        if (census.getPFCountOfSlot(slot) >= minCount) {
+          unknownSlots.add(slot);
+        }
+      } else if (entries.length == 1
+          && IndexNeighborhood.getMismatches(entries[0]) == 1) {
+        oneMismatchCount += census.getPFCountOfSlot(slot);
+      }
+    }
+
+    if (mismatches == 0
+        && maxMismatches >= 1 && oneMismatchCount >= minCount) {
+      warnings.add(String.format(Locale.ROOT,
+          "Lane %d: %d PF clusters (%.2f%%) have one mismatch with the index"
+              + " of a sample, allowing 1 mismatch would assign them.",
+          lane, oneMismatchCount, 100.0 * oneMismatchCount / lanePFCount));
+    }
+
+    // Report the frequent unknown indexes
+    Collections.sort(unknownSlots, new Comparator<Integer>() {
+
+      @Override
+      public int compare(final Integer s1, final Integer s2) {
+
+        return Integer.compare(census.getPFCountOfSlot(s2),
+            census.getPFCountOfSlot(s1));
+      }
+    });
+
+    for (int slot : unknownSlots) {
+
+      final String index = census.getIndex(slot);
+      final int count = census.getPFCountOfSlot(slot);
+
+      warnings.add(String.format(Locale.ROOT,
+          "Lane %d: the unknown index %s is found in %d PF clusters (%.2f%%).",
+          lane, formatIndex(index.substring(0, countedLength1),
+              index.substring(countedLength1)),
+          count, 100.0 * count / lanePFCount));
+    }
+  }
+
+  /**
+   * Check if the reverse complement or the swap of the indexes of a sample are
+   * more frequent than the indexes of the sample.
+   * @param lane the lane
+   * @param sampleId the identifier of the sample
+   * @param index1 the first index of the sample
+   * @param index2 the second index of the sample, an empty string if the
+   *          sample is not dual indexed
+   * @param census the census of the lane
+   * @param length1 the length of the first indexes of the census
+   * @param length2 the length of the second indexes of the census
+   * @param minCount the minimal count of an alternative index
+   * @param warnings the list of the warnings
+   */
+  private static void checkIndexOrientation(final int lane,
+      final String sampleId, final String index1, final String index2,
+      final PackedIndexCounter census, final int length1, final int length2,
+      final long minCount, final List<String> warnings) {
+
+    final int count = getPFCount(census, index1, index2, length1, length2);
+
+    final List<String[]> alternatives = new ArrayList<>();
+    alternatives.add(new String[] {"the reverse complement of index 1",
+        reverseComplement(index1), index2});
+
+    if (!index2.isEmpty()) {
+      alternatives.add(new String[] {"the reverse complement of index 2",
+          index1, reverseComplement(index2)});
+      alternatives.add(new String[] {"the reverse complement of both indexes",
+          reverseComplement(index1), reverseComplement(index2)});
+      if (index1.length() == index2.length()) {
+        alternatives
+            .add(new String[] {"the swapped indexes", index2, index1});
+      }
+    }
+
+    String[] best = null;
+    int bestCount = 0;
+
+    for (String[] alternative : alternatives) {
+
+      if (alternative[1].equals(index1) && alternative[2].equals(index2)) {
+        continue;
+      }
+
+      final int alternativeCount = getPFCount(census, alternative[1],
+          alternative[2], length1, length2);
+
+      if (alternativeCount > bestCount) {
+        best = alternative;
+        bestCount = alternativeCount;
+      }
+    }
+
+    if (best != null
+        && bestCount >= minCount
+        && bestCount > (long) MIN_ALTERNATIVE_RATIO * count) {
+      warnings.add("Lane "
+          + lane + ": " + count + " PF clusters have the index of the sample \""
+          + sampleId + "\" (" + formatIndex(index1, index2) + ") but "
+          + bestCount + " PF clusters have " + best[0] + " ("
+          + formatIndex(best[1], best[2])
+          + "), the samplesheet may contain an error.");
+    }
+  }
+
+  /**
+   * Get the maximal number of mismatches that can be allowed by bcl2fastq
+   * without index collision. With m mismatches for each index, the indexes of
+   * two samples collide if the distances between both their first indexes and
+   * their second indexes are lower or equal to 2m.
+   * @param indexes1 the first indexes of the samples
+   * @param indexes2 the second indexes of the samples
+   * @return the maximal number of mismatches or -1 if two samples have the
+   *         same indexes
+   */
+  static int maxMismatches(final List<String> indexes1,
+      final List<String> indexes2) {
+
+    int result = MAX_BCL2FASTQ_MISMATCHES;
+
+    for (int i = 0; i < indexes1.size(); i++) {
+      for (int j = i + 1; j < indexes1.size(); j++) {
+
+        final int distance = Math.max(
+            distance(indexes1.get(i), indexes1.get(j)),
+            distance(indexes2.get(i), indexes2.get(j)));
+
+        result = Math.min(result, (distance - 1) / 2);
+        if (distance == 0) {
+          return -1;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the Hamming distance between two indexes of the same length.
+   * @param index1 the first index
+   * @param index2 the second index
+   * @return the number of mismatches between the two indexes
+   */
+  private static int distance(final String index1, final String index2) {
+
+    int result = 0;
+
+    for (int i = 0; i < index1.length(); i++) {
+      if (index1.charAt(i) != index2.charAt(i)) {
+        result++;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the PF count of the indexes of a sample.
+   * @param census the census of the lane
+   * @param index1 the first index
+   * @param index2 the second index
+   * @param length1 the length of the first indexes of the census
+   * @param length2 the length of the second indexes of the census
+   * @return the PF count of the indexes
+   */
+  private static int getPFCount(final PackedIndexCounter census,
+      final String index1, final String index2, final int length1,
+      final int length2) {
+
+    final long key = PackedIndexCounter.encode(
+        index1.substring(0, length1) + index2.substring(0, length2));
+
+    return key == NO_KEY ? 0 : census.getPFCount(key);
+  }
+
+  /**
+   * Project a census on shorter indexes.
+   * @param census the census
+   * @param length1 the length of the first index of the census
+   * @param length2 the length of the second index of the census
+   * @param newLength1 the length of the first index of the projection
+   * @param newLength2 the length of the second index of the projection
+   * @return a PackedIndexCounter object
+   */
+  private static PackedIndexCounter project(final PackedIndexCounter census,
+      final int length1, final int length2, final int newLength1,
+      final int newLength2) {
+
+    if (length1 == newLength1 && length2 == newLength2) {
+      return census;
+    }
+
+    final int length = length1 + length2;
+    final PackedIndexCounter result =
+        new PackedIndexCounter(newLength1 + newLength2);
+
+    for (int slot = census.nextSlot(-1); slot != -1; slot =
+        census.nextSlot(slot)) {
+
+      final long key = census.getKey(slot);
+      final long key1 = PackedIndexCounter.subKey(key, length, 0, newLength1);
+      final long newKey = newLength2 == 0
+          ? key1
+          : PackedIndexCounter.concat(key1, newLength1,
+              PackedIndexCounter.subKey(key, length, length1, newLength2),
+              newLength2);
+
+      result.add(newKey, census.getRawCountOfSlot(slot),
+          census.getPFCountOfSlot(slot));
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the samples of a lane.
+   * @param samplesheet the samplesheet
+   * @param lane the lane
+   * @return a list with the samples of the lane
+   */
+  private static List<Sample> samplesInLane(final SampleSheet samplesheet,
+      final int lane) {
+
+    if (samplesheet.isLaneSampleField()) {
+      return samplesheet.getSampleInLane(lane);
+    }
+
+    final List<Sample> result = new ArrayList<>();
+    for (Sample sample : samplesheet) {
+      result.add(sample);
+    }
+
+    return result;
+  }
+
+  /**
+   * Format the indexes of a sample.
+   * @param index1 the first index
+   * @param index2 the second index
+   * @return a string with the indexes
+   */
+  private static String formatIndex(final String index1, final String index2) {
+
+    return index2.isEmpty() ? index1 : index1 + '-' + index2;
+  }
+
+  /**
+   * Get the reverse complement of an index.
+   * @param index the index
+   * @return the reverse complement of the index
+   */
+  static String reverseComplement(final String index) {
+
+    final StringBuilder sb = new StringBuilder(index.length());
+
+    for (int i = index.length() - 1; i >= 0; i--) {
+
+      switch (index.charAt(i)) {
+
+      case 'A':
+        sb.append('T');
+        break;
+      case 'C':
+        sb.append('G');
+        break;
+      case 'G':
+        sb.append('C');
+        break;
+      case 'T':
+        sb.append('A');
+        break;
+      default:
+        sb.append('N');
+        break;
+      }
+    }
+
+    return sb.toString();
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Create a census of the indexes of a run. The index reads are defined by
+   * the RunInfo.xml file, the first index read is truncated and the second
+   * index read is ignored if the indexes are too long to be packed.
+   * @param runDir the run directory
+   * @param runInfo the RunInfo object of the run
+   * @param maxTilesPerLane the maximal number of tiles to read for each lane,
+   *          0 to read all the tiles
+   * @return a new BclIndexCensus object
+   * @throws IOException if the run has no index read
+   */
+  public static BclIndexCensus create(final File runDir,
+      final RunInfo runInfo, final int maxTilesPerLane) throws IOException {
+
+    checkNotNull(runInfo, "runInfo argument cannot be null");
+
+    final List<RunInfo.Read> reads = new ArrayList<>(runInfo.getReads());
+    Collections.sort(reads, new Comparator<RunInfo.Read>() {
+
+      @Override
+      public int compare(final RunInfo.Read r1, final RunInfo.Read r2) {
+
+        return Integer.compare(r1.getNumber(), r2.getNumber());
+      }
+    });
+
+    int cycle = 1;
+    int index1FirstCycle = 0;
+    int index1Length = 0;
+    int index2FirstCycle = 0;
+    int index2Length = 0;
+
+    for (RunInfo.Read read : reads) {
+
+      if (read.isIndexedRead()) {
+
+        if (index1Length == 0) {
+          index1FirstCycle = cycle;
+          index1Length = read.getNumberCycles();
+        } else if (index2Length == 0) {
+          index2FirstCycle = cycle;
+          index2Length = read.getNumberCycles();
+        }
+      }
+
+      cycle += read.getNumberCycles();
+    }
+
+    if (index1Length == 0) {
+      throw new IOException("No index read found in the run");
+    }
+
+    // Only the first cycles of the long indexes are counted
+    final int[] lengths =
+        PackedIndexCounter.fitLengths(index1Length, index2Length);
+
+    return new BclIndexCensus(runDir, index1FirstCycle, lengths[0],
+        index2FirstCycle, lengths[1], maxTilesPerLane);
+  }
+
+  /**
+   * Count the indexes of all the lanes of a run and check the samplesheet.
+   * @param runDir the run directory
+   * @param runInfo the RunInfo object of the run
+   * @param samplesheet the samplesheet
+   * @param mismatches the number of mismatches allowed for the demultiplexing
+   * @param maxTilesPerLane the maximal number of tiles to read for each lane,
+   *          0 to read all the tiles
+   * @return a list of warnings with the suggested fixes
+   * @throws IOException if an error occurs while reading the base calls
+   */
+  public static List<String> checkRun(final File runDir, final RunInfo runInfo,
+      final SampleSheet samplesheet, final int mismatches,
+      final int maxTilesPerLane) throws IOException {
+
+    checkNotNull(samplesheet, "samplesheet argument cannot be null");
+
+    final BclIndexCensus census = create(runDir, runInfo, maxTilesPerLane);
+
+    // Only count the lanes with samples
+    final TreeSet<Integer> lanes = new TreeSet<>();
+    for (int lane = 1; lane <= runInfo.getFlowCellLaneCount(); lane++) {
+      if (!samplesInLane(samplesheet, lane).isEmpty()) {
+        lanes.add(lane);
+      }
+    }
+
+    for (int lane : lanes) {
+      census.count(lane);
+    }
+
+    return census.checkSampleSheet(samplesheet, mismatches);
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param runDir the run directory
+   * @param index1FirstCycle the first cycle of the first index
+   * @param index1Length the length of the first index
+   * @param index2FirstCycle the first cycle of the second index
+   * @param index2Length the length of the second index, 0 if there is no
+   *          second index
+   * @param maxTilesPerLane the maximal number of tiles to read for each lane,
+   *          0 to read all the tiles
+   */
+  public BclIndexCensus(final File runDir, final int index1FirstCycle,
+      final int index1Length, final int index2FirstCycle,
+      final int index2Length, final int maxTilesPerLane) {
+
+    checkNotNull(runDir, "runDir argument cannot be null");
+    checkArgument(index1FirstCycle > 0,
+        "invalid first cycle of index 1: " + index1FirstCycle);
+    checkArgument(index1Length > 0 && index2Length >= 0
+        && index1Length + index2Length <= PackedIndexCounter.MAX_LENGTH,
+        "invalid index lengths: " + index1Length + ", " + index2Length);
+    checkArgument(index2Length == 0 || index2FirstCycle > 0,
+        "invalid first cycle of index 2: " + index2FirstCycle);
+
+    this.baseCallsDir =
+        new File(runDir, "Data" + File.separator + "Intensities"
+            + File.separator + "BaseCalls");
+    this.index1FirstCycle = index1FirstCycle;
+    this.index1Length = index1Length;
+    this.index2FirstCycle = index2FirstCycle;
+    this.index2Length = index2Length;
+    this.maxTilesPerLane = maxTilesPerLane;
+  }
+
+}
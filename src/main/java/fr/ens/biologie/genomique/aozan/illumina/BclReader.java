@@ -0,0 +1,328 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.illumina;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * This class allow to read the base calls and the filter files created by RTA.
+ * The BCL files (one file by cycle and tile, optionally gzipped) and the CBCL
+ * files (one file by cycle and surface, with a gzipped block by tile) are
+ * handled. The base calls are returned as an array of codes with a code by
+ * cluster: 0 to 3 for A, C, G and T and NO_CALL for the clusters without base
+ * call.
+ * @since 2.3
+ * @author agent
+ */
+public class BclReader {
+
+  /** Code of a cluster without base call. */
+  public static final byte NO_CALL = 4;
+
+  /**
+   * This class define a CBCL file. Only the header is read when the object is
+   * created, the base calls of the tiles are read on demand.
+   */
+  public static final class CbclFile {
+
+    private final File file;
+    private final List<Integer> tiles;
+    private final int[] clusterCounts;
+    private final int[] uncompressedSizes;
+    private final int[] compressedSizes;
+    private final long[] offsets;
+    private final boolean nonPFClustersExcluded;
+
+    /**
+     * Get the tiles of the file.
+     * @return a list with the tile numbers
+     */
+    public List<Integer> getTiles() {
+
+      return this.tiles;
+    }
+
+    /**
+     * Test if the clusters that do not pass the filter are excluded from the
+     * file.
+     * @return true if the file contains only passing filter clusters
+     */
+    public boolean isNonPFClustersExcluded() {
+
+      return this.nonPFClustersExcluded;
+    }
+
+    /**
+     * Read the base calls of a tile.
+     * @param tile the tile number
+     * @return an array with the code of the base call of each cluster
+     * @throws IOException if an error occurs while reading the file
+     */
+    public byte[] readTile(final int tile) throws IOException {
+
+      final int i = this.tiles.indexOf(tile);
+
+      if (i == -1) {
+        throw new IOException(
+            "Tile " + tile + " not found in CBCL file: " + this.file);
+      }
+
+      final byte[] compressed = new byte[this.compressedSizes[i]];
+
+      try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+        raf.seek(this.offsets[i]);
+        raf.readFully(compressed);
+      }
+
+      final byte[] data = new byte[this.uncompressedSizes[i]];
+
+      try (InputStream is =
+          new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+        ByteStreams.readFully(is, data);
+      }
+
+      // Two clusters by byte, the first cluster in the low bits
+      final int clusterCount = this.clusterCounts[i];
+      final byte[] result = new byte[clusterCount];
+
+      if (data.length < (clusterCount + 1) / 2) {
+        throw new IOException("Invalid size for tile "
+            + tile + " in CBCL file: " + this.file);
+      }
+
+      for (int j = 0; j < clusterCount; j++) {
+
+        final int value = data[j >> 1] >> ((j & 1) << 2) & 0x0F;
+
+        // The base call is in the 2 low bits and the quality in the 2 others
+        result[j] = (value >> 2) == 0 ? NO_CALL : (byte) (value & 3);
+      }
+
+      return result;
+    }
+
+    //
+    // Constructor
+    //
+
+    /**
+     * Constructor.
+     * @param file the CBCL file
+     * @throws IOException if an error occurs while reading the header
+     */
+    public CbclFile(final File file) throws IOException {
+
+      checkNotNull(file, "file argument cannot be null");
+
+      this.file = file;
+
+      try (InputStream is = new FileInputStream(file)) {
+
+        // Version and header size
+        final ByteBuffer start = readBuffer(is, 6);
+        start.getShort();
+        final int headerSize = start.getInt();
+
+        final ByteBuffer header = readBuffer(is, headerSize - 6);
+
+        final int bitsPerBaseCall = header.get();
+        final int bitsPerQScore = header.get();
+
+        if (bitsPerBaseCall != 2 || bitsPerQScore != 2) {
+          throw new IOException("Unsupported base call encoding ("
+              + bitsPerBaseCall + "/" + bitsPerQScore + " bits) in CBCL file: "
+              + file);
+        }
+
+        // Skip the quality score bins
+        final int binCount = header.getInt();
+        header.position(header.position() + 8 * binCount);
+
+        final int tileCount = header.getInt();
+        final List<Integer> tiles = new ArrayList<>();
+        this.clusterCounts = new int[tileCount];
+        this.uncompressedSizes = new int[tileCount];
+        this.compressedSizes = new int[tileCount];
+        this.offsets = new long[tileCount];
+
+        long offset = headerSize;
+
+        for (int i = 0; i < tileCount; i++) {
+
+          tiles.add(header.getInt());
+          this.clusterCounts[i] = header.getInt();
+          this.uncompressedSizes[i] = header.getInt();
+          this.compressedSizes[i] = header.getInt();
+          this.offsets[i] = offset;
+          offset += this.compressedSizes[i];
+        }
+
+        this.tiles = Collections.unmodifiableList(tiles);
+        this.nonPFClustersExcluded = header.get() == 1;
+
+      } catch (RuntimeException e) {
+        throw new IOException("Invalid CBCL file header: " + file, e);
+      }
+    }
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Read a BCL file.
+   * @param file the BCL file, can be gzipped
+   * @return an array with the code of the base call of each cluster
+   * @throws IOException if an error occurs while reading the file
+   */
+  public static byte[] readBclFile(final File file) throws IOException {
+
+    checkNotNull(file, "file argument cannot be null");
+
+    final byte[] data = readFile(file);
+
+    if (data.length < 4) {
+      throw new IOException("Invalid BCL file: " + file);
+    }
+
+    final int clusterCount =
+        ByteBuffer.wrap(data, 0, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+
+    if (clusterCount < 0 || data.length < 4 + clusterCount) {
+      throw new IOException("Invalid cluster count in BCL file: " + file);
+    }
+
+    final byte[] result = new byte[clusterCount];
+
+    for (int i = 0; i < clusterCount; i++) {
+
+      // The base call is in the 2 low bits and the quality in the 6 others
+      final byte value = data[4 + i];
+      result[i] = value == 0 ? NO_CALL : (byte) (value & 3);
+    }
+
+    return result;
+  }
+
+  /**
+   * Read a filter file.
+   * @param file the filter file
+   * @return an array with true for each cluster that passes the filter
+   * @throws IOException if an error occurs while reading the file
+   */
+  public static boolean[] readFilterFile(final File file) throws IOException {
+
+    checkNotNull(file, "file argument cannot be null");
+
+    final byte[] data = readFile(file);
+
+    if (data.length < 4) {
+      throw new IOException("Invalid filter file: " + file);
+    }
+
+    final ByteBuffer buffer =
+        ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Since version 3 the header starts with 0, the version and the count
+    int clusterCount = buffer.getInt();
+    if (clusterCount == 0 && data.length >= 12) {
+      buffer.getInt();
+      clusterCount = buffer.getInt();
+    }
+
+    if (clusterCount < 0 || buffer.remaining() < clusterCount) {
+      throw new IOException("Invalid cluster count in filter file: " + file);
+    }
+
+    final boolean[] result = new boolean[clusterCount];
+
+    for (int i = 0; i < clusterCount; i++) {
+      result[i] = (buffer.get() & 1) != 0;
+    }
+
+    return result;
+  }
+
+  /**
+   * Read the content of a file.
+   * @param file the file, uncompressed if its name ends with ".gz"
+   * @return an array with the content of the file
+   * @throws IOException if an error occurs while reading the file
+   */
+  private static byte[] readFile(final File file) throws IOException {
+
+    try (InputStream is = file.getName().endsWith(".gz")
+        ? new GZIPInputStream(new FileInputStream(file))
+        : new FileInputStream(file)) {
+      return ByteStreams.toByteArray(is);
+    }
+  }
+
+  /**
+   * Read bytes in a little endian buffer.
+   * @param is the input stream
+   * @param length the number of bytes to read
+   * @return a ByteBuffer object
+   * @throws IOException if an error occurs while reading the bytes
+   */
+  private static ByteBuffer readBuffer(final InputStream is, final int length)
+      throws IOException {
+
+    if (length < 0) {
+      throw new IOException("Invalid length: " + length);
+    }
+
+    final byte[] result = new byte[length];
+    ByteStreams.readFully(is, result);
+
+    return ByteBuffer.wrap(result).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   */
+  private BclReader() {
+  }
+
+}
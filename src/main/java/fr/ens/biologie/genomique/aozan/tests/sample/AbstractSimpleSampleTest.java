@@ -84,6 +84,16 @@ public abstract class AbstractSimpleSampleTest extends AbstractSampleTest {
     return score;
   }
 
+  /**
+   * Get the score of a value without transformation.
+   * @param value the value
+   * @return the score of the value
+   */
+  protected int getScore(final Number value) {
+
+    return this.interval.getScore(value);
+  }
+
   /**
    * Test if the value is a percent.
    * @return true if the value is a percent
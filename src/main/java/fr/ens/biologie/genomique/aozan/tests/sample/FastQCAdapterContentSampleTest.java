@@ -27,9 +27,9 @@ import java.util.Collections;
 import java.util.List;
 
 import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.aozan.fastqc.AdapterContentModule;
 import fr.ens.biologie.genomique.aozan.tests.AozanTest;
 import fr.ens.biologie.genomique.aozan.tests.TestConfiguration;
-import uk.ac.babraham.FastQC.Modules.AdapterContent;
 
 /**
  * This class define a sample test for FastQC per tile sequence quality module.
@@ -39,7 +39,8 @@ import uk.ac.babraham.FastQC.Modules.AdapterContent;
  */
 public class FastQCAdapterContentSampleTest extends AbstractFastQCSampleTest {
 
-  private static final String FASTQC_MODULE_NAME = new AdapterContent().name();
+  private static final String FASTQC_MODULE_NAME =
+      AdapterContentModule.MODULE_NAME;
 
   @Override
   public List<AozanTest> configure(final TestConfiguration conf)
@@ -29,7 +29,6 @@ import java.util.List;
 import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.tests.AozanTest;
 import fr.ens.biologie.genomique.aozan.tests.TestConfiguration;
-import uk.ac.babraham.FastQC.Modules.BasicStats;
 
 /**
  * This class define a sample test for FastQC basic stats module.
@@ -38,7 +37,7 @@ import uk.ac.babraham.FastQC.Modules.BasicStats;
  */
 public class FastQCBasicStatsSampleTest extends AbstractFastQCSampleTest {
 
-  private static final String FASTQC_MODULE_NAME = new BasicStats().name();
+  private static final String FASTQC_MODULE_NAME = "Basic Statistics";
 
   @Override
   public List<AozanTest> configure(final TestConfiguration conf)
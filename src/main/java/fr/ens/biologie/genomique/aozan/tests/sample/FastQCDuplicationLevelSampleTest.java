@@ -28,7 +28,6 @@ import java.util.List;
 import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.tests.AozanTest;
 import fr.ens.biologie.genomique.aozan.tests.TestConfiguration;
-import uk.ac.babraham.FastQC.Modules.OverRepresentedSeqs;
 
 /**
  * This class define a sample test for FastQC duplication level module.
@@ -38,7 +37,7 @@ import uk.ac.babraham.FastQC.Modules.OverRepresentedSeqs;
 public class FastQCDuplicationLevelSampleTest extends AbstractFastQCSampleTest {
 
   private static final String FASTQC_MODULE_NAME =
-      new OverRepresentedSeqs().duplicationLevelModule().name();
+      "Sequence Duplication Levels";
 
   @Override
   public List<AozanTest> configure(final TestConfiguration conf)
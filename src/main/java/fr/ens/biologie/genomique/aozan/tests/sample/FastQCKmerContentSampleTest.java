@@ -29,7 +29,6 @@ import java.util.List;
 import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.tests.AozanTest;
 import fr.ens.biologie.genomique.aozan.tests.TestConfiguration;
-import uk.ac.babraham.FastQC.Modules.KmerContent;
 
 /**
  * This class define a sample test for FastQC kmer content module.
@@ -38,7 +37,7 @@ import uk.ac.babraham.FastQC.Modules.KmerContent;
  */
 public class FastQCKmerContentSampleTest extends AbstractFastQCSampleTest {
 
-  private static final String FASTQC_MODULE_NAME = new KmerContent().name();
+  private static final String FASTQC_MODULE_NAME = "Kmer Content";
 
   @Override
   public List<AozanTest> configure(final TestConfiguration conf)
@@ -29,7 +29,6 @@ import java.util.List;
 import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.tests.AozanTest;
 import fr.ens.biologie.genomique.aozan.tests.TestConfiguration;
-import uk.ac.babraham.FastQC.Modules.NContent;
 
 /**
  * This class define a sample test for FastQC N content module.
@@ -38,7 +37,7 @@ import uk.ac.babraham.FastQC.Modules.NContent;
  */
 public class FastQCNContentSampleTest extends AbstractFastQCSampleTest {
 
-  private static final String FASTQC_MODULE_NAME = new NContent().name();
+  private static final String FASTQC_MODULE_NAME = "Per base N content";
 
   @Override
   public List<AozanTest> configure(final TestConfiguration conf)
@@ -29,7 +29,6 @@ import java.util.List;
 import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.tests.AozanTest;
 import fr.ens.biologie.genomique.aozan.tests.TestConfiguration;
-import uk.ac.babraham.FastQC.Modules.OverRepresentedSeqs;
 
 /**
  * This class define a sample test for FastQC over represented seqs module.
@@ -39,8 +38,7 @@ import uk.ac.babraham.FastQC.Modules.OverRepresentedSeqs;
 public class FastQCOverrepresentedSequencesSampleTest
     extends AbstractFastQCSampleTest {
 
-  private static final String FASTQC_MODULE_NAME =
-      new OverRepresentedSeqs().name();
+  private static final String FASTQC_MODULE_NAME = "Overrepresented sequences";
 
   @Override
   public List<AozanTest> configure(final TestConfiguration conf)
@@ -29,7 +29,6 @@ import java.util.List;
 import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.tests.AozanTest;
 import fr.ens.biologie.genomique.aozan.tests.TestConfiguration;
-import uk.ac.babraham.FastQC.Modules.PerBaseSequenceContent;
 
 /**
  * This class define a sample test for FastQC per base sequence content module.
@@ -39,8 +38,7 @@ import uk.ac.babraham.FastQC.Modules.PerBaseSequenceContent;
 public class FastQCPerBaseSequenceContentSampleTest
     extends AbstractFastQCSampleTest {
 
-  private static final String FASTQC_MODULE_NAME =
-      new PerBaseSequenceContent().name();
+  private static final String FASTQC_MODULE_NAME = "Per base sequence content";
 
   @Override
   public List<AozanTest> configure(final TestConfiguration conf)
@@ -29,7 +29,6 @@ import java.util.List;
 import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.tests.AozanTest;
 import fr.ens.biologie.genomique.aozan.tests.TestConfiguration;
-import uk.ac.babraham.FastQC.Modules.PerSequenceGCContent;
 
 /**
  * This class define a sample test for FastQC basic stats module.
@@ -39,8 +38,7 @@ import uk.ac.babraham.FastQC.Modules.PerSequenceGCContent;
 public class FastQCPerSequenceGCContentSampleTest
     extends AbstractFastQCSampleTest {
 
-  private static final String FASTQC_MODULE_NAME =
-      new PerSequenceGCContent().name();
+  private static final String FASTQC_MODULE_NAME = "Per sequence GC content";
 
   @Override
   public List<AozanTest> configure(final TestConfiguration conf)
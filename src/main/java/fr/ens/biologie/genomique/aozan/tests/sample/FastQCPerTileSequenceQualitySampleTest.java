@@ -27,9 +27,9 @@ import java.util.Collections;
 import java.util.List;
 
 import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.aozan.fastqc.PerTileQualityModule;
 import fr.ens.biologie.genomique.aozan.tests.AozanTest;
 import fr.ens.biologie.genomique.aozan.tests.TestConfiguration;
-import uk.ac.babraham.FastQC.Modules.PerTileQualityScores;
 
 /**
  * This class define a sample test for FastQC per tile sequence quality module.
@@ -41,7 +41,7 @@ public class FastQCPerTileSequenceQualitySampleTest
     extends AbstractFastQCSampleTest {
 
   private static final String FASTQC_MODULE_NAME =
-      new PerTileQualityScores().name();
+      PerTileQualityModule.MODULE_NAME;
 
   @Override
   public List<AozanTest> configure(final TestConfiguration conf)
@@ -29,7 +29,6 @@ import java.util.List;
 import fr.ens.biologie.genomique.aozan.AozanException;
 import fr.ens.biologie.genomique.aozan.tests.AozanTest;
 import fr.ens.biologie.genomique.aozan.tests.TestConfiguration;
-import uk.ac.babraham.FastQC.Modules.SequenceLengthDistribution;
 
 /**
  * This class define a sample test for FastQC sequence length distribution
@@ -41,7 +40,7 @@ public class FastQCSequenceLengthDistributionSampleTest
     extends AbstractFastQCSampleTest {
 
   private static final String FASTQC_MODULE_NAME =
-      new SequenceLengthDistribution().name();
+      "Sequence Length Distribution";
 
   @Override
   public List<AozanTest> configure(final TestConfiguration conf)
@@ -84,7 +84,10 @@ public class FastQScreenMappedPercentSampleTest
 
   /**
    * Transform the score : if genome of sample is the same as reference genome.
-   * then the score is reverse for change the color in QC report
+   * then the score is reverse for change the color in QC report. In adaptive
+   * mode, the mapped percentage is computed on a part of the subset and the
+   * worst score of the bounds of its confidence interval is kept, so a value
+   * close to the limit of a score interval is flagged.
    * @param score the score to transform
    * @param data run data
    * @param read index of read
@@ -108,11 +111,32 @@ public class FastQScreenMappedPercentSampleTest
 
     // If genome sample are used like reference genome in FastqScreen, the score
     // are inverse. The value must be near 100% if it had no contamination.
-    if (this.genomeReference.equals(genomeSampleReference)) {
-      return (9 - score);
+    final boolean inverse = this.genomeReference.equals(genomeSampleReference);
+
+    int result = score;
+
+    final String key = getKey(read, readSample, sampleId,
+        data.getSampleLane(sampleId), false);
+    final String prefix =
+        "fastqscreen.sample" + sampleId + ".read" + readSample;
+
+    // Values of the adaptive mode
+    if (this.isGenomeContamination
+        && data.get(prefix + ".read.subset.count") != null
+        && data.get(key + ".ci") != null) {
+
+      final double value = data.getDouble(key);
+      final double halfWidth = data.getDouble(key + ".ci") / 2.0;
+
+      final int lowerScore = getScore(Math.max(0.0, value - halfWidth));
+      final int upperScore = getScore(Math.min(1.0, value + halfWidth));
+
+      result = inverse
+          ? Math.max(result, Math.max(lowerScore, upperScore))
+          : Math.min(result, Math.min(lowerScore, upperScore));
     }
 
-    return score;
+    return inverse ? 9 - result : result;
   }
 
   @Override
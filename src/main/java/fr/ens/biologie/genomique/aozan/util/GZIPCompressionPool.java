@@ -0,0 +1,133 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This class define a pool of threads that compresses the blocks of several
+ * parallel gzip output streams. The number of blocks compressed at the same
+ * time by all the streams of the pool is bounded, and the size of the blocks
+ * of a stream is computed from the number of streams opened at the same time
+ * to bound the memory used by the buffers of the streams.
+ * @since 2.3
+ * @author agent
+ */
+public class GZIPCompressionPool {
+
+  /** Default memory used by the buffers of the streams opened together. */
+  public static final long DEFAULT_BUFFER_MEMORY = 64L * 1024 * 1024;
+
+  /** Minimal size of the blocks. */
+  public static final int MIN_BLOCK_SIZE = 64 * 1024;
+
+  /** Number of blocks compressed at the same time by a thread of the pool. */
+  private static final int BLOCKS_PER_THREAD = 2;
+
+  private final ExecutorService executor;
+  private final Semaphore blockPermits;
+  private final long bufferMemory;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the size of the blocks of the streams for a number of streams opened
+   * at the same time.
+   * @param streamCount number of streams opened at the same time
+   * @return the size of the blocks
+   */
+  public int getBlockSize(final int streamCount) {
+
+    checkArgument(streamCount > 0, "invalid number of streams: " + streamCount);
+
+    return (int) Math.max(MIN_BLOCK_SIZE, Math.min(
+        ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE,
+        this.bufferMemory / streamCount));
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Create a gzip output stream that is compressed by the pool.
+   * @param out the underlying output stream
+   * @param streamCount number of streams opened at the same time
+   * @return a new output stream
+   */
+  public OutputStream createOutputStream(final OutputStream out,
+      final int streamCount) {
+
+    checkNotNull(out, "out argument cannot be null");
+
+    return new ParallelGZIPOutputStream(out, this.executor,
+        getBlockSize(streamCount), this.blockPermits);
+  }
+
+  /**
+   * Shutdown the threads of the pool.
+   */
+  public void shutdown() {
+
+    this.executor.shutdownNow();
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Public constructor.
+   * @param threads number of threads of the pool
+   */
+  public GZIPCompressionPool(final int threads) {
+
+    this(threads, DEFAULT_BUFFER_MEMORY);
+  }
+
+  /**
+   * Public constructor.
+   * @param threads number of threads of the pool
+   * @param bufferMemory memory used by the buffers of the streams opened at
+   *          the same time
+   */
+  public GZIPCompressionPool(final int threads, final long bufferMemory) {
+
+    checkArgument(threads > 0, "invalid number of threads: " + threads);
+    checkArgument(bufferMemory > 0, "invalid buffer memory: " + bufferMemory);
+
+    this.executor = Executors.newFixedThreadPool(threads);
+    this.blockPermits = new Semaphore(threads * BLOCKS_PER_THREAD);
+    this.bufferMemory = bufferMemory;
+  }
+
+}
@@ -0,0 +1,505 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static fr.ens.biologie.genomique.aozan.util.PackedIndexCounter.NO_KEY;
+
+import java.util.Arrays;
+
+/**
+ * This class define a bounded memory counter of packed indexes that only keeps
+ * the most frequent indexes (heavy hitters). It implements the Space-Saving
+ * algorithm: at most capacity indexes are monitored and when a new index is
+ * found while the counter is full, it replaces the least frequent monitored
+ * index and inherits its counts.
+ * <p>
+ * The counts of an index are overestimated by at most its error (see
+ * getErrorOfSlot()), which is lower than the total count divided by the
+ * capacity. Every index which occurs more than total count / capacity times
+ * is monitored. Two counters are merged with the weighted version of the
+ * algorithm. As an index not monitored by the merged counter may have been
+ * counted up to its minimal count, this count is first added to the counts
+ * and to the errors of the indexes that it does not monitor, so the counts
+ * remain overestimated. After a merge, the error of an index can be greater
+ * than the minimal count, so the maximal error is tracked explicitly.
+ * @since 2.3
+ * @author agent
+ */
+public class HeavyHitterIndexCounter implements IndexCounter {
+
+  private final int length;
+  private final int capacity;
+
+  // Monitored indexes
+  private final long[] keys;
+  private final int[] rawCounts;
+  private final int[] pfCounts;
+  private final int[] errors;
+  private int maxSlotError;
+  private int size;
+
+  // Min heap of the slots ordered by raw count
+  private final int[] heap;
+  private final int[] heapPositions;
+
+  // Hash table of the slots of the monitored indexes
+  private final long[] tableKeys;
+  private final int[] tableSlots;
+
+  private long totalRawCount;
+  private long totalPFCount;
+  private long rejectedCount;
+
+  //
+  // Getters
+  //
+
+  @Override
+  public int getLength() {
+
+    return this.length;
+  }
+
+  /**
+   * Get the maximal number of monitored indexes.
+   * @return the capacity of the counter
+   */
+  public int getCapacity() {
+
+    return this.capacity;
+  }
+
+  @Override
+  public int size() {
+
+    return this.size;
+  }
+
+  @Override
+  public long getTotalRawCount() {
+
+    return this.totalRawCount;
+  }
+
+  @Override
+  public long getTotalPFCount() {
+
+    return this.totalPFCount;
+  }
+
+  @Override
+  public long getRejectedCount() {
+
+    return this.rejectedCount;
+  }
+
+  /**
+   * Get the maximal overestimation of the counts of the monitored indexes.
+   * This is also greater or equal to the maximal count of an index that is
+   * not monitored.
+   * @return the maximal error of the counts
+   */
+  public int getMaxError() {
+
+    return Math.max(this.maxSlotError, getMaxUnmonitoredCount());
+  }
+
+  /**
+   * Get the maximal count of an index that is not monitored. This is the
+   * minimal count of the monitored indexes once the counter is full. After a
+   * merge, the counter is full if one of the merged counters was full and its
+   * minimal count is greater than the sum of their minimal counts.
+   * @return the maximal count of an index that is not monitored
+   */
+  private int getMaxUnmonitoredCount() {
+
+    return this.size < this.capacity ? 0 : this.rawCounts[this.heap[0]];
+  }
+
+  //
+  // Counting
+  //
+
+  @Override
+  public boolean add(final long key, final boolean pf) {
+
+    if (key == NO_KEY) {
+      this.rejectedCount++;
+      return false;
+    }
+
+    this.totalRawCount++;
+    if (pf) {
+      this.totalPFCount++;
+    }
+
+    add(key, 1, pf ? 1 : 0, 0);
+
+    return true;
+  }
+
+  @Override
+  public void merge(final IndexCounter counter) {
+
+    checkNotNull(counter, "counter argument cannot be null");
+    checkArgument(counter.getLength() == this.length,
+        "the counters do not have the same index length");
+
+    final HeavyHitterIndexCounter hhCounter =
+        counter instanceof HeavyHitterIndexCounter
+            ? (HeavyHitterIndexCounter) counter : null;
+
+    // The indexes not monitored by the other counter can have been counted up
+    // to its minimal count
+    final int otherMaxCount =
+        hhCounter == null ? 0 : hhCounter.getMaxUnmonitoredCount();
+
+    if (otherMaxCount > 0) {
+      for (int slot = 0; slot < this.size; slot++) {
+
+        if (hhCounter.findSlot(this.keys[slot]) == -1) {
+          this.rawCounts[slot] += otherMaxCount;
+          this.errors[slot] += otherMaxCount;
+          this.maxSlotError = Math.max(this.maxSlotError, this.errors[slot]);
+          siftDown(this.heapPositions[slot]);
+        }
+      }
+    }
+
+    for (int i = counter.nextSlot(-1); i != -1; i = counter.nextSlot(i)) {
+      add(counter.getKey(i), counter.getRawCountOfSlot(i),
+          counter.getPFCountOfSlot(i),
+          hhCounter == null ? 0 : hhCounter.getErrorOfSlot(i));
+    }
+
+    this.totalRawCount += counter.getTotalRawCount();
+    this.totalPFCount += counter.getTotalPFCount();
+    this.rejectedCount += counter.getRejectedCount();
+  }
+
+  /**
+   * Add counts to an index.
+   * @param key the packed index
+   * @param rawCount the raw count to add
+   * @param pfCount the passing filter count to add
+   * @param error the error of the counts to add
+   */
+  private void add(final long key, final int rawCount, final int pfCount,
+      final int error) {
+
+    int slot = findSlot(key);
+    boolean newSlot = false;
+
+    if (slot == -1) {
+
+      if (this.size < this.capacity) {
+
+        // Monitor the new index in a free slot
+        slot = this.size++;
+        this.heap[slot] = slot;
+        this.heapPositions[slot] = slot;
+        newSlot = true;
+
+      } else {
+
+        // Replace the least frequent index
+        slot = this.heap[0];
+        removeFromTable(this.keys[slot]);
+        this.errors[slot] = this.rawCounts[slot];
+      }
+
+      this.keys[slot] = key;
+      addToTable(key, slot);
+    }
+
+    this.rawCounts[slot] += rawCount;
+    this.pfCounts[slot] += pfCount;
+    this.errors[slot] += error;
+    this.maxSlotError = Math.max(this.maxSlotError, this.errors[slot]);
+
+    if (newSlot) {
+      siftUp(this.heapPositions[slot]);
+    } else {
+      siftDown(this.heapPositions[slot]);
+    }
+  }
+
+  //
+  // Lookup
+  //
+
+  @Override
+  public int getRawCount(final long key) {
+
+    final int slot = findSlot(key);
+
+    return slot == -1 ? 0 : this.rawCounts[slot];
+  }
+
+  @Override
+  public int getPFCount(final long key) {
+
+    final int slot = findSlot(key);
+
+    return slot == -1 ? 0 : this.pfCounts[slot];
+  }
+
+  //
+  // Iteration
+  //
+
+  @Override
+  public int nextSlot(final int slot) {
+
+    return slot + 1 < this.size ? slot + 1 : -1;
+  }
+
+  @Override
+  public long getKey(final int slot) {
+
+    return this.keys[slot];
+  }
+
+  @Override
+  public int getRawCountOfSlot(final int slot) {
+
+    return this.rawCounts[slot];
+  }
+
+  @Override
+  public int getPFCountOfSlot(final int slot) {
+
+    return this.pfCounts[slot];
+  }
+
+  /**
+   * Get the maximal overestimation of the counts of a slot. The true raw count
+   * of the index is in [raw count - error, raw count].
+   * @param slot the slot
+   * @return the error of the counts
+   */
+  public int getErrorOfSlot(final int slot) {
+
+    return this.errors[slot];
+  }
+
+  //
+  // Heap
+  //
+
+  /**
+   * Move up a new slot in the heap.
+   * @param position position of the slot in the heap
+   */
+  private void siftUp(final int position) {
+
+    int pos = position;
+
+    while (pos > 0) {
+
+      final int parent = (pos - 1) / 2;
+
+      if (this.rawCounts[this.heap[parent]] <= this.rawCounts[this.heap[pos]]) {
+        return;
+      }
+
+      swap(pos, parent);
+      pos = parent;
+    }
+  }
+
+  /**
+   * Move down a slot in the heap after the increment of its count.
+   * @param position position of the slot in the heap
+   */
+  private void siftDown(final int position) {
+
+    int pos = position;
+
+    while (true) {
+
+      final int left = 2 * pos + 1;
+      if (left >= this.size) {
+        return;
+      }
+
+      final int right = left + 1;
+      final int child = right < this.size
+          && this.rawCounts[this.heap[right]] < this.rawCounts[this.heap[left]]
+              ? right : left;
+
+      if (this.rawCounts[this.heap[pos]] <= this.rawCounts[this.heap[child]]) {
+        return;
+      }
+
+      swap(pos, child);
+      pos = child;
+    }
+  }
+
+  /**
+   * Swap two slots in the heap.
+   * @param i position of the first slot in the heap
+   * @param j position of the second slot in the heap
+   */
+  private void swap(final int i, final int j) {
+
+    final int tmp = this.heap[i];
+    this.heap[i] = this.heap[j];
+    this.heap[j] = tmp;
+    this.heapPositions[this.heap[i]] = i;
+    this.heapPositions[this.heap[j]] = j;
+  }
+
+  //
+  // Hash table
+  //
+
+  /**
+   * Get the slot of a monitored index.
+   * @param key the packed index
+   * @return the slot of the index or -1 if the index is not monitored
+   */
+  private int findSlot(final long key) {
+
+    final int i = tablePosition(key);
+
+    return this.tableKeys[i] == NO_KEY ? -1 : this.tableSlots[i];
+  }
+
+  /**
+   * Get the position of a key in the hash table.
+   * @param key the key
+   * @return the position of the key or of the empty entry where the key can
+   *         be inserted
+   */
+  private int tablePosition(final long key) {
+
+    final int mask = this.tableKeys.length - 1;
+    int i = hash(key) & mask;
+
+    while (this.tableKeys[i] != NO_KEY && this.tableKeys[i] != key) {
+      i = (i + 1) & mask;
+    }
+
+    return i;
+  }
+
+  /**
+   * Add a key to the hash table.
+   * @param key the key
+   * @param slot the slot of the key
+   */
+  private void addToTable(final long key, final int slot) {
+
+    final int i = tablePosition(key);
+    this.tableKeys[i] = key;
+    this.tableSlots[i] = slot;
+  }
+
+  /**
+   * Remove a key from the hash table. The following entries are shifted back
+   * to keep the linear probing sequences without hole.
+   * @param key the key
+   */
+  private void removeFromTable(final long key) {
+
+    final int mask = this.tableKeys.length - 1;
+    int hole = tablePosition(key);
+    int i = hole;
+
+    while (true) {
+
+      i = (i + 1) & mask;
+
+      if (this.tableKeys[i] == NO_KEY) {
+        break;
+      }
+
+      // Move the entry in the hole if the hole is between its home and it
+      final int home = hash(this.tableKeys[i]) & mask;
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        this.tableKeys[hole] = this.tableKeys[i];
+        this.tableSlots[hole] = this.tableSlots[i];
+        hole = i;
+      }
+    }
+
+    this.tableKeys[hole] = NO_KEY;
+  }
+
+  /**
+   * Hash a key (finalizer of MurmurHash3).
+   * @param key the key
+   * @return the hash of the key
+   */
+  private static int hash(final long key) {
+
+    long h = key;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+
+    return (int) h;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param length length of the indexes
+   * @param capacity maximal number of monitored indexes
+   */
+  public HeavyHitterIndexCounter(final int length, final int capacity) {
+
+    checkArgument(length > 0 && length <= PackedIndexCounter.MAX_LENGTH,
+        "the length of the indexes must be in [1,"
+            + PackedIndexCounter.MAX_LENGTH + "]: " + length);
+    checkArgument(capacity > 0 && capacity <= 1 << 28,
+        "invalid capacity: " + capacity);
+
+    this.length = length;
+    this.capacity = capacity;
+
+    this.keys = new long[capacity];
+    this.rawCounts = new int[capacity];
+    this.pfCounts = new int[capacity];
+    this.errors = new int[capacity];
+    this.heap = new int[capacity];
+    this.heapPositions = new int[capacity];
+
+    // Load factor of the hash table is lower than 0.5
+    final int tableSize = Integer.highestOneBit(capacity) << 2;
+    this.tableKeys = new long[tableSize];
+    this.tableSlots = new int[tableSize];
+    Arrays.fill(this.tableKeys, NO_KEY);
+  }
+
+}
@@ -0,0 +1,124 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+/**
+ * This interface define a counter of packed indexes that count the raw and
+ * passing filter occurrences of each index. The indexes are packed with
+ * PackedIndexCounter.encode(). The counted indexes are iterated with slots:
+ * <code>for (int i = c.nextSlot(-1); i != -1; i = c.nextSlot(i))</code>.
+ * @since 2.3
+ * @author agent
+ */
+public interface IndexCounter {
+
+  /**
+   * Get the length of the indexes.
+   * @return the length of the indexes
+   */
+  int getLength();
+
+  /**
+   * Get the number of distinct indexes in the counter.
+   * @return the number of distinct indexes
+   */
+  int size();
+
+  /**
+   * Get the total raw count of the indexes.
+   * @return the total raw count
+   */
+  long getTotalRawCount();
+
+  /**
+   * Get the total passing filter count of the indexes.
+   * @return the total passing filter count
+   */
+  long getTotalPFCount();
+
+  /**
+   * Get the number of indexes that have not been counted because they cannot
+   * be packed.
+   * @return the number of rejected indexes
+   */
+  long getRejectedCount();
+
+  /**
+   * Count a packed index.
+   * @param key the packed index, NO_KEY if the index cannot be packed
+   * @param pf true if the cluster has passed the filter
+   * @return false if the key is NO_KEY
+   */
+  boolean add(long key, boolean pf);
+
+  /**
+   * Get the raw count of a packed index.
+   * @param key the packed index
+   * @return the raw count of the index
+   */
+  int getRawCount(long key);
+
+  /**
+   * Get the passing filter count of a packed index.
+   * @param key the packed index
+   * @return the passing filter count of the index
+   */
+  int getPFCount(long key);
+
+  /**
+   * Get the next used slot of the counter.
+   * @param slot the current slot, -1 to get the first slot
+   * @return the next used slot or -1 if there is no more slot
+   */
+  int nextSlot(int slot);
+
+  /**
+   * Get the packed index of a slot.
+   * @param slot the slot
+   * @return the packed index
+   */
+  long getKey(int slot);
+
+  /**
+   * Get the raw count of a slot.
+   * @param slot the slot
+   * @return the raw count
+   */
+  int getRawCountOfSlot(int slot);
+
+  /**
+   * Get the passing filter count of a slot.
+   * @param slot the slot
+   * @return the passing filter count
+   */
+  int getPFCountOfSlot(int slot);
+
+  /**
+   * Add all the counts of another counter, e.g. the counter of another part
+   * of the same data.
+   * @param counter the counter to merge, must have the same index length
+   */
+  void merge(IndexCounter counter);
+
+}
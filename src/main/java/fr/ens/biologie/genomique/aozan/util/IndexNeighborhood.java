@@ -0,0 +1,365 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+
+/**
+ * This class define the mismatch neighborhood of a set of indexes. All the
+ * sequences at a distance lower or equal to the maximal number of mismatches
+ * of each index are stored in a hash table, so the indexes close to a sequence
+ * are found with a single lookup instead of comparing the sequence with all
+ * the indexes. The sequences are packed with PackedIndexCounter.encode() and N
+ * is handled as a fifth base.
+ * <p>
+ * Like in PackedIndexCounter, the hash table uses open addressing with
+ * parallel arrays. The entries of a sequence are stored in a linked list
+ * inside two int arrays, so no object is created for each neighbor.
+ * <p>
+ * The lookup returns entries that contain the identifier of an index and the
+ * number of mismatches between the index and the sequence, they are decoded
+ * with getId() and getMismatches().
+ * @since 2.3
+ * @author agent
+ */
+public class IndexNeighborhood {
+
+  /** Maximal number of mismatches of a neighborhood. */
+  public static final int MAX_MISMATCHES = 3;
+
+  private static final int[] NO_ENTRIES = new int[0];
+  private static final int DEFAULT_CAPACITY = 1024;
+  private static final int NO_ENTRY = -1;
+
+  // The 5 symbols of a packed index: A, C, G, T and N
+  private static final int SYMBOLS = 5;
+
+  private final int length;
+  private final int maxMismatches;
+
+  // Hash table of the sequences, the slot heads the list of the entries
+  private long[] keys;
+  private int[] heads;
+  private int[] entryCounts;
+  private int size;
+
+  // Entries of the sequences, linked from the last added to the first
+  private int[] entries;
+  private int[] nextEntries;
+  private int entryCount;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the length of the indexes.
+   * @return the length of the indexes
+   */
+  public int getLength() {
+
+    return this.length;
+  }
+
+  /**
+   * Get the maximal number of mismatches of the neighborhood.
+   * @return the maximal number of mismatches
+   */
+  public int getMaxMismatches() {
+
+    return this.maxMismatches;
+  }
+
+  /**
+   * Get the identifier of the index of an entry.
+   * @param entry the entry
+   * @return the identifier of the index
+   */
+  public static int getId(final int entry) {
+
+    return entry >>> 2;
+  }
+
+  /**
+   * Get the number of mismatches of an entry.
+   * @param entry the entry
+   * @return the number of mismatches between the index and the sequence
+   */
+  public static int getMismatches(final int entry) {
+
+    return entry & 3;
+  }
+
+  //
+  // Lookup
+  //
+
+  /**
+   * Get the indexes close to a sequence.
+   * @param key the packed sequence
+   * @return an array with the entries of the indexes at a distance lower or
+   *         equal to the maximal number of mismatches, in the order of the
+   *         addition of the indexes
+   */
+  public int[] lookup(final long key) {
+
+    if (key == PackedIndexCounter.NO_KEY) {
+      return NO_ENTRIES;
+    }
+
+    final int slot = slot(key);
+
+    if (this.keys[slot] == PackedIndexCounter.NO_KEY) {
+      return NO_ENTRIES;
+    }
+
+    // Fill the array from the end to return the entries in insertion order
+    final int[] result = new int[this.entryCounts[slot]];
+    int i = result.length;
+
+    for (int e = this.heads[slot]; e != NO_ENTRY; e = this.nextEntries[e]) {
+      result[--i] = this.entries[e];
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the minimal number of mismatches between a sequence and the indexes.
+   * @param key the packed sequence
+   * @return the minimal number of mismatches or -1 if no index is in the
+   *         neighborhood of the sequence
+   */
+  public int getMinMismatches(final long key) {
+
+    if (key == PackedIndexCounter.NO_KEY) {
+      return -1;
+    }
+
+    final int slot = slot(key);
+
+    if (this.keys[slot] == PackedIndexCounter.NO_KEY) {
+      return -1;
+    }
+
+    int result = -1;
+
+    for (int e = this.heads[slot]; e != NO_ENTRY; e = this.nextEntries[e]) {
+
+      final int mismatches = getMismatches(this.entries[e]);
+      if (result == -1 || mismatches < result) {
+        result = mismatches;
+      }
+    }
+
+    return result;
+  }
+
+  //
+  // Neighborhood creation
+  //
+
+  /**
+   * Add an index to the neighborhood.
+   * @param id identifier of the index, must be positive
+   * @param index the index
+   * @return false if the index cannot be packed or has not the length of the
+   *         neighborhood
+   */
+  public boolean addIndex(final int id, final CharSequence index) {
+
+    checkNotNull(index, "index argument cannot be null");
+
+    if (index.length() != this.length) {
+      return false;
+    }
+
+    return addIndex(id, PackedIndexCounter.encode(index));
+  }
+
+  /**
+   * Add a packed index to the neighborhood.
+   * @param id identifier of the index, must be positive
+   * @param key the packed index, must have the length of the neighborhood
+   * @return false if the key is PackedIndexCounter.NO_KEY
+   */
+  public boolean addIndex(final int id, final long key) {
+
+    checkArgument(id >= 0 && id <= Integer.MAX_VALUE >>> 2,
+        "invalid index id: " + id);
+
+    if (key == PackedIndexCounter.NO_KEY) {
+      return false;
+    }
+
+    addNeighbors(id, key, 0, 0);
+
+    return true;
+  }
+
+  /**
+   * Add recursively the neighbors of a sequence. Only the positions after the
+   * last modified position are changed, so each neighbor is added once.
+   * @param id identifier of the index
+   * @param key the current packed sequence
+   * @param firstPosition the first position that can be changed
+   * @param mismatches the number of mismatches of the current sequence
+   */
+  private void addNeighbors(final int id, final long key,
+      final int firstPosition, final int mismatches) {
+
+    addEntry(key, id << 2 | mismatches);
+
+    if (mismatches == this.maxMismatches) {
+      return;
+    }
+
+    for (int pos = firstPosition; pos < this.length; pos++) {
+
+      final int symbol = PackedIndexCounter.getSymbol(key, this.length, pos);
+
+      for (int s = 0; s < SYMBOLS; s++) {
+        if (s != symbol) {
+          addNeighbors(id,
+              PackedIndexCounter.setSymbol(key, this.length, pos, s), pos + 1,
+              mismatches + 1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Add an entry for a packed sequence.
+   * @param key the packed sequence
+   * @param entry the entry
+   */
+  private void addEntry(final long key, final int entry) {
+
+    int slot = slot(key);
+
+    if (this.keys[slot] == PackedIndexCounter.NO_KEY) {
+
+      // Resize the table if required, load factor is 0.5
+      if ((this.size + 1) * 2 > this.keys.length) {
+        resize(this.keys.length * 2);
+        slot = slot(key);
+      }
+
+      this.keys[slot] = key;
+      this.heads[slot] = NO_ENTRY;
+      this.size++;
+    }
+
+    if (this.entryCount == this.entries.length) {
+      this.entries = Arrays.copyOf(this.entries, this.entryCount * 2);
+      this.nextEntries = Arrays.copyOf(this.nextEntries, this.entryCount * 2);
+    }
+
+    // Add the entry at the head of the list of the slot
+    this.entries[this.entryCount] = entry;
+    this.nextEntries[this.entryCount] = this.heads[slot];
+    this.heads[slot] = this.entryCount;
+    this.entryCounts[slot]++;
+    this.entryCount++;
+  }
+
+  /**
+   * Get the slot of a key, the slot is empty if the key is not in the table.
+   * @param key the key
+   * @return the slot of the key
+   */
+  private int slot(final long key) {
+
+    final int mask = this.keys.length - 1;
+    int slot = (int) PackedIndexCounter.mix(key) & mask;
+
+    while (this.keys[slot] != PackedIndexCounter.NO_KEY
+        && this.keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+
+    return slot;
+  }
+
+  /**
+   * Resize the table. The entries are not moved, only the heads of the lists.
+   * @param capacity the new capacity, must be a power of 2
+   */
+  private void resize(final int capacity) {
+
+    final long[] oldKeys = this.keys;
+    final int[] oldHeads = this.heads;
+    final int[] oldEntryCounts = this.entryCounts;
+
+    this.keys = new long[capacity];
+    this.heads = new int[capacity];
+    this.entryCounts = new int[capacity];
+    Arrays.fill(this.keys, PackedIndexCounter.NO_KEY);
+
+    for (int i = 0; i < oldKeys.length; i++) {
+
+      if (oldKeys[i] != PackedIndexCounter.NO_KEY) {
+
+        final int slot = slot(oldKeys[i]);
+        this.keys[slot] = oldKeys[i];
+        this.heads[slot] = oldHeads[i];
+        this.entryCounts[slot] = oldEntryCounts[i];
+      }
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param length length of the indexes
+   * @param maxMismatches maximal number of mismatches of the neighborhood
+   */
+  public IndexNeighborhood(final int length, final int maxMismatches) {
+
+    checkArgument(length > 0 && length <= PackedIndexCounter.MAX_LENGTH,
+        "the length of the indexes must be in [1,"
+            + PackedIndexCounter.MAX_LENGTH + "]: " + length);
+    checkArgument(maxMismatches >= 0 && maxMismatches <= MAX_MISMATCHES,
+        "maxMismatches must be in [0," + MAX_MISMATCHES + "]: "
+            + maxMismatches);
+
+    this.length = length;
+    this.maxMismatches = maxMismatches;
+
+    this.keys = new long[DEFAULT_CAPACITY];
+    this.heads = new int[DEFAULT_CAPACITY];
+    this.entryCounts = new int[DEFAULT_CAPACITY];
+    Arrays.fill(this.keys, PackedIndexCounter.NO_KEY);
+
+    this.entries = new int[DEFAULT_CAPACITY];
+    this.nextEntries = new int[DEFAULT_CAPACITY];
+  }
+
+}
@@ -0,0 +1,333 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class define an Aho-Corasick automaton that search in one pass the first
+ * occurrence of a set of patterns in a sequence. The transitions of the
+ * automaton are stored in a flat int array, no object is created while
+ * searching.
+ * @since 2.3
+ * @author agent
+ */
+public class MultiPatternMatcher {
+
+  /** Code of the characters that are not in any pattern. */
+  private static final int UNKNOWN_CHAR_CODE = 0;
+
+  /** Only ASCII characters can be used in patterns. */
+  private static final int MAX_CHAR = 128;
+
+  private final int patternCount;
+  private final int[] patternLengths;
+  private final int[] charCodes = new int[MAX_CHAR];
+  private final int alphabetSize;
+
+  // Transitions: transitions[state * alphabetSize + code]
+  private final int[] transitions;
+  // Patterns ending at each state, including the patterns of suffix states
+  private final int[][] outputs;
+
+  // Used to detect the first occurrence of each pattern in a sequence
+  private final int[] lastSeen;
+  private int searchId;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the number of patterns.
+   * @return the number of patterns
+   */
+  public int getPatternCount() {
+
+    return this.patternCount;
+  }
+
+  /**
+   * Get the length of a pattern.
+   * @param patternIndex index of the pattern
+   * @return the length of the pattern
+   */
+  public int getPatternLength(final int patternIndex) {
+
+    return this.patternLengths[patternIndex];
+  }
+
+  //
+  // Search
+  //
+
+  /**
+   * Search the first occurrence of all the patterns in a sequence. This method
+   * is not thread safe.
+   * @param sequence sequence where search the patterns
+   * @param firstPositions an array of size getPatternCount() that will be
+   *          filled with the start position of the first occurrence of each
+   *          pattern or -1 if the pattern has not been found
+   * @return the number of patterns found
+   */
+  public int findFirstOccurrences(final CharSequence sequence,
+      final int[] firstPositions) {
+
+    checkNotNull(sequence, "sequence argument cannot be null");
+    checkNotNull(firstPositions, "firstPositions argument cannot be null");
+    checkArgument(firstPositions.length >= this.patternCount,
+        "firstPositions array is too small");
+
+    Arrays.fill(firstPositions, 0, this.patternCount, -1);
+
+    final int id = nextSearchId();
+    final int[] transitions = this.transitions;
+    final int[] charCodes = this.charCodes;
+    final int alphabetSize = this.alphabetSize;
+    final int len = sequence.length();
+
+    int found = 0;
+    int state = 0;
+
+    for (int i = 0; i < len; i++) {
+
+      final char c = sequence.charAt(i);
+      final int code = c < MAX_CHAR ? charCodes[c] : UNKNOWN_CHAR_CODE;
+      state = transitions[state * alphabetSize + code];
+
+      final int[] out = this.outputs[state];
+      if (out == null) {
+        continue;
+      }
+
+      for (final int p : out) {
+
+        if (this.lastSeen[p] != id) {
+          this.lastSeen[p] = id;
+          firstPositions[p] = i - this.patternLengths[p] + 1;
+          found++;
+        }
+      }
+
+      // All the patterns have been found
+      if (found == this.patternCount) {
+        break;
+      }
+    }
+
+    return found;
+  }
+
+  /**
+   * Get a new identifier for a search.
+   * @return a new search identifier
+   */
+  private int nextSearchId() {
+
+    this.searchId++;
+
+    // Overflow, reset the marks
+    if (this.searchId == Integer.MAX_VALUE) {
+      Arrays.fill(this.lastSeen, 0);
+      this.searchId = 1;
+    }
+
+    return this.searchId;
+  }
+
+  //
+  // Automaton building
+  //
+
+  /**
+   * Define the codes of the characters of the patterns.
+   * @param patterns the patterns
+   * @return the size of the alphabet
+   */
+  private int initCharCodes(final List<String> patterns) {
+
+    int code = UNKNOWN_CHAR_CODE;
+
+    for (final String pattern : patterns) {
+      for (int i = 0; i < pattern.length(); i++) {
+
+        final char c = pattern.charAt(i);
+        if (this.charCodes[c] == UNKNOWN_CHAR_CODE) {
+          this.charCodes[c] = ++code;
+        }
+      }
+    }
+
+    return code + 1;
+  }
+
+  /**
+   * Build the transitions of the automaton.
+   * @param patterns the patterns
+   * @param charCodes the codes of the characters
+   * @param alphabetSize the size of the alphabet
+   * @param trie the goto function of the trie
+   * @param trieOutputs the patterns ending on each state of the trie
+   * @return the number of states
+   */
+  private static int buildTrie(final List<String> patterns,
+      final int[] charCodes, final int alphabetSize, final List<int[]> trie,
+      final List<List<Integer>> trieOutputs) {
+
+    trie.add(newStateTransitions(alphabetSize));
+    trieOutputs.add(new ArrayList<Integer>());
+
+    for (int p = 0; p < patterns.size(); p++) {
+
+      final String pattern = patterns.get(p);
+      int state = 0;
+
+      for (int i = 0; i < pattern.length(); i++) {
+
+        final int code = charCodes[pattern.charAt(i)];
+        int next = trie.get(state)[code];
+
+        if (next == -1) {
+          next = trie.size();
+          trie.get(state)[code] = next;
+          trie.add(newStateTransitions(alphabetSize));
+          trieOutputs.add(new ArrayList<Integer>());
+        }
+        state = next;
+      }
+
+      trieOutputs.get(state).add(p);
+    }
+
+    return trie.size();
+  }
+
+  private static int[] newStateTransitions(final int alphabetSize) {
+
+    final int[] result = new int[alphabetSize];
+    Arrays.fill(result, -1);
+
+    return result;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param patterns the patterns to search
+   */
+  public MultiPatternMatcher(final List<String> patterns) {
+
+    checkNotNull(patterns, "patterns argument cannot be null");
+
+    for (final String pattern : patterns) {
+      checkNotNull(pattern, "a pattern cannot be null");
+      checkArgument(!pattern.isEmpty(), "a pattern cannot be empty");
+      for (int i = 0; i < pattern.length(); i++) {
+        checkArgument(pattern.charAt(i) < MAX_CHAR,
+            "only ASCII characters are allowed in patterns: " + pattern);
+      }
+    }
+
+    this.patternCount = patterns.size();
+    this.patternLengths = new int[this.patternCount];
+    for (int i = 0; i < this.patternCount; i++) {
+      this.patternLengths[i] = patterns.get(i).length();
+    }
+
+    this.alphabetSize = initCharCodes(patterns);
+
+    final List<int[]> trie = new ArrayList<>();
+    final List<List<Integer>> trieOutputs = new ArrayList<>();
+    final int stateCount = buildTrie(patterns, this.charCodes,
+        this.alphabetSize, trie, trieOutputs);
+
+    this.transitions = new int[stateCount * this.alphabetSize];
+    this.outputs = new int[stateCount][];
+    this.lastSeen = new int[this.patternCount];
+
+    // Compute failure links in breadth first order and complete the
+    // transitions to get a deterministic automaton
+    final int[] fail = new int[stateCount];
+    final int[] queue = new int[stateCount];
+    int head = 0;
+    int tail = 0;
+
+    for (int c = 0; c < this.alphabetSize; c++) {
+
+      final int next = trie.get(0)[c];
+      if (next == -1 || c == UNKNOWN_CHAR_CODE) {
+        this.transitions[c] = 0;
+      } else {
+        this.transitions[c] = next;
+        fail[next] = 0;
+        queue[tail++] = next;
+      }
+    }
+
+    while (head < tail) {
+
+      final int state = queue[head++];
+
+      // Merge the outputs of the failure state
+      final List<Integer> out = trieOutputs.get(state);
+      out.addAll(trieOutputs.get(fail[state]));
+
+      for (int c = 0; c < this.alphabetSize; c++) {
+
+        final int next = trie.get(state)[c];
+        final int failTransition =
+            this.transitions[fail[state] * this.alphabetSize + c];
+
+        if (next == -1 || c == UNKNOWN_CHAR_CODE) {
+          this.transitions[state * this.alphabetSize + c] =
+              c == UNKNOWN_CHAR_CODE ? 0 : failTransition;
+        } else {
+          this.transitions[state * this.alphabetSize + c] = next;
+          fail[next] = failTransition;
+          queue[tail++] = next;
+        }
+      }
+    }
+
+    for (int s = 0; s < stateCount; s++) {
+
+      final List<Integer> out = trieOutputs.get(s);
+      if (!out.isEmpty()) {
+        this.outputs[s] = new int[out.size()];
+        for (int i = 0; i < out.size(); i++) {
+          this.outputs[s][i] = out.get(i);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,581 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+
+/**
+ * This class count the raw and passing filter occurrences of index sequences.
+ * Each index is packed in a long as a number in base 5, one digit per base
+ * (A=0, C=1, G=2, T=3, N=4), so an index of up to 27 bases with N is packed
+ * without loss in 63 bits. The counts are stored in an open addressing hash
+ * table with parallel arrays, no object is created for each index.
+ * <p>
+ * All the indexes of a counter must have the same length. A dual index can be
+ * counted by concatenating its two indexes, see fitLengths() for the dual
+ * indexes longer than MAX_LENGTH.
+ * @since 2.3
+ * @author agent
+ */
+public class PackedIndexCounter implements IndexCounter {
+
+  /** Maximal length of the indexes (5^27 is lower than 2^63). */
+  public static final int MAX_LENGTH = 27;
+
+  /** Value of an empty slot and of an invalid index. */
+  public static final long NO_KEY = -1L;
+
+  /**
+   * Number of symbols of the packed indexes: 0 to 3 for A, C, G and T, 4 for
+   * N.
+   */
+  public static final int SYMBOL_COUNT = 5;
+
+  private static final int DEFAULT_CAPACITY = 1024;
+  private static final char[] SYMBOLS = {'A', 'C', 'G', 'T', 'N'};
+  private static final long[] POWERS = new long[MAX_LENGTH + 1];
+
+  static {
+    POWERS[0] = 1;
+    for (int i = 1; i < POWERS.length; i++) {
+      POWERS[i] = POWERS[i - 1] * SYMBOL_COUNT;
+    }
+  }
+
+  private final int length;
+
+  private long[] keys;
+  private int[] rawCounts;
+  private int[] pfCounts;
+  private int size;
+  private long totalRawCount;
+  private long totalPFCount;
+  private long rejectedCount;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the length of the indexes.
+   * @return the length of the indexes
+   */
+  @Override
+  public int getLength() {
+
+    return this.length;
+  }
+
+  /**
+   * Get the number of distinct indexes.
+   * @return the number of distinct indexes
+   */
+  @Override
+  public int size() {
+
+    return this.size;
+  }
+
+  /**
+   * Get the total raw count of the indexes.
+   * @return the total raw count
+   */
+  @Override
+  public long getTotalRawCount() {
+
+    return this.totalRawCount;
+  }
+
+  /**
+   * Get the total passing filter count of the indexes.
+   * @return the total passing filter count
+   */
+  @Override
+  public long getTotalPFCount() {
+
+    return this.totalPFCount;
+  }
+
+  /**
+   * Get the number of indexes that have not been counted because they cannot
+   * be packed (invalid character or invalid length).
+   * @return the number of rejected indexes
+   */
+  @Override
+  public long getRejectedCount() {
+
+    return this.rejectedCount;
+  }
+
+  //
+  // Encoding
+  //
+
+  /**
+   * Pack an index.
+   * @param index the index
+   * @return the packed index or NO_KEY if the index contains a character that
+   *         is not A, C, G, T or N or if it is too long
+   */
+  public static long encode(final CharSequence index) {
+
+    checkNotNull(index, "index argument cannot be null");
+
+    return encode(index, index.length());
+  }
+
+  /**
+   * Pack the first bases of an index, e.g. to count the indexes longer than
+   * MAX_LENGTH on their first MAX_LENGTH bases.
+   * @param index the index
+   * @param len the number of bases to pack
+   * @return the packed bases or NO_KEY if the bases contain a character that
+   *         is not A, C, G, T or N, if the index is shorter than len or if len
+   *         is greater than MAX_LENGTH
+   */
+  public static long encode(final CharSequence index, final int len) {
+
+    checkNotNull(index, "index argument cannot be null");
+
+    if (len < 0 || len > MAX_LENGTH || len > index.length()) {
+      return NO_KEY;
+    }
+
+    long result = 0;
+
+    for (int i = 0; i < len; i++) {
+
+      result *= SYMBOL_COUNT;
+
+      switch (index.charAt(i)) {
+
+      case 'A':
+      case 'a':
+        break;
+
+      case 'C':
+      case 'c':
+        result += 1;
+        break;
+
+      case 'G':
+      case 'g':
+        result += 2;
+        break;
+
+      case 'T':
+      case 't':
+        result += 3;
+        break;
+
+      case 'N':
+      case 'n':
+      case '.':
+        result += 4;
+        break;
+
+      default:
+        return NO_KEY;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Unpack an index.
+   * @param key the packed index
+   * @param length the length of the index
+   * @return the index
+   */
+  public static String decode(final long key, final int length) {
+
+    checkArgument(length >= 0 && length <= MAX_LENGTH,
+        "invalid index length: " + length);
+
+    final char[] result = new char[length];
+    long k = key;
+
+    for (int i = length - 1; i >= 0; i--) {
+      result[i] = SYMBOLS[(int) (k % SYMBOL_COUNT)];
+      k /= SYMBOL_COUNT;
+    }
+
+    return new String(result);
+  }
+
+  /**
+   * Concatenate two packed indexes, e.g. the two indexes of a dual index.
+   * @param key1 the first packed index
+   * @param length1 the length of the first index
+   * @param key2 the second packed index
+   * @param length2 the length of the second index
+   * @return the packed concatenated index or NO_KEY if one of the keys is
+   *         NO_KEY or if the concatenated index is too long
+   */
+  public static long concat(final long key1, final int length1,
+      final long key2, final int length2) {
+
+    if (key1 == NO_KEY || key2 == NO_KEY || length1 + length2 > MAX_LENGTH) {
+      return NO_KEY;
+    }
+
+    return key1 * POWERS[length2] + key2;
+  }
+
+  /**
+   * Extract a part of a packed index, e.g. one of the indexes of a dual index.
+   * @param key the packed index
+   * @param length the length of the index
+   * @param start the position of the first base of the part
+   * @param subLength the length of the part
+   * @return the packed part of the index
+   */
+  public static long subKey(final long key, final int length, final int start,
+      final int subLength) {
+
+    checkArgument(start >= 0 && subLength >= 0 && start + subLength <= length,
+        "invalid part of the index: " + start + "-" + (start + subLength));
+
+    return key / POWERS[length - start - subLength] % POWERS[subLength];
+  }
+
+  /**
+   * Get the symbol at a position of a packed index.
+   * @param key the packed index
+   * @param length the length of the index
+   * @param pos the position
+   * @return the symbol (0 to 3 for A, C, G and T, 4 for N)
+   */
+  static int getSymbol(final long key, final int length, final int pos) {
+
+    return (int) (key / POWERS[length - 1 - pos] % SYMBOL_COUNT);
+  }
+
+  /**
+   * Set the symbol at a position of a packed index.
+   * @param key the packed index
+   * @param length the length of the index
+   * @param pos the position
+   * @param symbol the symbol (0 to 3 for A, C, G and T, 4 for N)
+   * @return the new packed index
+   */
+  static long setSymbol(final long key, final int length, final int pos,
+      final int symbol) {
+
+    return key
+        + (symbol - getSymbol(key, length, pos)) * POWERS[length - 1 - pos];
+  }
+
+  /**
+   * Get the lengths of the packed parts of a dual index. When the dual index
+   * is longer than MAX_LENGTH, the first bases of both indexes are packed, so
+   * the two indexes of the pairs are still counted.
+   * @param length1 the length of the first index
+   * @param length2 the length of the second index, 0 for single indexes
+   * @return an array with the lengths of the packed parts of the two indexes
+   */
+  public static int[] fitLengths(final int length1, final int length2) {
+
+    checkArgument(length1 > 0 && length2 >= 0,
+        "invalid index lengths: " + length1 + ", " + length2);
+
+    if (length1 + length2 <= MAX_LENGTH) {
+      return new int[] {length1, length2};
+    }
+
+    // Share the bases between the two indexes
+    final int fitLength1 =
+        Math.min(length1, MAX_LENGTH - Math.min(length2, MAX_LENGTH / 2));
+
+    return new int[] {fitLength1,
+        Math.min(length2, MAX_LENGTH - fitLength1)};
+  }
+
+  //
+  // Counting
+  //
+
+  /**
+   * Count an index.
+   * @param index the index
+   * @param pf true if the cluster has passed the filter
+   * @return false if the index cannot be packed or has not the length of the
+   *         counter
+   */
+  public boolean add(final CharSequence index, final boolean pf) {
+
+    return add(index.length() == this.length ? encode(index) : NO_KEY, pf);
+  }
+
+  /**
+   * Count a packed index.
+   * @param key the packed index, NO_KEY if the index cannot be packed
+   * @param pf true if the cluster has passed the filter
+   * @return false if the key is NO_KEY
+   */
+  @Override
+  public boolean add(final long key, final boolean pf) {
+
+    if (key == NO_KEY) {
+      this.rejectedCount++;
+      return false;
+    }
+
+    add(key, 1, pf ? 1 : 0);
+
+    return true;
+  }
+
+  /**
+   * Add counts to a packed index.
+   * @param key the packed index
+   * @param rawCount the raw count to add
+   * @param pfCount the passing filter count to add
+   */
+  public void add(final long key, final int rawCount, final int pfCount) {
+
+    checkArgument(key != NO_KEY, "invalid key");
+
+    int slot = slot(key);
+
+    if (this.keys[slot] == NO_KEY) {
+
+      // Resize the table if required, load factor is 0.5
+      if ((this.size + 1) * 2 > this.keys.length) {
+        resize(this.keys.length * 2);
+        slot = slot(key);
+      }
+
+      this.keys[slot] = key;
+      this.size++;
+    }
+
+    this.rawCounts[slot] += rawCount;
+    this.pfCounts[slot] += pfCount;
+    this.totalRawCount += rawCount;
+    this.totalPFCount += pfCount;
+  }
+
+  @Override
+  public void merge(final IndexCounter counter) {
+
+    checkNotNull(counter, "counter argument cannot be null");
+    checkArgument(counter.getLength() == this.length,
+        "the counters do not have the same index length");
+
+    for (int i = counter.nextSlot(-1); i != -1; i = counter.nextSlot(i)) {
+      add(counter.getKey(i), counter.getRawCountOfSlot(i),
+          counter.getPFCountOfSlot(i));
+    }
+
+    this.rejectedCount += counter.getRejectedCount();
+  }
+
+  //
+  // Lookup
+  //
+
+  /**
+   * Get the raw count of a packed index.
+   * @param key the packed index
+   * @return the raw count of the index
+   */
+  @Override
+  public int getRawCount(final long key) {
+
+    final int slot = slot(key);
+
+    return this.keys[slot] == NO_KEY ? 0 : this.rawCounts[slot];
+  }
+
+  /**
+   * Get the passing filter count of a packed index.
+   * @param key the packed index
+   * @return the passing filter count of the index
+   */
+  @Override
+  public int getPFCount(final long key) {
+
+    final int slot = slot(key);
+
+    return this.keys[slot] == NO_KEY ? 0 : this.pfCounts[slot];
+  }
+
+  //
+  // Iteration
+  //
+
+  /**
+   * Get the next used slot of the table. The slots allow to iterate over the
+   * distinct indexes:
+   * <code>for (int i = c.nextSlot(-1); i != -1; i = c.nextSlot(i))</code>.
+   * @param slot the current slot, -1 to get the first slot
+   * @return the next used slot or -1 if there is no more slot
+   */
+  @Override
+  public int nextSlot(final int slot) {
+
+    for (int i = slot + 1; i < this.keys.length; i++) {
+      if (this.keys[i] != NO_KEY) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Get the packed index of a slot.
+   * @param slot the slot
+   * @return the packed index
+   */
+  @Override
+  public long getKey(final int slot) {
+
+    return this.keys[slot];
+  }
+
+  /**
+   * Get the index of a slot.
+   * @param slot the slot
+   * @return the index
+   */
+  public String getIndex(final int slot) {
+
+    return decode(this.keys[slot], this.length);
+  }
+
+  /**
+   * Get the raw count of a slot.
+   * @param slot the slot
+   * @return the raw count
+   */
+  @Override
+  public int getRawCountOfSlot(final int slot) {
+
+    return this.rawCounts[slot];
+  }
+
+  /**
+   * Get the passing filter count of a slot.
+   * @param slot the slot
+   * @return the passing filter count
+   */
+  @Override
+  public int getPFCountOfSlot(final int slot) {
+
+    return this.pfCounts[slot];
+  }
+
+  //
+  // Hash table
+  //
+
+  /**
+   * Get the slot of a key, the slot is empty if the key is not in the table.
+   * @param key the key
+   * @return the slot of the key
+   */
+  private int slot(final long key) {
+
+    final int mask = this.keys.length - 1;
+    int slot = (int) mix(key) & mask;
+
+    while (this.keys[slot] != NO_KEY && this.keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+
+    return slot;
+  }
+
+  /**
+   * Resize the table.
+   * @param capacity the new capacity, must be a power of 2
+   */
+  private void resize(final int capacity) {
+
+    final long[] oldKeys = this.keys;
+    final int[] oldRawCounts = this.rawCounts;
+    final int[] oldPFCounts = this.pfCounts;
+
+    this.keys = new long[capacity];
+    this.rawCounts = new int[capacity];
+    this.pfCounts = new int[capacity];
+    Arrays.fill(this.keys, NO_KEY);
+
+    for (int i = 0; i < oldKeys.length; i++) {
+
+      if (oldKeys[i] != NO_KEY) {
+
+        final int slot = slot(oldKeys[i]);
+        this.keys[slot] = oldKeys[i];
+        this.rawCounts[slot] = oldRawCounts[i];
+        this.pfCounts[slot] = oldPFCounts[i];
+      }
+    }
+  }
+
+  /**
+   * Mix the bits of a key (finalizer of MurmurHash3).
+   * @param key the key
+   * @return the mixed key
+   */
+  static long mix(final long key) {
+
+    long h = key;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+
+    return h;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param length length of the indexes
+   */
+  public PackedIndexCounter(final int length) {
+
+    checkArgument(length > 0 && length <= MAX_LENGTH,
+        "the length of the indexes must be in [1," + MAX_LENGTH + "]: "
+            + length);
+
+    this.length = length;
+    this.keys = new long[DEFAULT_CAPACITY];
+    this.rawCounts = new int[DEFAULT_CAPACITY];
+    this.pfCounts = new int[DEFAULT_CAPACITY];
+    Arrays.fill(this.keys, NO_KEY);
+  }
+
+}
@@ -0,0 +1,339 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class define a gzip output stream that compresses its data in parallel.
+ * The data is split in large blocks that are compressed by the threads of an
+ * executor as independent gzip members. The compressed members are written in
+ * order, and their concatenation is a valid gzip file that can be read by
+ * gzip or GZIPInputStream.
+ * <p>
+ * A block is compressed by the executor only if a permit of the block
+ * permits semaphore is available, the permit is released once the compressed
+ * block is written. The semaphore can be shared by several streams to bound
+ * the memory used by all the streams. When no permit is available, the stream
+ * waits for its own pending blocks or compresses the block itself, so a
+ * thread that writes to several streams can never be blocked by the pending
+ * blocks of another of its streams. The executor can be shared by several
+ * streams but must not run tasks that write to the streams.
+ * @since 2.3
+ * @author agent
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+
+  /** Default size of the blocks. */
+  public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+  private final OutputStream out;
+  private final ExecutorService executor;
+  private final int blockSize;
+  private final Semaphore blockPermits;
+  private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+
+  private byte[] buffer;
+  private int count;
+  private boolean empty = true;
+  private boolean closed;
+
+  /**
+   * This class define the compression of a block.
+   */
+  private static final class BlockCompressor implements Callable<byte[]> {
+
+    private final byte[] block;
+    private final int length;
+
+    @Override
+    public byte[] call() throws IOException {
+
+      final ByteArrayOutputStream result =
+          new ByteArrayOutputStream(this.length / 2 + 64);
+
+      try (GZIPOutputStream gzip = new GZIPOutputStream(result, 64 * 1024)) {
+        gzip.write(this.block, 0, this.length);
+      }
+
+      return result.toByteArray();
+    }
+
+    /**
+     * Constructor.
+     * @param block the data to compress
+     * @param length the length of the data
+     */
+    private BlockCompressor(final byte[] block, final int length) {
+
+      this.block = block;
+      this.length = length;
+    }
+  }
+
+  //
+  // OutputStream methods
+  //
+
+  @Override
+  public void write(final int b) throws IOException {
+
+    checkOpen();
+
+    this.buffer[this.count++] = (byte) b;
+
+    if (this.count == this.blockSize) {
+      submitBlock();
+    }
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len)
+      throws IOException {
+
+    checkNotNull(b, "b argument cannot be null");
+    checkOpen();
+
+    int offset = off;
+    int remaining = len;
+
+    while (remaining > 0) {
+
+      final int n = Math.min(remaining, this.blockSize - this.count);
+      System.arraycopy(b, offset, this.buffer, this.count, n);
+      this.count += n;
+      offset += n;
+      remaining -= n;
+
+      if (this.count == this.blockSize) {
+        submitBlock();
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+
+    checkOpen();
+
+    if (this.count > 0) {
+      submitBlock();
+    }
+
+    writePendingBlocks(0);
+    this.out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    if (this.closed) {
+      return;
+    }
+
+    try {
+
+      // An empty gzip file contains an empty member
+      if (this.count > 0 || this.empty) {
+        submitBlock();
+      }
+
+      writePendingBlocks(0);
+
+    } finally {
+
+      this.closed = true;
+
+      for (Future<byte[]> future : this.pendingBlocks) {
+        future.cancel(true);
+        this.blockPermits.release();
+      }
+      this.pendingBlocks.clear();
+      this.buffer = null;
+
+      this.out.close();
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Submit the current block for compression.
+   * @throws IOException if an error occurs while writing the previous blocks
+   */
+  private void submitBlock() throws IOException {
+
+    this.empty = false;
+
+    // Wait for the pending blocks of the stream until a permit is available
+    while (!this.blockPermits.tryAcquire()) {
+
+      if (this.pendingBlocks.isEmpty()) {
+
+        // No permit is available for the stream, compress the block in the
+        // current thread
+        this.out.write(new BlockCompressor(this.buffer, this.count).call());
+        this.count = 0;
+        return;
+      }
+
+      writePendingBlocks(this.pendingBlocks.size() - 1);
+    }
+
+    try {
+      this.pendingBlocks.add(
+          this.executor.submit(new BlockCompressor(this.buffer, this.count)));
+    } catch (RuntimeException e) {
+      this.blockPermits.release();
+      throw e;
+    }
+
+    this.buffer = new byte[this.blockSize];
+    this.count = 0;
+  }
+
+  /**
+   * Write the compressed blocks until the number of pending blocks is lower
+   * or equal to a maximum.
+   * @param max the maximal number of pending blocks
+   * @throws IOException if an error occurs while compressing or writing the
+   *           blocks
+   */
+  private void writePendingBlocks(final int max) throws IOException {
+
+    while (this.pendingBlocks.size() > max) {
+
+      final Future<byte[]> future = this.pendingBlocks.removeFirst();
+
+      try {
+        this.out.write(future.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      } finally {
+        this.blockPermits.release();
+      }
+    }
+  }
+
+  /**
+   * Check if the stream is open.
+   * @throws IOException if the stream is closed
+   */
+  private void checkOpen() throws IOException {
+
+    if (this.closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Public constructor.
+   * @param out the underlying output stream
+   * @param executor the executor that compresses the blocks
+   * @param maxPendingBlocks maximal number of blocks compressed at the same
+   *          time
+   */
+  public ParallelGZIPOutputStream(final OutputStream out,
+      final ExecutorService executor, final int maxPendingBlocks) {
+
+    this(out, executor, DEFAULT_BLOCK_SIZE, maxPendingBlocks);
+  }
+
+  /**
+   * Public constructor.
+   * @param out the underlying output stream
+   * @param executor the executor that compresses the blocks
+   * @param blockSize the size of the blocks
+   * @param maxPendingBlocks maximal number of blocks compressed at the same
+   *          time
+   */
+  public ParallelGZIPOutputStream(final OutputStream out,
+      final ExecutorService executor, final int blockSize,
+      final int maxPendingBlocks) {
+
+    this(out, executor, blockSize,
+        new Semaphore(checkPendingBlocks(maxPendingBlocks)));
+  }
+
+  /**
+   * Public constructor.
+   * @param out the underlying output stream
+   * @param executor the executor that compresses the blocks
+   * @param blockSize the size of the blocks
+   * @param blockPermits the permits of the blocks compressed at the same time,
+   *          can be shared by several streams
+   */
+  public ParallelGZIPOutputStream(final OutputStream out,
+      final ExecutorService executor, final int blockSize,
+      final Semaphore blockPermits) {
+
+    checkNotNull(out, "out argument cannot be null");
+    checkNotNull(executor, "executor argument cannot be null");
+    checkArgument(blockSize > 0, "invalid block size: " + blockSize);
+    checkNotNull(blockPermits, "blockPermits argument cannot be null");
+
+    this.out = out;
+    this.executor = executor;
+    this.blockSize = blockSize;
+    this.blockPermits = blockPermits;
+    this.buffer = new byte[blockSize];
+  }
+
+  /**
+   * Check the number of pending blocks.
+   * @param maxPendingBlocks maximal number of blocks compressed at the same
+   *          time
+   * @return maxPendingBlocks
+   */
+  private static int checkPendingBlocks(final int maxPendingBlocks) {
+
+    checkArgument(maxPendingBlocks > 0,
+        "invalid number of pending blocks: " + maxPendingBlocks);
+
+    return maxPendingBlocks;
+  }
+
+}
@@ -40,11 +40,13 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -287,6 +289,50 @@ public final class XMLUtilsWriter {
     Files.write(text, reportHtml, StandardCharsets.UTF_8);
   }
 
+  /**
+   * Create a html file from a xml source and a xsl file. Unlike the methods
+   * using a Document, the xml source can be a stream that is not loaded in a
+   * DOM before the transformation.
+   * @param source xml source
+   * @param isXslFile input stream on the xsl file
+   * @param reportHtml output html file
+   * @throws IOException if an error occurs while writing the file
+   * @throws AozanException if source or output file or xsl file doesn't exist
+   *           or if an error occurs during transforming document.
+   */
+  public static void createHTMLFileFromXSL(final Source source,
+      final InputStream isXslFile, final File reportHtml)
+      throws IOException, AozanException {
+
+    if (source == null) {
+      throw new AozanException(
+          "Error create HTML file, XML source doesn't exist.");
+    }
+
+    if (reportHtml == null) {
+      throw new AozanException(
+          "Error create HTML file, output HTML file is not define.");
+    }
+
+    if (isXslFile == null) {
+      throw new AozanException(
+          "Error create HTML file, XSL file is not define.");
+    }
+
+    try (InputStream is = isXslFile) {
+
+      // Create the transformer
+      final Transformer transformer = TransformerFactory.newInstance()
+          .newTransformer(new StreamSource(is));
+
+      // Transform the document
+      transformer.transform(source, new StreamResult(reportHtml));
+
+    } catch (final TransformerException e) {
+      throw new AozanException(e);
+    }
+  }
+
   /**
    * Create a html file from document xml and xsl files.
    * @param doc document xml
@@ -1490,6 +1490,8 @@ def set_default_conf(conf):
     conf[Settings.BCL2FASTQ_WITH_FAILED_READS_KEY] = 'True'
     conf[Settings.BCL2FASTQ_ADDITIONNAL_ARGUMENTS_KEY] = ''
     conf[Settings.DEMUX_ARCHIVE_SAMPLESHEETS_KEY] = 'True'
+    conf[Settings.DEMUX_INDEX_CENSUS_ENABLE_KEY] = 'False'
+    conf[Settings.DEMUX_INDEX_CENSUS_MAX_TILES_KEY] = '0'
 
     # New options since Aozan version 2.0 and managment of NextSeq
     conf[Settings.BCL2FASTQ_USE_DOCKER_KEY] = 'false'
@@ -39,6 +39,7 @@ from pipes import quote
 import common
 import hiseq_run
 
+from java.io import File
 from java.io import IOException
 from java.lang import Runtime, Throwable, Exception
 from java.util import HashMap
@@ -68,6 +69,7 @@ from fr.ens.biologie.genomique.aozan.Settings import BCL2FASTQ_SAMPLESHEET_GENER
 from fr.ens.biologie.genomique.aozan import Settings
 from fr.ens.biologie.genomique.aozan.util import StringUtils
 from fr.ens.biologie.genomique.aozan.illumina import RunInfo
+from fr.ens.biologie.genomique.aozan.illumina import BclIndexCensus
 from fr.ens.biologie.genomique.aozan.illumina.samplesheet.io import SampleSheetXLSReader
 from fr.ens.biologie.genomique.aozan.illumina.samplesheet.io import SampleSheetCSVWriter
 from fr.ens.biologie.genomique.aozan.illumina.samplesheet.io import SampleSheetCSVReader
@@ -375,6 +377,46 @@ def get_bcl2fastq_mismatches(samplesheet, default_value, run_id, conf):
     return result
 
 
+def check_indexes_with_bcl(samplesheet, run_info, input_run_data_path, nb_mismatch, run_id, conf):
+    """Count the indexes of the clusters from the BCL files of the index cycles and check the samplesheet.
+
+    Arguments:
+        samplesheet: samplesheet object
+        run_info: RunInfo object of the run
+        input_run_data_path: input run data path
+        nb_mismatch: number of mismatches allowed for the demultiplexing
+        run_id: The run id
+        conf: configuration dictionary
+
+    Return:
+        a list with the suggested fixes of the samplesheet
+    """
+
+    # With a number of mismatches by index, use the highest value
+    try:
+        mismatches = max([int(x) for x in nb_mismatch.split(',')])
+    except ValueError:
+        mismatches = 0
+
+    start_time = time.time()
+
+    try:
+        index_warnings = BclIndexCensus.checkRun(File(input_run_data_path), run_info, samplesheet, mismatches,
+                                                 int(conf[Settings.DEMUX_INDEX_CENSUS_MAX_TILES_KEY]))
+    except Exception, exp:
+        common.log('WARNING', 'Demux step: unable to count the indexes in the BCL files for run ' + run_id + ': ' +
+                   str(exp.getMessage()), conf)
+        return []
+
+    common.log('INFO', 'Demux step: indexes counted in the BCL files in ' +
+               common.duration_to_human_readable(time.time() - start_time), conf)
+
+    for warn in index_warnings:
+        common.log('WARNING', 'Demux step: index census: ' + warn, conf)
+
+    return list(index_warnings)
+
+
 def write_bcl2fastq_samplesheet(samplesheet, samplesheet_path, conf):
     try:
 
@@ -846,6 +888,11 @@ def demux(run_id, conf):
     if nb_mismatch == False:
         return False
 
+    # Count the indexes in the BCL files to check the samplesheet before demultiplexing
+    index_warnings = []
+    if common.is_conf_value_equals_true(Settings.DEMUX_INDEX_CENSUS_ENABLE_KEY, conf):
+        index_warnings = check_indexes_with_bcl(samplesheet, run_info, input_run_data_path, nb_mismatch, run_id, conf)
+
     # Write final samplesheet
     if not write_bcl2fastq_samplesheet(samplesheet, bcl2fastq_samplesheet_path, conf):
         return False
@@ -942,6 +989,11 @@ def demux(run_id, conf):
         for warn in samplesheet_warnings:
             msg += "\n  - " + warn
 
+    if len(index_warnings) > 0:
+        msg += '\n\nIndex census warnings:'
+        for warn in index_warnings:
+            msg += "\n  - " + warn
+
     # Add path to report if reports.url exists
     if common.is_conf_key_exists(REPORTS_URL_KEY, conf):
         msg += '\n\nRun reports can be found at following location:\n  ' + conf[REPORTS_URL_KEY] + '/' + run_id
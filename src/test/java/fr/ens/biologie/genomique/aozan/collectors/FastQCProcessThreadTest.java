@@ -0,0 +1,199 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.collectors;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.aozan.fastqc.PerTileQualityModule;
+import uk.ac.babraham.FastQC.Modules.BasicStats;
+import uk.ac.babraham.FastQC.Modules.OverRepresentedSeqs;
+import uk.ac.babraham.FastQC.Modules.QCModule;
+import uk.ac.babraham.FastQC.Sequence.SequenceFactory;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+
+public class FastQCProcessThreadTest {
+
+  private static final String OVERREPRESENTED_SEQUENCE =
+      "GATCGGAAGAGCACACGTCTGAACTCCAGTCACATCACGATCTCGTATG";
+
+  @Test
+  public void testIsProbeable() {
+
+    final OverRepresentedSeqs overrepresented = new OverRepresentedSeqs();
+
+    Assert.assertFalse(FastQCProcessThread.isProbeable(overrepresented));
+    Assert.assertFalse(FastQCProcessThread
+        .isProbeable(overrepresented.duplicationLevelModule()));
+    Assert.assertTrue(
+        FastQCProcessThread.isProbeable(new PerTileQualityModule()));
+  }
+
+  @Test
+  public void testAdaptiveOverrepresentedSequences() throws Exception {
+
+    final File fastqFile = File.createTempFile("aozan-fastqc-", ".fastq");
+
+    try {
+
+      writeFastq(fastqFile, 20000);
+
+      final List<String> expected = overrepresentedSequences(fastqFile, false);
+      final List<String> result = overrepresentedSequences(fastqFile, true);
+
+      Assert.assertFalse(expected.isEmpty());
+      Assert.assertTrue(expected.get(0).startsWith(OVERREPRESENTED_SEQUENCE));
+      Assert.assertEquals(expected, result);
+
+    } finally {
+      fastqFile.delete();
+    }
+  }
+
+  @Test
+  public void testAdaptiveStop() throws Exception {
+
+    final File fastqFile = File.createTempFile("aozan-fastqc-", ".fastq");
+
+    try {
+
+      writeFastq(fastqFile, 20000);
+
+      // All the modules can be probed, the reading stops
+      final SequenceFile seqFile = SequenceFactory.getSequenceFile(fastqFile);
+      final List<QCModule> modules = Arrays.<QCModule> asList(new BasicStats(),
+          new PerTileQualityModule());
+
+      final int processedReads = FastQCProcessThread.readSequences(seqFile,
+          modules, false, true, 1000, 1000, 1);
+
+      Assert.assertTrue(processedReads < 20000);
+      Assert.assertTrue(seqFile.hasNext());
+
+      FastQCProcessThread.processRemainingSequences(seqFile, modules, false);
+      Assert.assertFalse(seqFile.hasNext());
+
+      // The overrepresented sequences module cannot be probed
+      final OverRepresentedSeqs overrepresented = new OverRepresentedSeqs();
+      final List<QCModule> modules2 = Arrays.<QCModule> asList(
+          new BasicStats(), new PerTileQualityModule(), overrepresented);
+
+      Assert.assertEquals(20000,
+          FastQCProcessThread.readSequences(
+              SequenceFactory.getSequenceFile(fastqFile), modules2, false,
+              true, 1000, 1000, 1));
+
+    } finally {
+      fastqFile.delete();
+    }
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static List<String> overrepresentedSequences(final File fastqFile,
+      final boolean adaptive) throws Exception {
+
+    final OverRepresentedSeqs overrepresented = new OverRepresentedSeqs();
+    final List<QCModule> modules =
+        Arrays.<QCModule> asList(new PerTileQualityModule(), overrepresented,
+            overrepresented.duplicationLevelModule());
+
+    // Check the verdicts every 1000 reads without stopping
+    final int processedReads = FastQCProcessThread.readSequences(
+        SequenceFactory.getSequenceFile(fastqFile), modules, false, adaptive,
+        1000, 1000, Integer.MAX_VALUE);
+
+    Assert.assertEquals(20000, processedReads);
+
+    // Compute the final results
+    overrepresented.raisesWarning();
+
+    final List<String> result = new ArrayList<>();
+
+    for (final Field field : OverRepresentedSeqs.class.getDeclaredFields()) {
+
+      if (!field.getType().isArray()
+          || field.getType().getComponentType().isPrimitive()) {
+        continue;
+      }
+
+      field.setAccessible(true);
+      final Object[] seqs = (Object[]) field.get(overrepresented);
+
+      for (final Object seq : seqs) {
+
+        final Method seqMethod = seq.getClass().getDeclaredMethod("seq");
+        final Method countMethod = seq.getClass().getDeclaredMethod("count");
+        seqMethod.setAccessible(true);
+        countMethod.setAccessible(true);
+
+        result.add(seqMethod.invoke(seq) + ":" + countMethod.invoke(seq));
+      }
+    }
+
+    return result;
+  }
+
+  private static void writeFastq(final File file, final int count)
+      throws IOException {
+
+    final Random random = new Random(0);
+    final char[] quality = new char[OVERREPRESENTED_SEQUENCE.length()];
+    Arrays.fill(quality, 'I');
+
+    try (Writer writer = new FileWriter(file)) {
+
+      for (int i = 0; i < count; i++) {
+
+        final String sequence;
+        if (i % 5 == 0) {
+          sequence = OVERREPRESENTED_SEQUENCE;
+        } else {
+          final StringBuilder sb = new StringBuilder();
+          for (int j = 0; j < OVERREPRESENTED_SEQUENCE.length(); j++) {
+            sb.append("ACGT".charAt(random.nextInt(4)));
+          }
+          sequence = sb.toString();
+        }
+
+        writer.write("@read"
+            + i + "\n" + sequence + "\n+\n" + new String(quality) + "\n");
+      }
+    }
+  }
+
+}
@@ -0,0 +1,311 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.aozan.collectors;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.aozan.RunData;
+import fr.ens.biologie.genomique.aozan.illumina.Bcl2FastqOutput;
+import fr.ens.biologie.genomique.aozan.illumina.Bcl2FastqOutput.Bcl2FastqVersion;
+import fr.ens.biologie.genomique.aozan.illumina.samplesheet.SampleSheet;
+import fr.ens.biologie.genomique.aozan.io.FastqSample;
+import fr.ens.biologie.genomique.aozan.util.GZIPCompressionPool;
+import fr.ens.biologie.genomique.aozan.util.PackedIndexCounter;
+
+public class UndeterminedIndexesProcessThreadTest {
+
+  private static final String PREFIX = "undeterminedindices";
+
+  // Sample 4 is 2 mismatches away from sample 1
+  private static final String[][] SAMPLE_INDEXES = {{"AAAAAAAA", "CCCCCCCC"},
+      {"GGGGGGGG", "TTTTTTTT"}, {"ACACACAC", "GTGTGTGT"},
+      {"AAAAAACC", "CCCCCCCC"}};
+
+  // 1 mismatch from sample 1, 1 mismatch from sample 3, 1 mismatch from
+  // samples 1 and 4, index hopping and no call
+  private static final String[] UNDETERMINED_INDEXES = {"AAAAAAAT+CCCCCCCC",
+      "ACACACAC+GTGTGTGA", "AAAAAAAC+CCCCCCCC", "GGGGGGGG+CCCCCCCC",
+      "NNNNNNNN+NNNNNNNN"};
+  private static final int[] UNDETERMINED_COUNTS = {40, 30, 20, 10, 5};
+
+  private File runDir;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.runDir = Files.createTempDirectory("undeterminedindexes").toFile();
+  }
+
+  @After
+  public void tearDown() {
+
+    delete(this.runDir);
+  }
+
+  @Test
+  public void testToKey() {
+
+    Assert.assertEquals(PackedIndexCounter.encode("ACGTACGT"),
+        UndeterminedIndexesProcessThread.toKey("ACGTACGT", null, 8, 0));
+    Assert.assertEquals(PackedIndexCounter.encode("ACGTACGTTTTT"),
+        UndeterminedIndexesProcessThread.toKey("ACGTACGT", "TTTT", 8, 4));
+
+    // Invalid lengths
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        UndeterminedIndexesProcessThread.toKey("ACGTACG", null, 8, 0));
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        UndeterminedIndexesProcessThread.toKey("ACGTACGTA", null, 8, 0));
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        UndeterminedIndexesProcessThread.toKey("ACGTACGT", "TTT", 8, 4));
+  }
+
+  @Test
+  public void testToKeyLongIndex() {
+
+    final int length = PackedIndexCounter.MAX_LENGTH;
+    final String index1 = "GATCAGATCAGATCAGATCAGTTGACGTAC";
+    final String index2 = "GATCAGATCAGATCAGATCAGTTGACGGGG";
+    final long key = PackedIndexCounter.encode(index1.substring(0, length));
+
+    // The 30 bp indexes are counted on their first bases
+    Assert.assertEquals(key,
+        UndeterminedIndexesProcessThread.toKey(index1, null, length, 0));
+    Assert.assertEquals(key,
+        UndeterminedIndexesProcessThread.toKey(index2, null, length, 0));
+    Assert.assertEquals(key,
+        UndeterminedIndexesProcessThread.toKey(index1, "ACGT", length, 0));
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        UndeterminedIndexesProcessThread.toKey(index1.substring(0, 20), null,
+            length, 0));
+  }
+
+  @Test
+  public void testToKeyLongDualIndex() {
+
+    final String index1 = "ACGTACGTACGTACGT";
+    final String index2 = "TTGCAATGCATGCCAA";
+    final int[] lengths = PackedIndexCounter.fitLengths(16, 16);
+
+    // The first bases of both indexes are counted
+    Assert.assertEquals(
+        PackedIndexCounter.encode(
+            index1.substring(0, lengths[0]) + index2.substring(0, lengths[1])),
+        UndeterminedIndexesProcessThread.toKey(index1, index2, lengths[0],
+            lengths[1]));
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        UndeterminedIndexesProcessThread.toKey(index1, index2.substring(0, 12),
+            lengths[0], lengths[1]));
+
+    // 12 bp dual indexes are not truncated
+    Assert.assertEquals(
+        PackedIndexCounter.encode(
+            index1.substring(0, 12) + index2.substring(0, 12)),
+        UndeterminedIndexesProcessThread.toKey(index1.substring(0, 12),
+            index2.substring(0, 12), 12, 12));
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        UndeterminedIndexesProcessThread.toKey(index1.substring(0, 13),
+            index2.substring(0, 12), 12, 12));
+  }
+
+  @Test
+  public void testRecoverClusters() throws Exception {
+
+    final File outputDir = new File(this.runDir, "recovered");
+    final RunData results = recover(110, outputDir);
+
+    // Only the indexes that match with a single sample are recovered
+    Assert.assertEquals(110,
+        results.getInt(PREFIX + ".lane1.recoverable.pf.cluster.count"));
+    Assert.assertEquals(70,
+        results.getInt(PREFIX + ".lane1.recovered.cluster.count"));
+    Assert.assertEquals(40,
+        results.getInt(PREFIX + ".sample1.recovered.cluster.count"));
+    Assert.assertEquals(30,
+        results.getInt(PREFIX + ".sample3.recovered.cluster.count"));
+    Assert.assertNull(results.get(PREFIX + ".sample2.recovered.cluster.count"));
+    Assert.assertNull(results.get(PREFIX + ".sample4.recovered.cluster.count"));
+
+    // Both reads of the clusters are recovered
+    final Set<String> filenames =
+        new HashSet<>(Arrays.asList(outputDir.list()));
+    Assert.assertEquals(new HashSet<>(Arrays.asList(
+        "S1_L001_R1_recovered.fastq.gz", "S1_L001_R2_recovered.fastq.gz",
+        "S3_L001_R1_recovered.fastq.gz", "S3_L001_R2_recovered.fastq.gz")),
+        filenames);
+
+    for (int read = 1; read <= 2; read++) {
+
+      Assert.assertEquals(40, countReads(
+          new File(outputDir, "S1_L001_R" + read + "_recovered.fastq.gz"),
+          UNDETERMINED_INDEXES[0], read));
+      Assert.assertEquals(30, countReads(
+          new File(outputDir, "S3_L001_R" + read + "_recovered.fastq.gz"),
+          UNDETERMINED_INDEXES[1], read));
+    }
+  }
+
+  @Test
+  public void testRecoverClustersThreshold() throws Exception {
+
+    final File outputDir = new File(this.runDir, "recovered");
+    final RunData results = recover(111, outputDir);
+
+    // Not enough recoverable clusters
+    Assert.assertEquals(110,
+        results.getInt(PREFIX + ".lane1.recoverable.pf.cluster.count"));
+    Assert.assertNull(results.get(PREFIX + ".lane1.recovered.cluster.count"));
+    Assert.assertNull(results.get(PREFIX + ".sample1.recovered.cluster.count"));
+    Assert.assertFalse(outputDir.exists());
+  }
+
+  //
+  // Utility methods
+  //
+
+  private RunData recover(final int minPFClusters, final File outputDir)
+      throws Exception {
+
+    final RunData data = new RunData();
+    data.put("run.info.run.id", "runid");
+    data.put("run.info.date", "190101");
+    data.put("run.info.read.count", 3);
+    data.put("run.info.indexed.read.count", 1);
+    data.put("samplesheet.lane1.samples", "1,2,3,4");
+
+    for (int i = 0; i < SAMPLE_INDEXES.length; i++) {
+
+      final String prefix = "samplesheet.sample" + (i + 1);
+      data.put(prefix + ".lane", 1);
+      data.put(prefix + ".undetermined", false);
+      data.put(prefix + ".index", SAMPLE_INDEXES[i][0]);
+      data.put(prefix + ".index2", SAMPLE_INDEXES[i][1]);
+      data.put(prefix + ".demux.name", "S" + (i + 1));
+      data.put(prefix + ".project", "project");
+      data.put("demux.sample" + (i + 1) + ".read1.raw.cluster.count", 1000);
+      data.put("demux.sample" + (i + 1) + ".read1.pf.cluster.count", 900);
+    }
+
+    for (int read = 1; read <= 2; read++) {
+      writeUndeterminedFastq(new File(this.runDir,
+          "Undetermined_S0_L001_R" + read + "_001.fastq.gz"), read);
+    }
+
+    final FastqSample fastqSample = new FastqSample(
+        new Bcl2FastqOutput(new SampleSheet(), this.runDir,
+            Bcl2FastqVersion.BCL2FASTQ_2, null, false),
+        this.runDir, "runid", 5, 1, 1, null, "lane1", "", "", "", true, true);
+
+    final File reportDir = new File(this.runDir, "report");
+    reportDir.mkdir();
+
+    final GZIPCompressionPool compressionPool = new GZIPCompressionPool(2);
+
+    try {
+
+      final UndeterminedIndexesProcessThread thread =
+          new UndeterminedIndexesProcessThread(data, fastqSample, reportDir,
+              null, 0, 0.0001, 1, minPFClusters, outputDir, compressionPool);
+      thread.run();
+
+      if (!thread.isSuccess()) {
+        throw new Exception(thread.getException());
+      }
+
+      return thread.getResults();
+
+    } finally {
+      compressionPool.shutdown();
+    }
+  }
+
+  private static void writeUndeterminedFastq(final File file, final int read)
+      throws IOException {
+
+    try (Writer writer = new OutputStreamWriter(
+        new GZIPOutputStream(new FileOutputStream(file)))) {
+
+      int id = 0;
+      for (int i = 0; i < UNDETERMINED_INDEXES.length; i++) {
+        for (int j = 0; j < UNDETERMINED_COUNTS[i]; j++) {
+          writer.write("@M1:1:FC1:1:1101:1:"
+              + (id++) + " " + read + ":N:0:" + UNDETERMINED_INDEXES[i]
+              + "\nACGT\n+\nIIII\n");
+        }
+      }
+    }
+  }
+
+  private static int countReads(final File file, final String index,
+      final int read) throws IOException {
+
+    int result = 0;
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(new FileInputStream(file))))) {
+
+      String line;
+      int lineCount = 0;
+      while ((line = reader.readLine()) != null) {
+
+        if (lineCount++ % 4 == 0) {
+          Assert.assertTrue(line.endsWith(" " + read + ":N:0:" + index));
+          result++;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  private static void delete(final File file) {
+
+    final File[] files = file.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+
+}
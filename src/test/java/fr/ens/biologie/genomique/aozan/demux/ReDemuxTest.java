@@ -0,0 +1,234 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.demux;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.aozan.illumina.samplesheet.Sample;
+import fr.ens.biologie.genomique.aozan.illumina.samplesheet.SampleSheet;
+
+public class ReDemuxTest {
+
+  // Index of the reads in the undetermined file of the lane 1
+  private static final String[] READ_INDEXES = {"AAAAAT", "AAAGCC", "AAANCC",
+      "GATTAG", "GGGGGG", "TTTTTT", "AAAAAA", "AAATCC"};
+
+  private File baseDir;
+  private File outputDir;
+  private SampleSheet samplesheet;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.baseDir = Files.createTempDirectory("redemux").toFile();
+    this.outputDir = new File(this.baseDir, "output");
+
+    this.samplesheet = new SampleSheet();
+    addSample("S1", "AAAAAA");
+    addSample("S2", "AAACCC");
+    addSample("S3", "GGGGGG");
+
+    final File undeterminedDir =
+        new File(this.baseDir, "Undetermined_indices/Sample_lane1");
+    undeterminedDir.mkdirs();
+
+    try (Writer writer = new FileWriter(
+        new File(undeterminedDir, "lane1_Undetermined_L001_R1_001.fastq"))) {
+
+      for (int i = 0; i < READ_INDEXES.length; i++) {
+        writer.write("@NS500:1:FC:1:1101:1000:"
+            + i + " 1:N:0:" + READ_INDEXES[i]
+            + "\nACGTACGTAC\n+\nIIIIIIIIII\n");
+      }
+    }
+  }
+
+  @After
+  public void tearDown() {
+
+    delete(this.baseDir);
+  }
+
+  @Test
+  public void testReDemux() throws Exception {
+
+    final ReDemux redemux =
+        new ReDemux(this.baseDir, this.samplesheet, this.outputDir, 2);
+
+    // Exact index, one mismatch with S1
+    redemux.addIndex(1, "AAAAAT");
+
+    // Index with 1 wildcard, expanded in the dispatch table
+    redemux.addIndex(1, "AAA.CC");
+
+    // Index with 4 wildcards, matched with a regular expression
+    redemux.addIndex(1, "G....G");
+
+    redemux.redmux();
+
+    Assert.assertEquals(Arrays.asList("AAAAAT"), readIndexes("S1", "AAAAAA"));
+    Assert.assertEquals(Arrays.asList("AAAGCC", "AAANCC", "AAATCC"),
+        readIndexes("S2", "AAACCC"));
+    Assert.assertEquals(Arrays.asList("GATTAG", "GGGGGG"),
+        readIndexes("S3", "GGGGGG"));
+  }
+
+  @Test
+  public void testSameSampleVariants() throws Exception {
+
+    final ReDemux redemux =
+        new ReDemux(this.baseDir, this.samplesheet, this.outputDir, 1);
+
+    // The variants of the expanded index and the exact index are all owned
+    // by S1
+    redemux.addIndex(1, "AAAA.A");
+    redemux.addIndex(1, "AAAACA");
+    redemux.addIndex(1, "AAAAAT");
+
+    redemux.redmux();
+
+    Assert.assertEquals(Arrays.asList("AAAAAA", "AAAAAT"),
+        readIndexes("S1", "AAAAAA"));
+    Assert.assertFalse(
+        new File(this.outputDir, "Project_P/Sample_S2").exists());
+  }
+
+  @Test
+  public void testVariantOwnedByAnotherSample() throws Exception {
+
+    // AAACCA is owned by S2 and is also a variant of AAA..A that matches S1
+    final ReDemux redemux =
+        new ReDemux(this.baseDir, this.samplesheet, this.outputDir, 1);
+    redemux.addIndex(1, "AAACCA");
+    assertConflict(redemux, "AAA..A");
+
+    // Same conflict when the expanded index is added first
+    final ReDemux redemux2 =
+        new ReDemux(this.baseDir, this.samplesheet, this.outputDir, 1);
+    redemux2.addIndex(1, "AAA..A");
+    assertConflict(redemux2, "AAACCA");
+  }
+
+  @Test
+  public void testInvalidIndexes() throws Exception {
+
+    final ReDemux redemux =
+        new ReDemux(this.baseDir, this.samplesheet, this.outputDir, 1);
+
+    // The regular expression matches with S1 and S2
+    assertConflict(redemux, "A.....");
+
+    // The exact index is at the same distance of S1 and S2
+    assertConflict(redemux, "AAAACT");
+
+    // No sample matches
+    try {
+      redemux.addIndex(1, "T.TTTT");
+      Assert.fail();
+    } catch (AozanException e) {
+      Assert.assertTrue(e.getMessage().startsWith("No sample matches"));
+    }
+
+    // Too many mismatches
+    try {
+      redemux.addIndex(1, "TTTTTT");
+      Assert.fail();
+    } catch (AozanException e) {
+      Assert.assertTrue(e.getMessage().startsWith("Cannot allow more than 2"));
+    }
+  }
+
+  //
+  // Utility methods
+  //
+
+  private void addSample(final String sampleId, final String index) {
+
+    final Sample sample = this.samplesheet.addSample();
+    sample.set(Sample.LANE_FIELD_NAME, "1");
+    sample.set(Sample.SAMPLE_ID_FIELD_NAME, sampleId);
+    sample.set(Sample.PROJECT_FIELD_NAME, "P");
+    sample.setIndex1(index);
+  }
+
+  private List<String> readIndexes(final String sampleId,
+      final String sampleIndex) throws IOException {
+
+    final File file = new File(this.outputDir, "Project_P/Sample_"
+        + sampleId + "/" + sampleId + "_" + sampleIndex
+        + "_L001_R1_redemux_.fastq");
+
+    final List<String> lines =
+        Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    final List<String> result = new ArrayList<>();
+
+    for (int i = 0; i < lines.size(); i += 4) {
+      final String name = lines.get(i);
+      result.add(name.substring(name.lastIndexOf(':') + 1));
+    }
+
+    Collections.sort(result);
+
+    return result;
+  }
+
+  private static void assertConflict(final ReDemux redemux,
+      final String index) {
+
+    try {
+      redemux.addIndex(1, index);
+      Assert.fail();
+    } catch (AozanException e) {
+      Assert.assertTrue(
+          e.getMessage().startsWith("More than one sample matches"));
+    }
+  }
+
+  private static void delete(final File file) {
+
+    final File[] files = file.listFiles();
+    if (files != null) {
+      for (final File f : files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+
+}
@@ -0,0 +1,196 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqc;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.babraham.FastQC.Modules.AdapterContent;
+import uk.ac.babraham.FastQC.Modules.QCModule;
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFactory;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+
+public class AdapterContentModuleTest {
+
+  // Adapters of the default FastQC adapter list
+  private static final String[] ADAPTERS = {"AGATCGGAAGAG", "TGGAATTCTCGG",
+      "GATCGTCGGACT", "CTGTCTCTTATA"};
+
+  @Test
+  public void testSameEnrichmentsAsFastQC() throws Exception {
+
+    final File fastqFile = File.createTempFile("aozan-adapter-", ".fastq");
+
+    try {
+
+      writeFastq(fastqFile, 5000, 75);
+      assertSameEnrichments(fastqFile);
+
+    } finally {
+      fastqFile.delete();
+    }
+  }
+
+  @Test
+  public void testSameEnrichmentsVariableLength() throws Exception {
+
+    final File fastqFile = File.createTempFile("aozan-adapter-", ".fastq");
+
+    try {
+
+      // Trimmed reads, the longest sequence changes during the reading
+      writeFastq(fastqFile, 5000, 0);
+      assertSameEnrichments(fastqFile);
+
+    } finally {
+      fastqFile.delete();
+    }
+  }
+
+  @Test
+  public void testNoAdapter() throws Exception {
+
+    final AdapterContentModule module = new AdapterContentModule();
+    final AdapterContent fastqcModule = new AdapterContent();
+
+    final Sequence sequence =
+        new Sequence(null, "ACACACACACACACACACACACACACACAC",
+            "IIIIIIIIIIIIIIIIIIIIIIIIIIIIII", "@read");
+    module.processSequence(sequence);
+    fastqcModule.processSequence(sequence);
+
+    final double[][] enrichments = enrichments(module);
+
+    assertEquals(enrichments(fastqcModule), enrichments);
+    for (final double[] adapterEnrichments : enrichments) {
+      for (final double e : adapterEnrichments) {
+        Assert.assertEquals(0.0, e, 0.0);
+      }
+    }
+    Assert.assertFalse(module.raisesWarning());
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static void assertSameEnrichments(final File fastqFile)
+      throws Exception {
+
+    final AdapterContentModule module = new AdapterContentModule();
+    final AdapterContent fastqcModule = new AdapterContent();
+
+    final SequenceFile seqFile = SequenceFactory.getSequenceFile(fastqFile);
+    while (seqFile.hasNext()) {
+
+      final Sequence sequence = seqFile.next();
+      module.processSequence(sequence);
+      fastqcModule.processSequence(sequence);
+    }
+
+    Assert.assertEquals(fastqcModule.name(), module.name());
+    assertEquals(enrichments(fastqcModule), enrichments(module));
+    Assert.assertEquals(fastqcModule.raisesWarning(), module.raisesWarning());
+    Assert.assertEquals(fastqcModule.raisesError(), module.raisesError());
+  }
+
+  private static void assertEquals(final double[][] expected,
+      final double[][] result) {
+
+    Assert.assertEquals(expected.length, result.length);
+
+    for (int a = 0; a < expected.length; a++) {
+
+      Assert.assertEquals(expected[a].length, result[a].length);
+      for (int g = 0; g < expected[a].length; g++) {
+        Assert.assertEquals("adapter " + a + ", group " + g, expected[a][g],
+            result[a][g], 1e-9);
+      }
+    }
+  }
+
+  private static double[][] enrichments(final QCModule module)
+      throws Exception {
+
+    // Compute the enrichments
+    module.raisesWarning();
+
+    final Field field = module.getClass().getDeclaredField("enrichments");
+    field.setAccessible(true);
+
+    return (double[][]) field.get(module);
+  }
+
+  private static void writeFastq(final File file, final int count,
+      final int length) throws IOException {
+
+    final Random random = new Random(0);
+
+    try (Writer writer = new FileWriter(file)) {
+
+      for (int i = 0; i < count; i++) {
+
+        final int readLength = length > 0 ? length : 30 + random.nextInt(70);
+        final StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < readLength; j++) {
+          sb.append("ACGT".charAt(random.nextInt(4)));
+        }
+
+        // Adapters at several offsets, some of them truncated by the end of
+        // the read, and sometimes two adapters in the same read
+        if (i % 3 == 0) {
+          insert(sb, ADAPTERS[i % ADAPTERS.length], random.nextInt(readLength));
+        }
+        if (i % 7 == 0) {
+          insert(sb, ADAPTERS[(i + 1) % ADAPTERS.length],
+              random.nextInt(readLength));
+        }
+
+        final char[] quality = new char[readLength];
+        Arrays.fill(quality, 'I');
+
+        writer.write("@read"
+            + i + "\n" + sb + "\n+\n" + new String(quality) + "\n");
+      }
+    }
+  }
+
+  private static void insert(final StringBuilder sb, final String adapter,
+      final int offset) {
+
+    for (int i = 0; i < adapter.length() && offset + i < sb.length(); i++) {
+      sb.setCharAt(offset + i, adapter.charAt(i));
+    }
+  }
+
+}
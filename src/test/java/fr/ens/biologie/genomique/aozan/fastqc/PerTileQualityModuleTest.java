@@ -0,0 +1,181 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqc;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.babraham.FastQC.Modules.PerTileQualityScores;
+import uk.ac.babraham.FastQC.Modules.QCModule;
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFactory;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+
+public class PerTileQualityModuleTest {
+
+  private static final int[] TILES = {2101, 1101, 1102, 1201};
+
+  @Test
+  public void testCasava18Identifiers() throws Exception {
+
+    final File fastqFile = File.createTempFile("aozan-tile-", ".fastq");
+
+    try {
+
+      // More than 10000 reads to check the sampling of the sequences
+      writeFastq(fastqFile, 25000,
+          "@D3NH4HQ1:95:C0MVNACXX:2:%d:1000:%d 1:N:0:");
+      final QCModule module = assertSameResults(fastqFile);
+
+      Assert.assertArrayEquals(new int[] {1101, 1102, 1201, 2101},
+          (int[]) get(module, "tiles"));
+      Assert.assertFalse(module.ignoreInReport());
+
+    } finally {
+      fastqFile.delete();
+    }
+  }
+
+  @Test
+  public void testOldIlluminaIdentifiers() throws Exception {
+
+    final File fastqFile = File.createTempFile("aozan-tile-", ".fastq");
+
+    try {
+
+      writeFastq(fastqFile, 12000, "@HWUSI-EAS493_0001:2:%d:1000:%d#0/1");
+      final QCModule module = assertSameResults(fastqFile);
+
+      Assert.assertArrayEquals(new int[] {1101, 1102, 1201, 2101},
+          (int[]) get(module, "tiles"));
+
+    } finally {
+      fastqFile.delete();
+    }
+  }
+
+  @Test
+  public void testNoTile() throws Exception {
+
+    final PerTileQualityModule module = new PerTileQualityModule();
+    final PerTileQualityScores fastqcModule = new PerTileQualityScores();
+
+    final Sequence sequence =
+        new Sequence(null, "ACGTACGTAC", "IIIIIIIIII", "@read1");
+    module.processSequence(sequence);
+    fastqcModule.processSequence(sequence);
+
+    Assert.assertTrue(fastqcModule.ignoreInReport());
+    Assert.assertTrue(module.ignoreInReport());
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static QCModule assertSameResults(final File fastqFile)
+      throws Exception {
+
+    final PerTileQualityModule module = new PerTileQualityModule();
+    final PerTileQualityScores fastqcModule = new PerTileQualityScores();
+
+    final SequenceFile seqFile = SequenceFactory.getSequenceFile(fastqFile);
+    while (seqFile.hasNext()) {
+
+      final Sequence sequence = seqFile.next();
+      module.processSequence(sequence);
+      fastqcModule.processSequence(sequence);
+    }
+
+    Assert.assertEquals(fastqcModule.name(), module.name());
+    Assert.assertEquals(fastqcModule.raisesWarning(), module.raisesWarning());
+    Assert.assertEquals(fastqcModule.raisesError(), module.raisesError());
+    Assert.assertEquals(fastqcModule.ignoreInReport(),
+        module.ignoreInReport());
+
+    Assert.assertArrayEquals((int[]) get(fastqcModule, "tiles"),
+        (int[]) get(module, "tiles"));
+    Assert.assertArrayEquals((String[]) get(fastqcModule, "xLabels"),
+        (String[]) get(module, "xLabels"));
+
+    final double[][] expected = (double[][]) get(fastqcModule, "means");
+    final double[][] result = (double[][]) get(module, "means");
+
+    Assert.assertEquals(expected.length, result.length);
+    for (int t = 0; t < expected.length; t++) {
+      Assert.assertArrayEquals("tile " + t, expected[t], result[t], 1e-9);
+    }
+
+    return module;
+  }
+
+  private static Object get(final QCModule module, final String fieldName)
+      throws Exception {
+
+    final Field field = module.getClass().getDeclaredField(fieldName);
+    field.setAccessible(true);
+
+    return field.get(module);
+  }
+
+  private static void writeFastq(final File file, final int count,
+      final String idFormat) throws IOException {
+
+    final Random random = new Random(0);
+
+    try (Writer writer = new FileWriter(file)) {
+
+      for (int i = 0; i < count; i++) {
+
+        // Reads of the same tile are consecutive, some of them are trimmed
+        final int tile = TILES[i * TILES.length / count];
+        final int length = i % 11 == 0 ? 50 + random.nextInt(50) : 100;
+
+        final StringBuilder sequence = new StringBuilder();
+        final StringBuilder quality = new StringBuilder();
+
+        for (int j = 0; j < length; j++) {
+
+          sequence.append("ACGT".charAt(random.nextInt(4)));
+
+          // The end of the reads of the last tile has a lower quality
+          final int q = tile == 1201 && j > 70
+              ? 2 + random.nextInt(10) : 25 + random.nextInt(16);
+          quality.append((char) (33 + q));
+        }
+
+        writer.write(String.format(idFormat, tile, i)
+            + "\n" + sequence + "\n+\n" + quality + "\n");
+      }
+    }
+  }
+
+}
@@ -0,0 +1,147 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.aozan.AozanException;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+
+public class ContaminantPrefilterTest {
+
+  private final Random random = new Random(0);
+  private final String phix = MinimizerScannerTest.randomSequence(random, 5000);
+  private final String adapters =
+      MinimizerScannerTest.randomSequence(random, 2000);
+
+  private File phixFile;
+  private File adaptersFile;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.phixFile = writeFasta("phix", this.phix);
+    this.adaptersFile = writeFasta("adapters", this.adapters);
+  }
+
+  @After
+  public void tearDown() {
+
+    this.phixFile.delete();
+    this.adaptersFile.delete();
+  }
+
+  @Test
+  public void testClassify() throws AozanException {
+
+    final Map<String, DataFile> files = new LinkedHashMap<>();
+    files.put("phix", new DataFile(this.phixFile));
+    files.put("adapters", new DataFile(this.adaptersFile));
+    files.put("missing", new DataFile(new File(this.phixFile + ".missing")));
+
+    final ContaminantPrefilter prefilter = new ContaminantPrefilter(files,
+        ContaminantPrefilter.DEFAULT_KMER_SIZE,
+        ContaminantPrefilter.DEFAULT_MIN_FRACTION);
+
+    Assert.assertFalse(prefilter.isEmpty());
+    Assert.assertEquals("phix", prefilter.getContaminants().get(0));
+    Assert.assertEquals("adapters", prefilter.getContaminants().get(1));
+    Assert.assertEquals(2, prefilter.getContaminants().size());
+
+    // Reads of the contaminants on both strands
+    final String read = this.phix.substring(1000, 1100);
+    Assert.assertEquals(0, prefilter.classify(read));
+    Assert.assertEquals(0,
+        prefilter.classify(MinimizerScannerTest.reverseComplement(read)));
+    Assert.assertEquals(1, prefilter.classify(this.adapters.substring(0, 75)));
+
+    // A read with some errors
+    final char[] errors = read.toCharArray();
+    errors[30] = errors[30] == 'A' ? 'C' : 'A';
+    errors[31] = 'N';
+    Assert.assertEquals(0, prefilter.classify(new String(errors)));
+
+    // Chimeric read: only 40% of the k-mers are in PhiX
+    Assert.assertEquals(ContaminantPrefilter.NOT_CLASSIFIED,
+        prefilter.classify(this.phix.substring(0, 58)
+            + MinimizerScannerTest.randomSequence(this.random, 42)));
+
+    // Unknown reads and reads shorter than the k-mers
+    Assert.assertEquals(ContaminantPrefilter.NOT_CLASSIFIED, prefilter
+        .classify(MinimizerScannerTest.randomSequence(this.random, 100)));
+    Assert.assertEquals(ContaminantPrefilter.NOT_CLASSIFIED,
+        prefilter.classify(read.substring(0, 20)));
+    Assert.assertEquals(ContaminantPrefilter.NOT_CLASSIFIED,
+        prefilter.classify(""));
+  }
+
+  @Test
+  public void testEmpty() throws AozanException {
+
+    final ContaminantPrefilter prefilter = new ContaminantPrefilter(
+        Collections.singletonMap("missing",
+            new DataFile(new File(this.phixFile + ".missing"))),
+        ContaminantPrefilter.DEFAULT_KMER_SIZE,
+        ContaminantPrefilter.DEFAULT_MIN_FRACTION);
+
+    Assert.assertTrue(prefilter.isEmpty());
+    Assert.assertEquals(ContaminantPrefilter.NOT_CLASSIFIED,
+        prefilter.classify(this.phix.substring(0, 100)));
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static File writeFasta(final String name, final String sequence)
+      throws IOException {
+
+    final File result = File.createTempFile("aozan-" + name + "-", ".fasta");
+
+    try (Writer writer = new FileWriter(result)) {
+
+      writer.write(">" + name + " test sequence\n");
+      for (int i = 0; i < sequence.length(); i += 60) {
+        writer.write(
+            sequence.substring(i, Math.min(sequence.length(), i + 60)) + "\n");
+      }
+    }
+
+    return result;
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FastqScreenGenomeMapperTest {
+
+  @Test
+  public void testWilsonIntervalWidth() {
+
+    Assert.assertEquals(1.0, FastqScreenGenomeMapper.wilsonIntervalWidth(0, 0),
+        0.0);
+    Assert.assertEquals(0.0088,
+        FastqScreenGenomeMapper.wilsonIntervalWidth(25000, 50000), 0.0001);
+    Assert.assertEquals(0.0196,
+        FastqScreenGenomeMapper.wilsonIntervalWidth(5000, 10000), 0.0001);
+
+    // The interval is symmetric and not empty for the extreme proportions
+    Assert.assertEquals(FastqScreenGenomeMapper.wilsonIntervalWidth(100, 1000),
+        FastqScreenGenomeMapper.wilsonIntervalWidth(900, 1000), 1e-12);
+    Assert.assertTrue(FastqScreenGenomeMapper.wilsonIntervalWidth(0, 1000) > 0);
+
+    // With the default subset size, the default width can always be reached
+    Assert.assertTrue(
+        FastqScreenGenomeMapper.wilsonIntervalWidth(100000, 200000) <= 0.005);
+  }
+
+  @Test
+  public void testMaxIntervalWidth() {
+
+    Assert.assertEquals(0.0, FastqScreenGenomeMapper
+        .maxIntervalWidth(new int[0], 10000), 0.0);
+    Assert.assertEquals(
+        FastqScreenGenomeMapper.wilsonIntervalWidth(5000, 10000),
+        FastqScreenGenomeMapper
+            .maxIntervalWidth(new int[] {0, 5000, 10000}, 10000),
+        0.0);
+  }
+
+  @Test
+  public void testAdaptiveControl() throws IOException {
+
+    final ReadHitTable table = newTable(100);
+    final FastqScreenGenomeMapper.AdaptiveControl control =
+        new FastqScreenGenomeMapper.AdaptiveControl(100, 20, 0.3);
+
+    final FastqScreenSAMParser parser1 =
+        new FastqScreenSAMParser(table, "genome1", false);
+    final FastqScreenSAMParser parser2 =
+        new FastqScreenSAMParser(table, "genome2", false);
+    control.addParser(parser1);
+    control.addParser(parser2);
+
+    // All the reads map on the first genome, the control waits for the second
+    parser1.parseLines(sam(100, 1));
+    Assert.assertEquals(100, control.getLimit());
+
+    // Half of the reads map on the second genome
+    parser2.parseLines(sam(100, 2));
+
+    Assert.assertEquals(40, control.getLimit());
+    Assert.assertTrue(control.getCIWidth() <= 0.3);
+    Assert.assertEquals(20, table.countReadsPerGenome(0, 40)[1]);
+  }
+
+  @Test
+  public void testAdaptiveControlUnorderedOutput() throws IOException {
+
+    final ReadHitTable table = newTable(100);
+    final FastqScreenGenomeMapper.AdaptiveControl control =
+        new FastqScreenGenomeMapper.AdaptiveControl(100, 20, 0.3);
+
+    final FastqScreenSAMParser parser =
+        new FastqScreenSAMParser(table, "genome", false);
+    control.addParser(parser);
+
+    // The first read is the last in the output: no read can be selected
+    // before the end of the parsing
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 99; i >= 0; i--) {
+      sb.append(samLine(i, true));
+    }
+    parser.parseLines(stream(sb.toString()));
+
+    Assert.assertEquals(100, control.getLimit());
+    Assert.assertEquals(FastqScreenGenomeMapper.wilsonIntervalWidth(100, 100),
+        control.getCIWidth(), 0.0);
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static ReadHitTable newTable(final int readCount) {
+
+    final ReadHitTable result = new ReadHitTable();
+    for (int i = 0; i < readCount; i++) {
+      result.addRead("r" + i);
+    }
+
+    return result;
+  }
+
+  private static InputStream sam(final int readCount, final int modulo) {
+
+    final StringBuilder sb = new StringBuilder("@HD\tVN:1.0\n");
+    for (int i = 0; i < readCount; i++) {
+      sb.append(samLine(i, i % modulo == 0));
+    }
+
+    return stream(sb.toString());
+  }
+
+  private static String samLine(final int read, final boolean mapped) {
+
+    return "r"
+        + read + (mapped ? "\t0\tchr1\t100" : "\t4\t*\t0")
+        + "\t255\t4M\t*\t0\t0\tACGT\tIIII\n";
+  }
+
+  private static InputStream stream(final String s) {
+
+    return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
@@ -0,0 +1,282 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.google.common.base.Joiner;
+
+public class FastqScreenProjectReportTest {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.dir = Files.createTempDirectory("fastqscreenproject").toFile();
+  }
+
+  @After
+  public void tearDown() {
+
+    final File[] files = this.dir.listFiles();
+    if (files != null) {
+      for (final File f : files) {
+        f.delete();
+      }
+    }
+    this.dir.delete();
+  }
+
+  @Test
+  public void testWriteProjectXML() throws Exception {
+
+    final List<File> files = Arrays.asList(
+        writeSample("2015_S1_L001.xml", "RUN1", "hg19", "S1", "1",
+            "Human &amp; mouse"),
+        writeSample("2015_S2_L001.xml", "RUN2", "mm10", "S2", "2", ""),
+        writeSample("2015_S3_L002.xml", "RUN3", "hg19", "S3", "2",
+            "a &lt; b &quot;c&quot;"));
+
+    final Document result = writeProjectXML(files);
+
+    // Same document as the former DOM merge of the sample files
+    Assert.assertEquals(toString(domProjectXML(files)), toString(result));
+
+    // Element order
+    final Element root = result.getDocumentElement();
+    Assert.assertEquals("ReportFastqScreen", root.getTagName());
+    Assert.assertEquals(Arrays.asList("project", "GeneratorName",
+        "GeneratorVersion", "RunId", "RunDate", "projectName",
+        "genomesProject"), childNames(root));
+
+    final Element project = (Element) root.getFirstChild();
+    Assert.assertEquals(3, project.getElementsByTagName("sample").getLength());
+    final Element sample =
+        (Element) project.getElementsByTagName("sample").item(0);
+    Assert.assertEquals("2015_S1_L0", sample.getAttribute("name"));
+    Assert.assertEquals(Arrays.asList("sampleName", "genomeSample",
+        "descriptionSample", "lane", "Report"), childNames(sample));
+
+    // Run data of the first sample
+    Assert.assertEquals("RUN1",
+        root.getElementsByTagName("RunId").item(0).getTextContent());
+
+    // Sorted genomes without duplicates
+    Assert.assertEquals("hg19, mm10",
+        root.getElementsByTagName("genomesProject").item(0).getTextContent());
+  }
+
+  @Test
+  public void testNoGenome() throws Exception {
+
+    final List<File> files = Arrays.asList(
+        writeSample("2015_S1_L001.xml", "RUN1", "", "S1", "1", "d1"),
+        writeSample("2015_S2_L001.xml", "RUN1", "", "S2", "1", "d2"));
+
+    final Document result = writeProjectXML(files);
+
+    Assert.assertEquals(toString(domProjectXML(files)), toString(result));
+    Assert.assertEquals("No genome", result.getDocumentElement()
+        .getElementsByTagName("genomesProject").item(0).getTextContent());
+  }
+
+  //
+  // Utility methods
+  //
+
+  private File writeSample(final String filename, final String runId,
+      final String genome, final String sampleName, final String lane,
+      final String description) throws IOException {
+
+    final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<ReportFastqScreen formatversion=\"1.0\">\n"
+        + "  <GeneratorName>aozan</GeneratorName>\n"
+        + "  <GeneratorVersion>2.3</GeneratorVersion>\n"
+        + "  <RunId>" + runId + "</RunId>\n"
+        + "  <RunDate>15/01/2015</RunDate>\n"
+        + "  <!-- Unused element -->\n"
+        + "  <InstrumentModel>NextSeq</InstrumentModel>\n"
+        + "  <projectName>Project1</projectName>\n"
+        + "  <genomeSample>" + genome + "</genomeSample>\n"
+        + "  <sampleName>" + sampleName + "</sampleName>\n"
+        + "  <descriptionSample>" + description + "</descriptionSample>\n"
+        + "  <lane>" + lane + "</lane>\n"
+        + "  <Report>\n"
+        + "    <Columns><Column name=\"genome\">genome</Column>"
+        + "<Column name=\"mapped\">mapped</Column></Columns>\n"
+        + "    <Genomes>\n"
+        + "      <Genome name=\"phix\"><Value name=\"phix\">phix</Value>"
+        + "<Value name=\"0.12\">0.12</Value></Genome>\n"
+        + "      <Genome name=\"adapters\"><Value name=\"adapters\">adapters"
+        + "</Value><Value name=\"1.50\">1.50</Value></Genome>\n"
+        + "    </Genomes>\n"
+        + "    <ReadsUnmapped name=\"reads_unmapped_none_genome\">98.38"
+        + "</ReadsUnmapped>\n"
+        + "  </Report>\n"
+        + "</ReportFastqScreen>\n";
+
+    final File result = new File(this.dir, filename);
+    Files.write(result.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+
+    return result;
+  }
+
+  private static Document writeProjectXML(final List<File> files)
+      throws Exception {
+
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    new FastqScreenProjectReport(files, "test", null).writeProjectXML(os);
+
+    return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+        .parse(new ByteArrayInputStream(os.toByteArray()));
+  }
+
+  private static Document domProjectXML(final List<File> files)
+      throws Exception {
+
+    // Merge the sample files as the former DOM based version of
+    // FastqScreenProjectReport
+    final Document doc = DocumentBuilderFactory.newInstance()
+        .newDocumentBuilder().newDocument();
+
+    final Element root = doc.createElement("ReportFastqScreen");
+    root.setAttribute("formatversion", "1.0");
+    doc.appendChild(root);
+
+    final Element project = doc.createElement("project");
+    root.appendChild(project);
+
+    boolean runDataAdded = false;
+
+    for (final File file : files) {
+
+      final Document srcDoc = DocumentBuilderFactory.newInstance()
+          .newDocumentBuilder().parse(file);
+      srcDoc.getDocumentElement().normalize();
+
+      if (!runDataAdded) {
+        importElements(doc, root, srcDoc, "GeneratorName",
+            "GeneratorVersion", "GeneratorWebsite", "GeneratorRevision",
+            "RunId", "RunDate", "FlowcellId", "InstrumentSN",
+            "InstrumentRunNumber", "ReportDate", "projectName");
+        runDataAdded = true;
+      }
+
+      final Element sample = doc.createElement("sample");
+      sample.setAttribute("name", file.getName().substring(0, 10));
+      project.appendChild(sample);
+
+      importElements(doc, sample, srcDoc, "sampleName", "genomeSample",
+          "descriptionSample", "lane", "Report");
+    }
+
+    final List<String> genomes = new ArrayList<>();
+    final NodeList nodes = doc.getElementsByTagName("genomeSample");
+    for (int i = 0; i < nodes.getLength(); i++) {
+
+      final String genome = nodes.item(i).getTextContent();
+      if (!genome.isEmpty() && !genomes.contains(genome)) {
+        genomes.add(genome);
+      }
+    }
+    Collections.sort(genomes);
+
+    final Element e = doc.createElement("genomesProject");
+    e.setTextContent(
+        genomes.isEmpty() ? "No genome" : Joiner.on(", ").join(genomes));
+    root.appendChild(e);
+
+    return doc;
+  }
+
+  private static void importElements(final Document destDocument,
+      final Element destElement, final Document srcDocument,
+      final String... tagNames) {
+
+    for (final String tagName : tagNames) {
+
+      final NodeList nodes =
+          srcDocument.getDocumentElement().getElementsByTagName(tagName);
+
+      if (nodes.getLength() > 0) {
+        destElement.appendChild(destDocument.importNode(nodes.item(0), true));
+      }
+    }
+  }
+
+  private static List<String> childNames(final Element element) {
+
+    final List<String> result = new ArrayList<>();
+
+    for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+      if (n.getNodeType() == Node.ELEMENT_NODE) {
+        result.add(n.getNodeName());
+      }
+    }
+
+    return result;
+  }
+
+  private static String toString(final Document document) throws Exception {
+
+    document.normalizeDocument();
+
+    final Transformer transformer =
+        TransformerFactory.newInstance().newTransformer();
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+
+    final StringWriter writer = new StringWriter();
+    transformer.transform(new DOMSource(document), new StreamResult(writer));
+
+    return writer.toString();
+  }
+
+}
@@ -0,0 +1,140 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FastqScreenSAMParserTest {
+
+  private static final String HEADER =
+      "@HD\tVN:1.0\tSO:unsorted\n@SQ\tSN:chr1\tLN:1000\n@PG\tID:bowtie\n";
+
+  @Test
+  public void testSingleEnd() throws IOException {
+
+    final String longName = repeat('r', 300);
+
+    final ReadHitTable table = new ReadHitTable();
+    final int unmapped = table.addRead("r1 1:N:0:ACGT");
+    final int oneHit = table.addRead("r2");
+    final int multipleHits = table.addRead("r3");
+    final int reverse = table.addRead(longName);
+    final int notInOutput = table.addRead("r5");
+
+    final FastqScreenSAMParser parser =
+        new FastqScreenSAMParser(table, "genome", false);
+
+    parser.parseLines(stream(HEADER
+        + "r1\t4\t*\t0\t0\t*\t*\t0\t0\tACGT\tIIII\n"
+        + "r2\t0\tchr1\t100\t255\t4M\t*\t0\t0\tACGT\tIIII\n"
+        + "r3\t0\tchr1\t100\t255\t4M\t*\t0\t0\tACGT\tIIII\r\n"
+        + "r3\t256\tchr1\t500\t255\t4M\t*\t0\t0\tACGT\tIIII\n"
+        + longName + "\t16\tchr1\t200\t255\t4M\t*\t0\t0\tACGT\tIIII"));
+
+    final int genome = table.getGenomes().indexOf("genome");
+
+    Assert.assertEquals(4, parser.getReadsprocessed());
+    Assert.assertFalse(table.isHit(unmapped, genome));
+    Assert.assertTrue(table.isHit(oneHit, genome));
+    Assert.assertFalse(table.isMultipleHit(oneHit, genome));
+    Assert.assertTrue(table.isMultipleHit(multipleHits, genome));
+    Assert.assertTrue(table.isHit(reverse, genome));
+    Assert.assertFalse(table.isMultipleHit(reverse, genome));
+    Assert.assertFalse(table.isHit(notInOutput, genome));
+  }
+
+  @Test
+  public void testPairedEnd() throws IOException {
+
+    final ReadHitTable table = new ReadHitTable();
+    final int unmapped = table.addRead("p1/1");
+    final int oneHit = table.addRead("p2/1");
+    final int multipleHits = table.addRead("p3/1");
+    final int halfMapped = table.addRead("p4/1");
+
+    final FastqScreenSAMParser parser =
+        new FastqScreenSAMParser(table, "genome", true);
+
+    parser.parseLines(stream(HEADER
+        + "p1\t77\t*\t0\t0\t*\t*\t0\t0\tACGT\tIIII\n"
+        + "p1\t141\t*\t0\t0\t*\t*\t0\t0\tACGT\tIIII\n"
+        + "p2\t99\tchr1\t100\t255\t4M\t=\t300\t204\tACGT\tIIII\n"
+        + "p2\t147\tchr1\t300\t255\t4M\t=\t100\t-204\tACGT\tIIII\n"
+        + "p3\t99\tchr1\t100\t255\t4M\t=\t300\t204\tACGT\tIIII\n"
+        + "p3\t147\tchr1\t300\t255\t4M\t=\t100\t-204\tACGT\tIIII\n"
+        + "p3\t355\tchr1\t600\t255\t4M\t=\t800\t204\tACGT\tIIII\n"
+        + "p3\t403\tchr1\t800\t255\t4M\t=\t600\t-204\tACGT\tIIII\n"
+        + "p4\t73\tchr1\t100\t255\t4M\t=\t100\t0\tACGT\tIIII\n"
+        + "p4\t133\tchr1\t100\t0\t*\t=\t100\t0\tACGT\tIIII\n"));
+
+    final int genome = table.getGenomes().indexOf("genome");
+
+    Assert.assertEquals(4, parser.getReadsprocessed());
+    Assert.assertFalse(table.isHit(unmapped, genome));
+    Assert.assertTrue(table.isHit(oneHit, genome));
+    Assert.assertFalse(table.isMultipleHit(oneHit, genome));
+    Assert.assertTrue(table.isHit(multipleHits, genome));
+    Assert.assertTrue(table.isMultipleHit(multipleHits, genome));
+    Assert.assertFalse(table.isHit(halfMapped, genome));
+  }
+
+  @Test
+  public void testEmptyOutput() throws IOException {
+
+    final ReadHitTable table = new ReadHitTable();
+    final int read = table.addRead("r1");
+
+    final FastqScreenSAMParser parser =
+        new FastqScreenSAMParser(table, "genome", false);
+    parser.parseLines(stream(HEADER));
+
+    Assert.assertEquals(0, parser.getReadsprocessed());
+    Assert.assertFalse(table.isHit(read, 0));
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static ByteArrayInputStream stream(final String s) {
+
+    return new ByteArrayInputStream(s.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static String repeat(final char c, final int count) {
+
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      sb.append(c);
+    }
+
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,135 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+
+public class GenomeDescriptionRegistryTest {
+
+  private File dir;
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.dir = Files.createTempDirectory("genomeregistry").toFile();
+    this.file = new File(this.dir, GenomeDescriptionRegistry.REGISTRY_FILENAME);
+  }
+
+  @After
+  public void tearDown() {
+
+    final File[] files = this.dir.listFiles();
+    if (files != null) {
+      for (final File f : files) {
+        f.delete();
+      }
+    }
+    this.dir.delete();
+  }
+
+  @Test
+  public void testGet() throws IOException {
+
+    final GenomeDescriptionRegistry registry =
+        new GenomeDescriptionRegistry(this.file);
+
+    Assert.assertNull(registry.get("phix", 100, 1000));
+
+    registry.add("phix", description("phix", "md5", 5386), 100, 1000);
+
+    final GenomeDescription desc = registry.get("phix", 100, 1000);
+    Assert.assertNotNull(desc);
+    Assert.assertEquals("phix", desc.getGenomeName());
+    Assert.assertEquals("md5", desc.getMD5Sum());
+    Assert.assertEquals(Arrays.asList("chr1", "chr2"),
+        desc.getSequencesNames());
+    Assert.assertEquals(5386, desc.getSequenceLength("chr1"));
+    Assert.assertEquals(10, desc.getSequenceLength("chr2"));
+
+    // The Fasta file has changed
+    Assert.assertNull(registry.get("phix", 101, 1000));
+    Assert.assertNull(registry.get("phix", 100, 1001));
+
+    // Replace the description
+    registry.add("phix", description("phix", "md5bis", 6000), 101, 1001);
+    Assert.assertNull(registry.get("phix", 100, 1000));
+    Assert.assertEquals("md5bis", registry.get("phix", 101, 1001).getMD5Sum());
+
+    // Read the file again
+    final GenomeDescriptionRegistry registry2 =
+        new GenomeDescriptionRegistry(this.file);
+    Assert.assertEquals(6000,
+        registry2.get("phix", 101, 1001).getSequenceLength("chr1"));
+  }
+
+  @Test
+  public void testSharedFile() throws IOException {
+
+    final GenomeDescriptionRegistry registry1 =
+        new GenomeDescriptionRegistry(this.file);
+    final GenomeDescriptionRegistry registry2 =
+        new GenomeDescriptionRegistry(this.file);
+
+    // The genomes added by another instance are kept
+    registry1.add("phix", description("phix", "md5", 5386), 1, 1);
+    registry2.add("adapters", description("adapters", null, 100), 2, 2);
+
+    final GenomeDescriptionRegistry registry3 =
+        new GenomeDescriptionRegistry(this.file);
+    Assert.assertNotNull(registry3.get("phix", 1, 1));
+    Assert.assertNotNull(registry3.get("adapters", 2, 2));
+    Assert.assertNull(registry3.get("adapters", 2, 2).getMD5Sum());
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static GenomeDescription description(final String genome,
+      final String md5, final long length) {
+
+    final GenomeDescription result = new GenomeDescription();
+    result.setGenomeName(genome);
+    if (md5 != null) {
+      result.setMD5Sum(md5);
+    }
+    result.addSequence("chr1", length);
+    result.addSequence("chr2", 10);
+
+    return result;
+  }
+
+}
@@ -0,0 +1,171 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KmerIndexTest {
+
+  private static final int K = 15;
+  private static final int W = 5;
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.dir = Files.createTempDirectory("kmerindex").toFile();
+  }
+
+  @After
+  public void tearDown() {
+
+    final File[] files = this.dir.listFiles();
+    if (files != null) {
+      for (final File f : files) {
+        f.delete();
+      }
+    }
+    this.dir.delete();
+  }
+
+  @Test
+  public void testCreateOpen() throws IOException {
+
+    final Random random = new Random(0);
+    final String repeat = MinimizerScannerTest.randomSequence(random, 100);
+    final String chr1 = MinimizerScannerTest.randomSequence(random, 1000);
+    final String chr2 = MinimizerScannerTest.randomSequence(random, 1000);
+
+    final File indexFile = new File(this.dir, "genome.idx");
+    createIndex(indexFile,
+        ">chr1\n" + chr1 + repeat + "\n>chr2 repeat\n" + repeat + chr2 + "\n");
+
+    // Only the index file must remain
+    Assert.assertEquals(1, this.dir.listFiles().length);
+
+    final KmerIndex index = KmerIndex.open(indexFile);
+
+    Assert.assertEquals(indexFile, index.getFile());
+    Assert.assertEquals(K, index.getKmerSize());
+    Assert.assertEquals(W, index.getWindowSize());
+    Assert.assertTrue(index.size() > 0);
+
+    final MinimizerScanner scanner = new MinimizerScanner(K, W);
+    final long[] minimizers = new long[2000];
+
+    int count = scanner.scan(chr1.substring(0, 500), minimizers);
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(KmerIndex.UNIQUE, index.lookup(minimizers[i]));
+    }
+
+    count = scanner
+        .scan(MinimizerScannerTest.reverseComplement(repeat), minimizers);
+    Assert.assertTrue(count > 0);
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(KmerIndex.REPEATED, index.lookup(minimizers[i]));
+    }
+
+    count = scanner.scan(MinimizerScannerTest.randomSequence(random, 500),
+        minimizers);
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(KmerIndex.NOT_FOUND, index.lookup(minimizers[i]));
+    }
+  }
+
+  @Test
+  public void testEmptyIndex() throws IOException {
+
+    final File indexFile = new File(this.dir, "empty.idx");
+    createIndex(indexFile, ">chr1\nACGT\n");
+
+    final KmerIndex index = KmerIndex.open(indexFile);
+
+    Assert.assertEquals(0, index.size());
+    Assert.assertEquals(KmerIndex.NOT_FOUND, index.lookup(0));
+  }
+
+  @Test
+  public void testGenomeFingerprint() throws IOException {
+
+    final String fasta = ">chr1\n"
+        + MinimizerScannerTest.randomSequence(new Random(0), 1000) + "\n";
+    final byte[] bytes = fasta.getBytes(StandardCharsets.US_ASCII);
+
+    final File indexFile = new File(this.dir, "genome.idx");
+    KmerIndex.create(new ByteArrayInputStream(bytes), indexFile, K, W,
+        bytes.length, 1000000000L);
+
+    final KmerIndex index = KmerIndex.open(indexFile);
+
+    Assert.assertEquals(bytes.length, index.getGenomeLength());
+    Assert.assertEquals(1000000000L, index.getGenomeLastModified());
+    Assert.assertArrayEquals(
+        KmerIndex.computeGenomeMD5(new ByteArrayInputStream(bytes)),
+        index.getGenomeMD5());
+
+    // Not the MD5 sum of another genome
+    Assert.assertFalse(Arrays.equals(
+        KmerIndex.computeGenomeMD5(new ByteArrayInputStream(
+            fasta.replace('A', 'C').getBytes(StandardCharsets.US_ASCII))),
+        index.getGenomeMD5()));
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidFile() throws IOException {
+
+    final File file = new File(this.dir, "invalid.idx");
+    try (Writer writer = new FileWriter(file)) {
+      writer.write(">chr1\nACGTACGTACGTACGTACGTACGTACGTACGTACGT\n");
+    }
+
+    KmerIndex.open(file);
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static void createIndex(final File indexFile, final String fasta)
+      throws IOException {
+
+    KmerIndex.create(
+        new ByteArrayInputStream(fasta.getBytes(StandardCharsets.US_ASCII)),
+        indexFile, K, W);
+  }
+
+}
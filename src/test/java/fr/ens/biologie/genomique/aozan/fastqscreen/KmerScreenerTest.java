@@ -0,0 +1,153 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KmerScreenerTest {
+
+  private static final int K = 15;
+  private static final int W = 5;
+
+  private File dir;
+  private String genome1;
+  private String genome2;
+  private String repeat;
+  private KmerIndex[] indexes;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.dir = Files.createTempDirectory("kmerscreener").toFile();
+
+    final Random random = new Random(0);
+    this.repeat = MinimizerScannerTest.randomSequence(random, 200);
+    this.genome1 = MinimizerScannerTest.randomSequence(random, 2000);
+    this.genome2 = MinimizerScannerTest.randomSequence(random, 2000);
+
+    // The repeat is present twice in the first genome and once in the other
+    this.indexes = new KmerIndex[] {
+        createIndex("genome1",
+            ">chr1\n" + this.genome1 + this.repeat + "\n>chr2\n" + this.repeat),
+        createIndex("genome2", ">chr1\n" + this.genome2 + this.repeat)};
+  }
+
+  @After
+  public void tearDown() {
+
+    final File[] files = this.dir.listFiles();
+    if (files != null) {
+      for (final File f : files) {
+        f.delete();
+      }
+    }
+    this.dir.delete();
+  }
+
+  @Test
+  public void testClassifyRead() {
+
+    final KmerScreener screener = new KmerScreener(this.dir, K, W, 2, false);
+    final MinimizerScanner scanner = new MinimizerScanner(K, W);
+    final long[] minimizers = new long[200];
+    final int[] status = new int[2];
+
+    // Read of the first genome
+    screener.classifyRead(scanner, this.genome1.substring(100, 200),
+        minimizers, this.indexes, status);
+    Assert.assertEquals(KmerIndex.UNIQUE, status[0]);
+    Assert.assertEquals(0, status[1]);
+
+    // Reverse complement read of the second genome
+    screener.classifyRead(scanner, MinimizerScannerTest
+        .reverseComplement(this.genome2.substring(500, 600)), minimizers,
+        this.indexes, status);
+    Assert.assertEquals(0, status[0]);
+    Assert.assertEquals(KmerIndex.UNIQUE, status[1]);
+
+    // Read of the repeat
+    screener.classifyRead(scanner, this.repeat.substring(50, 150), minimizers,
+        this.indexes, status);
+    Assert.assertEquals(KmerIndex.REPEATED, status[0]);
+    Assert.assertEquals(KmerIndex.UNIQUE, status[1]);
+
+    // Read without hit
+    screener.classifyRead(scanner,
+        MinimizerScannerTest.randomSequence(new Random(1), 100), minimizers,
+        this.indexes, status);
+    Assert.assertEquals(0, status[0]);
+    Assert.assertEquals(0, status[1]);
+  }
+
+  @Test
+  public void testMinHits() {
+
+    final KmerScreener screener = new KmerScreener(this.dir, K, W, 2, false);
+    final MinimizerScanner scanner = new MinimizerScanner(K, W);
+    final long[] minimizers = new long[200];
+    final int[] status = new int[2];
+
+    // A read sharing a single window with the genome has only one minimizer
+    final String read = this.genome1.substring(100, 100 + K + W - 1);
+    screener.classifyRead(scanner, read, minimizers, this.indexes, status);
+    Assert.assertEquals(0, status[0]);
+
+    new KmerScreener(this.dir, K, W, 1, false).classifyRead(scanner, read,
+        minimizers, this.indexes, status);
+    Assert.assertEquals(KmerIndex.UNIQUE, status[0]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidIndexDir() {
+
+    new KmerScreener(new File(this.dir, "missing"), K, W, 2, false);
+  }
+
+  //
+  // Utility methods
+  //
+
+  private KmerIndex createIndex(final String name, final String fasta)
+      throws IOException {
+
+    final File indexFile = new File(this.dir, name + ".idx");
+
+    KmerIndex.create(
+        new ByteArrayInputStream(fasta.getBytes(StandardCharsets.US_ASCII)),
+        indexFile, K, W);
+
+    return KmerIndex.open(indexFile);
+  }
+
+}
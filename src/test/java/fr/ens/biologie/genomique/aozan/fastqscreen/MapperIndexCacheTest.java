@@ -0,0 +1,343 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MapperIndexCacheTest {
+
+  private static final int FILE_SIZE = 1000;
+
+  private File dir;
+  private File cacheDir;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.dir = Files.createTempDirectory("mapperindexcache").toFile();
+    this.cacheDir = new File(this.dir, "cache");
+  }
+
+  @After
+  public void tearDown() {
+
+    delete(this.dir);
+  }
+
+  @Test
+  public void testAcquire() throws IOException {
+
+    final File archive = createArchive("genome1", 'A');
+    final MapperIndexCache cache = new MapperIndexCache(this.cacheDir, 0);
+
+    final File indexDir = cache.acquire(archive);
+
+    Assert.assertEquals(new File(this.cacheDir, "genome1"), indexDir);
+    assertIndex(indexDir, 'A');
+    Assert.assertTrue(new File(this.cacheDir, "genome1.ready").isFile());
+
+    // The index is not unpacked again
+    final File marker = new File(indexDir, "genome.fa");
+    marker.setLastModified(1000000000L);
+    cache.release(archive);
+
+    Assert.assertEquals(indexDir, cache.acquire(archive));
+    Assert.assertEquals(1000000000L, marker.lastModified());
+    cache.release(archive);
+
+    // Another instance reuses the unpacked index
+    final MapperIndexCache cache2 = new MapperIndexCache(this.cacheDir, 0);
+    Assert.assertEquals(indexDir, cache2.acquire(archive));
+    Assert.assertEquals(1000000000L, marker.lastModified());
+    cache2.release(archive);
+  }
+
+  @Test
+  public void testConcurrentAcquire() throws Exception {
+
+    final File archive = createArchive("genome1", 'A');
+    final MapperIndexCache cache = new MapperIndexCache(this.cacheDir, 1);
+
+    final int threadCount = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+    try {
+
+      final List<Future<File>> futures = new ArrayList<>();
+      for (int i = 0; i < threadCount; i++) {
+        futures.add(executor.submit(new Callable<File>() {
+
+          @Override
+          public File call() throws Exception {
+
+            start.await();
+            final File result = cache.acquire(archive);
+
+            // The index cannot be evicted while it is used
+            assertIndex(result, 'A');
+
+            return result;
+          }
+        }));
+      }
+
+      start.countDown();
+
+      for (final Future<File> future : futures) {
+        Assert.assertEquals(new File(this.cacheDir, "genome1"), future.get());
+      }
+
+    } finally {
+      executor.shutdown();
+    }
+
+    // The quota is exceeded, the index is removed after the last release
+    final File archive2 = createArchive("genome2", 'C');
+    for (int i = 0; i < threadCount - 1; i++) {
+      cache.release(archive);
+      cache.acquire(archive2);
+      cache.release(archive2);
+      assertIndex(new File(this.cacheDir, "genome1"), 'A');
+    }
+
+    cache.release(archive);
+    cache.acquire(archive2);
+    Assert.assertFalse(new File(this.cacheDir, "genome1").exists());
+    Assert.assertFalse(new File(this.cacheDir, "genome1.ready").exists());
+  }
+
+  @Test
+  public void testPartialEntry() throws IOException {
+
+    final File archive = createArchive("genome1", 'A');
+    final MapperIndexCache cache = new MapperIndexCache(this.cacheDir, 0);
+
+    final File indexDir = cache.acquire(archive);
+    cache.release(archive);
+
+    // A file of the unpacked index is missing
+    new File(indexDir, "genome.fa").delete();
+    assertIndex(cache.acquire(archive), 'A');
+    cache.release(archive);
+
+    // A file of the unpacked index is truncated
+    writeFile(new File(indexDir, "genome.fa"), 'A', FILE_SIZE / 2);
+    assertIndex(cache.acquire(archive), 'A');
+    cache.release(archive);
+
+    // The unpacking has been interrupted before the ready file was written
+    new File(this.cacheDir, "genome1.ready").delete();
+    new File(this.cacheDir, "genome1.tmp").mkdirs();
+    assertIndex(cache.acquire(archive), 'A');
+    Assert.assertFalse(new File(this.cacheDir, "genome1.tmp").exists());
+    cache.release(archive);
+
+    // The ready file is corrupted
+    Files.write(new File(this.cacheDir, "genome1.ready").toPath(),
+        "size=xyz\n".getBytes(StandardCharsets.US_ASCII));
+    assertIndex(cache.acquire(archive), 'A');
+    cache.release(archive);
+  }
+
+  @Test
+  public void testChecksumMismatch() throws IOException {
+
+    final File archive = createArchive("genome1", 'A');
+    final MapperIndexCache cache = new MapperIndexCache(this.cacheDir, 0);
+
+    final File indexDir = cache.acquire(archive);
+    cache.release(archive);
+
+    final File marker = new File(indexDir, "genome.fa");
+    marker.setLastModified(1000000000L);
+
+    // The archive has been touched, its checksum has not changed
+    archive.setLastModified(archive.lastModified() - 10000);
+    cache.acquire(archive);
+    Assert.assertEquals(1000000000L, marker.lastModified());
+    cache.release(archive);
+
+    // The archive has been replaced by an archive with the same size
+    final long length = archive.length();
+    createArchive("genome1", 'G');
+    archive.setLastModified(archive.lastModified() - 20000);
+    Assert.assertEquals(length, archive.length());
+
+    assertIndex(cache.acquire(archive), 'G');
+    cache.release(archive);
+  }
+
+  @Test
+  public void testEvictionOrder() throws IOException {
+
+    // Room for two indexes of two files
+    final MapperIndexCache cache =
+        new MapperIndexCache(this.cacheDir, 5 * FILE_SIZE);
+
+    final File archive1 = createArchive("genome1", 'A');
+    final File archive2 = createArchive("genome2", 'C');
+    final File archive3 = createArchive("genome3", 'G');
+    final File archive4 = createArchive("genome4", 'T');
+
+    final long now = System.currentTimeMillis();
+
+    use(cache, archive1, now - 30000);
+    use(cache, archive2, now - 20000);
+
+    // The least recently used index is removed
+    use(cache, archive3, now - 10000);
+    assertCached(false, true, true);
+
+    // Use the second index again, the third index is now the oldest
+    use(cache, archive2, now - 5000);
+    use(cache, archive1, now - 1000);
+    assertCached(true, true, false);
+
+    // An index in use is never removed
+    cache.acquire(archive2);
+    new File(this.cacheDir, "genome2.ready").setLastModified(now - 60000);
+    cache.acquire(archive4);
+    assertCached(false, true, false);
+    Assert.assertTrue(new File(this.cacheDir, "genome4").isDirectory());
+    cache.release(archive2);
+    cache.release(archive4);
+
+    // The archives are not removed by the eviction
+    Assert.assertTrue(cache.getArchiveDirectory().isDirectory());
+    Assert.assertTrue(archive1.isFile());
+  }
+
+  //
+  // Utility methods
+  //
+
+  private void use(final MapperIndexCache cache, final File archive,
+      final long lastUse) throws IOException {
+
+    final File indexDir = cache.acquire(archive);
+    cache.release(archive);
+
+    new File(this.cacheDir, indexDir.getName() + ".ready")
+        .setLastModified(lastUse);
+  }
+
+  private void assertCached(final boolean... expected) {
+
+    final boolean[] result = new boolean[expected.length];
+    for (int i = 0; i < expected.length; i++) {
+      result[i] = new File(this.cacheDir, "genome" + (i + 1)).isDirectory();
+    }
+
+    Assert.assertEquals(Arrays.toString(expected), Arrays.toString(result));
+  }
+
+  private File createArchive(final String name, final char base)
+      throws IOException {
+
+    final File result = new File(this.dir, name + ".zip");
+
+    final byte[] data = new byte[FILE_SIZE];
+    Arrays.fill(data, (byte) base);
+
+    try (ZipOutputStream zos =
+        new ZipOutputStream(new FileOutputStream(result))) {
+
+      // Stored entries, so the size of the archive does not depend of the
+      // content of the files
+      for (final String entryName : new String[] {"genome.fa",
+          "index/genome.idx"}) {
+
+        final ZipEntry entry = new ZipEntry(entryName);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setCrc(crc.getValue());
+        entry.setTime(0);
+
+        zos.putNextEntry(entry);
+        zos.write(data);
+        zos.closeEntry();
+      }
+    }
+
+    return result;
+  }
+
+  private static void assertIndex(final File indexDir, final char base)
+      throws IOException {
+
+    for (final String name : new String[] {"genome.fa",
+        "index/genome.idx"}) {
+
+      final byte[] data = Files.readAllBytes(new File(indexDir, name).toPath());
+
+      Assert.assertEquals(FILE_SIZE, data.length);
+      for (final byte b : data) {
+        Assert.assertEquals(base, (char) b);
+      }
+    }
+  }
+
+  private static void writeFile(final File file, final char base,
+      final int length) throws IOException {
+
+    final byte[] data = new byte[length];
+    Arrays.fill(data, (byte) base);
+    Files.write(file.toPath(), data);
+  }
+
+  private static void delete(final File file) {
+
+    final File[] files = file.listFiles();
+    if (files != null) {
+      for (final File f : files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+
+}
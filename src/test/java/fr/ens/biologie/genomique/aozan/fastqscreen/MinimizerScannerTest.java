@@ -0,0 +1,175 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MinimizerScannerTest {
+
+  private static final int K = 15;
+  private static final int W = 5;
+
+  @Test
+  public void testScan() {
+
+    final MinimizerScanner scanner = new MinimizerScanner(K, W);
+    final String sequence = randomSequence(new Random(0), 200);
+    final long[] minimizers = new long[sequence.length()];
+
+    final int count = scanner.scan(sequence, minimizers);
+
+    // At least one minimizer by window, each minimizer is a canonical k-mer
+    Assert.assertTrue(count >= (sequence.length() - K + 1) / W);
+    Assert.assertTrue(count <= sequence.length() - K - W + 2);
+
+    final Set<Long> kmers = canonicalKmers(sequence);
+    for (int i = 0; i < count; i++) {
+      Assert.assertTrue(kmers.contains(minimizers[i]));
+    }
+
+    // Too short sequence
+    Assert.assertEquals(0,
+        scanner.scan(sequence.substring(0, K + W - 2), minimizers));
+    Assert.assertEquals(1,
+        scanner.scan(sequence.substring(0, K + W - 1), minimizers));
+  }
+
+  @Test
+  public void testReverseComplement() {
+
+    final MinimizerScanner scanner = new MinimizerScanner(K, W);
+    final String sequence = randomSequence(new Random(1), 300);
+    final long[] minimizers = new long[sequence.length()];
+
+    final Set<Long> forward =
+        toSet(minimizers, scanner.scan(sequence, minimizers));
+    final Set<Long> reverse = toSet(minimizers,
+        scanner.scan(reverseComplement(sequence), minimizers));
+
+    Assert.assertEquals(forward, reverse);
+  }
+
+  @Test
+  public void testUnknownBases() {
+
+    final MinimizerScanner scanner = new MinimizerScanner(K, W);
+    final Random random = new Random(2);
+    final String part1 = randomSequence(random, 100);
+    final String part2 = randomSequence(random, 100);
+    final long[] minimizers = new long[300];
+
+    final Set<Long> expected =
+        toSet(minimizers, scanner.scan(part1, minimizers));
+    expected.addAll(toSet(minimizers, scanner.scan(part2, minimizers)));
+
+    Assert.assertEquals(expected, toSet(minimizers,
+        scanner.scan(part1 + "NNN" + part2.toLowerCase(), minimizers)));
+  }
+
+  @Test
+  public void testSharedMinimizer() {
+
+    final MinimizerScanner scanner = new MinimizerScanner(K, W);
+    final Random random = new Random(3);
+    final String shared = randomSequence(random, K + W - 1);
+    final long[] minimizers = new long[200];
+
+    final Set<Long> set1 = toSet(minimizers, scanner
+        .scan(randomSequence(random, 50) + shared, minimizers));
+    final Set<Long> set2 = toSet(minimizers, scanner
+        .scan(shared + randomSequence(random, 50), minimizers));
+
+    set1.retainAll(set2);
+    Assert.assertFalse(set1.isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidKmerSize() {
+
+    new MinimizerScanner(MinimizerScanner.MAX_KMER_SIZE + 1, W);
+  }
+
+  //
+  // Utility methods
+  //
+
+  static String randomSequence(final Random random, final int length) {
+
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      sb.append("ACGT".charAt(random.nextInt(4)));
+    }
+
+    return sb.toString();
+  }
+
+  static String reverseComplement(final String sequence) {
+
+    final StringBuilder sb = new StringBuilder();
+    for (int i = sequence.length() - 1; i >= 0; i--) {
+      sb.append("TGCA".charAt("ACGT".indexOf(sequence.charAt(i))));
+    }
+
+    return sb.toString();
+  }
+
+  private static Set<Long> canonicalKmers(final String sequence) {
+
+    final Set<Long> result = new HashSet<>();
+    for (int i = 0; i + K <= sequence.length(); i++) {
+
+      final String kmer = sequence.substring(i, i + K);
+      result.add(Math.min(encode(kmer), encode(reverseComplement(kmer))));
+    }
+
+    return result;
+  }
+
+  private static long encode(final String kmer) {
+
+    long result = 0;
+    for (int i = 0; i < kmer.length(); i++) {
+      result = result << 2 | "ACGT".indexOf(kmer.charAt(i));
+    }
+
+    return result;
+  }
+
+  private static Set<Long> toSet(final long[] array, final int count) {
+
+    final Set<Long> result = new HashSet<>();
+    for (final long value : Arrays.copyOf(array, count)) {
+      result.add(value);
+    }
+
+    return result;
+  }
+
+}
@@ -0,0 +1,158 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.fastqscreen;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReadHitTableTest {
+
+  @Test
+  public void testAddRead() {
+
+    final ReadHitTable table = new ReadHitTable();
+
+    for (int i = 0; i < 5000; i++) {
+      Assert.assertEquals(i, table.addRead("read" + i + "/1 1:N:0:ACGT"));
+    }
+
+    Assert.assertEquals(5000, table.getReadCount());
+    Assert.assertEquals(42, table.addRead("read42/2"));
+    Assert.assertEquals(5000, table.getReadCount());
+
+    for (int i = 0; i < 5000; i++) {
+      Assert.assertEquals(i, table.getReadId("read" + i));
+    }
+
+    final byte[] name = "xxread123\tyy".getBytes(StandardCharsets.US_ASCII);
+    Assert.assertEquals(123, table.getReadId(name, 2, name.length - 2));
+    Assert.assertEquals(-1, table.getReadId("read5000"));
+    Assert.assertEquals(-1, table.getReadId("read"));
+    Assert.assertEquals(-1, table.getReadId((String) null));
+  }
+
+  @Test
+  public void testBatchReadIds() {
+
+    final ReadHitTable table = new ReadHitTable(new int[] {3, 0, 2});
+
+    Assert.assertEquals(5, table.getReadCount());
+    Assert.assertEquals(3, table.getSampleReadCount(0));
+    Assert.assertEquals(0, table.getSampleReadCount(1));
+    Assert.assertEquals(2, table.getSampleReadCount(2));
+
+    Assert.assertEquals(0,
+        table.getReadId(ReadHitTable.batchReadName(0, 0)));
+    Assert.assertEquals(2,
+        table.getReadId(ReadHitTable.batchReadName(0, 2)));
+    Assert.assertEquals(3,
+        table.getReadId(ReadHitTable.batchReadName(2, 0)));
+    Assert.assertEquals(4, table.getReadId("2:1/2"));
+
+    final byte[] name = "2:1 extra".getBytes(StandardCharsets.US_ASCII);
+    Assert.assertEquals(4, table.getReadId(name, 0, name.length));
+
+    // Invalid names
+    Assert.assertEquals(-1, table.getReadId("0:3"));
+    Assert.assertEquals(-1, table.getReadId("1:0"));
+    Assert.assertEquals(-1, table.getReadId("3:0"));
+    Assert.assertEquals(-1, table.getReadId("x:1"));
+    Assert.assertEquals(-1, table.getReadId(":1"));
+    Assert.assertEquals(-1, table.getReadId("1:"));
+    Assert.assertEquals(-1, table.getReadId("01234567890:1"));
+  }
+
+  @Test
+  public void testBatchSampleHits() {
+
+    final ReadHitTable table = new ReadHitTable(new int[] {3, 0, 2});
+    final int genome1 = table.addGenome("genome1");
+    final int genome2 = table.addGenome("genome2");
+
+    table.addHit(table.getReadId("0:2"), genome1, true);
+    table.addHit(table.getReadId("2:0"), genome1, false);
+    table.addHit(table.getReadId("2:0"), genome2, true);
+    table.addHit(table.getReadId("2:1"), genome2, true);
+
+    // The hits of each sample are in its own range of reads
+    Assert.assertArrayEquals(new int[] {1, 0},
+        table.countReadsPerGenome(0, 3));
+    Assert.assertArrayEquals(new int[] {0, 0},
+        table.countReadsPerGenome(3, 3));
+    Assert.assertArrayEquals(new int[] {1, 2},
+        table.countReadsPerGenome(3, 5));
+
+    Assert.assertTrue(table.isMultipleHit(3, genome1));
+    Assert.assertFalse(table.isMultipleHit(3, genome2));
+    Assert.assertFalse(table.isHit(0, genome1));
+  }
+
+  @Test
+  public void testPrefilteredReads() {
+
+    final ReadHitTable table = new ReadHitTable();
+    final int classified = table.addRead("r1");
+    final int mapped = table.addRead("r2");
+    final int missed = table.addRead("r3");
+    table.addRead("r4");
+
+    // A read classified by the prefilter and reads mapped on all the genomes
+    final int phix = table.addGenome("phix");
+    final int human = table.addGenome("human");
+    final BitSet prefiltered = new BitSet();
+    prefiltered.set(classified);
+    table.addHits(phix, prefiltered, new BitSet());
+    table.addHit(mapped, human, true);
+    table.addHit(missed, phix, false);
+
+    final List<String> calls = new ArrayList<>();
+    final FastqScreenResult result = new FastqScreenResult() {
+
+      @Override
+      public void countHitPerGenome(final String genome, final boolean oneHit,
+          final boolean oneGenome) {
+
+        calls.add(genome + ":" + oneHit + ":" + oneGenome);
+      }
+    };
+
+    Assert.assertEquals(3, table.fillResult(result));
+    // The prefiltered reads are counted as hitting only their contaminant
+    Assert.assertEquals(Arrays.asList("phix:true:true", "human:true:true",
+        "phix:false:true"), calls);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddReadInBatchMode() {
+
+    new ReadHitTable(new int[] {1}).addRead("read");
+  }
+
+}
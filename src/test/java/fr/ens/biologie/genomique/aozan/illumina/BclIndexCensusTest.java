@@ -0,0 +1,377 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.illumina;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.aozan.illumina.samplesheet.Sample;
+import fr.ens.biologie.genomique.aozan.illumina.samplesheet.SampleSheet;
+import fr.ens.biologie.genomique.aozan.util.PackedIndexCounter;
+
+public class BclIndexCensusTest {
+
+  // Index 1 in cycles 3-6 and index 2 in cycles 7-10
+  private static final String[] CLUSTERS = {"ACGTTTTT", "ACGTTTTT",
+      "ACGTTTTT", "ACGTTTTT", "ACGTTTTT", "ACGTTTTT", "GGGGCCCC", "GGGGCCCC",
+      "ACNTTTTT", "CCCCAAAA"};
+  private static final boolean[] FILTER =
+      {true, true, true, true, true, false, true, true, true, false};
+
+  private File runDir;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.runDir = Files.createTempDirectory("bclindexcensus").toFile();
+  }
+
+  @After
+  public void tearDown() {
+
+    delete(this.runDir);
+  }
+
+  @Test
+  public void testCountBcl() throws IOException {
+
+    final File laneDir = laneDir(1);
+
+    for (int i = 0; i < 8; i++) {
+      final File cycleDir = new File(laneDir, "C" + (i + 3) + ".1");
+      cycleDir.mkdirs();
+      writeFile(new File(cycleDir, "s_1_1101.bcl"), bcl(CLUSTERS, i), false);
+      writeFile(new File(cycleDir, "s_1_1102.bcl.gz"), bcl(CLUSTERS, i),
+          true);
+    }
+
+    writeFile(new File(laneDir, "s_1_1101.filter"), filter(FILTER), false);
+
+    final BclIndexCensus census =
+        new BclIndexCensus(this.runDir, 3, 4, 7, 4, 0);
+    final PackedIndexCounter counter = census.count(1);
+
+    Assert.assertEquals(8, counter.getLength());
+    Assert.assertEquals(20, counter.getTotalRawCount());
+    Assert.assertEquals(18, counter.getTotalPFCount());
+    Assert.assertEquals(12, counter.getRawCount(key("ACGTTTTT")));
+    Assert.assertEquals(11, counter.getPFCount(key("ACGTTTTT")));
+    Assert.assertEquals(4, counter.getPFCount(key("GGGGCCCC")));
+    Assert.assertEquals(2, counter.getPFCount(key("ACNTTTTT")));
+    Assert.assertEquals(1, counter.getPFCount(key("CCCCAAAA")));
+    Assert.assertSame(counter, census.getCounter(1));
+
+    // Limit the number of tiles
+    final BclIndexCensus census2 =
+        new BclIndexCensus(this.runDir, 3, 4, 0, 0, 1);
+    final PackedIndexCounter counter2 = census2.count(1);
+
+    Assert.assertEquals(4, counter2.getLength());
+    Assert.assertEquals(10, counter2.getTotalRawCount());
+    Assert.assertEquals(8, counter2.getTotalPFCount());
+    Assert.assertEquals(5, counter2.getPFCount(key("ACGT")));
+  }
+
+  @Test
+  public void testCountCbcl() throws IOException {
+
+    final File laneDir = laneDir(2);
+
+    for (int i = 0; i < 8; i++) {
+      final File cycleDir = new File(laneDir, "C" + (i + 3) + ".1");
+      cycleDir.mkdirs();
+      writeFile(new File(cycleDir, "L002_1.cbcl"),
+          cbcl(new int[] {1101, 1102}, CLUSTERS, i), false);
+    }
+
+    writeFile(new File(laneDir, "s_2_1101.filter"), filter(FILTER), false);
+
+    final BclIndexCensus census =
+        new BclIndexCensus(this.runDir, 3, 4, 7, 4, 0);
+    final PackedIndexCounter counter = census.count(2);
+
+    Assert.assertEquals(20, counter.getTotalRawCount());
+    Assert.assertEquals(18, counter.getTotalPFCount());
+    Assert.assertEquals(11, counter.getPFCount(key("ACGTTTTT")));
+    Assert.assertEquals(2, counter.getPFCount(key("ACNTTTTT")));
+  }
+
+  @Test
+  public void testCheckSampleSheet() throws IOException {
+
+    final File laneDir = laneDir(1);
+
+    for (int i = 0; i < 8; i++) {
+      final File cycleDir = new File(laneDir, "C" + (i + 3) + ".1");
+      cycleDir.mkdirs();
+      writeFile(new File(cycleDir, "s_1_1101.bcl"), bcl(CLUSTERS, i), false);
+    }
+
+    final SampleSheet samplesheet = new SampleSheet();
+    addSample(samplesheet, "S1", "ACGT", "AAAA");
+    addSample(samplesheet, "S2", "TTTT", "CCCC");
+
+    final BclIndexCensus census =
+        new BclIndexCensus(this.runDir, 3, 4, 7, 4, 0);
+    census.count(1);
+
+    final List<String> warnings = census.checkSampleSheet(samplesheet, 2);
+
+    Assert.assertEquals(6, warnings.size());
+    Assert.assertTrue(warnings.get(0).contains("\"S1\""));
+    Assert.assertTrue(
+        warnings.get(0).contains("reverse complement of index 2 (ACGT-TTTT)"));
+    Assert.assertTrue(warnings.get(1).contains("at most 1 mismatch(es)"));
+    Assert.assertTrue(warnings.get(2).contains("ACGT-TTTT"));
+    Assert.assertTrue(warnings.get(3).contains("GGGG-CCCC"));
+
+    // Check only the first index
+    final SampleSheet samplesheet2 = new SampleSheet();
+    addSample(samplesheet2, "S1", "ACGT", "");
+    addSample(samplesheet2, "S2", "ACGA", "");
+
+    final List<String> warnings2 = census.checkSampleSheet(samplesheet2, 0);
+
+    Assert.assertEquals(Arrays.asList(
+        "Lane 1: the unknown index GGGG is found in 2 PF clusters (20.00%).",
+        "Lane 1: the unknown index CCCC is found in 1 PF clusters (10.00%)."),
+        warnings2);
+  }
+
+  @Test
+  public void testCheckSampleSheetLongIndexes() throws IOException {
+
+    final File laneDir = laneDir(1);
+
+    // 16 bp dual indexes in cycles 1-16 and 17-32
+    final String[] clusters = new String[10];
+    for (int i = 0; i < clusters.length; i++) {
+      clusters[i] = i < 6
+          ? "ACGTACGTACGTACGT" + "TTGCAATGCATGCCAA"
+          : "GGTTCCAAGGTTCCAA" + "CATGCATGCATGCATG";
+    }
+
+    final int[] lengths = PackedIndexCounter.fitLengths(16, 16);
+    for (int i = 0; i < 16 + lengths[1]; i++) {
+      if (i < lengths[0] || i >= 16) {
+        final File cycleDir = new File(laneDir, "C" + (i + 1) + ".1");
+        cycleDir.mkdirs();
+        writeFile(new File(cycleDir, "s_1_1101.bcl"), bcl(clusters, i),
+            false);
+      }
+    }
+
+    final BclIndexCensus census =
+        new BclIndexCensus(this.runDir, 1, lengths[0], 17, lengths[1], 0);
+    final PackedIndexCounter counter = census.count(1);
+
+    Assert.assertEquals(PackedIndexCounter.MAX_LENGTH, counter.getLength());
+    Assert.assertEquals(4, counter.getPFCount(
+        key("GGTTCCAAGGTTCC" + "CATGCATGCATGC")));
+
+    // The second index of S1 is the reverse complement of the index read
+    final SampleSheet samplesheet = new SampleSheet();
+    addSample(samplesheet, "S1", "ACGTACGTACGTACGT", "TTGGCATGCATTGCAA");
+    addSample(samplesheet, "S2", "GGTTCCAAGGTTCCAA", "CATGCATGCATGCATG");
+
+    final List<String> warnings = census.checkSampleSheet(samplesheet, 2);
+
+    Assert.assertFalse(warnings.isEmpty());
+    Assert.assertTrue(warnings.get(0).contains("\"S1\""));
+    Assert.assertTrue(
+        warnings.get(0).contains("reverse complement of index 2"));
+    for (String warning : warnings) {
+      Assert.assertFalse(warning.contains("longer than the index reads"));
+      Assert.assertFalse(warning.contains("\"S2\""));
+    }
+  }
+
+  @Test
+  public void testMaxMismatches() {
+
+    Assert.assertEquals(2, BclIndexCensus.maxMismatches(
+        Arrays.asList("AAAAAAAA", "CCCCCAAA"), Arrays.asList("", "")));
+    Assert.assertEquals(1, BclIndexCensus.maxMismatches(
+        Arrays.asList("AAAAAAAA", "CCCCAAAA"), Arrays.asList("", "")));
+    Assert.assertEquals(0, BclIndexCensus.maxMismatches(
+        Arrays.asList("AAAAAAAA", "CCAAAAAA"), Arrays.asList("TTTT", "TTTA")));
+    Assert.assertEquals(1, BclIndexCensus.maxMismatches(
+        Arrays.asList("AAAAAAAA", "CAAAAAAA"), Arrays.asList("TTTT", "TGGG")));
+    Assert.assertEquals(-1, BclIndexCensus.maxMismatches(
+        Arrays.asList("AAAA", "AAAA"), Arrays.asList("TTTT", "TTTT")));
+  }
+
+  @Test
+  public void testReverseComplement() {
+
+    Assert.assertEquals("ACGTN", BclIndexCensus.reverseComplement("NACGT"));
+    Assert.assertEquals("", BclIndexCensus.reverseComplement(""));
+  }
+
+  //
+  // Utility methods
+  //
+
+  private File laneDir(final int lane) {
+
+    final File result = new File(this.runDir,
+        "Data/Intensities/BaseCalls/L00" + lane);
+    result.mkdirs();
+
+    return result;
+  }
+
+  private static long key(final String index) {
+
+    return PackedIndexCounter.encode(index);
+  }
+
+  private static void addSample(final SampleSheet samplesheet,
+      final String sampleId, final String index1, final String index2) {
+
+    final Sample sample = samplesheet.addSample();
+    sample.set(Sample.LANE_FIELD_NAME, "1");
+    sample.set(Sample.SAMPLE_ID_FIELD_NAME, sampleId);
+    sample.setIndex1(index1);
+    sample.setIndex2(index2);
+  }
+
+  private static byte code(final char base) {
+
+    return (byte) "ACGTN".indexOf(base);
+  }
+
+  private static byte[] bcl(final String[] clusters, final int position) {
+
+    final ByteBuffer buffer = ByteBuffer.allocate(4 + clusters.length)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(clusters.length);
+
+    for (String cluster : clusters) {
+
+      final byte code = code(cluster.charAt(position));
+      buffer.put(code == 4 ? 0 : (byte) (30 << 2 | code));
+    }
+
+    return buffer.array();
+  }
+
+  private static byte[] filter(final boolean[] filter) {
+
+    final ByteBuffer buffer = ByteBuffer.allocate(12 + filter.length)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(0);
+    buffer.putInt(3);
+    buffer.putInt(filter.length);
+
+    for (boolean pf : filter) {
+      buffer.put((byte) (pf ? 1 : 0));
+    }
+
+    return buffer.array();
+  }
+
+  private static byte[] cbcl(final int[] tiles, final String[] clusters,
+      final int position) throws IOException {
+
+    // Same clusters in all the tiles, 2 clusters by byte
+    final byte[] data = new byte[(clusters.length + 1) / 2];
+    for (int i = 0; i < clusters.length; i++) {
+
+      final byte code = code(clusters[i].charAt(position));
+      final int value = code == 4 ? 0 : 3 << 2 | code;
+      data[i / 2] |= value << (4 * (i % 2));
+    }
+
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream os = new GZIPOutputStream(compressed)) {
+      os.write(data);
+    }
+    final byte[] block = compressed.toByteArray();
+
+    final int headerSize = 2 + 4 + 1 + 1 + 4 + 8 + 4 + 16 * tiles.length + 1;
+    final ByteBuffer buffer = ByteBuffer
+        .allocate(headerSize + block.length * tiles.length)
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+    buffer.putShort((short) 1);
+    buffer.putInt(headerSize);
+    buffer.put((byte) 2);
+    buffer.put((byte) 2);
+    buffer.putInt(1);
+    buffer.putInt(0);
+    buffer.putInt(30);
+    buffer.putInt(tiles.length);
+
+    for (int tile : tiles) {
+      buffer.putInt(tile);
+      buffer.putInt(clusters.length);
+      buffer.putInt(data.length);
+      buffer.putInt(block.length);
+    }
+    buffer.put((byte) 0);
+
+    for (int i = 0; i < tiles.length; i++) {
+      buffer.put(block);
+    }
+
+    return buffer.array();
+  }
+
+  private static void writeFile(final File file, final byte[] data,
+      final boolean gzip) throws IOException {
+
+    try (OutputStream os = gzip
+        ? new GZIPOutputStream(new FileOutputStream(file))
+        : new FileOutputStream(file)) {
+      os.write(data);
+    }
+  }
+
+  private static void delete(final File file) {
+
+    final File[] files = file.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+
+}
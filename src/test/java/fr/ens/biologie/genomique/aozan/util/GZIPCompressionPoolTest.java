@@ -0,0 +1,94 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GZIPCompressionPoolTest {
+
+  @Test
+  public void testBlockSize() {
+
+    final GZIPCompressionPool pool =
+        new GZIPCompressionPool(2, 16L * 1024 * 1024);
+
+    try {
+
+      Assert.assertEquals(ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE,
+          pool.getBlockSize(1));
+      Assert.assertEquals(ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE,
+          pool.getBlockSize(16));
+      Assert.assertEquals(512 * 1024, pool.getBlockSize(32));
+      Assert.assertEquals(GZIPCompressionPool.MIN_BLOCK_SIZE,
+          pool.getBlockSize(10000));
+
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testCreateOutputStream() throws IOException {
+
+    final GZIPCompressionPool pool = new GZIPCompressionPool(2);
+
+    try {
+
+      final byte[] data = new byte[300000];
+      for (int i = 0; i < data.length; i++) {
+        data[i] = (byte) "ACGT\n".charAt(i % 5);
+      }
+
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (OutputStream out = pool.createOutputStream(compressed, 10000)) {
+        out.write(data);
+      }
+
+      final ByteArrayOutputStream result = new ByteArrayOutputStream();
+      try (InputStream in = new GZIPInputStream(
+          new ByteArrayInputStream(compressed.toByteArray()))) {
+
+        final byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+          result.write(buffer, 0, n);
+        }
+      }
+
+      Assert.assertArrayEquals(data, result.toByteArray());
+
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+}
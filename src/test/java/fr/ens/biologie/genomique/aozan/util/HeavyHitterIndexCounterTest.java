@@ -0,0 +1,200 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeavyHitterIndexCounterTest {
+
+  @Test
+  public void testExactCounts() {
+
+    final HeavyHitterIndexCounter counter = new HeavyHitterIndexCounter(4, 10);
+
+    counter.add(PackedIndexCounter.encode("ACGT"), true);
+    counter.add(PackedIndexCounter.encode("ACGT"), false);
+    counter.add(PackedIndexCounter.encode("TTTT"), true);
+    counter.add(PackedIndexCounter.NO_KEY, true);
+
+    Assert.assertEquals(2, counter.size());
+    Assert.assertEquals(3, counter.getTotalRawCount());
+    Assert.assertEquals(2, counter.getTotalPFCount());
+    Assert.assertEquals(1, counter.getRejectedCount());
+    Assert.assertEquals(0, counter.getMaxError());
+    Assert.assertEquals(2,
+        counter.getRawCount(PackedIndexCounter.encode("ACGT")));
+    Assert.assertEquals(1,
+        counter.getPFCount(PackedIndexCounter.encode("ACGT")));
+    Assert.assertEquals(0,
+        counter.getRawCount(PackedIndexCounter.encode("GGGG")));
+  }
+
+  @Test
+  public void testHeavyHitters() {
+
+    final int capacity = 100;
+    final HeavyHitterIndexCounter counter =
+        new HeavyHitterIndexCounter(10, capacity);
+    final Map<Long, Integer> expected = new HashMap<>();
+    final Random random = new Random(3);
+
+    for (int i = 0; i < 200000; i++) {
+
+      // Some frequent indexes and a lot of rare indexes
+      final long key = random.nextInt(4) == 0
+          ? random.nextInt(20) : 1000 + random.nextInt(500000);
+
+      counter.add(key, true);
+      expected.put(key, expected.containsKey(key) ? expected.get(key) + 1 : 1);
+    }
+
+    Assert.assertEquals(capacity, counter.size());
+    Assert.assertTrue(
+        counter.getMaxError() <= counter.getTotalRawCount() / capacity);
+
+    for (int i = counter.nextSlot(-1); i != -1; i = counter.nextSlot(i)) {
+
+      final int count = expected.get(counter.getKey(i));
+      Assert.assertTrue(counter.getRawCountOfSlot(i) >= count);
+      Assert.assertTrue(
+          counter.getRawCountOfSlot(i) - counter.getErrorOfSlot(i) <= count);
+    }
+
+    // All the frequent indexes must be monitored
+    for (Map.Entry<Long, Integer> e : expected.entrySet()) {
+      if (e.getValue() > counter.getTotalRawCount() / capacity) {
+        Assert.assertTrue(counter.getRawCount(e.getKey()) >= e.getValue());
+      }
+    }
+  }
+
+  @Test
+  public void testMerge() {
+
+    final int capacity = 100;
+    final HeavyHitterIndexCounter a = new HeavyHitterIndexCounter(10, capacity);
+    final HeavyHitterIndexCounter b = new HeavyHitterIndexCounter(10, capacity);
+    final Map<Long, Integer> expected = new HashMap<>();
+    final Random random = new Random(5);
+
+    for (int i = 0; i < 200000; i++) {
+
+      final long key = random.nextInt(4) == 0
+          ? random.nextInt(20) : 1000 + random.nextInt(500000);
+
+      (i % 3 == 0 ? a : b).add(key, i % 2 == 0);
+      expected.put(key, expected.containsKey(key) ? expected.get(key) + 1 : 1);
+    }
+
+    a.merge(b);
+
+    Assert.assertEquals(200000, a.getTotalRawCount());
+    Assert.assertEquals(100000, a.getTotalPFCount());
+
+    for (int i = a.nextSlot(-1); i != -1; i = a.nextSlot(i)) {
+
+      final int count = expected.get(a.getKey(i));
+      Assert.assertTrue(a.getRawCountOfSlot(i) >= count);
+      Assert.assertTrue(a.getRawCountOfSlot(i) - a.getErrorOfSlot(i) <= count);
+    }
+
+    for (Map.Entry<Long, Integer> e : expected.entrySet()) {
+      if (e.getValue() > a.getTotalRawCount() / capacity) {
+        Assert.assertTrue(a.getRawCount(e.getKey()) >= e.getValue());
+      }
+    }
+  }
+
+  @Test
+  public void testMergeNonFullCounter() {
+
+    final int capacity = 100;
+    final Random random = new Random(11);
+
+    for (int n = 0; n < 2; n++) {
+
+      final HeavyHitterIndexCounter full =
+          new HeavyHitterIndexCounter(10, capacity);
+      final HeavyHitterIndexCounter notFull =
+          new HeavyHitterIndexCounter(10, capacity);
+      final Map<Long, Integer> expected = new HashMap<>();
+
+      for (int i = 0; i < 50000; i++) {
+
+        final long key = random.nextInt(4) == 0
+            ? random.nextInt(20) : 1000 + random.nextInt(100000);
+
+        full.add(key, true);
+        expected.put(key,
+            expected.containsKey(key) ? expected.get(key) + 1 : 1);
+      }
+
+      // Some rare indexes that are not monitored by the full counter
+      for (int i = 0; i < 50; i++) {
+
+        final long key = 1000 + random.nextInt(100000);
+
+        notFull.add(key, true);
+        expected.put(key,
+            expected.containsKey(key) ? expected.get(key) + 1 : 1);
+      }
+
+      Assert.assertEquals(0, notFull.getMaxError());
+      Assert.assertTrue(full.getMaxError() > 0);
+
+      // Merge in both directions
+      final HeavyHitterIndexCounter merged = n == 0 ? notFull : full;
+      merged.merge(n == 0 ? full : notFull);
+
+      Assert.assertEquals(capacity, merged.size());
+      Assert.assertEquals(50050, merged.getTotalRawCount());
+      Assert.assertTrue(merged.getMaxError() >= full.getMaxError());
+
+      for (Map.Entry<Long, Integer> e : expected.entrySet()) {
+
+        final int count = merged.getRawCount(e.getKey());
+
+        if (count == 0) {
+          Assert.assertTrue(e.getValue() <= merged.getMaxError());
+        } else {
+          Assert.assertTrue(count >= e.getValue());
+        }
+      }
+
+      for (int i = merged.nextSlot(-1); i != -1; i = merged.nextSlot(i)) {
+
+        final int count = expected.get(merged.getKey(i));
+        Assert.assertTrue(
+            merged.getRawCountOfSlot(i) - merged.getErrorOfSlot(i) <= count);
+        Assert.assertTrue(merged.getErrorOfSlot(i) <= merged.getMaxError());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,123 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IndexNeighborhoodTest {
+
+  private static final char[] SYMBOLS = {'A', 'C', 'G', 'T', 'N'};
+
+  @Test
+  public void testLookup() {
+
+    final IndexNeighborhood neighborhood = new IndexNeighborhood(6, 2);
+
+    Assert.assertTrue(neighborhood.addIndex(1, "ACGTAC"));
+    Assert.assertTrue(neighborhood.addIndex(2, "ACGTTT"));
+    Assert.assertFalse(neighborhood.addIndex(3, "ACGTA"));
+    Assert.assertFalse(neighborhood.addIndex(3, "ACGTA+"));
+
+    Assert.assertEquals(0,
+        neighborhood.getMinMismatches(PackedIndexCounter.encode("ACGTAC")));
+    Assert.assertEquals(1,
+        neighborhood.getMinMismatches(PackedIndexCounter.encode("ACGTAN")));
+    Assert.assertEquals(-1,
+        neighborhood.getMinMismatches(PackedIndexCounter.encode("TTTTTT")));
+
+    final int[] entries =
+        neighborhood.lookup(PackedIndexCounter.encode("ACGTAT"));
+    Assert.assertEquals(2, entries.length);
+    Assert.assertEquals(1, IndexNeighborhood.getId(entries[0]));
+    Assert.assertEquals(1, IndexNeighborhood.getMismatches(entries[0]));
+    Assert.assertEquals(2, IndexNeighborhood.getId(entries[1]));
+    Assert.assertEquals(1, IndexNeighborhood.getMismatches(entries[1]));
+  }
+
+  @Test
+  public void testRandomSequences() {
+
+    final Random random = new Random(7);
+    final String[] indexes = new String[20];
+    final IndexNeighborhood neighborhood = new IndexNeighborhood(8, 2);
+
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = randomSequence(random, 8, 4);
+      neighborhood.addIndex(i, indexes[i]);
+    }
+
+    for (int n = 0; n < 10000; n++) {
+
+      // Mutate an index to get sequences close to the indexes
+      final char[] seq = indexes[random.nextInt(indexes.length)].toCharArray();
+      for (int j = random.nextInt(4); j > 0; j--) {
+        seq[random.nextInt(seq.length)] = SYMBOLS[random.nextInt(5)];
+      }
+      final String s = new String(seq);
+
+      final int[] entries = neighborhood.lookup(PackedIndexCounter.encode(s));
+      int found = 0;
+
+      for (int i = 0; i < indexes.length; i++) {
+
+        final int mismatches = mismatches(indexes[i], s);
+        if (mismatches <= 2) {
+          Assert.assertEquals(i, IndexNeighborhood.getId(entries[found]));
+          Assert.assertEquals(mismatches,
+              IndexNeighborhood.getMismatches(entries[found]));
+          found++;
+        }
+      }
+
+      Assert.assertEquals(found, entries.length);
+    }
+  }
+
+  private static String randomSequence(final Random random, final int length,
+      final int symbols) {
+
+    final char[] result = new char[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = SYMBOLS[random.nextInt(symbols)];
+    }
+
+    return new String(result);
+  }
+
+  private static int mismatches(final String a, final String b) {
+
+    int result = 0;
+    for (int i = 0; i < a.length(); i++) {
+      if (a.charAt(i) != b.charAt(i)) {
+        result++;
+      }
+    }
+
+    return result;
+  }
+
+}
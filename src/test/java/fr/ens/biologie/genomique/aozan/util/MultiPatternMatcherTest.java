@@ -0,0 +1,102 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MultiPatternMatcherTest {
+
+  @Test
+  public void testFindFirstOccurrences() {
+
+    final List<String> patterns = Arrays.asList("AGATCGGAAGAG",
+        "TGGAATTCTCGG", "GATCGGAAGAGC", "CTGTCTCTTATA", "AGA");
+    final MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+    final int[] positions = new int[matcher.getPatternCount()];
+
+    Assert.assertEquals(5, matcher.getPatternCount());
+    Assert.assertEquals(12, matcher.getPatternLength(0));
+    Assert.assertEquals(3, matcher.getPatternLength(4));
+
+    String seq = "NNNNAGATCGGAAGAGCACACGTCTAGATCGGAAGAG";
+    Assert.assertEquals(3, matcher.findFirstOccurrences(seq, positions));
+    Assert.assertEquals(4, positions[0]);
+    Assert.assertEquals(-1, positions[1]);
+    Assert.assertEquals(5, positions[2]);
+    Assert.assertEquals(-1, positions[3]);
+    Assert.assertEquals(4, positions[4]);
+
+    seq = "ACGTACGTACGT";
+    Assert.assertEquals(0, matcher.findFirstOccurrences(seq, positions));
+    for (int p : positions) {
+      Assert.assertEquals(-1, p);
+    }
+
+    seq = "CTGTCTCTTATANTGGAATTCTCGG";
+    Assert.assertEquals(2, matcher.findFirstOccurrences(seq, positions));
+    Assert.assertEquals(0, positions[3]);
+    Assert.assertEquals(13, positions[1]);
+  }
+
+  @Test
+  public void testSameResultsAsIndexOf() {
+
+    final Random random = new Random(1);
+    final String[] patterns = new String[50];
+    for (int i = 0; i < patterns.length; i++) {
+      patterns[i] = randomSequence(random, 3 + random.nextInt(6));
+    }
+
+    final MultiPatternMatcher matcher =
+        new MultiPatternMatcher(Arrays.asList(patterns));
+    final int[] positions = new int[patterns.length];
+
+    for (int i = 0; i < 1000; i++) {
+
+      final String seq = randomSequence(random, random.nextInt(150));
+      matcher.findFirstOccurrences(seq, positions);
+
+      for (int p = 0; p < patterns.length; p++) {
+        Assert.assertEquals(seq.indexOf(patterns[p]), positions[p]);
+      }
+    }
+  }
+
+  private static String randomSequence(final Random random, final int length) {
+
+    final String alphabet = "ACGTN";
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,202 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackedIndexCounterTest {
+
+  @Test
+  public void testEncodeDecode() {
+
+    for (final String index : new String[] {"ACGTACGT", "NNNNNNNN",
+        "TTTTTTTT", "AAAAAAAA", "ACGNNCGT", "GATCAGATCAGATCAGATCAG",
+        "NNNNNNNNNNNNNNNNNNNNNNNNNNN", "TTTTTTTTTTTTTTTTTTTTTTTTTTT",
+        "GATCAGATCAGTTGNNACGTACGTACG"}) {
+
+      final long key = PackedIndexCounter.encode(index);
+      Assert.assertTrue(key != PackedIndexCounter.NO_KEY);
+      Assert.assertEquals(index,
+          PackedIndexCounter.decode(key, index.length()));
+    }
+
+    Assert.assertEquals(PackedIndexCounter.encode("ACGT"),
+        PackedIndexCounter.encode("acgt"));
+    Assert.assertTrue(PackedIndexCounter.encode("AAAA")
+        != PackedIndexCounter.encode("NAAA"));
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        PackedIndexCounter.encode("ACGX"));
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        PackedIndexCounter.encode("ACGTACGTACGTACGTACGTACGTACGT"));
+  }
+
+  @Test
+  public void testEncodePrefix() {
+
+    final String index = "GATCAGATCAGATCAGATCAGTTGACGTAC";
+
+    Assert.assertEquals(30, index.length());
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        PackedIndexCounter.encode(index));
+    Assert.assertEquals(PackedIndexCounter.encode(index.substring(0, 27)),
+        PackedIndexCounter.encode(index, PackedIndexCounter.MAX_LENGTH));
+    Assert.assertEquals(PackedIndexCounter.encode("GATC"),
+        PackedIndexCounter.encode(index, 4));
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        PackedIndexCounter.encode("GATC", 5));
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        PackedIndexCounter.encode(index, 28));
+  }
+
+  @Test
+  public void testConcat() {
+
+    final long key1 = PackedIndexCounter.encode("ACNTAC");
+    final long key2 = PackedIndexCounter.encode("GGTNA");
+    final long key = PackedIndexCounter.concat(key1, 6, key2, 5);
+
+    Assert.assertEquals(PackedIndexCounter.encode("ACNTACGGTNA"), key);
+    Assert.assertEquals(key1, PackedIndexCounter.subKey(key, 11, 0, 6));
+    Assert.assertEquals(key2, PackedIndexCounter.subKey(key, 11, 6, 5));
+    Assert.assertEquals("NTACG", PackedIndexCounter
+        .decode(PackedIndexCounter.subKey(key, 11, 2, 5), 5));
+
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        PackedIndexCounter.concat(key1, 6, PackedIndexCounter.NO_KEY, 5));
+    Assert.assertEquals(PackedIndexCounter.NO_KEY,
+        PackedIndexCounter.concat(key1, 16, key2, 12));
+
+    // Dual indexes of 12 bases with N
+    final long key3 = PackedIndexCounter.encode("ACGTACGTNCGT");
+    final long key4 = PackedIndexCounter.encode("TTGCANNGCATG");
+    final long dualKey = PackedIndexCounter.concat(key3, 12, key4, 12);
+
+    Assert.assertEquals("ACGTACGTNCGTTTGCANNGCATG",
+        PackedIndexCounter.decode(dualKey, 24));
+    Assert.assertEquals(key3, PackedIndexCounter.subKey(dualKey, 24, 0, 12));
+    Assert.assertEquals(key4, PackedIndexCounter.subKey(dualKey, 24, 12, 12));
+  }
+
+  @Test
+  public void testFitLengths() {
+
+    Assert.assertArrayEquals(new int[] {8, 8},
+        PackedIndexCounter.fitLengths(8, 8));
+    Assert.assertArrayEquals(new int[] {12, 12},
+        PackedIndexCounter.fitLengths(12, 12));
+    Assert.assertArrayEquals(new int[] {27, 0},
+        PackedIndexCounter.fitLengths(30, 0));
+
+    // Both indexes are kept for the long dual indexes
+    Assert.assertArrayEquals(new int[] {14, 13},
+        PackedIndexCounter.fitLengths(16, 16));
+    Assert.assertArrayEquals(new int[] {19, 8},
+        PackedIndexCounter.fitLengths(24, 8));
+    Assert.assertArrayEquals(new int[] {8, 19},
+        PackedIndexCounter.fitLengths(8, 24));
+  }
+
+  @Test
+  public void testAdd() {
+
+    final PackedIndexCounter counter = new PackedIndexCounter(6);
+
+    Assert.assertTrue(counter.add("ACGTAC", true));
+    Assert.assertTrue(counter.add("ACGTAC", false));
+    Assert.assertTrue(counter.add("ACGTAN", true));
+    Assert.assertFalse(counter.add("ACGTA", true));
+    Assert.assertFalse(counter.add("ACGTA1", true));
+
+    Assert.assertEquals(2, counter.size());
+    Assert.assertEquals(3, counter.getTotalRawCount());
+    Assert.assertEquals(2, counter.getTotalPFCount());
+    Assert.assertEquals(2, counter.getRejectedCount());
+
+    final long key = PackedIndexCounter.encode("ACGTAC");
+    Assert.assertEquals(2, counter.getRawCount(key));
+    Assert.assertEquals(1, counter.getPFCount(key));
+    Assert.assertEquals(0,
+        counter.getRawCount(PackedIndexCounter.encode("ACGTAA")));
+  }
+
+  @Test
+  public void testManyIndexes() {
+
+    final PackedIndexCounter counter = new PackedIndexCounter(8);
+    final Map<String, Integer> expected = new HashMap<>();
+    final Random random = new Random(42);
+    final char[] bases = {'A', 'C', 'G', 'T', 'N'};
+
+    for (int i = 0; i < 100000; i++) {
+
+      final char[] index = new char[8];
+      for (int j = 0; j < index.length; j++) {
+        index[j] = bases[random.nextInt(j < 4 ? 2 : bases.length)];
+      }
+
+      final String s = new String(index);
+      counter.add(s, true);
+      expected.put(s, expected.containsKey(s) ? expected.get(s) + 1 : 1);
+    }
+
+    Assert.assertEquals(expected.size(), counter.size());
+
+    int slots = 0;
+    for (int i = counter.nextSlot(-1); i != -1; i = counter.nextSlot(i)) {
+
+      final String index = counter.getIndex(i);
+      Assert.assertEquals((int) expected.get(index),
+          counter.getRawCountOfSlot(i));
+      slots++;
+    }
+    Assert.assertEquals(expected.size(), slots);
+  }
+
+  @Test
+  public void testMerge() {
+
+    final PackedIndexCounter a = new PackedIndexCounter(4);
+    final PackedIndexCounter b = new PackedIndexCounter(4);
+
+    a.add("ACGT", true);
+    b.add("ACGT", false);
+    b.add("TTTT", true);
+    b.add("TT", true);
+
+    a.merge(b);
+
+    Assert.assertEquals(2, a.size());
+    Assert.assertEquals(3, a.getTotalRawCount());
+    Assert.assertEquals(2, a.getTotalPFCount());
+    Assert.assertEquals(1, a.getRejectedCount());
+    Assert.assertEquals(2, a.getRawCount(PackedIndexCounter.encode("ACGT")));
+    Assert.assertEquals(1, a.getPFCount(PackedIndexCounter.encode("ACGT")));
+  }
+
+}
@@ -0,0 +1,152 @@
+/*
+ *                  Aozan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU General Public License version 3 or later
+ * and CeCILL. This should be distributed with the code. If you
+ * do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *      http://www.cecill.info/licences/Licence_CeCILL_V2-en.html
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École Normale Supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Aozan project and its aims,
+ * or to join the Aozan Google group, visit the home page at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/aozan
+ *
+ */
+
+package fr.ens.biologie.genomique.aozan.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelGZIPOutputStreamTest {
+
+  @Test
+  public void testCompression() throws IOException {
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+
+      final byte[] data = new byte[100000];
+      final Random random = new Random(0);
+      for (int i = 0; i < data.length; i++) {
+        data[i] = (byte) "ACGT\n".charAt(random.nextInt(5));
+      }
+
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      final ParallelGZIPOutputStream out =
+          new ParallelGZIPOutputStream(compressed, executor, 1000, 3);
+
+      // Write with single bytes and arrays that overlap the blocks
+      out.write(data, 0, 10);
+      for (int i = 10; i < 2500; i++) {
+        out.write(data[i]);
+      }
+      out.write(data, 2500, data.length - 2500);
+      out.close();
+
+      Assert.assertArrayEquals(data, uncompress(compressed.toByteArray()));
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testEmptyStream() throws IOException {
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try {
+
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      new ParallelGZIPOutputStream(compressed, executor, 2).close();
+
+      Assert.assertTrue(compressed.size() > 0);
+      Assert.assertEquals(0, uncompress(compressed.toByteArray()).length);
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSharedBlockPermits() throws IOException {
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try {
+
+      final Semaphore permits = new Semaphore(1);
+      final int streamCount = 5;
+      final byte[][] data = new byte[streamCount][5000];
+      final ByteArrayOutputStream[] compressed =
+          new ByteArrayOutputStream[streamCount];
+      final ParallelGZIPOutputStream[] outs =
+          new ParallelGZIPOutputStream[streamCount];
+
+      final Random random = new Random(0);
+      for (int i = 0; i < streamCount; i++) {
+        random.nextBytes(data[i]);
+        compressed[i] = new ByteArrayOutputStream();
+        outs[i] =
+            new ParallelGZIPOutputStream(compressed[i], executor, 100, permits);
+      }
+
+      // A single thread writes to all the streams that share a single permit
+      for (int pos = 0; pos < 5000; pos += 50) {
+        for (int i = 0; i < streamCount; i++) {
+          outs[i].write(data[i], pos, 50);
+        }
+      }
+
+      for (int i = 0; i < streamCount; i++) {
+        outs[i].close();
+        Assert.assertArrayEquals(data[i],
+            uncompress(compressed[i].toByteArray()));
+      }
+
+      // All the permits are released once the streams are closed
+      Assert.assertEquals(1, permits.availablePermits());
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static byte[] uncompress(final byte[] data) throws IOException {
+
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+    try (InputStream in =
+        new GZIPInputStream(new ByteArrayInputStream(data))) {
+
+      final byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        result.write(buffer, 0, n);
+      }
+    }
+
+    return result.toByteArray();
+  }
+
+}